@@ -3,10 +3,12 @@ package com.example.spj;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -26,24 +28,63 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.spj.adapter.FilterPreviewAdapter;
 import com.example.spj.database.AppDatabase;
+import com.example.spj.encoder.EncoderProfile;
+import com.example.spj.encoder.FramePacer;
+import com.example.spj.encoder.VideoEncoder;
 import com.example.spj.model.Entry;
 import com.example.spj.model.Video;
 import com.example.spj.render.GlRenderView;
 import com.example.spj.render.GlRenderWrapper;
+import com.example.spj.render.FilterPreviewAtlas;
+import com.example.spj.render.ThumbnailCapture;
 import com.example.spj.render.filters.FilterManager;
 import com.example.spj.util.CameraUtils;
 import com.example.spj.util.FileUtils;
 import com.example.spj.util.ResolutionAdapter;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class CameraActivity extends AppCompatActivity implements View.OnClickListener, VideoCompletionCallback {
     private static final String TAG = "CameraActivity";
     private static final int PERMISSIONS_REQUEST_CODE = 10;
+    private static final int REQUEST_IMPORT_LUT = 11;
+
+    // 分段录制设置：开启后每60秒或200MB切换一个新文件，中途崩溃时已完成的分段不会丢失
+    private static final String PREFS_CAMERA = "camera_settings";
+    private static final String PREF_SEGMENTED_RECORDING = "segmented_recording";
+    private static final int SEGMENT_SECONDS = 60;
+    private static final int SEGMENT_MEGABYTES = 200;
+    // 画质档位，实际编码格式（HEVC/AVC）和码率按设备能力确定
+    private static final String PREF_VIDEO_QUALITY = "video_quality";
+    // 预录：预览时在内存中保留最近几秒，按下录制时一并写入文件
+    private static final String PREF_PRE_ROLL_SECONDS = "pre_roll_seconds";
+    private static final int[] PRE_ROLL_OPTIONS = {0, 3, 5};
+    // 代理文件：同时录制一份480p的小文件，应用内播放和分享使用它，导出时仍使用原文件
+    private static final String PREF_PROXY_RECORDING = "proxy_recording";
+    // 拍摄速度：低帧率和延时摄影按时间戳每N帧只编码一帧，适合长时间录制
+    private static final String PREF_CAPTURE_SPEED = "capture_speed";
+    private static final String[] CAPTURE_SPEED_NAMES = {
+            "正常", "低帧率 15fps", "低帧率 15fps（不录音）", "延时摄影 10倍", "延时摄影 60倍"};
+    private static final int[] CAPTURE_SPEED_FPS = {
+            FramePacer.FPS_VARIABLE, 15, 15, FramePacer.FPS_VARIABLE, FramePacer.FPS_VARIABLE};
+    private static final int[] CAPTURE_SPEED_TIME_LAPSE = {1, 1, 1, 10, 60};
+    private static final boolean[] CAPTURE_SPEED_AUDIO = {true, true, false, false, false};
+    // 预览渲染分辨率：相机和滤镜在这个尺寸下处理，再一次缩放到屏幕，与录制尺寸无关
+    private static final String PREF_RENDER_RESOLUTION = "render_resolution";
+    private static final String[] RENDER_RESOLUTION_NAMES = {"跟随屏幕", "1080p", "720p", "540p"};
+    private static final int[][] RENDER_RESOLUTIONS = {{0, 0}, {1920, 1080}, {1280, 720}, {960, 540}};
 
     // Transferred from the original project
     public static final String EXTRA_ENTRY_ID = "com.example.spj.EXTRA_ENTRY_ID";
@@ -64,11 +105,25 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
     private int entryId = -1;
     private File currentVideoFile;
     private long recordingStartTime;
+    // 暂停：长按录制按钮暂停/恢复，计时不包括暂停的时间
+    private boolean isPaused = false;
+    private long pauseStartTime;
+    private long pausedDuration;
     private Handler recordingTimeHandler;
     private Runnable recordingTimeRunnable;
 
+    private boolean segmentedRecording = false;
+    private int videoQuality = EncoderProfile.QUALITY_STANDARD;
+    private int preRollSeconds = 0;
+    private boolean proxyRecording = false;
+    private int captureSpeed = 0;
+    private int renderResolution = 0;
+
     // Current filter selected (default to none/normal)
-    private int currentFilterType = 0; // 0=none, 1=invert, (more to be added)
+    // 叠加的滤镜效果ID，按勾选顺序执行
+    private final List<Integer> filterChain = new ArrayList<>();
+    // 已经按分段入库的录制（以第0段路径标识），录制结束时onVideoSaved不再重复保存
+    private final Set<String> segmentedClips = new HashSet<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -91,6 +146,25 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         // Initialize UI components
         initializeUI();
 
+        SharedPreferences prefs = getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE);
+        segmentedRecording = prefs.getBoolean(PREF_SEGMENTED_RECORDING, false);
+        videoQuality = prefs.getInt(PREF_VIDEO_QUALITY, EncoderProfile.QUALITY_STANDARD);
+        mGlSurfaceView.setEncoderQuality(videoQuality);
+        preRollSeconds = prefs.getInt(PREF_PRE_ROLL_SECONDS, 0);
+        mGlSurfaceView.setPreRollSeconds(preRollSeconds);
+        proxyRecording = prefs.getBoolean(PREF_PROXY_RECORDING, false);
+        mGlSurfaceView.setProxyEnabled(proxyRecording);
+        captureSpeed = prefs.getInt(PREF_CAPTURE_SPEED, 0);
+        if (captureSpeed < 0 || captureSpeed >= CAPTURE_SPEED_NAMES.length) {
+            captureSpeed = 0;
+        }
+        applyCaptureSpeed();
+        renderResolution = prefs.getInt(PREF_RENDER_RESOLUTION, 0);
+        if (renderResolution < 0 || renderResolution >= RENDER_RESOLUTIONS.length) {
+            renderResolution = 0;
+        }
+        applyRenderResolution();
+
         // Check permissions
         if (allPermissionsGranted()) {
             // Camera will be initialized in onResume by GlRenderView
@@ -122,6 +196,11 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
 
         // Set click listeners
         recordButton.setOnClickListener(this);
+        recordButton.setOnLongClickListener(v -> {
+            if (!isRecording) return false;
+            togglePause();
+            return true;
+        });
         switchCameraButton.setOnClickListener(this);
         mirrorButton.setOnClickListener(this);
         settingsButton.setOnClickListener(this);
@@ -170,30 +249,249 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         } else if (v.getId() == R.id.effectsButton) {
             showEffectsDialog();
         } else if (v.getId() == R.id.settingsButton) {
+            showSettingsDialog();
+        }
+    }
+
+    private void showSettingsDialog() {
+        String[] items = {"录制模式", "画质", "预录", "代理文件", "拍摄速度", "预览渲染分辨率", "导入LUT调色文件"};
+
+        new AlertDialog.Builder(this)
+                .setTitle("设置")
+                .setItems(items, (dialog, which) -> {
+                    if (which == 0) {
+                        showRecordingModeDialog();
+                    } else if (which == 1) {
+                        showQualityDialog();
+                    } else if (which == 2) {
+                        showPreRollDialog();
+                    } else if (which == 3) {
+                        showProxyDialog();
+                    } else if (which == 4) {
+                        showCaptureSpeedDialog();
+                    } else if (which == 5) {
+                        showRenderResolutionDialog();
+                    } else {
+                        pickLutFile();
+                    }
+                })
+                .show();
+    }
 
+    private void pickLutFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        try {
+            startActivityForResult(Intent.createChooser(intent, "选择.cube文件"), REQUEST_IMPORT_LUT);
+        } catch (android.content.ActivityNotFoundException ex) {
+            Toast.makeText(this, "请安装文件管理器", Toast.LENGTH_SHORT).show();
         }
     }
 
-    private void showEffectsDialog() {
-        // Get all effect names
-        String[] effectNames = filterManager.getEffectNames();
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT_LUT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importLut(data.getData());
+        }
+    }
+
+    /**
+     * 在后台线程解析并保存.cube文件，成功后通知渲染线程重新加载效果列表
+     */
+    private void importLut(final Uri uri) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String fileName = uri.getLastPathSegment() != null ? uri.getLastPathSegment() : "imported.cube";
+                fileName = fileName.substring(fileName.lastIndexOf('/') + 1);
+                String message;
+                try (InputStream input = getContentResolver().openInputStream(uri)) {
+                    if (input == null) throw new IOException("无法打开文件");
+                    // 效果列表是线程安全的，界面线程可以同时遍历
+                    FilterManager.ShaderEffect effect = filterManager.importCube(fileName, input);
+                    message = "已导入: " + (effect != null ? effect.getName() : fileName);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to import LUT", e);
+                    message = "导入失败: " + e.getMessage();
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mGlSurfaceView.reloadLuts();
+                        Toast.makeText(CameraActivity.this, toast, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }, "LutImport").start();
+    }
+
+    private void showPreRollDialog() {
+        String[] options = new String[PRE_ROLL_OPTIONS.length];
+        int checked = 0;
+        for (int i = 0; i < PRE_ROLL_OPTIONS.length; i++) {
+            options[i] = PRE_ROLL_OPTIONS[i] == 0 ? "关闭" : "录制前" + PRE_ROLL_OPTIONS[i] + "秒";
+            if (PRE_ROLL_OPTIONS[i] == preRollSeconds) {
+                checked = i;
+            }
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("预录")
+                .setSingleChoiceItems(options, checked, (dialog, which) -> {
+                    preRollSeconds = PRE_ROLL_OPTIONS[which];
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putInt(PREF_PRE_ROLL_SECONDS, preRollSeconds)
+                            .apply();
+                    mGlSurfaceView.setPreRollSeconds(preRollSeconds);
+                    dialog.dismiss();
+                    Toast.makeText(this, "已选择: " + options[which], Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void showCaptureSpeedDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle("拍摄速度")
+                .setSingleChoiceItems(CAPTURE_SPEED_NAMES, captureSpeed, (dialog, which) -> {
+                    captureSpeed = which;
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putInt(PREF_CAPTURE_SPEED, captureSpeed)
+                            .apply();
+                    applyCaptureSpeed();
+                    dialog.dismiss();
+                    Toast.makeText(this, "已选择: " + CAPTURE_SPEED_NAMES[which], Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void applyCaptureSpeed() {
+        mGlSurfaceView.setTargetFps(CAPTURE_SPEED_FPS[captureSpeed]);
+        mGlSurfaceView.setTimeLapseFactor(CAPTURE_SPEED_TIME_LAPSE[captureSpeed]);
+        mGlSurfaceView.setRecordAudio(CAPTURE_SPEED_AUDIO[captureSpeed]);
+    }
 
+    private void showRenderResolutionDialog() {
         new AlertDialog.Builder(this)
-                .setTitle("选择滤镜效果")
-                .setSingleChoiceItems(effectNames, currentFilterType, (dialog, which) -> {
-                    // Get the selected effect
-                    FilterManager.ShaderEffect effect = filterManager.getEffectsList().get(which);
+                .setTitle("预览渲染分辨率")
+                .setSingleChoiceItems(RENDER_RESOLUTION_NAMES, renderResolution, (dialog, which) -> {
+                    renderResolution = which;
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putInt(PREF_RENDER_RESOLUTION, renderResolution)
+                            .apply();
+                    applyRenderResolution();
+                    dialog.dismiss();
+                    Toast.makeText(this, "已选择: " + RENDER_RESOLUTION_NAMES[which], Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void applyRenderResolution() {
+        int[] size = RENDER_RESOLUTIONS[renderResolution];
+        mGlSurfaceView.setRenderResolution(size[0], size[1]);
+    }
 
-                    // Apply the filter
-                    currentFilterType = effect.getId();
-                    mGlSurfaceView.enableFilter(currentFilterType);
+    private void showProxyDialog() {
+        String[] options = {"关闭", "同时录制480p代理文件（播放和分享更快）"};
 
+        new AlertDialog.Builder(this)
+                .setTitle("代理文件")
+                .setSingleChoiceItems(options, proxyRecording ? 1 : 0, (dialog, which) -> {
+                    proxyRecording = which == 1;
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putBoolean(PREF_PROXY_RECORDING, proxyRecording)
+                            .apply();
+                    mGlSurfaceView.setProxyEnabled(proxyRecording);
                     dialog.dismiss();
-                    Toast.makeText(this, "已选择: " + effect.getName(), Toast.LENGTH_SHORT).show();
+                    Toast.makeText(this, "已选择: " + options[which], Toast.LENGTH_SHORT).show();
                 })
                 .show();
     }
 
+    private void showQualityDialog() {
+        String[] qualities = {"省空间", "标准", "高画质", "恒定质量"};
+
+        new AlertDialog.Builder(this)
+                .setTitle("画质")
+                .setSingleChoiceItems(qualities, videoQuality, (dialog, which) -> {
+                    videoQuality = which;
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putInt(PREF_VIDEO_QUALITY, videoQuality)
+                            .apply();
+                    mGlSurfaceView.setEncoderQuality(videoQuality);
+                    dialog.dismiss();
+                    Toast.makeText(this, "已选择: " + qualities[which], Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void showRecordingModeDialog() {
+        String[] modes = {
+                "普通录制",
+                "分段录制（每" + SEGMENT_SECONDS + "秒一段）"
+        };
+
+        new AlertDialog.Builder(this)
+                .setTitle("录制模式")
+                .setSingleChoiceItems(modes, segmentedRecording ? 1 : 0, (dialog, which) -> {
+                    segmentedRecording = which == 1;
+                    getSharedPreferences(PREFS_CAMERA, Context.MODE_PRIVATE).edit()
+                            .putBoolean(PREF_SEGMENTED_RECORDING, segmentedRecording)
+                            .apply();
+                    dialog.dismiss();
+                    Toast.makeText(this, "已选择: " + modes[which], Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void showEffectsDialog() {
+        // 可以同时勾选多个效果，按勾选的先后顺序叠加；每个效果显示实时预览小图
+        final List<FilterManager.ShaderEffect> effects = new ArrayList<>();
+        for (FilterManager.ShaderEffect effect : filterManager.getEffectsList()) {
+            if (effect.getId() != 0) {
+                effects.add(effect);
+            }
+        }
+        int[] effectIds = new int[effects.size()];
+        for (int i = 0; i < effects.size(); i++) {
+            effectIds[i] = effects.get(i).getId();
+        }
+
+        final FilterPreviewAdapter adapter = new FilterPreviewAdapter(effects, filterChain);
+        RecyclerView recyclerView = new RecyclerView(this);
+        recyclerView.setLayoutManager(new GridLayoutManager(this, FilterPreviewAtlas.COLUMNS));
+        recyclerView.setAdapter(adapter);
+        // 预览图每秒刷新多次，关闭默认的变化动画避免闪烁
+        recyclerView.setItemAnimator(null);
+        int padding = (int) (8 * getResources().getDisplayMetrics().density);
+        recyclerView.setPadding(padding, padding, padding, 0);
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("选择滤镜效果（可叠加）")
+                .setView(recyclerView)
+                .setPositiveButton("确定", (d, which) -> applyFilterChain(adapter.getSelection()))
+                .setNeutralButton("无滤镜", (d, which) -> applyFilterChain(new ArrayList<>()))
+                .setNegativeButton("取消", null)
+                .create();
+        dialog.setOnDismissListener(d -> mGlSurfaceView.stopFilterPreview());
+        mGlSurfaceView.startFilterPreview(effectIds, adapter::setAtlas);
+        dialog.show();
+    }
+
+    private void applyFilterChain(List<Integer> effectIds) {
+        filterChain.clear();
+        filterChain.addAll(effectIds);
+        int[] ids = new int[filterChain.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = filterChain.get(i);
+        }
+        mGlSurfaceView.setFilterChain(ids);
+        Toast.makeText(this, ids.length == 0 ? "已关闭滤镜" : "已叠加 " + ids.length + " 个滤镜",
+                Toast.LENGTH_SHORT).show();
+    }
+
     private void toggleMirror() {
         mGlSurfaceView.toggleMirror();
         Toast.makeText(this, mGlSurfaceView.isMirrored() ? "镜像模式已开启" : "镜像模式已关闭", Toast.LENGTH_SHORT).show();
@@ -245,13 +543,20 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
             Log.d(TAG, "Created video file: " + currentVideoFile.getAbsolutePath());
 
             // Start recording
-            mGlSurfaceView.startRecording(currentVideoFile.getAbsolutePath());
+            if (segmentedRecording) {
+                mGlSurfaceView.setSegmentation(SEGMENT_SECONDS, SEGMENT_MEGABYTES);
+            } else {
+                mGlSurfaceView.setSegmentation(0, 0);
+            }
+            mGlSurfaceView.startRecording(currentVideoFile.getAbsolutePath(), this);
             isRecording = true;
             recordButton.setImageResource(R.drawable.ic_stop);
             recordingTimeText.setVisibility(View.VISIBLE);
 
             // Start recording time counter
             recordingStartTime = System.currentTimeMillis();
+            isPaused = false;
+            pausedDuration = 0;
             recordingTimeHandler.post(recordingTimeRunnable);
 
             Toast.makeText(this, "开始录制", Toast.LENGTH_SHORT).show();
@@ -269,6 +574,7 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
 
         // Update UI state
         isRecording = false;
+        isPaused = false;
         recordButton.setImageResource(R.drawable.ic_record);
 
         // Stop timer
@@ -278,10 +584,26 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         Toast.makeText(this, "正在处理视频...", Toast.LENGTH_SHORT).show();
     }
 
+    private void togglePause() {
+        if (isPaused) {
+            mGlSurfaceView.resumeRecording();
+            pausedDuration += System.currentTimeMillis() - pauseStartTime;
+            isPaused = false;
+            Toast.makeText(this, "继续录制", Toast.LENGTH_SHORT).show();
+        } else {
+            mGlSurfaceView.pauseRecording();
+            pauseStartTime = System.currentTimeMillis();
+            isPaused = true;
+            Toast.makeText(this, "已暂停，长按录制按钮继续", Toast.LENGTH_SHORT).show();
+        }
+        updateRecordingTime();
+    }
+
     private void updateRecordingTime() {
         if (!isRecording) return;
 
-        long elapsedTime = System.currentTimeMillis() - recordingStartTime;
+        long now = isPaused ? pauseStartTime : System.currentTimeMillis();
+        long elapsedTime = now - recordingStartTime - pausedDuration;
         long seconds = (elapsedTime / 1000) % 60;
         long minutes = (elapsedTime / 60000) % 60;
         long hours = elapsedTime / 3600000;
@@ -293,17 +615,55 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
             timeText = String.format(Locale.getDefault(), "%02d:%02d", minutes, seconds);
         }
 
-        recordingTimeText.setText(timeText);
+        recordingTimeText.setText(isPaused ? timeText + " 已暂停" : timeText);
     }
 
     // Implementation of VideoCompletionCallback interface
     @Override
     public void onVideoSaved(String path) {
+        if (segmentedClips.remove(path)) {
+            // 分段录制：每一段写完时已经通过onSegmentSaved保存
+            Log.d(TAG, "Segmented recording finished: " + path);
+            Toast.makeText(this, R.string.video_recorded, Toast.LENGTH_SHORT).show();
+            setResult(RESULT_OK);
+            finish();
+            return;
+        }
+
         // Video processing is complete, add to database
-        saveVideoToDatabase(new File(path));
+        saveVideoToDatabase(new File(path), null, 0);
+    }
+
+    @Override
+    public void onStorageLow(String path) {
+        // 编码器已自动停止并写完文件，这里只更新界面，保存仍由onVideoSaved完成
+        Log.w(TAG, "Recording stopped, storage almost full: " + path);
+        if (isRecording) {
+            isRecording = false;
+            isPaused = false;
+            recordButton.setImageResource(R.drawable.ic_record);
+            recordingTimeHandler.removeCallbacks(recordingTimeRunnable);
+        }
+        Toast.makeText(this, "存储空间不足，已自动停止录制", Toast.LENGTH_LONG).show();
     }
 
-    private void saveVideoToDatabase(File videoFile) {
+    @Override
+    public void onSegmentSaved(String clipPath, int segmentIndex, String segmentPath, boolean lastSegment) {
+        if (segmentIndex == 0 && lastSegment) {
+            // 录制时长不足一段，按普通视频在onVideoSaved中保存
+            return;
+        }
+        segmentedClips.add(clipPath);
+        // 已完成的分段立即入库，即使录制中途被中断也不会丢失
+        saveVideoToDatabase(new File(segmentPath), clipPath, segmentIndex);
+    }
+
+    /**
+     * @param clipId       分段录制的标识，普通视频为null
+     * @param segmentIndex 分段序号
+     */
+    private void saveVideoToDatabase(File videoFile, String clipId, int segmentIndex) {
+        final boolean isSegment = clipId != null;
         AppDatabase.databaseWriteExecutor.execute(() -> {
             boolean success = false;
             String errorMessage = null;
@@ -326,6 +686,14 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
 
                 // Create video record
                 Video video = new Video(entryId, videoFile.getAbsolutePath());
+                video.setClipId(clipId);
+                video.setSegmentIndex(segmentIndex);
+                if (!isSegment) {
+                    File proxyFile = new File(VideoEncoder.proxyPathFor(videoFile.getAbsolutePath()));
+                    if (proxyFile.exists() && proxyFile.length() > 0) {
+                        video.setProxyPath(proxyFile.getAbsolutePath());
+                    }
+                }
 
                 // Generate thumbnail
                 File thumbnailFile = null;
@@ -333,8 +701,16 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
                     thumbnailFile = FileUtils.createThumbnailFile(this, entryId);
                     Log.d(TAG, "Created thumbnail file: " + thumbnailFile.getAbsolutePath());
 
-                    boolean thumbnailGenerated = CameraUtils.generateThumbnail(
-                            videoFile.getAbsolutePath(), thumbnailFile.getAbsolutePath());
+                    // 优先使用录制时在GL管线中截取的缩略图，没有时再解码视频生成
+                    File capturedThumbnail = new File(
+                            ThumbnailCapture.thumbnailPathFor(videoFile.getAbsolutePath()));
+                    boolean thumbnailGenerated = capturedThumbnail.length() > 0
+                            && capturedThumbnail.renameTo(thumbnailFile);
+                    if (!thumbnailGenerated) {
+                        capturedThumbnail.delete();
+                        thumbnailGenerated = CameraUtils.generateThumbnail(
+                                videoFile.getAbsolutePath(), thumbnailFile.getAbsolutePath());
+                    }
                     Log.d(TAG, "Thumbnail generated: " + thumbnailGenerated);
 
                     if (thumbnailGenerated) {
@@ -396,18 +772,20 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
                         (errorMessage != null ? ", error: " + errorMessage : ""));
 
                 final boolean finalSuccess = success;
-
-                runOnUiThread(() -> {
-                    if (finalSuccess) {
-                        Toast.makeText(CameraActivity.this,
-                                R.string.video_recorded, Toast.LENGTH_SHORT).show();
-                        setResult(RESULT_OK);
-                        finish();
-                    } else {
-                        Toast.makeText(CameraActivity.this,
-                                R.string.error_recording_video, Toast.LENGTH_SHORT).show();
-                    }
-                });
+                // 分段在录制过程中逐个保存，录制结束时由onVideoSaved统一提示并关闭页面
+                if (!isSegment) {
+                    runOnUiThread(() -> {
+                        if (finalSuccess) {
+                            Toast.makeText(CameraActivity.this,
+                                    R.string.video_recorded, Toast.LENGTH_SHORT).show();
+                            setResult(RESULT_OK);
+                            finish();
+                        } else {
+                            Toast.makeText(CameraActivity.this,
+                                    R.string.error_recording_video, Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                }
             }
         });
     }
@@ -52,8 +52,12 @@ import com.example.spj.adapter.VideoAdapter;
 import com.example.spj.database.AppDatabase;
 import com.example.spj.database.EntryDao;
 import com.example.spj.database.VideoDao;
+import com.example.spj.encoder.EncoderProfile;
+import com.example.spj.encoder.TranscodeEngine;
+import com.example.spj.encoder.TranscodeJob;
 import com.example.spj.model.Entry;
 import com.example.spj.model.Video;
+import com.example.spj.render.filters.FilterManager;
 import com.example.spj.util.BatchExportUtils;
 import com.example.spj.util.CameraUtils;
 import com.example.spj.util.FileUtils;
@@ -658,7 +662,7 @@ public class EntryDetailActivity extends AppCompatActivity
                 boolean hasImages = false;
 
                 for (Video video : selectedVideos) {
-                    File mediaFile = new File(video.getFilePath());
+                    File mediaFile = new File(video.getPlaybackPath());
                     if (mediaFile.exists()) {
                         Uri uri = FileProvider.getUriForFile(
                                 this,
@@ -715,7 +719,7 @@ public class EntryDetailActivity extends AppCompatActivity
      * 分享单个媒体文件
      */
     private void shareMedia(Video media) {
-        File mediaFile = new File(media.getFilePath());
+        File mediaFile = new File(media.getPlaybackPath());
         if (!mediaFile.exists()) {
             Toast.makeText(this, "文件不存在", Toast.LENGTH_SHORT).show();
             return;
@@ -784,6 +788,7 @@ public class EntryDetailActivity extends AppCompatActivity
                 // 删除所有视频文件和缩略图文件
                 for (Video video : videos) {
                     FileUtils.deleteFile(video.getFilePath());
+                    FileUtils.deleteFile(video.getProxyPath());
                     FileUtils.deleteFile(video.getThumbnailPath());
                     Log.d(TAG, "Deleted video file: " + video.getFilePath());
                 }
@@ -1925,7 +1930,7 @@ public class EntryDetailActivity extends AppCompatActivity
             Log.d(TAG, "Video clicked: " + video.getFilePath());
 
             Intent intent = new Intent(Intent.ACTION_VIEW);
-            Uri videoUri = FileUtils.getUriForFile(this, new File(video.getFilePath()));
+            Uri videoUri = FileUtils.getUriForFile(this, new File(video.getPlaybackPath()));
             intent.setDataAndType(videoUri, "video/*");
             intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
@@ -1979,13 +1984,16 @@ public class EntryDetailActivity extends AppCompatActivity
      * 显示视频操作菜单
      */
     private void showVideoOptionsDialog(Video video) {
-        // 添加分享选项
-        String[] options = {
-                getString(R.string.add_notes),
-                getString(R.string.export_video_to_gallery),
-                getString(R.string.share),
-                getString(R.string.delete_video)
-        };
+        // 添加分享选项，视频可以离线套用滤镜
+        List<String> optionList = new ArrayList<>();
+        optionList.add(getString(R.string.add_notes));
+        optionList.add(getString(R.string.export_video_to_gallery));
+        optionList.add(getString(R.string.share));
+        optionList.add(getString(R.string.delete_video));
+        if (!video.isImage()) {
+            optionList.add(getString(R.string.apply_filters));
+        }
+        String[] options = optionList.toArray(new String[0]);
 
         new AlertDialog.Builder(this)
                 .setTitle(video.isImage() ? R.string.image_options : R.string.video_options)
@@ -2002,11 +2010,96 @@ public class EntryDetailActivity extends AppCompatActivity
                     } else if (which == 3) {
                         // 删除视频
                         showDeleteVideoDialog(video);
+                    } else if (which == 4) {
+                        // 套用滤镜
+                        showApplyFiltersDialog(video);
                     }
                 })
                 .show();
     }
 
+    /**
+     * 选择要套用的滤镜，按勾选顺序叠加
+     */
+    private void showApplyFiltersDialog(Video video) {
+        final List<FilterManager.ShaderEffect> effects = new ArrayList<>();
+        for (FilterManager.ShaderEffect effect : new FilterManager(this).getEffectsList()) {
+            if (effect.getId() != 0) {
+                effects.add(effect);
+            }
+        }
+        String[] names = new String[effects.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = effects.get(i).getName();
+        }
+        final List<Integer> selection = new ArrayList<>();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.select_filters)
+                .setMultiChoiceItems(names, null, (dialog, which, isChecked) -> {
+                    Integer id = effects.get(which).getId();
+                    if (isChecked) {
+                        selection.add(id);
+                    } else {
+                        selection.remove(id);
+                    }
+                })
+                .setPositiveButton(R.string.ok, (dialog, which) -> {
+                    if (selection.isEmpty()) return;
+                    int[] effectIds = new int[selection.size()];
+                    for (int i = 0; i < effectIds.length; i++) {
+                        effectIds[i] = selection.get(i);
+                    }
+                    applyFilters(video, effectIds);
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * 提交离线滤镜任务并显示进度，可以取消
+     */
+    private void applyFilters(Video video, int[] effectIds) {
+        final TranscodeEngine engine = TranscodeEngine.getInstance(this);
+        final TranscodeJob job = engine.enqueue(video, effectIds, EncoderProfile.QUALITY_HIGH);
+
+        final ProgressDialog progressDialog = new ProgressDialog(this);
+        progressDialog.setTitle(R.string.apply_filters);
+        progressDialog.setMessage(getString(R.string.applying_filters));
+        progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progressDialog.setMax(100);
+        progressDialog.setCancelable(false);
+        progressDialog.setButton(ProgressDialog.BUTTON_NEGATIVE, getString(R.string.cancel),
+                (dialog, which) -> engine.cancel(job));
+
+        engine.addListener(new TranscodeEngine.Listener() {
+            @Override
+            public void onJobProgress(TranscodeJob progressJob, float progress) {
+                if (progressJob == job) {
+                    progressDialog.setProgress(Math.round(progress * 100));
+                }
+            }
+
+            @Override
+            public void onJobFinished(TranscodeJob finishedJob) {
+                if (finishedJob != job) return;
+                engine.removeListener(this);
+                if (isFinishing() || isDestroyed()) return;
+                progressDialog.dismiss();
+                if (job.getState() == TranscodeJob.STATE_DONE) {
+                    Toast.makeText(EntryDetailActivity.this, R.string.apply_filters_done, Toast.LENGTH_SHORT).show();
+                    loadVideos();
+                } else if (job.getState() == TranscodeJob.STATE_CANCELLED) {
+                    Toast.makeText(EntryDetailActivity.this, R.string.apply_filters_cancelled, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(EntryDetailActivity.this,
+                            getString(R.string.apply_filters_failed, job.getError()), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+        progressDialog.show();
+    }
+
     /**
      * 显示删除选中视频的确认对话框
      */
@@ -2034,6 +2127,7 @@ public class EntryDetailActivity extends AppCompatActivity
             for (Video video : selectedVideos) {
                 // 删除视频文件和缩略图
                 FileUtils.deleteFile(video.getFilePath());
+                FileUtils.deleteFile(video.getProxyPath());
                 FileUtils.deleteFile(video.getThumbnailPath());
 
                 // 从数据库中删除
@@ -2158,6 +2252,7 @@ public class EntryDetailActivity extends AppCompatActivity
         AppDatabase.databaseWriteExecutor.execute(() -> {
             // 删除视频文件和缩略图
             FileUtils.deleteFile(video.getFilePath());
+            FileUtils.deleteFile(video.getProxyPath());
             FileUtils.deleteFile(video.getThumbnailPath());
 
             // 从数据库中删除
@@ -548,6 +548,14 @@ public class MainActivity extends AppCompatActivity implements
                             }
                         }
 
+                        // 删除代理文件
+                        if (video.getProxyPath() != null) {
+                            File proxyFile = new File(video.getProxyPath());
+                            if (proxyFile.exists()) {
+                                proxyFile.delete();
+                            }
+                        }
+
                         // 删除缩略图文件
                         if (video.getThumbnailPath() != null) {
                             File thumbFile = new File(video.getThumbnailPath());
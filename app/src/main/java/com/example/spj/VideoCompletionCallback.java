@@ -12,4 +12,28 @@ public interface VideoCompletionCallback {
      * @param path The path to the saved video file
      */
     void onVideoSaved(String path);
+
+    /**
+     * Called on the main thread each time a segment of a segmented recording
+     * is complete, including the last one. Each segment is a playable file.
+     * A recording shorter than one segment reports a single segment with index 0
+     * and lastSegment set. This is always called before {@link #onVideoSaved(String)}.
+     *
+     * @param clipPath     The path of the first segment, identifying the whole recording
+     * @param segmentIndex Zero-based index of the segment
+     * @param segmentPath  The path to the finished segment file
+     * @param lastSegment  Whether this is the final segment of the recording
+     */
+    default void onSegmentSaved(String clipPath, int segmentIndex, String segmentPath, boolean lastSegment) {
+    }
+
+    /**
+     * Called on the main thread when recording was stopped automatically because
+     * the storage is almost full. The file is still finalized and delivered
+     * through {@link #onVideoSaved(String)}.
+     *
+     * @param path The path of the recording that was stopped
+     */
+    default void onStorageLow(String path) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package com.example.spj.adapter;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.spj.R;
+import com.example.spj.render.filters.FilterManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 滤镜选择网格的适配器，每个格子显示该效果的实时预览小图，点击切换选中，
+ * 选中的效果标出叠加顺序
+ */
+public class FilterPreviewAdapter extends RecyclerView.Adapter<FilterPreviewAdapter.FilterPreviewViewHolder> {
+
+    // 只刷新预览图，不重新绑定文字和选中状态
+    private static final Object PAYLOAD_PREVIEW = new Object();
+
+    private final List<FilterManager.ShaderEffect> effects;
+    private final List<Integer> selection;
+    private Bitmap atlas;
+    private Rect[] tiles;
+
+    public FilterPreviewAdapter(List<FilterManager.ShaderEffect> effects, List<Integer> selection) {
+        this.effects = effects;
+        this.selection = new ArrayList<>(selection);
+    }
+
+    @NonNull
+    @Override
+    public FilterPreviewViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_filter_preview, parent, false);
+        return new FilterPreviewViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull FilterPreviewViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_PREVIEW)) {
+            bindPreview(holder, position);
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull FilterPreviewViewHolder holder, int position) {
+        FilterManager.ShaderEffect effect = effects.get(position);
+        holder.textViewFilterName.setText(effect.getName());
+
+        int order = selection.indexOf(effect.getId());
+        if (order >= 0) {
+            holder.textViewFilterOrder.setText(String.valueOf(order + 1));
+            holder.textViewFilterOrder.setVisibility(View.VISIBLE);
+            holder.layoutFilterPreview.setBackgroundResource(R.color.colorPrimaryLight);
+        } else {
+            holder.textViewFilterOrder.setVisibility(View.GONE);
+            holder.layoutFilterPreview.setBackgroundResource(android.R.color.transparent);
+        }
+        bindPreview(holder, position);
+
+        holder.itemView.setOnClickListener(v -> {
+            int adapterPosition = holder.getAdapterPosition();
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            Integer id = effects.get(adapterPosition).getId();
+            if (!selection.remove(id)) {
+                selection.add(id);
+            }
+            // 序号可能整体变化
+            notifyDataSetChanged();
+        });
+    }
+
+    private void bindPreview(FilterPreviewViewHolder holder, int position) {
+        if (atlas != null && tiles != null && position < tiles.length) {
+            holder.imageViewFilterPreview.setImageDrawable(new TileDrawable(atlas, tiles[position]));
+        } else {
+            holder.imageViewFilterPreview.setImageDrawable(null);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return effects.size();
+    }
+
+    /**
+     * 更新预览图集，tiles与效果列表顺序一致
+     */
+    public void setAtlas(Bitmap atlas, Rect[] tiles) {
+        this.atlas = atlas;
+        this.tiles = tiles;
+        notifyItemRangeChanged(0, effects.size(), PAYLOAD_PREVIEW);
+    }
+
+    /**
+     * 按选中先后顺序返回效果ID
+     */
+    public List<Integer> getSelection() {
+        return new ArrayList<>(selection);
+    }
+
+    /**
+     * 只绘制图集中一个格子的Drawable，避免每次刷新都为每个效果裁剪出新位图
+     */
+    private static class TileDrawable extends Drawable {
+        private final Bitmap bitmap;
+        private final Rect source;
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        TileDrawable(Bitmap bitmap, Rect source) {
+            this.bitmap = bitmap;
+            this.source = source;
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            canvas.drawBitmap(bitmap, source, getBounds(), paint);
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return source.width();
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return source.height();
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            paint.setAlpha(alpha);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            paint.setColorFilter(colorFilter);
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.OPAQUE;
+        }
+    }
+
+    /**
+     * 视图持有者类
+     */
+    static class FilterPreviewViewHolder extends RecyclerView.ViewHolder {
+        final View layoutFilterPreview;
+        final ImageView imageViewFilterPreview;
+        final TextView textViewFilterName;
+        final TextView textViewFilterOrder;
+
+        FilterPreviewViewHolder(@NonNull View itemView) {
+            super(itemView);
+            layoutFilterPreview = itemView.findViewById(R.id.layoutFilterPreview);
+            imageViewFilterPreview = itemView.findViewById(R.id.imageViewFilterPreview);
+            textViewFilterName = itemView.findViewById(R.id.textViewFilterName);
+            textViewFilterOrder = itemView.findViewById(R.id.textViewFilterOrder);
+        }
+    }
+}
@@ -445,7 +445,7 @@ public class SectionedVideoAdapter extends RecyclerView.Adapter<RecyclerView.Vie
                     new Thread(() -> {
                         try {
                             // 分离音频
-                            File audioFile = extractAudioFromVideo(video.getFilePath());
+                            File audioFile = extractAudioFromVideo(video.getPlaybackPath());
 
                             // 创建一个Handler用于在主线程更新UI
                             Handler mainHandler = new Handler(Looper.getMainLooper());
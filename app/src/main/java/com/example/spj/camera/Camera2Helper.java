@@ -39,6 +39,8 @@ public class Camera2Helper {
     private CameraCaptureSession mCaptureSession;
     private CaptureRequest.Builder mPreviewRequestBuilder;
     private Size mPreviewSize;
+    // 请求的相机输出尺寸（横向），不支持时选择比例最接近的可用尺寸
+    private Size mRequestedPreviewSize = new Size(1920, 1080);
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
     private SurfaceTexture mSurfaceTexture;
@@ -163,8 +165,7 @@ public class Camera2Helper {
             }
 
             // 选择合适的预览尺寸
-//            mPreviewSize = chooseOptimalSize(availableSizes, width, height);
-            mPreviewSize = new Size(1920, 1080);
+            mPreviewSize = choosePreviewSize(availableSizes);
             Log.d(TAG, "选择的预览尺寸: " + mPreviewSize.getWidth() + "x" + mPreviewSize.getHeight());
 
             // 打开相机
@@ -325,6 +326,25 @@ public class Camera2Helper {
         return mPreviewSize;
     }
 
+    /**
+     * 设置相机输出尺寸，下次打开相机时生效。传感器输出是横向的，宽高会按横向整理
+     */
+    public void setRequestedPreviewSize(int width, int height) {
+        mRequestedPreviewSize = new Size(Math.max(width, height), Math.min(width, height));
+    }
+
+    private Size choosePreviewSize(Size[] choices) {
+        if (choices != null) {
+            for (Size option : choices) {
+                if (option.equals(mRequestedPreviewSize)) {
+                    return option;
+                }
+            }
+        }
+        Log.d(TAG, "不支持请求的预览尺寸: " + mRequestedPreviewSize);
+        return chooseOptimalSize(choices, mRequestedPreviewSize.getWidth(), mRequestedPreviewSize.getHeight());
+    }
+
     private Size chooseOptimalSize(Size[] choices, int width, int height) {
         if (choices == null || choices.length == 0) return new Size(width, height);
 
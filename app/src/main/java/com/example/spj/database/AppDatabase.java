@@ -20,7 +20,7 @@ import java.util.concurrent.Executors;
 /**
  * Room数据库类
  */
-@Database(entities = {Entry.class, Video.class, Summary.class}, version = 5, exportSchema = false)
+@Database(entities = {Entry.class, Video.class, Summary.class}, version = 7, exportSchema = false)
 @TypeConverters({Converters.class})
 public abstract class AppDatabase extends RoomDatabase {
 
@@ -83,6 +83,22 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
 
+    // 从版本5迁移到版本6（分段录制字段）
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE videos ADD COLUMN clipId TEXT");
+            database.execSQL("ALTER TABLE videos ADD COLUMN segmentIndex INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE videos ADD COLUMN proxyPath TEXT");
+        }
+    };
+
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
@@ -90,7 +106,8 @@ public abstract class AppDatabase extends RoomDatabase {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "video_journal_database")
                             .addCallback(sRoomDatabaseCallback)
-                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+                                    MIGRATION_6_7)
                             .build();
                 }
             }
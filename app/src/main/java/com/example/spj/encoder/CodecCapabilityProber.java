@@ -0,0 +1,430 @@
+package com.example.spj.encoder;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于MediaCodecList的视频编码器能力探测。
+ * 遍历MediaCodecList较慢（几十到几百毫秒），结果按系统指纹缓存在应用私有目录，
+ * 系统升级后自动重新探测；配置失败过的编码器和Profile也记录在缓存中，以后不再选择。
+ */
+public class CodecCapabilityProber {
+    private static final String TAG = "CodecProber";
+
+    private static final String CACHE_FILE = "codec_capabilities.json";
+    private static final int CACHE_VERSION = 1;
+
+    // 这些尺寸在探测时逐一检查，其他尺寸只按宽高上限和对齐判断
+    private static final int[][] PROBE_SIZES = {
+            {640, 480}, {1280, 720}, {1920, 1080}, {2560, 1440}, {3840, 2160}
+    };
+
+    private static volatile CodecCapabilityProber sInstance;
+
+    private final File mCacheFile;
+    private final List<EncoderInfo> mEncoders = new ArrayList<>();
+    private final Set<String> mFailedConfigs = new HashSet<>();
+    private final Map<String, EncoderProfile> mSelections = new HashMap<>();
+
+    /**
+     * 单个编码器的探测结果
+     */
+    static class EncoderInfo {
+        String name;
+        String mimeType;
+        boolean hardware;
+        // profile -> 该profile支持的最高level
+        final Map<Integer, Integer> profileLevels = new HashMap<>();
+        boolean cqSupported;
+        boolean vbrSupported;
+        boolean cbrSupported;
+        int cqMin = EncoderProfile.UNSET;
+        int cqMax = EncoderProfile.UNSET;
+        int maxWidth;
+        int maxHeight;
+        int widthAlignment = 2;
+        int heightAlignment = 2;
+        int maxBitRate = Integer.MAX_VALUE;
+        final Set<String> supportedSizes = new HashSet<>();
+        final Set<String> probedSizes = new HashSet<>();
+
+        boolean supportsSize(int width, int height) {
+            String key = sizeKey(width, height);
+            if (probedSizes.contains(key)) {
+                return supportedSizes.contains(key);
+            }
+            return width <= maxWidth && height <= maxHeight
+                    && width % widthAlignment == 0 && height % heightAlignment == 0;
+        }
+    }
+
+    /**
+     * 在后台线程提前完成探测，避免第一次录制时在GL线程上遍历MediaCodecList
+     */
+    public static void preload(Context context) {
+        if (sInstance != null) return;
+        final Context appContext = context.getApplicationContext();
+        new Thread(() -> getInstance(appContext), "CodecProber").start();
+    }
+
+    public static CodecCapabilityProber getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (CodecCapabilityProber.class) {
+                if (sInstance == null) {
+                    sInstance = new CodecCapabilityProber(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private CodecCapabilityProber(Context context) {
+        mCacheFile = new File(context.getFilesDir(), CACHE_FILE);
+        long startNs = System.nanoTime();
+        if (loadCache()) {
+            Log.d(TAG, "从缓存读取编码器能力: " + mEncoders.size() + "个编码器, 耗时="
+                    + (System.nanoTime() - startNs) / 1000000 + "ms");
+        } else {
+            probe();
+            // 探测失败时不写缓存，下次启动再试
+            if (!mEncoders.isEmpty()) {
+                saveCache();
+            }
+            Log.d(TAG, "探测编码器能力: " + mEncoders.size() + "个编码器, 耗时="
+                    + (System.nanoTime() - startNs) / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * 为指定尺寸（编码器的宽高）和画质档位选择编码配置，结果在内存中缓存。
+     * 优先级：硬件HEVC Main > 硬件AVC High > Main > Baseline > 软件AVC > 回退配置
+     */
+    public synchronized EncoderProfile select(int width, int height, int quality) {
+        String key = width + "x" + height + "@" + quality;
+        EncoderProfile profile = mSelections.get(key);
+        if (profile == null) {
+            profile = doSelect(width, height, quality);
+            mSelections.put(key, profile);
+            Log.d(TAG, "选择编码配置 " + key + ": " + profile);
+        }
+        return profile;
+    }
+
+    /**
+     * 编码器按选中的配置configure失败时调用，以后不再选择该编码器和Profile的组合
+     */
+    public synchronized void reportFailure(EncoderProfile profile) {
+        if (profile == null || profile.isFallback()) return;
+        mFailedConfigs.add(configKey(profile.getCodecName(), profile.getProfile()));
+        mSelections.clear();
+        saveCache();
+    }
+
+    private EncoderProfile doSelect(int width, int height, int quality) {
+        // MediaMuxer从Android 7.0开始支持把HEVC写入MP4
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            EncoderProfile hevc = selectFor(MediaFormat.MIMETYPE_VIDEO_HEVC, true, width, height, quality,
+                    MediaCodecInfo.CodecProfileLevel.HEVCProfileMain);
+            if (hevc != null) return hevc;
+        }
+
+        int[] avcProfiles = {
+                MediaCodecInfo.CodecProfileLevel.AVCProfileHigh,
+                MediaCodecInfo.CodecProfileLevel.AVCProfileMain,
+                MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline
+        };
+        EncoderProfile avc = selectFor(MediaFormat.MIMETYPE_VIDEO_AVC, true, width, height, quality, avcProfiles);
+        if (avc != null) return avc;
+        avc = selectFor(MediaFormat.MIMETYPE_VIDEO_AVC, false, width, height, quality, avcProfiles);
+        if (avc != null) return avc;
+
+        return EncoderProfile.fallback(quality);
+    }
+
+    private EncoderProfile selectFor(String mimeType, boolean hardware, int width, int height,
+                                     int quality, int... profiles) {
+        for (int profile : profiles) {
+            for (EncoderInfo info : mEncoders) {
+                if (!info.mimeType.equals(mimeType) || info.hardware != hardware) continue;
+                if (!info.profileLevels.containsKey(profile)) continue;
+                if (!info.supportsSize(width, height)) continue;
+                if (mFailedConfigs.contains(configKey(info.name, profile))) continue;
+                return createProfile(info, profile, quality);
+            }
+        }
+        return null;
+    }
+
+    private EncoderProfile createProfile(EncoderInfo info, int profile, int quality) {
+        int bitrateMode = EncoderProfile.UNSET;
+        int cqQuality = EncoderProfile.UNSET;
+        if (quality == EncoderProfile.QUALITY_CONSTANT && info.cqSupported) {
+            bitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+            if (info.cqMax > info.cqMin) {
+                // 取质量范围的上部，接近视觉无损但不至于极端膨胀
+                cqQuality = info.cqMin + (info.cqMax - info.cqMin) * 3 / 4;
+            }
+        } else if (info.vbrSupported) {
+            bitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        } else if (info.cbrSupported) {
+            bitrateMode = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+        }
+
+        Integer level = info.profileLevels.get(profile);
+        return new EncoderProfile(info.name, info.mimeType, profile,
+                level != null && level > 0 ? level : EncoderProfile.UNSET,
+                bitrateMode, cqQuality,
+                EncoderProfile.bitsPerPixel(info.mimeType, profile, quality),
+                info.maxBitRate, quality, false);
+    }
+
+    private void probe() {
+        mEncoders.clear();
+        try {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+                if (!codecInfo.isEncoder()) continue;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && codecInfo.isAlias()) continue;
+
+                for (String type : codecInfo.getSupportedTypes()) {
+                    if (MediaFormat.MIMETYPE_VIDEO_AVC.equalsIgnoreCase(type)
+                            || MediaFormat.MIMETYPE_VIDEO_HEVC.equalsIgnoreCase(type)) {
+                        EncoderInfo info = probeEncoder(codecInfo, type.toLowerCase());
+                        if (info != null) {
+                            mEncoders.add(info);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "探测编码器能力失败", e);
+        }
+    }
+
+    private EncoderInfo probeEncoder(MediaCodecInfo codecInfo, String mimeType) {
+        try {
+            MediaCodecInfo.CodecCapabilities caps = codecInfo.getCapabilitiesForType(mimeType);
+            // 只考虑支持Surface输入的编码器
+            boolean surfaceInput = false;
+            for (int colorFormat : caps.colorFormats) {
+                if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface) {
+                    surfaceInput = true;
+                    break;
+                }
+            }
+            if (!surfaceInput) return null;
+
+            EncoderInfo info = new EncoderInfo();
+            info.name = codecInfo.getName();
+            info.mimeType = mimeType;
+            info.hardware = isHardware(codecInfo);
+
+            for (MediaCodecInfo.CodecProfileLevel pl : caps.profileLevels) {
+                Integer level = info.profileLevels.get(pl.profile);
+                if (level == null || pl.level > level) {
+                    info.profileLevels.put(pl.profile, pl.level);
+                }
+            }
+
+            MediaCodecInfo.EncoderCapabilities encoderCaps = caps.getEncoderCapabilities();
+            if (encoderCaps != null) {
+                info.cqSupported = encoderCaps.isBitrateModeSupported(
+                        MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+                info.vbrSupported = encoderCaps.isBitrateModeSupported(
+                        MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR);
+                info.cbrSupported = encoderCaps.isBitrateModeSupported(
+                        MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    info.cqMin = encoderCaps.getQualityRange().getLower();
+                    info.cqMax = encoderCaps.getQualityRange().getUpper();
+                }
+            }
+
+            MediaCodecInfo.VideoCapabilities videoCaps = caps.getVideoCapabilities();
+            if (videoCaps != null) {
+                info.maxWidth = videoCaps.getSupportedWidths().getUpper();
+                info.maxHeight = videoCaps.getSupportedHeights().getUpper();
+                info.widthAlignment = videoCaps.getWidthAlignment();
+                info.heightAlignment = videoCaps.getHeightAlignment();
+                info.maxBitRate = videoCaps.getBitrateRange().getUpper();
+                for (int[] size : PROBE_SIZES) {
+                    // 横竖两个方向都检查，编码器的宽高与预览相反
+                    probeSize(info, videoCaps, size[0], size[1]);
+                    probeSize(info, videoCaps, size[1], size[0]);
+                }
+            }
+            return info;
+        } catch (Exception e) {
+            Log.w(TAG, "读取编码器能力失败: " + codecInfo.getName() + " " + mimeType, e);
+            return null;
+        }
+    }
+
+    private static void probeSize(EncoderInfo info, MediaCodecInfo.VideoCapabilities videoCaps,
+                                  int width, int height) {
+        String key = sizeKey(width, height);
+        info.probedSizes.add(key);
+        if (videoCaps.isSizeSupported(width, height)) {
+            info.supportedSizes.add(key);
+        }
+    }
+
+    private static boolean isHardware(MediaCodecInfo codecInfo) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return codecInfo.isHardwareAccelerated();
+        }
+        String name = codecInfo.getName().toLowerCase();
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.")
+                && !name.contains(".sw.");
+    }
+
+    private static String sizeKey(int width, int height) {
+        return width + "x" + height;
+    }
+
+    private static String configKey(String codecName, int profile) {
+        return codecName + "#" + profile;
+    }
+
+    private static String cacheFingerprint() {
+        return Build.FINGERPRINT + "/" + Build.VERSION.SDK_INT + "/" + CACHE_VERSION;
+    }
+
+    private boolean loadCache() {
+        if (!mCacheFile.exists()) return false;
+        try (FileInputStream in = new FileInputStream(mCacheFile)) {
+            byte[] data = new byte[(int) mCacheFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            JSONObject root = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+            if (!cacheFingerprint().equals(root.optString("fingerprint"))) {
+                Log.d(TAG, "系统版本变化，重新探测编码器能力");
+                return false;
+            }
+
+            JSONArray encoders = root.getJSONArray("encoders");
+            for (int i = 0; i < encoders.length(); i++) {
+                mEncoders.add(fromJson(encoders.getJSONObject(i)));
+            }
+            JSONArray failed = root.optJSONArray("failed");
+            if (failed != null) {
+                for (int i = 0; i < failed.length(); i++) {
+                    mFailedConfigs.add(failed.getString(i));
+                }
+            }
+            return true;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "读取编码器能力缓存失败", e);
+            mEncoders.clear();
+            mFailedConfigs.clear();
+            return false;
+        }
+    }
+
+    private void saveCache() {
+        try {
+            JSONObject root = new JSONObject();
+            root.put("fingerprint", cacheFingerprint());
+            JSONArray encoders = new JSONArray();
+            for (EncoderInfo info : mEncoders) {
+                encoders.put(toJson(info));
+            }
+            root.put("encoders", encoders);
+            root.put("failed", new JSONArray(mFailedConfigs));
+
+            // 先写临时文件再重命名，避免进程被杀时留下半个文件
+            File tmp = new File(mCacheFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(mCacheFile)) {
+                Log.w(TAG, "保存编码器能力缓存失败: 无法重命名");
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "保存编码器能力缓存失败", e);
+        }
+    }
+
+    private static JSONObject toJson(EncoderInfo info) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("name", info.name);
+        obj.put("mime", info.mimeType);
+        obj.put("hardware", info.hardware);
+        JSONObject profiles = new JSONObject();
+        for (Map.Entry<Integer, Integer> entry : info.profileLevels.entrySet()) {
+            profiles.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        obj.put("profiles", profiles);
+        obj.put("cq", info.cqSupported);
+        obj.put("vbr", info.vbrSupported);
+        obj.put("cbr", info.cbrSupported);
+        obj.put("cqMin", info.cqMin);
+        obj.put("cqMax", info.cqMax);
+        obj.put("maxWidth", info.maxWidth);
+        obj.put("maxHeight", info.maxHeight);
+        obj.put("widthAlignment", info.widthAlignment);
+        obj.put("heightAlignment", info.heightAlignment);
+        obj.put("maxBitRate", info.maxBitRate);
+        obj.put("probedSizes", new JSONArray(info.probedSizes));
+        obj.put("supportedSizes", new JSONArray(info.supportedSizes));
+        return obj;
+    }
+
+    private static EncoderInfo fromJson(JSONObject obj) throws JSONException {
+        EncoderInfo info = new EncoderInfo();
+        info.name = obj.getString("name");
+        info.mimeType = obj.getString("mime");
+        info.hardware = obj.getBoolean("hardware");
+        JSONObject profiles = obj.getJSONObject("profiles");
+        JSONArray names = profiles.names();
+        if (names != null) {
+            for (int i = 0; i < names.length(); i++) {
+                String key = names.getString(i);
+                info.profileLevels.put(Integer.parseInt(key), profiles.getInt(key));
+            }
+        }
+        info.cqSupported = obj.getBoolean("cq");
+        info.vbrSupported = obj.getBoolean("vbr");
+        info.cbrSupported = obj.getBoolean("cbr");
+        info.cqMin = obj.getInt("cqMin");
+        info.cqMax = obj.getInt("cqMax");
+        info.maxWidth = obj.getInt("maxWidth");
+        info.maxHeight = obj.getInt("maxHeight");
+        info.widthAlignment = obj.getInt("widthAlignment");
+        info.heightAlignment = obj.getInt("heightAlignment");
+        info.maxBitRate = obj.getInt("maxBitRate");
+        JSONArray probed = obj.getJSONArray("probedSizes");
+        for (int i = 0; i < probed.length(); i++) {
+            info.probedSizes.add(probed.getString(i));
+        }
+        JSONArray supported = obj.getJSONArray("supportedSizes");
+        for (int i = 0; i < supported.length(); i++) {
+            info.supportedSizes.add(supported.getString(i));
+        }
+        return info;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.spj.encoder;
+
+/**
+ * 统计编码器每个样本从提交输入到拿到输出的延迟。
+ * 输入按时间戳记录在预分配的环形数组里，输出时按时间戳匹配；
+ * AAC等编码器的输出时间戳与输入不一一对应，因此匹配时间戳不大于输出的最近一次输入。
+ */
+public class EncodeLatencyTracker {
+    private static final int CAPACITY = 128;
+    // 直方图按毫秒分桶，超过上限的计入最后一个桶
+    private static final int HISTOGRAM_BUCKETS = 200;
+
+    private final String mName;
+    private final long[] mPtsUs = new long[CAPACITY];
+    private final long[] mSubmitNs = new long[CAPACITY];
+    private int mHead, mCount;
+    private long mLastMatchedPtsUs = -1;
+    private long mLastMatchedSubmitNs;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BUCKETS];
+    private long mSamples;
+    private long mTotalNs;
+    private long mMaxNs;
+
+    public EncodeLatencyTracker(String name) {
+        mName = name;
+    }
+
+    /**
+     * 输入样本提交给编码器时调用
+     */
+    public synchronized void onInputQueued(long ptsUs) {
+        if (mCount == CAPACITY) {
+            // 编码器积压过多，丢弃最旧的记录
+            mHead = (mHead + 1) % CAPACITY;
+            mCount--;
+        }
+        int tail = (mHead + mCount) % CAPACITY;
+        mPtsUs[tail] = ptsUs;
+        mSubmitNs[tail] = System.nanoTime();
+        mCount++;
+    }
+
+    /**
+     * 编码器输出样本时调用
+     */
+    public synchronized void onOutput(long ptsUs) {
+        long nowNs = System.nanoTime();
+        boolean matched = false;
+        while (mCount > 0 && mPtsUs[mHead] <= ptsUs) {
+            mLastMatchedPtsUs = mPtsUs[mHead];
+            mLastMatchedSubmitNs = mSubmitNs[mHead];
+            mHead = (mHead + 1) % CAPACITY;
+            mCount--;
+            matched = true;
+        }
+        if (!matched && (mLastMatchedPtsUs < 0 || ptsUs < mLastMatchedPtsUs)) {
+            return;
+        }
+
+        long latencyNs = nowNs - mLastMatchedSubmitNs;
+        mSamples++;
+        mTotalNs += latencyNs;
+        if (latencyNs > mMaxNs) {
+            mMaxNs = latencyNs;
+        }
+        int bucket = (int) Math.min(latencyNs / 1_000_000L, HISTOGRAM_BUCKETS - 1);
+        mHistogram[bucket]++;
+    }
+
+    public synchronized void reset() {
+        mHead = 0;
+        mCount = 0;
+        mLastMatchedPtsUs = -1;
+        mLastMatchedSubmitNs = 0;
+        mSamples = 0;
+        mTotalNs = 0;
+        mMaxNs = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            mHistogram[i] = 0;
+        }
+    }
+
+    public synchronized long getSampleCount() {
+        return mSamples;
+    }
+
+    public synchronized long getAverageUs() {
+        return mSamples > 0 ? mTotalNs / mSamples / 1000 : 0;
+    }
+
+    public synchronized long getMaxUs() {
+        return mMaxNs / 1000;
+    }
+
+    /**
+     * 按毫秒精度返回延迟的百分位数
+     */
+    public synchronized int getPercentileMs(int percentile) {
+        if (mSamples == 0) return 0;
+        long target = (mSamples * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += mHistogram[i];
+            if (seen >= target) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BUCKETS - 1;
+    }
+
+    public String getSummary() {
+        return mName + "编码延迟: 样本=" + getSampleCount()
+                + ", 平均=" + getAverageUs() + "us"
+                + ", p50=" + getPercentileMs(50) + "ms"
+                + ", p95=" + getPercentileMs(95) + "ms"
+                + ", 最大=" + getMaxUs() + "us";
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.spj.encoder;
+
+import android.content.Context;
+import android.opengl.EGLContext;
+import android.util.Log;
+
+/**
+ * 预热编码器池。
+ * 相机打开后在预览GL线程上预先创建并配置好一个编码器，开始录制时直接取用；
+ * 录制结束后编码器重新配置并放回池中供下一次录制复用。所有方法都在预览GL线程上调用。
+ */
+public class EncoderPool {
+    private static final String TAG = "EncoderPool";
+
+    private final Context mContext;
+    private VideoEncoder mIdleEncoder;
+    // 大于0时空闲编码器保持预录
+    private int mPreRollSeconds = 0;
+    // 新建的编码器是否同时录制代理文件
+    private boolean mProxyEnabled = false;
+    // release之后到下一次预热或取用之前，归还的编码器直接释放
+    private boolean mReleased = false;
+
+    // 统计预热命中情况
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    public EncoderPool(Context context) {
+        mContext = context;
+        // 编码器能力探测较慢，在后台提前完成
+        CodecCapabilityProber.preload(context);
+    }
+
+    /**
+     * 按当前预览参数预热一个编码器，已有兼容的空闲编码器时不做任何事
+     */
+    public void warmUp(int width, int height, EGLContext sharedContext, int codecMode, int quality) {
+        mReleased = false;
+        if (mIdleEncoder != null && mIdleEncoder.isCompatible(width, height, sharedContext, codecMode, quality)) {
+            return;
+        }
+        releaseIdle();
+
+        try {
+            VideoEncoder encoder = createEncoder(width, height, sharedContext, codecMode, quality);
+            encoder.prewarm();
+            mIdleEncoder = encoder;
+            startPreRoll(encoder);
+            Log.d(TAG, "已预热编码器: " + width + "x" + height);
+        } catch (Exception e) {
+            Log.e(TAG, "预热编码器失败", e);
+        }
+    }
+
+    /**
+     * 取出一个编码器用于录制，没有兼容的预热编码器时新建一个（在start时冷启动）
+     */
+    public VideoEncoder acquire(int width, int height, EGLContext sharedContext, int codecMode, int quality) {
+        mReleased = false;
+        VideoEncoder encoder = mIdleEncoder;
+        mIdleEncoder = null;
+        if (encoder != null && encoder.isCompatible(width, height, sharedContext, codecMode, quality)) {
+            mHits++;
+            Log.d(TAG, "使用预热的编码器 (命中 " + mHits + ", 未命中 " + mMisses + ")");
+            return encoder;
+        }
+
+        if (encoder != null) {
+            encoder.release();
+        }
+        mMisses++;
+        Log.d(TAG, "没有可用的预热编码器，新建 (命中 " + mHits + ", 未命中 " + mMisses + ")");
+        return createEncoder(width, height, sharedContext, codecMode, quality);
+    }
+
+    /**
+     * 录制停止后归还编码器，池中已有空闲编码器或池已释放时直接释放
+     */
+    public void recycle(VideoEncoder encoder) {
+        if (encoder == null) return;
+        if (!mReleased && mIdleEncoder == null && encoder.isReusable()) {
+            mIdleEncoder = encoder;
+            startPreRoll(encoder);
+        } else {
+            encoder.release();
+        }
+    }
+
+    /**
+     * 设置空闲编码器的预录时长，0表示关闭预录
+     */
+    public void setPreRollSeconds(int seconds) {
+        mPreRollSeconds = Math.max(0, seconds);
+        if (mIdleEncoder == null) return;
+        if (mIdleEncoder.isPreRolling() && mIdleEncoder.getPreRollSeconds() != mPreRollSeconds) {
+            mIdleEncoder.stopPreRoll();
+        }
+        startPreRoll(mIdleEncoder);
+    }
+
+    /**
+     * 开关代理文件录制。代理编码器随编码器一起创建，设置不同的空闲编码器直接释放，由下一次预热重建
+     */
+    public void setProxyEnabled(boolean enabled) {
+        mProxyEnabled = enabled;
+        if (mIdleEncoder != null && mIdleEncoder.isProxyEnabled() != enabled) {
+            releaseIdle();
+        }
+    }
+
+    /**
+     * 把预览帧交给正在预录的空闲编码器，在每次绘制后调用
+     */
+    public void frameAvailable(int textureId, long timestamp) {
+        if (mIdleEncoder != null && mIdleEncoder.isPreRolling()) {
+            mIdleEncoder.frameAvailable(textureId, timestamp);
+        }
+    }
+
+    public void release() {
+        releaseIdle();
+        mReleased = true;
+    }
+
+    private void startPreRoll(VideoEncoder encoder) {
+        if (mPreRollSeconds <= 0) return;
+        encoder.setPreRollSeconds(mPreRollSeconds);
+        encoder.startPreRoll();
+    }
+
+    private VideoEncoder createEncoder(int width, int height, EGLContext sharedContext, int codecMode, int quality) {
+        VideoEncoder encoder = new VideoEncoder(mContext, width, height, sharedContext);
+        encoder.setCodecMode(codecMode);
+        encoder.setQuality(quality);
+        encoder.setProxyEnabled(mProxyEnabled);
+        encoder.setReusable(true);
+        return encoder;
+    }
+
+    private void releaseIdle() {
+        if (mIdleEncoder != null) {
+            mIdleEncoder.release();
+            mIdleEncoder = null;
+        }
+    }
+}
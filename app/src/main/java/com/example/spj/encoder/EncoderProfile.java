@@ -0,0 +1,167 @@
+package com.example.spj.encoder;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+
+/**
+ * 一次录制使用的视频编码配置：编码器名称、编码格式、Profile/Level、码率模式和每像素比特数。
+ * 由CodecCapabilityProber按设备能力和分辨率选出，码率按实际帧率在配置编码器时计算。
+ */
+public class EncoderProfile {
+    // 画质档位
+    public static final int QUALITY_SMALL = 0;
+    public static final int QUALITY_STANDARD = 1;
+    public static final int QUALITY_HIGH = 2;
+    // 恒定质量（CQ），编码器不支持时按高画质VBR处理
+    public static final int QUALITY_CONSTANT = 3;
+
+    public static final int UNSET = -1;
+
+    // 码率下限，避免小尺寸下码率过低导致马赛克
+    private static final int MIN_BIT_RATE = 500_000;
+
+    private final String mCodecName;
+    private final String mMimeType;
+    private final int mProfile;
+    // 编码器对该Profile声明的最高Level，只用于记录，不写入格式
+    private final int mLevel;
+    private final int mBitrateMode;
+    private final int mCqQuality;
+    private final float mBitsPerPixel;
+    private final int mMaxBitRate;
+    private final int mQuality;
+    private final boolean mFallback;
+
+    EncoderProfile(String codecName, String mimeType, int profile, int level, int bitrateMode,
+                   int cqQuality, float bitsPerPixel, int maxBitRate, int quality, boolean fallback) {
+        mCodecName = codecName;
+        mMimeType = mimeType;
+        mProfile = profile;
+        mLevel = level;
+        mBitrateMode = bitrateMode;
+        mCqQuality = cqQuality;
+        mBitsPerPixel = bitsPerPixel;
+        mMaxBitRate = maxBitRate;
+        mQuality = quality;
+        mFallback = fallback;
+    }
+
+    /**
+     * 所有设备都支持的保守配置：系统默认AVC编码器、Baseline、VBR
+     */
+    public static EncoderProfile fallback(int quality) {
+        return new EncoderProfile(null, MediaFormat.MIMETYPE_VIDEO_AVC,
+                MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline, UNSET,
+                MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR, UNSET,
+                bitsPerPixel(MediaFormat.MIMETYPE_VIDEO_AVC,
+                        MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline, quality),
+                Integer.MAX_VALUE, quality, true);
+    }
+
+    /**
+     * 每帧每像素的比特数。以AVC High为基准，Baseline/Main压缩效率较低需要更多码率，HEVC约可节省40%
+     */
+    static float bitsPerPixel(String mimeType, int profile, int quality) {
+        float bpp;
+        switch (quality) {
+            case QUALITY_SMALL:
+                bpp = 0.05f;
+                break;
+            case QUALITY_HIGH:
+            case QUALITY_CONSTANT:
+                bpp = 0.14f;
+                break;
+            case QUALITY_STANDARD:
+            default:
+                bpp = 0.08f;
+                break;
+        }
+
+        if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mimeType)) {
+            return bpp * 0.6f;
+        }
+        if (profile == MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline) {
+            return bpp * 1.3f;
+        }
+        if (profile == MediaCodecInfo.CodecProfileLevel.AVCProfileMain) {
+            return bpp * 1.1f;
+        }
+        return bpp;
+    }
+
+    /**
+     * 按尺寸和帧率计算目标码率，并限制在编码器支持的范围内
+     */
+    public int getBitRate(int width, int height, int frameRate) {
+        long bitRate = (long) ((double) width * height * frameRate * mBitsPerPixel);
+        bitRate = Math.max(MIN_BIT_RATE, Math.min(bitRate, mMaxBitRate));
+        return (int) bitRate;
+    }
+
+    /**
+     * 把编码参数写入视频格式
+     */
+    public void applyTo(MediaFormat format, int width, int height, int frameRate) {
+        format.setInteger(MediaFormat.KEY_BIT_RATE, getBitRate(width, height, frameRate));
+        if (mProfile != UNSET) {
+            // 不设置KEY_LEVEL，由编码器按尺寸、帧率和码率选择够用的最低Level。
+            // 直接写入声明的最高Level会让部分厂商编码器configure失败，播放和分享端也可能拒绝过高的Level
+            format.setInteger(MediaFormat.KEY_PROFILE, mProfile);
+        }
+        if (mBitrateMode != UNSET) {
+            format.setInteger(MediaFormat.KEY_BITRATE_MODE, mBitrateMode);
+        }
+        if (mCqQuality != UNSET && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            format.setInteger(MediaFormat.KEY_QUALITY, mCqQuality);
+        }
+    }
+
+    /**
+     * 指定的编码器名称，为null时按MIME类型使用系统默认编码器
+     */
+    public String getCodecName() {
+        return mCodecName;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    public int getBitrateMode() {
+        return mBitrateMode;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public boolean isFallback() {
+        return mFallback;
+    }
+
+    public boolean isHevc() {
+        return MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mMimeType);
+    }
+
+    @Override
+    public String toString() {
+        String mode;
+        if (mBitrateMode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ) {
+            mode = "CQ";
+        } else if (mBitrateMode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR) {
+            mode = "CBR";
+        } else if (mBitrateMode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR) {
+            mode = "VBR";
+        } else {
+            mode = "默认";
+        }
+        return (isHevc() ? "HEVC" : "AVC") + "(" + (mCodecName != null ? mCodecName : "默认编码器")
+                + ", profile=" + mProfile + ", level=" + mLevel + ", " + mode
+                + ", bpp=" + mBitsPerPixel + (mFallback ? ", 回退配置" : "") + ")";
+    }
+}
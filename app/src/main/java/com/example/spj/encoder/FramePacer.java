@@ -0,0 +1,164 @@
+package com.example.spj.encoder;
+
+/**
+ * 按SurfaceTexture时间戳选择要编码的帧。
+ * 维护一条按目标帧率推进的时间网格，帧时间戳到达下一个网格点（允许少量抖动）才被接受，
+ * 因此降帧时丢帧均匀分布而不是成批丢弃；目标帧率为0时为可变帧率，接受所有新帧。
+ * 延时摄影时网格间隔放大N倍，即按输出帧率每N帧只接受一帧。
+ * 只在预览GL线程上调用，判断本身不阻塞也不分配对象。
+ */
+public class FramePacer {
+    public static final int FPS_VARIABLE = 0;
+    // 可变帧率下开启延时摄影时，按这个输出帧率计算取帧间隔
+    private static final int TIME_LAPSE_OUTPUT_FPS = 30;
+
+    private volatile int mTargetFps;
+    private volatile int mTimeLapseFactor = 1;
+    private long mIntervalNs;
+    private long mToleranceNs;
+
+    private long mNextDueNs = -1;
+    private long mLastTimestampNs = -1;
+    private long mLastAcceptedNs = -1;
+
+    // 统计信息
+    private volatile long mAcceptedCount = 0;
+    private volatile long mDroppedCount = 0;
+    private volatile long mDuplicatedCount = 0;
+    private volatile long mLateCount = 0;
+
+    public FramePacer(int targetFps) {
+        setTargetFps(targetFps);
+    }
+
+    /**
+     * 设置目标帧率（例如24/30/60），FPS_VARIABLE表示按相机实际帧率编码
+     */
+    public synchronized void setTargetFps(int targetFps) {
+        mTargetFps = Math.max(FPS_VARIABLE, targetFps);
+        updateInterval();
+    }
+
+    public int getTargetFps() {
+        return mTargetFps;
+    }
+
+    /**
+     * 设置延时摄影倍数，1为关闭。开启后每factor个输出帧间隔只接受一帧
+     */
+    public synchronized void setTimeLapseFactor(int factor) {
+        mTimeLapseFactor = Math.max(1, factor);
+        updateInterval();
+    }
+
+    public int getTimeLapseFactor() {
+        return mTimeLapseFactor;
+    }
+
+    private void updateInterval() {
+        if (mTimeLapseFactor > 1) {
+            int outputFps = mTargetFps > 0 ? mTargetFps : TIME_LAPSE_OUTPUT_FPS;
+            mIntervalNs = mTimeLapseFactor * 1_000_000_000L / outputFps;
+        } else {
+            mIntervalNs = mTargetFps > 0 ? 1_000_000_000L / mTargetFps : 0;
+        }
+        // 相机时间戳有抖动，允许提前四分之一个输出帧间隔（延时摄影时不按倍数放大）
+        mToleranceNs = mIntervalNs / mTimeLapseFactor / 4;
+        mNextDueNs = -1;
+    }
+
+    /**
+     * 开始新的录制时清除网格和统计
+     */
+    public synchronized void reset() {
+        mNextDueNs = -1;
+        mLastTimestampNs = -1;
+        mLastAcceptedNs = -1;
+        mAcceptedCount = 0;
+        mDroppedCount = 0;
+        mDuplicatedCount = 0;
+        mLateCount = 0;
+    }
+
+    /**
+     * 判断这一帧是否需要编码
+     *
+     * @param timestampNs SurfaceTexture.getTimestamp()
+     */
+    public synchronized boolean shouldEncode(long timestampNs) {
+        if (timestampNs == mLastTimestampNs) {
+            // 同一相机帧被重复绘制
+            mDuplicatedCount++;
+            return false;
+        }
+        mLastTimestampNs = timestampNs;
+
+        if (mLastAcceptedNs >= 0 && timestampNs < mLastAcceptedNs) {
+            // 时间戳倒退，编码器要求时间戳单调递增
+            mLateCount++;
+            return false;
+        }
+
+        if (mIntervalNs == 0) {
+            accept(timestampNs);
+            return true;
+        }
+
+        if (mNextDueNs < 0) {
+            mNextDueNs = timestampNs + mIntervalNs;
+            accept(timestampNs);
+            return true;
+        }
+
+        if (timestampNs < mNextDueNs - mToleranceNs) {
+            mDroppedCount++;
+            return false;
+        }
+
+        mNextDueNs += mIntervalNs;
+        if (timestampNs - mNextDueNs >= mIntervalNs) {
+            // 帧来得太晚（相机卡顿或预览线程被占用），网格重新对齐到当前帧，不去补齐错过的网格点
+            mLateCount++;
+            mNextDueNs = timestampNs + mIntervalNs;
+        }
+        accept(timestampNs);
+        return true;
+    }
+
+    /**
+     * 已接受的帧没能交给编码器（例如环形缓冲区已满）时调用
+     */
+    public synchronized void onFrameDropped() {
+        mDroppedCount++;
+    }
+
+    private void accept(long timestampNs) {
+        mLastAcceptedNs = timestampNs;
+        mAcceptedCount++;
+    }
+
+    public long getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public long getDuplicatedCount() {
+        return mDuplicatedCount;
+    }
+
+    public long getLateCount() {
+        return mLateCount;
+    }
+
+    public String getStatsSummary() {
+        return "目标帧率=" + (mTargetFps > 0 ? String.valueOf(mTargetFps) : "可变")
+                + (mTimeLapseFactor > 1 ? ", 延时x" + mTimeLapseFactor : "")
+                + ", 编码=" + mAcceptedCount
+                + ", 丢弃=" + mDroppedCount
+                + ", 重复=" + mDuplicatedCount
+                + ", 延迟=" + mLateCount;
+    }
+}
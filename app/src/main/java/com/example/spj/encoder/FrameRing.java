@@ -0,0 +1,385 @@
+package com.example.spj.encoder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.opengl.EGL14;
+import android.opengl.EGL15;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSync;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.spj.render.filters.ScreenFilter;
+
+/**
+ * 预览线程与编码线程之间的帧交接环形缓冲区。
+ * 每个槽位持有一张编码器专用纹理，预览线程把滤镜输出拷贝进空闲槽位后插入写入栅栏，
+ * 编码线程等待写入栅栏后采样，采样完成再插入读取栅栏归还槽位，避免两个线程同时读写同一纹理。
+ * 槽位描述符全部预分配，交接过程不分配对象。
+ */
+public class FrameRing {
+    private static final String TAG = "FrameRing";
+
+    // 编码线程等待写入栅栏的最长时间
+    private static final long FENCE_TIMEOUT_NS = 20_000_000L;
+
+    private static final long[] FENCE_ATTRIBS = {EGL14.EGL_NONE};
+
+    private static class Slot {
+        int textureId;
+        int frameBuffer;
+        long timestampNs;
+        EGLSync writeFence;
+        EGLSync readFence;
+    }
+
+    private final Slot[] mSlots;
+    private final int mWidth, mHeight;
+    private final boolean mFenceSupported;
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private ScreenFilter mCopyFilter;
+    private boolean mPrepared = false;
+
+    // 空闲槽位与待编码槽位两个FIFO，均由mLock保护
+    private final Object mLock = new Object();
+    private final int[] mFree;
+    private int mFreeHead, mFreeCount;
+    private final int[] mReady;
+    private int mReadyHead, mReadyCount;
+
+    // 统计信息，用于确定环形缓冲区大小
+    private volatile long mPublishedCount = 0;
+    private volatile long mRecycledCount = 0;
+    private volatile long mDroppedCount = 0;
+    private volatile int mMaxQueueDepth = 0;
+    private volatile long mFenceWaitCount = 0;
+    private volatile long mFenceWaitTotalNs = 0;
+    private volatile long mFenceWaitMaxNs = 0;
+
+    public FrameRing(int size, int width, int height) {
+        if (size < 2) {
+            throw new IllegalArgumentException("环形缓冲区至少需要2个槽位: " + size);
+        }
+        mWidth = width;
+        mHeight = height;
+        mSlots = new Slot[size];
+        mFree = new int[size];
+        mReady = new int[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Slot();
+            mFree[i] = i;
+        }
+        mFreeCount = size;
+        mFenceSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    /**
+     * 在预览GL线程上创建槽位纹理和FBO，纹理通过共享上下文对编码线程可见
+     */
+    public void prepare(Context context) {
+        if (mPrepared) return;
+
+        mEglDisplay = EGL14.eglGetCurrentDisplay();
+        mCopyFilter = new ScreenFilter(context);
+
+        int[] frameBuffers = new int[mSlots.length];
+        int[] textures = new int[mSlots.length];
+        GLES20.glGenFramebuffers(mSlots.length, frameBuffers, 0);
+        GLES20.glGenTextures(mSlots.length, textures, 0);
+
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[i];
+            slot.frameBuffer = frameBuffers[i];
+            slot.textureId = textures[i];
+
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, slot.textureId);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight,
+                    0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, slot.frameBuffer);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, slot.textureId, 0);
+            int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+            if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                Log.e(TAG, "槽位FBO创建失败, status: " + status);
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        mPrepared = true;
+        Log.d(TAG, "帧环形缓冲区已准备: 槽位=" + mSlots.length + ", 尺寸=" + mWidth + "x" + mHeight
+                + ", 栅栏=" + (mFenceSupported ? "EGL sync" : "glFinish"));
+    }
+
+    /**
+     * 预览线程调用：把纹理拷贝到一个空闲槽位并放入待编码队列，从不阻塞。
+     *
+     * @return 是否成功入队
+     */
+    public boolean publish(int textureId, long timestampNs) {
+        if (!mPrepared) return false;
+
+        int index = takeFree();
+        if (index < 0) {
+            // 没有可写槽位，回收最旧的尚未编码的帧
+            index = takeOldestReady();
+            if (index < 0) {
+                mDroppedCount++;
+                return false;
+            }
+            mRecycledCount++;
+            destroyFence(mSlots[index].writeFence);
+            mSlots[index].writeFence = null;
+        }
+
+        Slot slot = mSlots[index];
+        mCopyFilter.drawToFrameBuffer(textureId, slot.frameBuffer, mWidth, mHeight);
+        slot.timestampNs = timestampNs;
+        slot.writeFence = createFence();
+
+        synchronized (mLock) {
+            mReady[(mReadyHead + mReadyCount) % mReady.length] = index;
+            mReadyCount++;
+            if (mReadyCount > mMaxQueueDepth) {
+                mMaxQueueDepth = mReadyCount;
+            }
+            mLock.notifyAll();
+        }
+        mPublishedCount++;
+        return true;
+    }
+
+    /**
+     * 编码线程调用：取出下一帧待编码的槽位，并等待其写入栅栏。
+     *
+     * @return 槽位索引，超时返回-1
+     */
+    public int acquire(long timeoutMs) {
+        int index;
+        synchronized (mLock) {
+            if (mReadyCount == 0 && timeoutMs > 0) {
+                try {
+                    mLock.wait(timeoutMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            if (mReadyCount == 0) {
+                return -1;
+            }
+            index = mReady[mReadyHead];
+            mReadyHead = (mReadyHead + 1) % mReady.length;
+            mReadyCount--;
+        }
+
+        Slot slot = mSlots[index];
+        if (slot.writeFence != null) {
+            long waitStart = System.nanoTime();
+            boolean signaled = waitFence(slot.writeFence, FENCE_TIMEOUT_NS);
+            long waited = System.nanoTime() - waitStart;
+            if (!signaled) {
+                Log.w(TAG, "等待写入栅栏超时: " + waited / 1000 + "us");
+            }
+            mFenceWaitCount++;
+            mFenceWaitTotalNs += waited;
+            if (waited > mFenceWaitMaxNs) {
+                mFenceWaitMaxNs = waited;
+            }
+            destroyFence(slot.writeFence);
+            slot.writeFence = null;
+        }
+        return index;
+    }
+
+    public int getTextureId(int index) {
+        return mSlots[index].textureId;
+    }
+
+    public long getTimestamp(int index) {
+        return mSlots[index].timestampNs;
+    }
+
+    /**
+     * 编码线程调用：采样完成后插入读取栅栏并归还槽位
+     */
+    public void releaseSlot(int index) {
+        Slot slot = mSlots[index];
+        destroyFence(slot.readFence);
+        slot.readFence = createFence();
+        synchronized (mLock) {
+            mFree[(mFreeHead + mFreeCount) % mFree.length] = index;
+            mFreeCount++;
+        }
+    }
+
+    private int takeFree() {
+        synchronized (mLock) {
+            if (mFreeCount == 0) {
+                return -1;
+            }
+            int index = mFree[mFreeHead];
+            Slot slot = mSlots[index];
+            // 编码线程仍在读取该纹理，不阻塞预览线程
+            if (slot.readFence != null && !isSignaled(slot.readFence)) {
+                return -1;
+            }
+            mFreeHead = (mFreeHead + 1) % mFree.length;
+            mFreeCount--;
+            destroyFence(slot.readFence);
+            slot.readFence = null;
+            return index;
+        }
+    }
+
+    private int takeOldestReady() {
+        synchronized (mLock) {
+            if (mReadyCount == 0) {
+                return -1;
+            }
+            int index = mReady[mReadyHead];
+            mReadyHead = (mReadyHead + 1) % mReady.length;
+            mReadyCount--;
+            return index;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private EGLSync createFence() {
+        if (!mFenceSupported) {
+            // 低版本没有EGL 1.5栅栏，只能等待GPU完成
+            GLES20.glFinish();
+            return null;
+        }
+        EGLSync sync = EGL15.eglCreateSync(mEglDisplay, EGL15.EGL_SYNC_FENCE, FENCE_ATTRIBS, 0);
+        if (sync == null || sync == EGL15.EGL_NO_SYNC) {
+            GLES20.glFinish();
+            return null;
+        }
+        GLES20.glFlush();
+        return sync;
+    }
+
+    private boolean isSignaled(EGLSync sync) {
+        return waitFence(sync, 0);
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private boolean waitFence(EGLSync sync, long timeoutNs) {
+        int flags = timeoutNs > 0 ? EGL15.EGL_SYNC_FLUSH_COMMANDS_BIT : 0;
+        return EGL15.eglClientWaitSync(mEglDisplay, sync, flags, timeoutNs) != EGL15.EGL_TIMEOUT_EXPIRED;
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void destroyFence(EGLSync sync) {
+        if (sync != null) {
+            EGL15.eglDestroySync(mEglDisplay, sync);
+        }
+    }
+
+    /**
+     * 在预览GL线程上释放槽位纹理和FBO
+     */
+    public void release() {
+        synchronized (mLock) {
+            for (Slot slot : mSlots) {
+                destroyFence(slot.writeFence);
+                destroyFence(slot.readFence);
+                slot.writeFence = null;
+                slot.readFence = null;
+            }
+            mReadyCount = 0;
+            mReadyHead = 0;
+            mFreeHead = 0;
+            mFreeCount = mSlots.length;
+            for (int i = 0; i < mSlots.length; i++) {
+                mFree[i] = i;
+            }
+        }
+
+        if (mPrepared) {
+            int[] frameBuffers = new int[mSlots.length];
+            int[] textures = new int[mSlots.length];
+            for (int i = 0; i < mSlots.length; i++) {
+                frameBuffers[i] = mSlots[i].frameBuffer;
+                textures[i] = mSlots[i].textureId;
+            }
+            GLES20.glDeleteFramebuffers(mSlots.length, frameBuffers, 0);
+            GLES20.glDeleteTextures(mSlots.length, textures, 0);
+            if (mCopyFilter != null) {
+                mCopyFilter.release();
+                mCopyFilter = null;
+            }
+            mPrepared = false;
+        }
+        Log.d(TAG, "帧环形缓冲区已释放: " + getStatsSummary());
+    }
+
+    public int getSize() {
+        return mSlots.length;
+    }
+
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mReadyCount;
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    public long getRecycledCount() {
+        return mRecycledCount;
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public long getFenceWaitCount() {
+        return mFenceWaitCount;
+    }
+
+    public long getFenceWaitTotalNs() {
+        return mFenceWaitTotalNs;
+    }
+
+    public long getFenceWaitMaxNs() {
+        return mFenceWaitMaxNs;
+    }
+
+    /**
+     * 复用环形缓冲区开始新一次录制时清零统计
+     */
+    public void resetStats() {
+        mPublishedCount = 0;
+        mRecycledCount = 0;
+        mDroppedCount = 0;
+        mMaxQueueDepth = 0;
+        mFenceWaitCount = 0;
+        mFenceWaitTotalNs = 0;
+        mFenceWaitMaxNs = 0;
+    }
+
+    public String getStatsSummary() {
+        long avgWaitUs = mFenceWaitCount > 0 ? mFenceWaitTotalNs / mFenceWaitCount / 1000 : 0;
+        return "槽位=" + mSlots.length
+                + ", 入队=" + mPublishedCount
+                + ", 回收=" + mRecycledCount
+                + ", 丢弃=" + mDroppedCount
+                + ", 最大队列深度=" + mMaxQueueDepth
+                + ", 栅栏等待平均=" + avgWaitUs + "us"
+                + ", 最大=" + mFenceWaitMaxNs / 1000 + "us";
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.spj.encoder;
+
+/**
+ * int索引队列，用于在编解码器回调线程与生产线程之间传递缓冲区索引，不产生装箱对象。
+ * 每个索引都是编解码器的一个缓冲区，丢弃就再也不会还给编解码器，所以容量不够时扩容而不是覆盖
+ */
+class IndexQueue {
+    private int[] mItems;
+    private int mHead, mCount;
+
+    IndexQueue(int initialCapacity) {
+        mItems = new int[Math.max(1, initialCapacity)];
+    }
+
+    synchronized void put(int index) {
+        if (mCount == mItems.length) {
+            int[] items = new int[mItems.length * 2];
+            for (int i = 0; i < mCount; i++) {
+                items[i] = mItems[(mHead + i) % mItems.length];
+            }
+            mItems = items;
+            mHead = 0;
+        }
+        mItems[(mHead + mCount) % mItems.length] = index;
+        mCount++;
+        notifyAll();
+    }
+
+    /**
+     * 取出一个索引，最多等待timeoutMs毫秒
+     *
+     * @return 索引，超时返回-1
+     */
+    synchronized int take(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mCount == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return -1;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        int index = mItems[mHead];
+        mHead = (mHead + 1) % mItems.length;
+        mCount--;
+        return index;
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    synchronized void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,620 @@
+package com.example.spj.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * 独立的混合器写入线程。
+ * 编码线程只把已编码样本拷贝进池化缓冲区并放入对应轨道的有界队列，不再直接接触文件I/O；
+ * 写入线程按时间戳合并音视频两个队列，攒够一批后统一写入MediaMuxer，使MP4中的音视频块交错均匀。
+ * 开启分段后，时长或大小达到上限时在下一个视频关键帧处切换到新文件，每段时间戳从0开始，
+ * 已完成的分段是完整可播放的MP4，进程被杀时最多丢失当前一段。
+ */
+public class MuxerWriter {
+    private static final String TAG = "MuxerWriter";
+
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+    private static final int TRACK_COUNT = 2;
+
+    // 每个轨道池化样本的数量，也就是队列的上限
+    private static final int VIDEO_POOL_SIZE = 60;
+    private static final int AUDIO_POOL_SIZE = 120;
+    // 攒够这么多样本或等待超过这个时间后写入一批
+    private static final int BATCH_SAMPLES = 32;
+    private static final long BATCH_INTERVAL_MS = 250;
+    // 某一轨道积压超过该比例时，即使另一轨道暂时没有数据也继续写入
+    private static final int FORCE_WRITE_DEPTH_PERCENT = 75;
+    // 队列满时编码线程最多等待的时间，超时后扩充样本池而不是丢弃样本
+    private static final long ACQUIRE_TIMEOUT_MS = 500;
+    // finish超时后中断写入线程，再等待它退出的时间
+    private static final long INTERRUPT_WAIT_MS = 1000;
+
+    /**
+     * 分段写完（MediaMuxer已停止）后在写入线程上回调，最后一段在finish中回调，last为true。
+     * 只有一段时回调一次，index为0且last为true
+     */
+    public interface SegmentListener {
+        void onSegmentFinished(int index, String path, long durationUs, boolean last);
+    }
+
+    private static class EncodedSample {
+        ByteBuffer data;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        int track;
+    }
+
+    private final String mOutputPath;
+    private MediaMuxer mMediaMuxer;
+    private final int[] mMuxerTrackIndex = {-1, -1};
+    private final MediaFormat[] mTrackFormats = new MediaFormat[TRACK_COUNT];
+    private final boolean[] mTrackEnabled = {true, true};
+    private final int[] mPoolSize;
+    private boolean mMuxerStarted = false;
+
+    // 分段录制，上限为0表示不按该条件分段
+    private long mSegmentDurationUs = 0;
+    private long mSegmentMaxBytes = 0;
+    private SegmentListener mSegmentListener;
+    private int mSegmentIndex = 0;
+    private String mSegmentPath;
+    private long mSegmentStartUs = -1;
+    private long mSegmentLastUs = 0;
+    private long mSegmentBytes = 0;
+    private boolean mRebaseTimestamps = false;
+
+    // 以下字段由mLock保护
+    private final Object mLock = new Object();
+    private final ArrayDeque<EncodedSample>[] mFreePools;
+    private final ArrayDeque<EncodedSample>[] mQueues;
+    private boolean mFinishing = false;
+    // 写入线程已退出；finish放弃等待后由写入线程自己停止并释放混合器
+    private boolean mWriterExited = true;
+    private boolean mAbandoned = false;
+    // 写入线程异常退出（例如MediaMuxer启动失败）后一直保持，之后的样本直接丢弃，finish返回失败
+    private boolean mFailed = false;
+
+    // 写入线程一次取出的样本，预分配避免每批分配数组
+    private final EncodedSample[] mBatch;
+    private Thread mWriterThread;
+
+    // 统计信息
+    private volatile long mSamplesWritten = 0;
+    private volatile long mBytesWritten = 0;
+    private volatile long mBatchesWritten = 0;
+    private volatile long mSamplesDropped = 0;
+    private volatile int mPoolGrowth = 0;
+    private volatile int mMaxQueuedSamples = 0;
+
+    public MuxerWriter(String outputPath) throws IOException {
+        this(outputPath, 0, 0);
+    }
+
+    /**
+     * @param extraVideoSamples 额外的视频样本池容量，用于开始时一次写入大量样本（预录缓冲）而不丢弃
+     * @param extraAudioSamples 额外的音频样本池容量
+     */
+    @SuppressWarnings("unchecked")
+    public MuxerWriter(String outputPath, int extraVideoSamples, int extraAudioSamples) throws IOException {
+        mOutputPath = outputPath;
+        mPoolSize = new int[]{VIDEO_POOL_SIZE + Math.max(0, extraVideoSamples),
+                AUDIO_POOL_SIZE + Math.max(0, extraAudioSamples)};
+        mSegmentPath = outputPath;
+        mMediaMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+        mFreePools = new ArrayDeque[TRACK_COUNT];
+        mQueues = new ArrayDeque[TRACK_COUNT];
+        for (int track = 0; track < TRACK_COUNT; track++) {
+            mFreePools[track] = new ArrayDeque<>(mPoolSize[track]);
+            mQueues[track] = new ArrayDeque<>(mPoolSize[track]);
+            for (int i = 0; i < mPoolSize[track]; i++) {
+                EncodedSample sample = new EncodedSample();
+                sample.track = track;
+                mFreePools[track].add(sample);
+            }
+        }
+        mBatch = new EncodedSample[mPoolSize[TRACK_VIDEO] + mPoolSize[TRACK_AUDIO]];
+    }
+
+    /**
+     * 开启分段写入，必须在start之前调用
+     *
+     * @param segmentDurationUs 每段最长时长，0表示不限
+     * @param segmentMaxBytes   每段最大字节数，0表示不限
+     */
+    public void setSegmentation(long segmentDurationUs, long segmentMaxBytes, SegmentListener listener) {
+        mSegmentDurationUs = segmentDurationUs;
+        mSegmentMaxBytes = segmentMaxBytes;
+        mSegmentListener = listener;
+    }
+
+    /**
+     * 时间戳不从0开始时（例如预录缓冲的数据）调用，写入时平移到从0开始，必须在start之前调用
+     */
+    public void setRebaseTimestamps(boolean rebase) {
+        mRebaseTimestamps = rebase;
+    }
+
+    private boolean isSegmented() {
+        return mSegmentDurationUs > 0 || mSegmentMaxBytes > 0;
+    }
+
+    /**
+     * 第index段的文件路径：第0段就是输出路径，之后的分段在扩展名前加上序号
+     */
+    public static String segmentPath(String outputPath, int index) {
+        if (index == 0) return outputPath;
+        int slash = outputPath.lastIndexOf('/');
+        int dot = outputPath.lastIndexOf('.');
+        String suffix = String.format(Locale.US, "_part%03d", index);
+        if (dot > slash) {
+            return outputPath.substring(0, dot) + suffix + outputPath.substring(dot);
+        }
+        return outputPath + suffix;
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            mWriterExited = false;
+        }
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "MuxerWriterThread");
+        mWriterThread.start();
+    }
+
+    /**
+     * 某个轨道不会产生数据（例如麦克风初始化失败）时调用，混合器不再等待它
+     */
+    public void disableTrack(int track) {
+        synchronized (mLock) {
+            mTrackEnabled[track] = false;
+            mLock.notifyAll();
+        }
+        Log.w(TAG, "禁用轨道: " + track);
+    }
+
+    /**
+     * 编码器输出格式确定后调用，轨道在写入线程上添加
+     */
+    public void setTrackFormat(int track, MediaFormat format) {
+        synchronized (mLock) {
+            if (mTrackFormats[track] != null) {
+                Log.w(TAG, "轨道格式已经设置，忽略: " + track);
+                return;
+            }
+            mTrackFormats[track] = format;
+            mLock.notifyAll();
+        }
+    }
+
+    public boolean hasTrackFormat(int track) {
+        synchronized (mLock) {
+            return mTrackFormats[track] != null;
+        }
+    }
+
+    /**
+     * 编码线程调用：拷贝一个已编码样本并放入队列。
+     * 队列满时最多等待ACQUIRE_TIMEOUT_MS，不会等待文件I/O本身；超时或混合器还没启动（写入线程无法消耗队列）时
+     * 扩充样本池，丢失任何一个样本（尤其是第一个关键帧）都会让文件无法解码。
+     */
+    public void writeSample(int track, ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        if (bufferInfo.size <= 0) return;
+
+        EncodedSample sample;
+        synchronized (mLock) {
+            if (mFinishing) return;
+            if (mFailed) {
+                // 写入线程已经退出，没有人消耗队列，继续缓冲只会让样本池无限增长
+                mSamplesDropped++;
+                return;
+            }
+            ArrayDeque<EncodedSample> pool = mFreePools[track];
+            if (pool.isEmpty() && mMuxerStarted) {
+                long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT_MS;
+                long remaining = ACQUIRE_TIMEOUT_MS;
+                while (pool.isEmpty() && remaining > 0) {
+                    try {
+                        mLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+            sample = pool.poll();
+            if (sample == null) {
+                sample = new EncodedSample();
+                sample.track = track;
+                mPoolGrowth++;
+                Log.w(TAG, "样本队列已满，扩充轨道" + track + "的样本池, 已扩充 " + mPoolGrowth
+                        + " 个, 混合器已启动=" + mMuxerStarted);
+            }
+        }
+
+        // 拷贝放在锁外，写入线程可以同时写文件
+        if (sample.data == null || sample.data.capacity() < bufferInfo.size) {
+            sample.data = ByteBuffer.allocateDirect(roundUpCapacity(bufferInfo.size));
+        }
+        encodedData.position(bufferInfo.offset);
+        encodedData.limit(bufferInfo.offset + bufferInfo.size);
+        sample.data.clear();
+        sample.data.put(encodedData);
+        sample.data.flip();
+        sample.info.set(0, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+
+        synchronized (mLock) {
+            mQueues[track].add(sample);
+            int queued = mQueues[TRACK_VIDEO].size() + mQueues[TRACK_AUDIO].size();
+            if (queued > mMaxQueuedSamples) {
+                mMaxQueuedSamples = queued;
+            }
+            if (queued >= BATCH_SAMPLES) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private static int roundUpCapacity(int size) {
+        int capacity = 4096;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void writeLoop() {
+        boolean completed = false;
+        try {
+            while (true) {
+                int count;
+                boolean finishing;
+                synchronized (mLock) {
+                    if (!mMuxerStarted) {
+                        startMuxerIfReady();
+                    }
+                    int queued = mQueues[TRACK_VIDEO].size() + mQueues[TRACK_AUDIO].size();
+                    if (!mFinishing && (!mMuxerStarted || queued < BATCH_SAMPLES)) {
+                        mLock.wait(BATCH_INTERVAL_MS);
+                        if (!mMuxerStarted) {
+                            startMuxerIfReady();
+                        }
+                    }
+                    finishing = mFinishing;
+                    count = mMuxerStarted ? collectBatch(finishing) : 0;
+                    if (count == 0 && !finishing) {
+                        // 另一轨道还没有跟上，等待新样本再合并
+                        mLock.wait(BATCH_INTERVAL_MS);
+                    }
+                }
+
+                writeBatch(count);
+
+                if (finishing) {
+                    synchronized (mLock) {
+                        if (mQueues[TRACK_VIDEO].isEmpty() && mQueues[TRACK_AUDIO].isEmpty()) {
+                            break;
+                        }
+                        if (!mMuxerStarted) {
+                            // 混合器始终没有启动，剩余样本无法写入
+                            mSamplesDropped += mQueues[TRACK_VIDEO].size() + mQueues[TRACK_AUDIO].size();
+                            break;
+                        }
+                    }
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "混合器写入线程被中断");
+        } catch (Exception e) {
+            Log.e(TAG, "混合器写入线程异常", e);
+        } finally {
+            synchronized (mLock) {
+                mWriterExited = true;
+                if (!completed) {
+                    mFailed = true;
+                    dropQueuedLocked();
+                }
+                if (mAbandoned) {
+                    // finish已经放弃等待，不能在写入期间从其他线程停止混合器，由这里收尾
+                    releaseMuxerLocked();
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    // 调用方持有mLock：写入线程异常退出后丢弃队列中的样本，放回样本池
+    private void dropQueuedLocked() {
+        for (int track = 0; track < TRACK_COUNT; track++) {
+            EncodedSample sample;
+            while ((sample = mQueues[track].poll()) != null) {
+                mFreePools[track].add(sample);
+                mSamplesDropped++;
+            }
+        }
+    }
+
+    // 调用方持有mLock
+    private void startMuxerIfReady() {
+        for (int track = 0; track < TRACK_COUNT; track++) {
+            if (mTrackEnabled[track] && mTrackFormats[track] == null) {
+                return;
+            }
+        }
+        try {
+            for (int track = 0; track < TRACK_COUNT; track++) {
+                if (mTrackEnabled[track]) {
+                    mMuxerTrackIndex[track] = mMediaMuxer.addTrack(mTrackFormats[track]);
+                    Log.d(TAG, "添加轨道 " + track + " -> " + mMuxerTrackIndex[track]);
+                }
+            }
+            mMediaMuxer.start();
+            mMuxerStarted = true;
+            Log.d(TAG, "MediaMuxer已启动");
+        } catch (Exception e) {
+            Log.e(TAG, "启动MediaMuxer失败", e);
+            throw new RuntimeException("启动MediaMuxer失败", e);
+        }
+    }
+
+    /**
+     * 按时间戳合并两个轨道的队列，取出一批待写样本。调用方持有mLock。
+     * 只有在两个轨道都有数据时才比较时间戳，某一轨道暂时为空时等待它，
+     * 除非另一轨道积压过多、该轨道已禁用或正在结束。
+     */
+    private int collectBatch(boolean finishing) {
+        ArrayDeque<EncodedSample> video = mQueues[TRACK_VIDEO];
+        ArrayDeque<EncodedSample> audio = mQueues[TRACK_AUDIO];
+        int count = 0;
+        while (count < mBatch.length) {
+            EncodedSample v = video.peek();
+            EncodedSample a = audio.peek();
+            EncodedSample next;
+            if (v != null && a != null) {
+                next = v.info.presentationTimeUs <= a.info.presentationTimeUs ? v : a;
+            } else if (v != null && (finishing || !mTrackEnabled[TRACK_AUDIO] || isBacklogged(TRACK_VIDEO))) {
+                next = v;
+            } else if (a != null && (finishing || !mTrackEnabled[TRACK_VIDEO] || isBacklogged(TRACK_AUDIO))) {
+                next = a;
+            } else {
+                break;
+            }
+            mQueues[next.track].poll();
+            mBatch[count++] = next;
+        }
+        return count;
+    }
+
+    private boolean isBacklogged(int track) {
+        return mQueues[track].size() * 100 >= mPoolSize[track] * FORCE_WRITE_DEPTH_PERCENT;
+    }
+
+    private void writeBatch(int count) {
+        if (count == 0) return;
+
+        for (int i = 0; i < count; i++) {
+            EncodedSample sample = mBatch[i];
+            try {
+                if (isSegmented()) {
+                    if (shouldRollSegment(sample)) {
+                        rollSegment();
+                    }
+                    rebaseTimestamp(sample);
+                } else if (mRebaseTimestamps) {
+                    rebaseTimestamp(sample);
+                }
+                mMediaMuxer.writeSampleData(mMuxerTrackIndex[sample.track], sample.data, sample.info);
+                mSamplesWritten++;
+                mBytesWritten += sample.info.size;
+                mSegmentBytes += sample.info.size;
+            } catch (Exception e) {
+                Log.e(TAG, "写入样本失败, 轨道=" + sample.track + ", pts=" + sample.info.presentationTimeUs, e);
+            }
+        }
+        mBatchesWritten++;
+
+        synchronized (mLock) {
+            for (int i = 0; i < count; i++) {
+                EncodedSample sample = mBatch[i];
+                mFreePools[sample.track].add(sample);
+                mBatch[i] = null;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 只在视频关键帧处切换分段，保证每一段都能独立解码
+     */
+    private boolean shouldRollSegment(EncodedSample sample) {
+        if (sample.track != TRACK_VIDEO
+                || (sample.info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0
+                || mSegmentStartUs < 0) {
+            return false;
+        }
+        long elapsedUs = sample.info.presentationTimeUs - mSegmentStartUs;
+        return (mSegmentDurationUs > 0 && elapsedUs >= mSegmentDurationUs)
+                || (mSegmentMaxBytes > 0 && mSegmentBytes >= mSegmentMaxBytes);
+    }
+
+    /**
+     * 每段时间戳从0开始，段内保持原有间隔，段与段之间首尾相接
+     */
+    private void rebaseTimestamp(EncodedSample sample) {
+        long ptsUs = sample.info.presentationTimeUs;
+        if (mSegmentStartUs < 0) {
+            mSegmentStartUs = ptsUs;
+        }
+        if (ptsUs > mSegmentLastUs) {
+            mSegmentLastUs = ptsUs;
+        }
+        sample.info.presentationTimeUs = Math.max(0, ptsUs - mSegmentStartUs);
+    }
+
+    /**
+     * 在写入线程上结束当前分段并打开下一段，复用已知的轨道格式
+     */
+    private void rollSegment() throws IOException {
+        long startNs = System.nanoTime();
+        mMediaMuxer.stop();
+        mMediaMuxer.release();
+        int finishedIndex = mSegmentIndex;
+        String finishedPath = mSegmentPath;
+        long finishedDurationUs = getSegmentDurationUs();
+        long finishedBytes = mSegmentBytes;
+
+        mSegmentIndex++;
+        mSegmentPath = segmentPath(mOutputPath, mSegmentIndex);
+        mSegmentStartUs = -1;
+        mSegmentLastUs = 0;
+        mSegmentBytes = 0;
+
+        mMediaMuxer = new MediaMuxer(mSegmentPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        synchronized (mLock) {
+            for (int track = 0; track < TRACK_COUNT; track++) {
+                if (mTrackEnabled[track] && mTrackFormats[track] != null) {
+                    mMuxerTrackIndex[track] = mMediaMuxer.addTrack(mTrackFormats[track]);
+                }
+            }
+        }
+        mMediaMuxer.start();
+        Log.d(TAG, "切换到分段 " + mSegmentIndex + ": " + mSegmentPath
+                + ", 耗时=" + (System.nanoTime() - startNs) / 1000 + "us");
+
+        notifySegmentFinished(finishedIndex, finishedPath, finishedDurationUs, finishedBytes, false);
+    }
+
+    private long getSegmentDurationUs() {
+        return mSegmentStartUs >= 0 ? mSegmentLastUs - mSegmentStartUs : 0;
+    }
+
+    private void notifySegmentFinished(int index, String path, long durationUs, long bytes, boolean last) {
+        Log.d(TAG, "分段完成 " + index + ": " + path
+                + ", 时长=" + durationUs / 1000 + "ms, 字节=" + bytes + (last ? " (最后一段)" : ""));
+        if (mSegmentListener != null) {
+            try {
+                mSegmentListener.onSegmentFinished(index, path, durationUs, last);
+            } catch (Exception e) {
+                Log.e(TAG, "分段回调失败", e);
+            }
+        }
+    }
+
+    public int getSegmentCount() {
+        return mSegmentIndex + 1;
+    }
+
+    /**
+     * 所有编码器都已输出结束后调用：写完剩余样本，停止并释放混合器。
+     * 写入线程超时未结束时先中断它；仍未退出则返回false，混合器交给写入线程退出时释放
+     *
+     * @return 混合器是否正常启动并写入了数据，写入线程中途失败时返回false
+     */
+    public boolean finish(long timeoutMs) {
+        synchronized (mLock) {
+            mFinishing = true;
+            mLock.notifyAll();
+        }
+
+        if (mWriterThread != null) {
+            try {
+                mWriterThread.join(timeoutMs);
+                if (mWriterThread.isAlive()) {
+                    Log.w(TAG, "等待混合器写入线程超时，中断写入");
+                    mWriterThread.interrupt();
+                    mWriterThread.join(INTERRUPT_WAIT_MS);
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "等待混合器写入线程被中断", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean success;
+        synchronized (mLock) {
+            if (!mWriterExited) {
+                // 写入线程仍在writeSampleData中，这时停止或释放混合器会崩溃或损坏文件
+                mAbandoned = true;
+                Log.e(TAG, "混合器写入线程没有退出，由它自己释放混合器");
+                return false;
+            }
+            mWriterThread = null;
+            success = releaseMuxerLocked() && !mFailed;
+            if (mFailed) {
+                Log.e(TAG, "混合器写入线程中途失败，文件不完整");
+            }
+        }
+
+        Log.d(TAG, "混合器写入统计(" + mOutputPath + "): " + getStatsSummary());
+        return success;
+    }
+
+    /**
+     * 停止并释放混合器，调用方持有mLock且写入线程已退出
+     *
+     * @return 混合器是否正常启动并写入了数据
+     */
+    private boolean releaseMuxerLocked() {
+        boolean success = false;
+        if (mMediaMuxer != null) {
+            if (mMuxerStarted) {
+                try {
+                    mMediaMuxer.stop();
+                    success = mSamplesWritten > 0 && !mAbandoned;
+                    Log.d(TAG, "MediaMuxer已停止");
+                    if (isSegmented() && mSegmentBytes > 0) {
+                        notifySegmentFinished(mSegmentIndex, mSegmentPath,
+                                getSegmentDurationUs(), mSegmentBytes, true);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "停止MediaMuxer失败", e);
+                }
+                mMuxerStarted = false;
+            }
+            try {
+                mMediaMuxer.release();
+                Log.d(TAG, "MediaMuxer已释放");
+            } catch (Exception e) {
+                Log.e(TAG, "释放muxer失败", e);
+            }
+            mMediaMuxer = null;
+        }
+        return success;
+    }
+
+    public long getSamplesWritten() {
+        return mSamplesWritten;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public long getSamplesDropped() {
+        return mSamplesDropped;
+    }
+
+    public String getStatsSummary() {
+        long avgBatch = mBatchesWritten > 0 ? mSamplesWritten / mBatchesWritten : 0;
+        return "样本=" + mSamplesWritten
+                + ", 字节=" + mBytesWritten
+                + ", 批次=" + mBatchesWritten
+                + ", 平均每批=" + avgBatch
+                + ", 最大积压=" + mMaxQueuedSamples
+                + ", 扩充=" + mPoolGrowth
+                + ", 丢弃=" + mSamplesDropped;
+    }
+}
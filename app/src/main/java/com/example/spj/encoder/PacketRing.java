@@ -0,0 +1,220 @@
+package com.example.spj.encoder;
+
+import android.media.MediaCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 预录用的已编码数据环形缓冲区。
+ * 按到达顺序保存音视频两个轨道的已编码包，缓冲区头部始终是一个视频关键帧，
+ * 超过保留时长或字节上限时以整个GOP为单位从头部丢弃，因此写入文件时可以直接从头解码。
+ * 包的缓冲区池化复用，稳定运行后不再分配内存。所有方法线程安全。
+ */
+public class PacketRing {
+    /**
+     * 写出缓冲数据时逐包回调，data的position/limit即包的内容
+     */
+    public interface Sink {
+        void onPacket(int track, ByteBuffer data, long presentationTimeUs, int flags);
+    }
+
+    private static class Packet {
+        int track;
+        ByteBuffer data;
+        long presentationTimeUs;
+        int flags;
+    }
+
+    private final long mMaxDurationUs;
+    private final long mMaxBytes;
+
+    private final ArrayDeque<Packet> mPackets = new ArrayDeque<>();
+    // 缓冲区中的视频关键帧，按时间顺序
+    private final ArrayDeque<Packet> mKeyFrames = new ArrayDeque<>();
+    private final ArrayDeque<Packet> mFreePackets = new ArrayDeque<>();
+    private final int[] mTrackCounts = new int[2];
+    private long mBytes = 0;
+    private long mFreeBytes = 0;
+    private long mLastVideoUs = -1;
+
+    // 统计信息
+    private long mDroppedGops = 0;
+    private long mAllocations = 0;
+
+    /**
+     * @param maxDurationUs 至少保留的时长，头部关键帧距最新视频帧超过这个时长后才会整体丢弃
+     * @param maxBytes      缓冲数据的字节上限
+     */
+    public PacketRing(long maxDurationUs, long maxBytes) {
+        mMaxDurationUs = maxDurationUs;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 拷贝一个已编码包。缓冲区为空时，第一个视频关键帧之前的包直接丢弃
+     */
+    public synchronized void write(int track, ByteBuffer encodedData, int offset, int size,
+                                   long presentationTimeUs, int flags) {
+        if (size <= 0) return;
+        boolean keyFrame = track == MuxerWriter.TRACK_VIDEO
+                && (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (mKeyFrames.isEmpty() && !keyFrame) {
+            return;
+        }
+
+        Packet packet = obtainPacket(size);
+        ByteBuffer src = encodedData.duplicate();
+        src.limit(offset + size);
+        src.position(offset);
+        packet.data.clear();
+        packet.data.put(src);
+        packet.data.flip();
+        packet.track = track;
+        packet.presentationTimeUs = presentationTimeUs;
+        packet.flags = flags;
+
+        mPackets.add(packet);
+        mTrackCounts[track]++;
+        mBytes += size;
+        if (keyFrame) {
+            mKeyFrames.add(packet);
+        }
+        if (track == MuxerWriter.TRACK_VIDEO) {
+            mLastVideoUs = Math.max(mLastVideoUs, presentationTimeUs);
+        }
+
+        trim();
+    }
+
+    /**
+     * 按写入顺序把缓冲的包交给sink，然后清空缓冲区。
+     * 早于头部关键帧的音频包被跳过，保证文件以视频关键帧开始。
+     *
+     * @return 交出的包数
+     */
+    public synchronized int drainTo(Sink sink) {
+        int count = 0;
+        long startUs = mKeyFrames.isEmpty() ? Long.MAX_VALUE : mKeyFrames.peekFirst().presentationTimeUs;
+        for (Packet packet : mPackets) {
+            if (packet.presentationTimeUs >= startUs) {
+                sink.onPacket(packet.track, packet.data.duplicate(), packet.presentationTimeUs, packet.flags);
+                count++;
+            }
+        }
+        clear();
+        return count;
+    }
+
+    /**
+     * 丢弃所有缓冲的包，缓冲区回到池中
+     */
+    public synchronized void clear() {
+        Packet packet;
+        while ((packet = mPackets.poll()) != null) {
+            recyclePacket(packet);
+        }
+        mKeyFrames.clear();
+        mTrackCounts[MuxerWriter.TRACK_VIDEO] = 0;
+        mTrackCounts[MuxerWriter.TRACK_AUDIO] = 0;
+        mBytes = 0;
+        mLastVideoUs = -1;
+    }
+
+    /**
+     * 头部关键帧之后的下一个关键帧已经足够旧，或者超过字节上限时，丢弃头部整个GOP
+     */
+    private void trim() {
+        while (mKeyFrames.size() > 1) {
+            // 取第二个关键帧，不使用迭代器以免每次写入都分配对象
+            Packet headKey = mKeyFrames.pollFirst();
+            Packet secondKey = mKeyFrames.peekFirst();
+            mKeyFrames.addFirst(headKey);
+            boolean tooOld = mLastVideoUs - secondKey.presentationTimeUs >= mMaxDurationUs;
+            if (!tooOld && mBytes <= mMaxBytes) {
+                break;
+            }
+            dropUntil(secondKey);
+        }
+
+        if (mBytes > mMaxBytes && mKeyFrames.size() <= 1) {
+            // 单个GOP就超过上限，无法按关键帧对齐裁剪，整体丢弃后等待下一个关键帧
+            clear();
+            mDroppedGops++;
+        }
+    }
+
+    private void dropUntil(Packet keyFrame) {
+        Packet packet;
+        while ((packet = mPackets.peekFirst()) != null && packet != keyFrame) {
+            mPackets.pollFirst();
+            if (packet == mKeyFrames.peekFirst()) {
+                mKeyFrames.pollFirst();
+            }
+            mTrackCounts[packet.track]--;
+            mBytes -= packet.data.limit();
+            recyclePacket(packet);
+        }
+        mDroppedGops++;
+    }
+
+    private Packet obtainPacket(int size) {
+        // 轮转空闲池找第一个容量足够的缓冲区
+        for (int i = mFreePackets.size(); i > 0; i--) {
+            Packet packet = mFreePackets.pollFirst();
+            if (packet.data.capacity() >= size) {
+                mFreeBytes -= packet.data.capacity();
+                return packet;
+            }
+            mFreePackets.addLast(packet);
+        }
+        Packet packet = new Packet();
+        packet.data = ByteBuffer.allocateDirect(roundUpCapacity(size));
+        mAllocations++;
+        return packet;
+    }
+
+    private void recyclePacket(Packet packet) {
+        // 空闲池最多保留字节上限的一半，多余的交给GC
+        if (mFreeBytes + packet.data.capacity() <= mMaxBytes / 2) {
+            mFreePackets.add(packet);
+            mFreeBytes += packet.data.capacity();
+        }
+    }
+
+    private static int roundUpCapacity(int size) {
+        int capacity = 1024;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    public synchronized int getPacketCount(int track) {
+        return mTrackCounts[track];
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * 缓冲区中从头部关键帧到最新视频帧的时长
+     */
+    public synchronized long getBufferedDurationUs() {
+        if (mKeyFrames.isEmpty()) return 0;
+        return mLastVideoUs - mKeyFrames.peekFirst().presentationTimeUs;
+    }
+
+    synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    public synchronized String getStatsSummary() {
+        return "缓冲=" + (getBufferedDurationUs() / 1000) + "ms"
+                + ", 包=" + mPackets.size()
+                + ", 字节=" + mBytes
+                + ", 丢弃GOP=" + mDroppedGops
+                + ", 分配=" + mAllocations;
+    }
+}
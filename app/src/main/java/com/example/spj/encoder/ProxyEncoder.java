@@ -0,0 +1,326 @@
+package com.example.spj.encoder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import com.example.spj.render.filters.ScreenFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 低分辨率代理流。
+ * 与主编码器共用编码线程和EGL上下文，每一帧在主编码器之后用第二个ScreenFilter把同一纹理缩小绘制到
+ * 代理编码器的输入Surface上，输出与主文件共用音频轨道（同一份AAC数据写入两个文件）。
+ * 代理文件用于应用内播放、分享和语音识别，原文件只在导出时使用。
+ * 代理编码器始终以同步方式排空，所有方法都在编码线程上调用。
+ */
+class ProxyEncoder {
+    private static final String TAG = "ProxyEncoder";
+
+    // 短边480，使用最保守的AVC配置以保证任何设备和分享目标都能播放
+    private static final int PROXY_SHORT_SIDE = 480;
+    private static final int EOS_MAX_RETRIES = 30;
+
+    private final Context mContext;
+    private final int mWidth;
+    private final int mHeight;
+    private final EncoderProfile mProfile = EncoderProfile.fallback(EncoderProfile.QUALITY_SMALL);
+    private final boolean mUsePersistentSurface;
+
+    private MediaCodec mCodec;
+    private Surface mInputSurface;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+    private ScreenFilter mScreenFilter;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    // 混合器和音频格式在编码线程和音频线程之间共享，修改时持有VideoEncoder的mTrackLock
+    private volatile MuxerWriter mWriter;
+    private MediaFormat mAudioFormat;
+    private MediaFormat mPendingVideoFormat;
+    private String mOutputPath;
+    private boolean mActive = false;
+
+    ProxyEncoder(Context context, int masterWidth, int masterHeight, boolean usePersistentSurface) {
+        mContext = context;
+        float scale = Math.min(1f, (float) PROXY_SHORT_SIDE / Math.min(masterWidth, masterHeight));
+        mWidth = alignTo16(masterWidth * scale);
+        mHeight = alignTo16(masterHeight * scale);
+        mUsePersistentSurface = usePersistentSurface;
+    }
+
+    private static int alignTo16(float size) {
+        return Math.max(16, Math.round(size / 16f) * 16);
+    }
+
+    /**
+     * 主文件路径对应的代理文件路径
+     */
+    static String proxyPath(String outputPath) {
+        int slash = outputPath.lastIndexOf('/');
+        int dot = outputPath.lastIndexOf('.');
+        if (dot > slash) {
+            return outputPath.substring(0, dot) + "_proxy" + outputPath.substring(dot);
+        }
+        return outputPath + "_proxy";
+    }
+
+    /**
+     * 创建（首次）并配置代理编码器，创建EGL表面。需要主编码器的EGL上下文已是当前上下文
+     */
+    void prepare(EGLDisplay display, EGLConfig config, int frameRate) throws IOException {
+        if (mCodec == null) {
+            mCodec = MediaCodec.createEncoderByType(mProfile.getMimeType());
+        }
+
+        MediaFormat format = MediaFormat.createVideoFormat(mProfile.getMimeType(), mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        mProfile.applyTo(format, mWidth, mHeight, frameRate);
+
+        mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        if (mUsePersistentSurface) {
+            attachPersistentSurface();
+        } else {
+            mInputSurface = mCodec.createInputSurface();
+        }
+        mCodec.start();
+
+        if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+            int[] surfaceAttributes = {EGL14.EGL_NONE};
+            mEglSurface = EGL14.eglCreateWindowSurface(display, config, mInputSurface, surfaceAttributes, 0);
+            if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+                throw new IOException("无法创建代理EGL表面");
+            }
+        }
+
+        if (mScreenFilter == null) {
+            mScreenFilter = new ScreenFilter(mContext);
+            mScreenFilter.prepare(mWidth, mHeight);
+        }
+        Log.d(TAG, "代理编码器准备完成: " + mWidth + "x" + mHeight + ", " + mProfile);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void attachPersistentSurface() {
+        if (mInputSurface == null) {
+            mInputSurface = MediaCodec.createPersistentInputSurface();
+        }
+        mCodec.setInputSurface(mInputSurface);
+    }
+
+    /**
+     * 在mTrackLock内调用：为本次录制创建代理文件的混合器
+     */
+    void beginSession(String masterPath, boolean audioAvailable) throws IOException {
+        mOutputPath = proxyPath(masterPath);
+        MuxerWriter writer = new MuxerWriter(mOutputPath);
+        writer.start();
+        if (!audioAvailable) {
+            writer.disableTrack(MuxerWriter.TRACK_AUDIO);
+        } else if (mAudioFormat != null) {
+            writer.setTrackFormat(MuxerWriter.TRACK_AUDIO, mAudioFormat);
+        }
+        if (mPendingVideoFormat != null) {
+            writer.setTrackFormat(MuxerWriter.TRACK_VIDEO, mPendingVideoFormat);
+            mPendingVideoFormat = null;
+        }
+        mWriter = writer;
+        mActive = true;
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * 在mTrackLock内调用：音频格式可能早于会话开始到达，先保存下来
+     */
+    void setAudioFormat(MediaFormat format) {
+        mAudioFormat = format;
+        if (mWriter != null) {
+            mWriter.setTrackFormat(MuxerWriter.TRACK_AUDIO, format);
+        }
+    }
+
+    /**
+     * 在mTrackLock内调用
+     */
+    void disableAudio() {
+        if (mWriter != null) {
+            mWriter.disableTrack(MuxerWriter.TRACK_AUDIO);
+        }
+    }
+
+    void writeAudioSample(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        MuxerWriter writer = mWriter;
+        if (writer != null) {
+            writer.writeSample(MuxerWriter.TRACK_AUDIO, encodedData, bufferInfo);
+        }
+    }
+
+    /**
+     * 把主编码器刚绘制的同一纹理缩小绘制到代理Surface，然后取出已编码的数据
+     */
+    void drawFrame(EGLDisplay display, EGLContext context, int textureId, long presentationTimeUs) {
+        if (!mActive || mEglSurface == EGL14.EGL_NO_SURFACE) return;
+        try {
+            if (!EGL14.eglMakeCurrent(display, mEglSurface, mEglSurface, context)) {
+                Log.e(TAG, "代理eglMakeCurrent失败: " + EGL14.eglGetError());
+                return;
+            }
+            mScreenFilter.onDrawFrame(textureId);
+            EGLExt.eglPresentationTimeANDROID(display, mEglSurface, presentationTimeUs * 1000);
+            if (!EGL14.eglSwapBuffers(display, mEglSurface)) {
+                Log.e(TAG, "代理eglSwapBuffers失败: " + EGL14.eglGetError());
+                return;
+            }
+            drain(false);
+        } catch (Exception e) {
+            Log.e(TAG, "代理帧编码失败", e);
+        }
+    }
+
+    /**
+     * 录制结束：发送结束标志并取出剩余数据
+     */
+    void finish() {
+        if (!mActive || mCodec == null) return;
+        try {
+            mCodec.signalEndOfInputStream();
+            drain(true);
+        } catch (Exception e) {
+            Log.e(TAG, "结束代理编码失败", e);
+        }
+    }
+
+    private void drain(boolean endOfStream) {
+        int retries = 0;
+        while (true) {
+            int status = mCodec.dequeueOutputBuffer(mBufferInfo, endOfStream ? 10000 : 0);
+            if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream || ++retries >= EOS_MAX_RETRIES) break;
+            } else if (status == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                setVideoFormat(mCodec.getOutputFormat());
+            } else if (status >= 0) {
+                ByteBuffer encodedData = mCodec.getOutputBuffer(status);
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    mBufferInfo.size = 0;
+                }
+                MuxerWriter writer = mWriter;
+                if (encodedData != null && mBufferInfo.size > 0 && writer != null) {
+                    writer.writeSample(MuxerWriter.TRACK_VIDEO, encodedData, mBufferInfo);
+                }
+                mCodec.releaseOutputBuffer(status, false);
+                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void setVideoFormat(MediaFormat format) {
+        MuxerWriter writer = mWriter;
+        if (writer != null) {
+            writer.setTrackFormat(MuxerWriter.TRACK_VIDEO, format);
+        } else {
+            mPendingVideoFormat = format;
+        }
+    }
+
+    /**
+     * 在mTrackLock外调用：写完代理文件，写入失败或没有数据时删除，播放时回退到原文件
+     */
+    void finishWriter(MuxerWriter writer, long timeoutMs) {
+        if (writer == null) return;
+        boolean finished = writer.finish(timeoutMs);
+        if ((!finished || writer.getSamplesWritten() == 0) && mOutputPath != null) {
+            File file = new File(mOutputPath);
+            if (file.exists() && file.delete()) {
+                Log.w(TAG, "代理文件不完整，已删除: " + mOutputPath);
+            }
+        }
+    }
+
+    /**
+     * 在mTrackLock内调用：结束本次会话，返回需要在锁外写完的混合器
+     */
+    MuxerWriter endSession() {
+        MuxerWriter writer = mWriter;
+        mWriter = null;
+        mAudioFormat = null;
+        mPendingVideoFormat = null;
+        mActive = false;
+        return writer;
+    }
+
+    /**
+     * 录制结束后停止编码器，等待下一次prepare重新配置
+     */
+    void stop(EGLDisplay display) {
+        try {
+            if (mCodec != null) {
+                mCodec.stop();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "停止代理编码器失败", e);
+        }
+        if (!mUsePersistentSurface) {
+            // 非持久Surface随编码器重新配置而失效
+            destroyEglSurface(display);
+            if (mInputSurface != null) {
+                mInputSurface.release();
+                mInputSurface = null;
+            }
+        }
+    }
+
+    /**
+     * 释放全部资源，需要主编码器的EGL上下文仍然有效
+     */
+    void release(EGLDisplay display) {
+        stop(display);
+        destroyEglSurface(display);
+        if (mScreenFilter != null) {
+            try {
+                mScreenFilter.release();
+            } catch (Exception e) {
+                Log.e(TAG, "释放代理ScreenFilter失败", e);
+            }
+            mScreenFilter = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        if (mCodec != null) {
+            try {
+                mCodec.release();
+            } catch (Exception e) {
+                Log.e(TAG, "释放代理编码器失败", e);
+            }
+            mCodec = null;
+        }
+    }
+
+    private void destroyEglSurface(EGLDisplay display) {
+        if (mEglSurface != EGL14.EGL_NO_SURFACE && display != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglDestroySurface(display, mEglSurface);
+        }
+        mEglSurface = EGL14.EGL_NO_SURFACE;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.spj.encoder;
+
+/**
+ * 录制中的磁盘空间守护。
+ * 根据已写入的编码字节数估算实际码率（指数滑动平均），按剩余空间预测还能录制多久：
+ * 剩余时间不多时建议降低视频码率，快要写满时建议停止录制，留出写完文件尾（moov）的余量，
+ * 避免磁盘写满后得到无法播放的文件。只做计算，不访问文件系统，调用方定期传入可用空间。
+ */
+public class StorageGuard {
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_REDUCE_BITRATE = 1;
+    public static final int ACTION_STOP = 2;
+
+    // 新的码率样本所占权重
+    private static final double RATE_SMOOTHING = 0.3;
+    // 两次采样间隔太短时码率估计抖动大，跳过
+    private static final long MIN_SAMPLE_INTERVAL_US = 200_000;
+
+    private final long mReserveBytes;
+    private final long mLowSeconds;
+    private final long mStopSeconds;
+    private final long mReduceIntervalUs;
+
+    private double mBytesPerSecond = 0;
+    private long mLastTimeUs = -1;
+    private long mLastBytes = 0;
+    private long mLastReduceUs = -1;
+    private long mRemainingSeconds = Long.MAX_VALUE;
+
+    /**
+     * @param reserveBytes   始终保留的空间，用于写文件尾和系统其他用途
+     * @param lowSeconds     预计剩余录制时间低于这个值时建议降低码率
+     * @param stopSeconds    预计剩余录制时间低于这个值时建议停止
+     * @param reduceInterval 两次降低码率之间至少间隔的秒数，等待码率估计跟上
+     */
+    public StorageGuard(long reserveBytes, long lowSeconds, long stopSeconds, long reduceInterval) {
+        mReserveBytes = reserveBytes;
+        mLowSeconds = lowSeconds;
+        mStopSeconds = stopSeconds;
+        mReduceIntervalUs = reduceInterval * 1000000L;
+    }
+
+    /**
+     * 开始录制时调用，以配置的码率作为初始估计
+     */
+    public void reset(long nominalBytesPerSecond) {
+        mBytesPerSecond = nominalBytesPerSecond;
+        mLastTimeUs = -1;
+        mLastBytes = 0;
+        mLastReduceUs = -1;
+        mRemainingSeconds = Long.MAX_VALUE;
+    }
+
+    /**
+     * 暂停恢复后调用：重新开始采样，暂停期间没有数据写入不计入码率
+     */
+    public void resync() {
+        mLastTimeUs = -1;
+    }
+
+    /**
+     * 传入当前已写入的字节数和可用空间，返回建议的操作
+     *
+     * @param nowUs        单调递增的时间
+     * @param bytesWritten 本次录制到目前为止的编码字节数（所有轨道）
+     * @param usableBytes  输出目录所在分区的可用空间
+     */
+    public int update(long nowUs, long bytesWritten, long usableBytes) {
+        if (mLastTimeUs < 0) {
+            mLastTimeUs = nowUs;
+            mLastBytes = bytesWritten;
+        } else if (nowUs - mLastTimeUs >= MIN_SAMPLE_INTERVAL_US) {
+            double rate = (bytesWritten - mLastBytes) * 1000000.0 / (nowUs - mLastTimeUs);
+            mBytesPerSecond = mBytesPerSecond <= 0 ? rate
+                    : mBytesPerSecond + RATE_SMOOTHING * (rate - mBytesPerSecond);
+            mLastTimeUs = nowUs;
+            mLastBytes = bytesWritten;
+        }
+
+        long available = usableBytes - mReserveBytes;
+        if (available <= 0) {
+            mRemainingSeconds = 0;
+            return ACTION_STOP;
+        }
+        if (mBytesPerSecond <= 0) {
+            mRemainingSeconds = Long.MAX_VALUE;
+            return ACTION_NONE;
+        }
+
+        mRemainingSeconds = (long) (available / mBytesPerSecond);
+        if (mRemainingSeconds < mStopSeconds) {
+            return ACTION_STOP;
+        }
+        if (mRemainingSeconds < mLowSeconds
+                && (mLastReduceUs < 0 || nowUs - mLastReduceUs >= mReduceIntervalUs)) {
+            mLastReduceUs = nowUs;
+            return ACTION_REDUCE_BITRATE;
+        }
+        return ACTION_NONE;
+    }
+
+    /**
+     * 按当前码率估计录制指定时长的文件大小
+     */
+    public long estimateBytes(long durationSeconds) {
+        return (long) (mBytesPerSecond * durationSeconds);
+    }
+
+    public double getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 最近一次update时预计还能录制的秒数
+     */
+    public long getRemainingSeconds() {
+        return mRemainingSeconds;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.spj.encoder;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.spj.database.AppDatabase;
+import com.example.spj.database.EntryDao;
+import com.example.spj.database.VideoDao;
+import com.example.spj.model.Entry;
+import com.example.spj.model.Video;
+import com.example.spj.render.filters.FilterManager;
+import com.example.spj.util.CameraUtils;
+import com.example.spj.util.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 离线滤镜任务队列：给已录制的视频重新调色或换风格。
+ * 任务在单独的线程上按提交顺序逐个执行，由Transcoder在GPU上完成解码、滤镜和编码；
+ * 成功后视频记录指向新文件，旧文件、代理文件和缩略图被删除，缩略图按新文件重新生成。
+ * 进度和结果在主线程上回调，排队或执行中的任务都可以取消。
+ */
+public class TranscodeEngine {
+    private static final String TAG = "TranscodeEngine";
+
+    // 进度回调的间隔
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    public interface Listener {
+        void onJobProgress(TranscodeJob job, float progress);
+
+        /**
+         * 任务结束，结果见job.getState()
+         */
+        void onJobFinished(TranscodeJob job);
+    }
+
+    private static volatile TranscodeEngine sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final List<TranscodeJob> mJobs = new ArrayList<>();
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    public static TranscodeEngine getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (TranscodeEngine.class) {
+                if (sInstance == null) {
+                    sInstance = new TranscodeEngine(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private TranscodeEngine(Context context) {
+        mContext = context;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * 提交一个任务，把effectIds中的效果依次套用到视频上
+     */
+    public synchronized TranscodeJob enqueue(Video video, int[] effectIds, int quality) {
+        final TranscodeJob job = new TranscodeJob(video.getId(), video.getEntryId(), video.getFilePath(),
+                effectIds, quality);
+        mJobs.add(job);
+        if (mThread == null) {
+            mThread = new HandlerThread("Transcode");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runJob(job);
+            }
+        });
+        Log.d(TAG, "提交转码任务: 视频" + video.getId() + ", 排队 " + getPendingCount() + " 个");
+        return job;
+    }
+
+    /**
+     * 取消任务：排队中的直接移出队列，执行中的在下一帧停止并删除不完整的输出
+     */
+    public void cancel(TranscodeJob job) {
+        job.cancel();
+        synchronized (this) {
+            if (job.getState() == TranscodeJob.STATE_QUEUED) {
+                job.setState(TranscodeJob.STATE_CANCELLED);
+                mJobs.remove(job);
+                notifyFinished(job);
+            }
+        }
+    }
+
+    public synchronized List<TranscodeJob> getJobs() {
+        return new ArrayList<>(mJobs);
+    }
+
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (TranscodeJob job : mJobs) {
+            if (!job.isFinished()) count++;
+        }
+        return count;
+    }
+
+    private void runJob(final TranscodeJob job) {
+        synchronized (this) {
+            if (job.getState() != TranscodeJob.STATE_QUEUED) return;
+            job.setState(TranscodeJob.STATE_RUNNING);
+        }
+
+        final Runnable progressReporter = new Runnable() {
+            @Override
+            public void run() {
+                if (job.isFinished()) return;
+                for (Listener listener : mListeners) {
+                    listener.onJobProgress(job, job.getProgress());
+                }
+                mMainHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+            }
+        };
+        mMainHandler.post(progressReporter);
+
+        try {
+            // 每个任务重新加载效果列表，提交任务前刚导入的LUT也能找到
+            FilterManager filterManager = new FilterManager(mContext);
+            checkEffects(filterManager, job.getEffectIds());
+            Transcoder transcoder = new Transcoder(mContext, filterManager);
+            File output = FileUtils.createVideoFile(mContext, job.getEntryId());
+            job.setOutputPath(output.getAbsolutePath());
+            if (transcoder.transcode(job, output.getAbsolutePath())) {
+                replaceVideoFile(job);
+                job.setProgress(1f);
+                job.setState(TranscodeJob.STATE_DONE);
+            } else {
+                job.setState(TranscodeJob.STATE_CANCELLED);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "转码失败: " + job.getInputPath(), e);
+            job.setError(e.getMessage());
+            job.setState(TranscodeJob.STATE_FAILED);
+        }
+
+        mMainHandler.removeCallbacks(progressReporter);
+        synchronized (this) {
+            mJobs.remove(job);
+        }
+        notifyFinished(job);
+    }
+
+    /**
+     * 滤镜链会跳过找不到的效果，这里在转码前检查，避免用不完整的结果替换原视频
+     */
+    private static void checkEffects(FilterManager filterManager, int[] effectIds) {
+        for (int id : effectIds) {
+            if (filterManager.getEffect(id) == null) {
+                throw new IllegalArgumentException("效果不存在: " + id);
+            }
+        }
+    }
+
+    /**
+     * 视频记录改为指向新文件，再删除旧文件；没有代理文件时播放和分享直接使用新文件
+     */
+    private void replaceVideoFile(TranscodeJob job) throws Exception {
+        VideoDao videoDao = AppDatabase.getDatabase(mContext).videoDao();
+        EntryDao entryDao = AppDatabase.getDatabase(mContext).entryDao();
+        Video video = videoDao.getVideoByIdSync(job.getVideoId());
+        if (video == null) {
+            // 转码期间视频被删除
+            FileUtils.deleteFile(job.getOutputPath());
+            throw new IllegalStateException("视频记录已删除");
+        }
+
+        String oldFile = video.getFilePath();
+        String oldProxy = video.getProxyPath();
+        String oldThumbnail = video.getThumbnailPath();
+        String thumbnail = null;
+        File thumbnailFile = FileUtils.createThumbnailFile(mContext, job.getEntryId());
+        if (CameraUtils.generateThumbnail(job.getOutputPath(), thumbnailFile.getAbsolutePath())) {
+            thumbnail = thumbnailFile.getAbsolutePath();
+        }
+
+        video.setFilePath(job.getOutputPath());
+        video.setProxyPath(null);
+        video.setFileSize(FileUtils.getFileSize(job.getOutputPath()));
+        if (thumbnail != null) {
+            video.setThumbnailPath(thumbnail);
+        }
+        videoDao.update(video);
+
+        if (thumbnail != null && oldThumbnail != null) {
+            Entry entry = entryDao.getEntryByIdSync(job.getEntryId());
+            if (entry != null && oldThumbnail.equals(entry.getThumbnailPath())) {
+                entryDao.updateThumbnail(job.getEntryId(), thumbnail);
+            }
+            FileUtils.deleteFile(oldThumbnail);
+        }
+        FileUtils.deleteFile(oldFile);
+        FileUtils.deleteFile(oldProxy);
+        Log.d(TAG, "视频" + job.getVideoId() + "已替换为: " + job.getOutputPath());
+    }
+
+    private void notifyFinished(final TranscodeJob job) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onJobFinished(job);
+                }
+            }
+        });
+    }
+}
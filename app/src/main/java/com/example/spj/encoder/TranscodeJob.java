@@ -0,0 +1,103 @@
+package com.example.spj.encoder;
+
+/**
+ * 一个离线套用滤镜的任务：把已录制的视频按一组效果重新渲染编码，完成后替换原视频记录的文件。
+ * 状态和进度由转码线程写入，其他线程可以随时读取。
+ */
+public class TranscodeJob {
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_DONE = 2;
+    public static final int STATE_FAILED = 3;
+    public static final int STATE_CANCELLED = 4;
+
+    private final int mVideoId;
+    private final int mEntryId;
+    private final String mInputPath;
+    private final int[] mEffectIds;
+    private final int mQuality;
+
+    private volatile int mState = STATE_QUEUED;
+    private volatile float mProgress;
+    private volatile boolean mCancelled;
+    private volatile String mOutputPath;
+    private volatile String mError;
+
+    TranscodeJob(int videoId, int entryId, String inputPath, int[] effectIds, int quality) {
+        mVideoId = videoId;
+        mEntryId = entryId;
+        mInputPath = inputPath;
+        mEffectIds = effectIds.clone();
+        mQuality = quality;
+    }
+
+    public int getVideoId() {
+        return mVideoId;
+    }
+
+    public int getEntryId() {
+        return mEntryId;
+    }
+
+    public String getInputPath() {
+        return mInputPath;
+    }
+
+    public int[] getEffectIds() {
+        return mEffectIds.clone();
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    void setState(int state) {
+        mState = state;
+    }
+
+    /**
+     * 0.0-1.0，按已编码的时间戳占视频时长的比例计算
+     */
+    public float getProgress() {
+        return mProgress;
+    }
+
+    void setProgress(float progress) {
+        mProgress = progress;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    public String getOutputPath() {
+        return mOutputPath;
+    }
+
+    void setOutputPath(String outputPath) {
+        mOutputPath = outputPath;
+    }
+
+    /**
+     * 失败原因，只在STATE_FAILED时有值
+     */
+    public String getError() {
+        return mError;
+    }
+
+    void setError(String error) {
+        mError = error;
+    }
+
+    public boolean isFinished() {
+        return mState == STATE_DONE || mState == STATE_FAILED || mState == STATE_CANCELLED;
+    }
+}
@@ -0,0 +1,515 @@
+package com.example.spj.encoder;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import com.example.spj.render.filters.CameraFilter;
+import com.example.spj.render.filters.FilterChain;
+import com.example.spj.render.filters.FilterManager;
+import com.example.spj.render.filters.ProgramCache;
+import com.example.spj.render.filters.ScreenFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 在GPU上给一个视频文件重新套用滤镜：
+ * MediaExtractor → 硬件解码器 → SurfaceTexture → CameraFilter → FilterChain → 编码器输入Surface → MediaMuxer。
+ * 解码帧始终留在GPU上，不会拷贝到CPU；音频轨道原样复制，按时间戳与视频交错写入。
+ * 每个任务使用独立的EGL上下文，所有方法都在调用线程上同步执行。
+ */
+class Transcoder {
+    private static final String TAG = "Transcoder";
+
+    private static final long CODEC_TIMEOUT_US = 10000;
+    private static final long FRAME_WAIT_MS = 2500;
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final int AUDIO_BUFFER_SIZE = 256 * 1024;
+    // MediaFormat.KEY_ROTATION需要API 23
+    private static final String KEY_ROTATION = "rotation-degrees";
+
+    private final Context mContext;
+    private final FilterManager mFilterManager;
+
+    private MediaExtractor mVideoExtractor;
+    private MediaExtractor mAudioExtractor;
+    private MediaCodec mDecoder;
+    private MediaCodec mEncoder;
+    private MediaMuxer mMuxer;
+    private Surface mEncoderSurface;
+    private Surface mDecoderSurface;
+    private SurfaceTexture mSurfaceTexture;
+    private HandlerThread mFrameThread;
+    private int mTextureId;
+
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+
+    private CameraFilter mInputFilter;
+    private FilterChain mFilterChain;
+    private ScreenFilter mScreenFilter;
+    private final float[] mMatrix = new float[16];
+
+    private final Object mFrameLock = new Object();
+    private boolean mFrameAvailable;
+
+    private int mVideoTrack = -1;
+    private int mAudioTrack = -1;
+    private boolean mMuxerStarted;
+    private ByteBuffer mAudioBuffer;
+    private boolean mAudioDone;
+    private long mDurationUs;
+    private long mFrames;
+
+    Transcoder(Context context, FilterManager filterManager) {
+        mContext = context.getApplicationContext();
+        mFilterManager = filterManager;
+    }
+
+    /**
+     * 执行一个任务，成功返回true，被取消返回false，失败抛出异常。
+     * 取消或失败时删除不完整的输出文件
+     */
+    boolean transcode(TranscodeJob job, String outputPath) throws IOException {
+        long startNs = System.nanoTime();
+        boolean success = false;
+        try {
+            prepare(job, outputPath);
+            success = run(job);
+            if (success) {
+                mMuxer.stop();
+                mMuxerStarted = false;
+                Log.d(TAG, "转码完成: " + outputPath + ", " + mFrames + "帧, 耗时 "
+                        + (System.nanoTime() - startNs) / 1000000 + "ms");
+            }
+            return success;
+        } finally {
+            release();
+            if (!success) {
+                new File(outputPath).delete();
+            }
+        }
+    }
+
+    private void prepare(TranscodeJob job, String outputPath) throws IOException {
+        mVideoTrack = -1;
+        mAudioTrack = -1;
+        mAudioDone = false;
+        mFrameAvailable = false;
+        mFrames = 0;
+
+        mVideoExtractor = new MediaExtractor();
+        mVideoExtractor.setDataSource(job.getInputPath());
+        int videoIndex = findTrack(mVideoExtractor, "video/");
+        if (videoIndex < 0) {
+            throw new IOException("没有视频轨道: " + job.getInputPath());
+        }
+        mVideoExtractor.selectTrack(videoIndex);
+        MediaFormat inputFormat = mVideoExtractor.getTrackFormat(videoIndex);
+        // 编码器要求偶数尺寸
+        int width = inputFormat.getInteger(MediaFormat.KEY_WIDTH) & ~1;
+        int height = inputFormat.getInteger(MediaFormat.KEY_HEIGHT) & ~1;
+        int frameRate = inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+                ? inputFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : DEFAULT_FRAME_RATE;
+        mDurationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION)
+                ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+        Log.d(TAG, "输入: " + width + "x" + height + "@" + frameRate + "fps, 时长 " + mDurationUs / 1000 + "ms");
+
+        // 编码器：按设备能力选择编码格式和码率
+        EncoderProfile profile = CodecCapabilityProber.getInstance(mContext).select(width, height, job.getQuality());
+        MediaFormat outputFormat = MediaFormat.createVideoFormat(profile.getMimeType(), width, height);
+        outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+        profile.applyTo(outputFormat, width, height, frameRate);
+        mEncoder = profile.getCodecName() != null
+                ? MediaCodec.createByCodecName(profile.getCodecName())
+                : MediaCodec.createEncoderByType(profile.getMimeType());
+        mEncoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mEncoderSurface = mEncoder.createInputSurface();
+        mEncoder.start();
+
+        prepareEgl();
+        prepareFilters(job.getEffectIds(), width, height);
+
+        // 解码器直接输出到OES纹理
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        mTextureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+
+        // 帧到达回调在单独的线程上，转码线程等待它
+        mFrameThread = new HandlerThread("TranscodeFrames");
+        mFrameThread.start();
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                synchronized (mFrameLock) {
+                    mFrameAvailable = true;
+                    mFrameLock.notifyAll();
+                }
+            }
+        }, new Handler(mFrameThread.getLooper()));
+        mDecoderSurface = new Surface(mSurfaceTexture);
+
+        mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+        mDecoder.configure(inputFormat, mDecoderSurface, null, 0);
+        mDecoder.start();
+
+        // 混合器：音频轨道直接复制，视频轨道等编码器输出格式确定后添加
+        mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        if (inputFormat.containsKey(KEY_ROTATION)) {
+            mMuxer.setOrientationHint(inputFormat.getInteger(KEY_ROTATION));
+        }
+        mAudioExtractor = new MediaExtractor();
+        mAudioExtractor.setDataSource(job.getInputPath());
+        int audioIndex = findTrack(mAudioExtractor, "audio/");
+        if (audioIndex >= 0) {
+            mAudioExtractor.selectTrack(audioIndex);
+            MediaFormat audioFormat = mAudioExtractor.getTrackFormat(audioIndex);
+            mAudioTrack = mMuxer.addTrack(audioFormat);
+            int maxInputSize = audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : AUDIO_BUFFER_SIZE;
+            mAudioBuffer = ByteBuffer.allocateDirect(Math.max(maxInputSize, AUDIO_BUFFER_SIZE));
+        } else {
+            mAudioDone = true;
+        }
+    }
+
+    private static int findTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void prepareEgl() {
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mEglDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("无法获取EGL显示");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("无法初始化EGL");
+        }
+
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, attribList, 0, configs, 0, configs.length, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("无法选择EGL配置");
+        }
+
+        int[] contextAttributes = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        mEglContext = EGL14.eglCreateContext(mEglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        if (mEglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("无法创建EGL上下文");
+        }
+        ProgramCache.getInstance(mContext).onContextCreated(mEglContext, null);
+
+        int[] surfaceAttributes = {
+                EGL14.EGL_NONE
+        };
+        mEglSurface = EGL14.eglCreateWindowSurface(mEglDisplay, configs[0], mEncoderSurface, surfaceAttributes, 0);
+        if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("无法创建EGL表面");
+        }
+        if (!EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            throw new RuntimeException("无法设置当前EGL上下文");
+        }
+    }
+
+    private void prepareFilters(int[] effectIds, int width, int height) {
+        mInputFilter = new CameraFilter(mContext);
+        mInputFilter.prepare(width, height);
+        mFilterChain = new FilterChain(mContext, mFilterManager);
+        mFilterChain.setEffects(effectIds);
+        mFilterChain.prepare(width, height);
+        mScreenFilter = new ScreenFilter(mContext);
+        mScreenFilter.prepare(width, height);
+    }
+
+    /**
+     * 解码、渲染、编码循环，直到编码器输出结束标志或任务被取消
+     */
+    private boolean run(TranscodeJob job) throws IOException {
+        MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+        MediaCodec.BufferInfo encoderInfo = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        boolean decoderDone = false;
+
+        while (true) {
+            if (job.isCancelled()) {
+                Log.d(TAG, "转码已取消: " + job.getInputPath());
+                return false;
+            }
+
+            if (!inputDone) {
+                int inputIndex = mDecoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer buffer = mDecoder.getInputBuffer(inputIndex);
+                    int size = mVideoExtractor.readSampleData(buffer, 0);
+                    if (size < 0) {
+                        mDecoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        mDecoder.queueInputBuffer(inputIndex, 0, size, mVideoExtractor.getSampleTime(), 0);
+                        mVideoExtractor.advance();
+                    }
+                }
+            }
+
+            if (!decoderDone) {
+                int outputIndex = mDecoder.dequeueOutputBuffer(decoderInfo, CODEC_TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    boolean render = decoderInfo.size != 0;
+                    mDecoder.releaseOutputBuffer(outputIndex, render);
+                    if (render) {
+                        awaitFrame();
+                        drawFrame(decoderInfo.presentationTimeUs);
+                        updateProgress(job, decoderInfo.presentationTimeUs);
+                    }
+                    if ((decoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        mEncoder.signalEndOfInputStream();
+                        decoderDone = true;
+                    }
+                }
+            }
+
+            if (drainEncoder(encoderInfo, decoderDone)) {
+                copyAudio(Long.MAX_VALUE);
+                return true;
+            }
+        }
+    }
+
+    private void awaitFrame() throws IOException {
+        synchronized (mFrameLock) {
+            long deadline = System.currentTimeMillis() + FRAME_WAIT_MS;
+            while (!mFrameAvailable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("等待解码帧超时");
+                }
+                try {
+                    mFrameLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("等待解码帧被中断", e);
+                }
+            }
+            mFrameAvailable = false;
+        }
+    }
+
+    private void drawFrame(long presentationTimeUs) {
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mMatrix);
+        mInputFilter.setMatrix(mMatrix);
+        int textureId = mInputFilter.onDrawFrame(mTextureId);
+        textureId = mFilterChain.onDrawFrame(textureId);
+        mScreenFilter.onDrawFrame(textureId);
+        EGLExt.eglPresentationTimeANDROID(mEglDisplay, mEglSurface, presentationTimeUs * 1000);
+        EGL14.eglSwapBuffers(mEglDisplay, mEglSurface);
+        mFrames++;
+    }
+
+    private void updateProgress(TranscodeJob job, long presentationTimeUs) {
+        if (mDurationUs > 0) {
+            job.setProgress(Math.min(1f, (float) presentationTimeUs / mDurationUs));
+        }
+    }
+
+    /**
+     * 取出编码器所有可用的输出写入混合器，收到结束标志时返回true
+     */
+    private boolean drainEncoder(MediaCodec.BufferInfo info, boolean endOfStream) {
+        while (true) {
+            int index = mEncoder.dequeueOutputBuffer(info, endOfStream ? CODEC_TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return false;
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mVideoTrack = mMuxer.addTrack(mEncoder.getOutputFormat());
+                mMuxer.start();
+                mMuxerStarted = true;
+            } else if (index >= 0) {
+                ByteBuffer data = mEncoder.getOutputBuffer(index);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // 编码参数已经包含在输出格式中
+                    info.size = 0;
+                }
+                if (info.size > 0 && mMuxerStarted) {
+                    data.position(info.offset);
+                    data.limit(info.offset + info.size);
+                    mMuxer.writeSampleData(mVideoTrack, data, info);
+                    copyAudio(info.presentationTimeUs);
+                }
+                mEncoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把时间戳不超过视频进度的音频样本写入混合器，使两条轨道交错存放
+     */
+    private void copyAudio(long untilUs) {
+        if (mAudioDone || !mMuxerStarted) return;
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true) {
+            long sampleTimeUs = mAudioExtractor.getSampleTime();
+            if (sampleTimeUs < 0) {
+                mAudioDone = true;
+                return;
+            }
+            if (sampleTimeUs > untilUs) {
+                return;
+            }
+            mAudioBuffer.clear();
+            int size = mAudioExtractor.readSampleData(mAudioBuffer, 0);
+            if (size < 0) {
+                mAudioDone = true;
+                return;
+            }
+            info.set(0, size, sampleTimeUs,
+                    (mAudioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            mMuxer.writeSampleData(mAudioTrack, mAudioBuffer, info);
+            mAudioExtractor.advance();
+        }
+    }
+
+    private void release() {
+        if (mDecoder != null) {
+            try {
+                mDecoder.stop();
+            } catch (Exception e) {
+                Log.e(TAG, "停止解码器失败", e);
+            }
+            mDecoder.release();
+            mDecoder = null;
+        }
+        if (mEncoder != null) {
+            try {
+                mEncoder.stop();
+            } catch (Exception e) {
+                Log.e(TAG, "停止编码器失败", e);
+            }
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mMuxer != null) {
+            try {
+                if (mMuxerStarted) {
+                    mMuxer.stop();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "停止混合器失败", e);
+            }
+            mMuxer.release();
+            mMuxer = null;
+            mMuxerStarted = false;
+        }
+        if (mVideoExtractor != null) {
+            mVideoExtractor.release();
+            mVideoExtractor = null;
+        }
+        if (mAudioExtractor != null) {
+            mAudioExtractor.release();
+            mAudioExtractor = null;
+        }
+
+        if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+            if (mInputFilter != null) {
+                mInputFilter.release();
+                mInputFilter = null;
+            }
+            if (mFilterChain != null) {
+                mFilterChain.release();
+                mFilterChain = null;
+            }
+            if (mScreenFilter != null) {
+                mScreenFilter.release();
+                mScreenFilter = null;
+            }
+            if (mTextureId != 0) {
+                GLES20.glDeleteTextures(1, new int[]{mTextureId}, 0);
+                mTextureId = 0;
+            }
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (mEglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+                mEglSurface = EGL14.EGL_NO_SURFACE;
+            }
+            if (mEglContext != EGL14.EGL_NO_CONTEXT) {
+                ProgramCache.getInstance(mContext).onContextDestroyed(mEglContext);
+                EGL14.eglDestroyContext(mEglDisplay, mEglContext);
+                mEglContext = EGL14.EGL_NO_CONTEXT;
+            }
+            EGL14.eglTerminate(mEglDisplay);
+            mEglDisplay = EGL14.EGL_NO_DISPLAY;
+        }
+
+        if (mDecoderSurface != null) {
+            mDecoderSurface.release();
+            mDecoderSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        if (mEncoderSurface != null) {
+            mEncoderSurface.release();
+            mEncoderSurface = null;
+        }
+        if (mFrameThread != null) {
+            mFrameThread.quitSafely();
+            mFrameThread = null;
+        }
+    }
+}
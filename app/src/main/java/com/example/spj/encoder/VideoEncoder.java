@@ -1,12 +1,12 @@
 package com.example.spj.encoder;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.media.MediaRecorder;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
@@ -14,51 +14,80 @@ import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
 import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Surface;
 
+import androidx.annotation.NonNull;
+
+import com.example.spj.encoder.audio.PcmChain;
+import com.example.spj.render.filters.ProgramCache;
 import com.example.spj.render.filters.ScreenFilter;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class VideoEncoder {
     private static final String TAG = "VideoEncoder";
-    private static final String MIME_TYPE_VIDEO = MediaFormat.MIMETYPE_VIDEO_AVC;
     private static final String MIME_TYPE_AUDIO = MediaFormat.MIMETYPE_AUDIO_AAC;
     private static final int FRAME_RATE = 30;
     private static final int I_FRAME_INTERVAL = 1;
-    private static final int BIT_RATE_FACTOR = 2;
     private static final int SAMPLE_RATE = 44100;  // 44.1kHz is a common sample rate
     private static final int CHANNELS = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int AUDIO_BIT_RATE = 128000;  // 128kbps is standard for AAC audio
 
-    private static final int MAX_PENDING_FRAMES = 30;
-    private static class EncoderFrame {
-        int textureId;
-        long timestamp;
-
-        EncoderFrame(int textureId, long timestamp) {
-            this.textureId = textureId;
-            this.timestamp = timestamp;
-        }
-    }
-    private ArrayBlockingQueue<EncoderFrame> mPendingFrames = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+    // 编解码器工作模式：同步轮询dequeue，或基于MediaCodec.setCallback的异步回调
+    public static final int CODEC_MODE_SYNC = 0;
+    public static final int CODEC_MODE_ASYNC = 1;
+
+    // 音频采集方式
+    public static final int AUDIO_CAPTURE_DIRECT = 0;
+    public static final int AUDIO_CAPTURE_COPY = 1;
+
+    // 帧交接环形缓冲区默认槽位数，30/60fps下4个槽位足以吸收编码抖动
+    private static final int DEFAULT_FRAME_RING_SIZE = 4;
+    // 停止时等待混合器写完剩余样本的最长时间
+    private static final long MUXER_FINISH_TIMEOUT_MS = 3000;
+    // 同步stop等待收尾完成的最长时间
+    private static final long STOP_TIMEOUT_MS = 8000;
+    // 等待音频输入缓冲区发送结束标志的上限
+    private static final long AUDIO_EOS_TIMEOUT_MS = 2000;
+    private static final long AUDIO_JOIN_TIMEOUT_MS = 1000;
+    // 预录缓冲区的字节上限
+    private static final long MAX_PRE_ROLL_BYTES = 64L * 1024 * 1024;
+    private static final int PRE_ROLL_POOL_MARGIN = 16;
+    // 磁盘空间守护：保留50MB，预计剩余不足3分钟时逐步降码率，不足10秒时停止录制
+    private static final long STORAGE_RESERVE_BYTES = 50L * 1024 * 1024;
+    private static final long STORAGE_LOW_SECONDS = 180;
+    private static final long STORAGE_STOP_SECONDS = 10;
+    private static final long STORAGE_REDUCE_INTERVAL_SECONDS = 20;
+    private static final long STORAGE_CHECK_INTERVAL_US = 1000000;
+    // 每次降码率的比例和下限
+    private static final float BIT_RATE_STEP = 0.7f;
+    private static final int MIN_GUARDED_BIT_RATE = 500_000;
+    private int mFrameRingSize = DEFAULT_FRAME_RING_SIZE;
+    private FrameRing mFrameRing;
+    // 最近一次stopAsync的收尾任务，完成前不能释放帧环形缓冲区
+    private volatile Future<Boolean> mFinishFuture;
     private Context mContext;
     private int mWidth, mHeight;
     private String mOutputPath;
     private MediaCodec mVideoCodec;
     private MediaCodec mAudioCodec;
-    private MediaMuxer mMediaMuxer;
+    private volatile MuxerWriter mMuxerWriter;
     private Surface mInputSurface;
     private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
@@ -67,23 +96,29 @@ public class VideoEncoder {
     private ScreenFilter mScreenFilter;
     private HandlerThread mHandlerThread;
     private Handler mHandler;
-    private int mVideoTrackIndex = -1;
-    private int mAudioTrackIndex = -1;
-    private boolean mMuxerStarted;
     private AtomicBoolean mIsRecording = new AtomicBoolean(false);
     private EGLContext mSharedContext;
-    private CountDownLatch mEosLatch;
 
     // 修复: 添加基准时间戳
     private long mBaseTimestampNs = 0;
     private long mLastPresentationTimeUs = 0;
     private final Object mTimestampLock = new Object();
 
+    // 暂停：编码器、EGL和AudioRecord保持运行，恢复后第一帧把基准时间戳后移暂停的时长，
+    // 音频暂停期间读出的数据直接丢弃且不计入字节时钟，输出仍是一个连续的文件
+    private volatile boolean mPaused = false;
+    // 暂停前最后交给编码器的帧时间戳，编码线程上晚于它的第一帧需要重新对齐时间戳
+    private long mLastPublishedTimestampNs = -1;
+    private long mPauseTimestampNs = -1;
+    private ByteBuffer mAudioDiscardBuffer;
+
     // Audio recording components
     private AudioRecord mAudioRecord;
     private int mAudioBufferSize;
     private Thread mAudioThread;
     private AtomicBoolean mIsAudioRecording = new AtomicBoolean(false);
+    // 音频PCM处理链，缓冲区在prepareAudioRecord中预分配
+    private PcmChain mAudioChain = PcmChain.createDefault();
 
     // 添加编码完成回调
     public interface OnEncodingFinishedListener {
@@ -92,10 +127,91 @@ public class VideoEncoder {
 
     private OnEncodingFinishedListener mListener;
 
+    // 按时间戳挑选编码帧，默认可变帧率
+    private final FramePacer mFramePacer = new FramePacer(FramePacer.FPS_VARIABLE);
+
+    // 延时摄影倍数和是否录制音频，开始录制时固定下来，录制中修改从下一次录制生效
+    private int mTimeLapseFactor = 1;
+    private boolean mAudioEnabled = true;
+    private volatile int mSessionTimeLapseFactor = 1;
+    private volatile boolean mSessionAudioEnabled = true;
+
+    // 分段录制：每写完一段回调一次，clipPath是本次录制的输出路径（即第0段），lastSegment表示录制已结束
+    public interface OnSegmentFinishedListener {
+        void onSegmentFinished(String clipPath, int segmentIndex, String segmentPath, long durationUs,
+                               boolean lastSegment);
+    }
+
+    private OnSegmentFinishedListener mSegmentListener;
+    private int mSegmentSeconds = 0;
+    private int mSegmentMegabytes = 0;
+
+    // 预录：预览期间编码器持续运行，最近N秒的已编码数据保存在内存中，开始录制时一次写入文件
+    private int mPreRollSeconds = 0;
+    private PacketRing mPacketRing;
+    private volatile boolean mPreRolling = false;
+    private volatile boolean mStartPending = false;
+
+    // 双码流：同时录制一份低分辨率代理文件供应用内播放和分享，分段录制和预录时不生成
+    private boolean mProxyEnabled = false;
+    private volatile ProxyEncoder mProxyEncoder;
+
+    // 本次录制写入混合器的编码字节数，按轨道统计
+    private final AtomicLong mVideoBytes = new AtomicLong();
+    private final AtomicLong mAudioBytes = new AtomicLong();
+    private final StorageGuard mStorageGuard = new StorageGuard(STORAGE_RESERVE_BYTES,
+            STORAGE_LOW_SECONDS, STORAGE_STOP_SECONDS, STORAGE_REDUCE_INTERVAL_SECONDS);
+    private long mLastStorageCheckUs = 0;
+    private volatile boolean mStorageResync = false;
+    private boolean mStorageStopRequested = false;
+    private int mVideoBitRate;
+
+    // 磁盘快满时在编码线程上回调，收到后应尽快正常停止录制；没有设置时编码器自行停止
+    public interface OnStorageLowListener {
+        void onStorageLow(String outputPath, long usableBytes);
+    }
+
+    private volatile OnStorageLowListener mStorageLowListener;
+
     // 视频录制统计
     private int mFramesProcessed = 0;
     private long mStartTime = 0;
 
+    // 音频采集方式：直接读入编码器输入缓冲区，或经由byte[]拷贝
+    private int mAudioCaptureMode = AUDIO_CAPTURE_DIRECT;
+
+    // 异步回调模式
+    private int mCodecMode = CODEC_MODE_SYNC;
+
+    // 画质档位和按设备能力选出的编码配置，编码器创建时确定
+    private int mQuality = EncoderProfile.QUALITY_STANDARD;
+    private EncoderProfile mProfile;
+    private HandlerThread mVideoCallbackThread;
+    private HandlerThread mAudioCallbackThread;
+    private final IndexQueue mAudioInputIndices = new IndexQueue(16);
+    private CountDownLatch mVideoEosLatch;
+    private CountDownLatch mAudioEosLatch;
+
+    // 复用：录制结束后保留编码线程、编码器、EGL和滤镜程序，重新配置编码器供下一次录制使用
+    private boolean mReusable = false;
+    private volatile boolean mPrewarmed = false;
+    private boolean mPrewarmedAtStart = false;
+    // API 23起使用持久输入Surface，重新配置编码器时EGL表面无需重建
+    private final boolean mUsePersistentSurface = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    private boolean mAudioAvailable = true;
+    // 混合器创建之前编码器输出的格式先暂存
+    private final Object mTrackLock = new Object();
+    private MediaFormat mPendingVideoFormat;
+    private MediaFormat mPendingAudioFormat;
+
+    // 从调用start到第一帧编码输出的耗时
+    private long mStartRequestNs = 0;
+    private volatile long mTimeToFirstFrameMs = -1;
+
+    // 每个样本的编码延迟，同步和异步两种模式都会统计，便于在同一设备上对比
+    private final EncodeLatencyTracker mVideoLatency = new EncodeLatencyTracker("视频");
+    private final EncodeLatencyTracker mAudioLatency = new EncodeLatencyTracker("音频");
+
     public VideoEncoder(Context context, int width, int height, EGLContext sharedContext) {
         mContext = context;
         mWidth = height;  // 注意这里交换了宽高
@@ -108,17 +224,377 @@ public class VideoEncoder {
         mListener = listener;
     }
 
-    public void start(String outputPath) {
-        mOutputPath = outputPath;
+    /**
+     * 设置编码目标帧率（24/30/60等，FramePacer.FPS_VARIABLE为可变帧率）。
+     * 录制中也可以调用；编码器配置中的帧率在下一次配置编码器时生效。
+     */
+    public void setTargetFps(int fps) {
+        mFramePacer.setTargetFps(fps);
+    }
+
+    /**
+     * 设置延时摄影倍数，1为关闭。开启后每N帧只编码一帧，时间戳压缩为1/N，
+     * GPU拷贝、编码和文件大小都按同样的比例减少；延时摄影不录制音频
+     */
+    public void setTimeLapseFactor(int factor) {
+        mTimeLapseFactor = Math.max(1, factor);
+    }
+
+    public int getTimeLapseFactor() {
+        return mTimeLapseFactor;
+    }
+
+    /**
+     * 是否录制音频，低帧率录制时可以关闭以省电
+     */
+    public void setAudioEnabled(boolean enabled) {
+        mAudioEnabled = enabled;
+    }
+
+    /**
+     * 在预览GL线程上调用：暂停录制，之后的预览帧和麦克风数据都不编码
+     *
+     * @return 没有在录制（包括只是预录）或已经暂停时返回false
+     */
+    public boolean pause() {
+        if (!mIsRecording.get() || (mPreRolling && !mStartPending) || mPaused) {
+            return false;
+        }
+        synchronized (mTimestampLock) {
+            mPauseTimestampNs = mLastPublishedTimestampNs;
+        }
+        mPaused = true;
+        Log.d(TAG, "暂停录制");
+        return true;
+    }
+
+    /**
+     * 在预览GL线程上调用：恢复录制，时间戳接着暂停前继续
+     */
+    public boolean resume() {
+        if (!mPaused) return false;
+        mStorageResync = true;
+        mPaused = false;
+        Log.d(TAG, "恢复录制");
+        return true;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public void setOnStorageLowListener(OnStorageLowListener listener) {
+        mStorageLowListener = listener;
+    }
+
+    /**
+     * 本次录制已写入的视频编码字节数
+     */
+    public long getEncodedVideoBytes() {
+        return mVideoBytes.get();
+    }
+
+    /**
+     * 本次录制已写入的音频编码字节数
+     */
+    public long getEncodedAudioBytes() {
+        return mAudioBytes.get();
+    }
+
+    /**
+     * 在开始录制或预录时调用：固定本次会话的取帧方式
+     */
+    private boolean captureSettingsChanged() {
+        return mTimeLapseFactor != mSessionTimeLapseFactor
+                || (mAudioEnabled && mTimeLapseFactor <= 1) != mSessionAudioEnabled;
+    }
+
+    private void applyCaptureSettings() {
+        mSessionTimeLapseFactor = mTimeLapseFactor;
+        mSessionAudioEnabled = mAudioEnabled && mTimeLapseFactor <= 1;
+        mFramePacer.setTimeLapseFactor(mTimeLapseFactor);
+    }
+
+    /**
+     * 是否同时录制低分辨率代理文件，需在编码器创建之前设置
+     */
+    public void setProxyEnabled(boolean enabled) {
+        mProxyEnabled = enabled;
+    }
+
+    public boolean isProxyEnabled() {
+        return mProxyEnabled;
+    }
+
+    /**
+     * 主文件路径对应的代理文件路径，代理文件不存在时播放回退到主文件
+     */
+    public static String proxyPathFor(String outputPath) {
+        return ProxyEncoder.proxyPath(outputPath);
+    }
+
+    public FramePacer getFramePacer() {
+        return mFramePacer;
+    }
+
+    // 可变帧率时按相机常见的30fps估算码率
+    private int getEncoderFrameRate() {
+        int fps = mFramePacer.getTargetFps();
+        return fps > 0 ? fps : FRAME_RATE;
+    }
+
+    /**
+     * 设置下一次录制的分段条件，两项都为0时不分段，必须在start之前调用
+     */
+    public void setSegmentation(int seconds, int megabytes, OnSegmentFinishedListener listener) {
+        mSegmentSeconds = Math.max(0, seconds);
+        mSegmentMegabytes = Math.max(0, megabytes);
+        mSegmentListener = listener;
+    }
+
+    /**
+     * 设置预录时长（秒），0表示关闭，必须在startPreRoll之前调用
+     */
+    public void setPreRollSeconds(int seconds) {
+        mPreRollSeconds = Math.max(0, seconds);
+    }
+
+    public int getPreRollSeconds() {
+        return mPreRollSeconds;
+    }
+
+    /**
+     * 编码输出的宽度，已按构造时的约定交换过宽高
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 是否正在预录（编码器在运行但还没有开始写文件）
+     */
+    public boolean isPreRolling() {
+        return mPreRolling;
+    }
+
+    /**
+     * 在预览GL线程上调用：开始预录。编码器开始编码预览帧，但输出只保存在内存环形缓冲区中，
+     * 之后调用start时把缓冲的数据一次写入文件并继续录制，没有启动延迟
+     */
+    public void startPreRoll() {
+        if (mPreRollSeconds <= 0 || mIsRecording.get()) return;
+
         mFramesProcessed = 0;
         mStartTime = System.currentTimeMillis();
-        mPendingFrames.clear();
-
-        // 修复: 重置时间戳
+        ensureFrameRing();
+        mFrameRing.prepare(mContext);
+        mFrameRing.resetStats();
+        applyCaptureSettings();
+        mFramePacer.reset();
+        mVideoLatency.reset();
+        mAudioLatency.reset();
         synchronized (mTimestampLock) {
             mBaseTimestampNs = 0;
             mLastPresentationTimeUs = 0;
+            mLastPublishedTimestampNs = -1;
+            mPauseTimestampNs = -1;
+        }
+        mPaused = false;
+        ensureEncoderThread();
+
+        mPreRolling = true;
+        mIsRecording.set(true);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mPrewarmed) {
+                        prepareEncoder();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "预录准备编码器失败", e);
+                    mPreRolling = false;
+                    mIsRecording.set(false);
+                    return;
+                }
+                if (!mIsRecording.get()) {
+                    // 还没开始就被停止了，收尾任务随后执行
+                    return;
+                }
+
+                ensurePacketRing();
+                resetEosLatches();
+                Log.d(TAG, "开始预录: 保留最近 " + mPreRollSeconds + " 秒");
+
+                if (mSessionAudioEnabled) {
+                    startAudioRecording();
+                }
+                processFrames();
+            }
+        });
+    }
+
+    /**
+     * 在预览GL线程上调用：停止预录并丢弃缓冲的数据，编码器可复用时重新配置后等待下一次使用
+     */
+    public void stopPreRoll() {
+        if (!mPreRolling || mStartPending) return;
+        stopAsync();
+    }
+
+    private void ensurePacketRing() {
+        // 码率按VBR峰值的两倍估算，保留时长外再加两个GOP的余量
+        long bytesPerSecond = (mProfile.getBitRate(mWidth, mHeight, getEncoderFrameRate()) + AUDIO_BIT_RATE) / 8;
+        long maxBytes = Math.min(MAX_PRE_ROLL_BYTES,
+                bytesPerSecond * 2 * (mPreRollSeconds + 2L * I_FRAME_INTERVAL));
+        if (mPacketRing != null) {
+            mPacketRing.clear();
+        }
+        mPacketRing = new PacketRing(mPreRollSeconds * 1000000L, maxBytes);
+    }
+
+    /**
+     * 选择编解码器工作模式（CODEC_MODE_SYNC或CODEC_MODE_ASYNC），必须在start之前调用。
+     * 异步模式需要API 23，低版本自动回退到同步模式。
+     */
+    public void setCodecMode(int mode) {
+        if (mode == CODEC_MODE_ASYNC && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            Log.w(TAG, "异步编码模式需要API 23，回退到同步模式");
+            mode = CODEC_MODE_SYNC;
+        }
+        if (mVideoCodec != null && mode != mCodecMode) {
+            Log.w(TAG, "编码器已创建，无法切换编码模式");
+            return;
+        }
+        mCodecMode = mode;
+    }
+
+    /**
+     * 选择画质档位（EncoderProfile.QUALITY_*），必须在编码器创建之前调用
+     */
+    public void setQuality(int quality) {
+        if (mVideoCodec != null && quality != mQuality) {
+            Log.w(TAG, "编码器已创建，无法切换画质档位");
+            return;
         }
+        mQuality = quality;
+        mProfile = null;
+    }
+
+    /**
+     * 当前使用的编码配置，编码器尚未创建时返回null
+     */
+    public EncoderProfile getEncoderProfile() {
+        return mProfile;
+    }
+
+    /**
+     * 设置为可复用后，stop不再释放编码器，而是重新配置后等待下一次start，最终需调用release
+     */
+    public void setReusable(boolean reusable) {
+        mReusable = reusable;
+    }
+
+    public boolean isReusable() {
+        return mReusable;
+    }
+
+    /**
+     * 当前是否可以用指定参数开始录制而无需重新创建
+     */
+    boolean isCompatible(int width, int height, EGLContext sharedContext, int codecMode, int quality) {
+        if (codecMode == CODEC_MODE_ASYNC && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            codecMode = CODEC_MODE_SYNC;
+        }
+        return mWidth == height && mHeight == width
+                && mSharedContext.equals(sharedContext)
+                && mCodecMode == codecMode
+                && mQuality == quality;
+    }
+
+    /**
+     * 从调用start到第一帧编码数据输出的耗时，尚未输出时返回-1
+     */
+    public long getTimeToFirstFrameMs() {
+        return mTimeToFirstFrameMs;
+    }
+
+    /**
+     * 在预览GL线程上调用：提前创建编码线程、编码器、EGL表面、滤镜程序和AudioRecord，
+     * 之后的start只需创建混合器即可开始录制
+     */
+    public void prewarm() {
+        if (mIsRecording.get()) return;
+
+        ensureFrameRing();
+        mFrameRing.prepare(mContext);
+        ensureEncoderThread();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPrewarmed) return;
+                try {
+                    prepareEncoder();
+                    Log.d(TAG, "编码器预热完成");
+                } catch (IOException e) {
+                    Log.e(TAG, "编码器预热失败", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 选择音频采集方式（AUDIO_CAPTURE_DIRECT或AUDIO_CAPTURE_COPY），必须在start之前调用
+     */
+    public void setAudioCaptureMode(int mode) {
+        mAudioCaptureMode = mode;
+    }
+
+    /**
+     * 替换音频处理链（增益、限幅、噪声门、自动增益等），必须在start之前调用
+     */
+    public void setAudioChain(PcmChain chain) {
+        mAudioChain = chain != null ? chain : new PcmChain();
+    }
+
+    public PcmChain getAudioChain() {
+        return mAudioChain;
+    }
+
+    public int getCodecMode() {
+        return mCodecMode;
+    }
+
+    public EncodeLatencyTracker getVideoLatencyTracker() {
+        return mVideoLatency;
+    }
+
+    public EncodeLatencyTracker getAudioLatencyTracker() {
+        return mAudioLatency;
+    }
+
+    /**
+     * 设置帧交接环形缓冲区的槽位数，必须在start之前调用
+     */
+    public void setFrameRingSize(int size) {
+        mFrameRingSize = size;
+    }
+
+    /**
+     * 获取帧交接环形缓冲区，用于读取队列深度、栅栏等待时间和回收计数
+     */
+    public FrameRing getFrameRing() {
+        return mFrameRing;
+    }
+
+    public void start(String outputPath) {
+        mOutputPath = outputPath;
+        mStartRequestNs = System.nanoTime();
+        mTimeToFirstFrameMs = -1;
 
         // 确保目录存在
         File outputFile = new File(outputPath);
@@ -128,20 +604,56 @@ public class VideoEncoder {
             Log.d(TAG, "创建目录 " + parentDir + ": " + dirCreated);
         }
 
-        mHandlerThread = new HandlerThread("EncoderThread");
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        if (mPreRolling && captureSettingsChanged()) {
+            // 预录缓冲的帧按预录时的方式取帧和打时间戳，不能接到不同模式的文件前面，丢弃后重新开始
+            Log.d(TAG, "取帧方式已改变，放弃预录数据");
+            stopPreRoll();
+        }
+
+        if (mPreRolling) {
+            // 编码器已经在运行，由编码循环创建混合器并写入预录缓冲的数据
+            mPrewarmedAtStart = true;
+            mStartPending = true;
+            Log.d(TAG, "从预录转为录制: " + outputPath);
+            return;
+        }
+
+        mFramesProcessed = 0;
+        mStartTime = System.currentTimeMillis();
+        ensureFrameRing();
+        mFrameRing.resetStats();
+        applyCaptureSettings();
+        mFramePacer.reset();
+        mVideoLatency.reset();
+        mAudioLatency.reset();
+
+        // 修复: 重置时间戳
+        synchronized (mTimestampLock) {
+            mBaseTimestampNs = 0;
+            mLastPresentationTimeUs = 0;
+            mLastPublishedTimestampNs = -1;
+            mPauseTimestampNs = -1;
+        }
+        mPaused = false;
+
+        ensureEncoderThread();
 
         mHandler.post(new Runnable() {
             @Override
             public void run() {
                 try {
-                    prepareEncoder();
+                    mPrewarmedAtStart = mPrewarmed;
+                    if (!mPrewarmed) {
+                        prepareEncoder();
+                    }
+                    beginSession(null);
                     mIsRecording.set(true);
                     Log.d(TAG, "编码器已准备好，开始录制");
 
-                    // 启动音频录制线程
-                    startAudioRecording();
+                    // 启动音频录制线程，延时摄影和关闭音频时不采集
+                    if (mSessionAudioEnabled) {
+                        startAudioRecording();
+                    }
 
                     // 启动编码循环
                     processFrames();
@@ -156,95 +668,312 @@ public class VideoEncoder {
         });
     }
 
+    private void ensureFrameRing() {
+        if (mFrameRing == null) {
+            mFrameRing = new FrameRing(mFrameRingSize, mWidth, mHeight);
+        }
+    }
+
+    private void ensureEncoderThread() {
+        if (mHandlerThread == null) {
+            mHandlerThread = new HandlerThread("EncoderThread");
+            mHandlerThread.start();
+            mHandler = new Handler(mHandlerThread.getLooper());
+        }
+    }
+
+    /**
+     * 在编码线程上调用：为本次录制创建混合器，并交给它录制开始前已输出的轨道格式
+     *
+     * @param packetRing 从预录转为录制时的缓冲数据，先于新样本写入混合器；普通录制为null
+     */
+    private void beginSession(PacketRing packetRing) throws IOException {
+        resetStorageGuard();
+        // 预录缓冲的数据一次写入，样本池需要额外的容量，留一些余量给创建混合器期间新到的数据
+        MuxerWriter writer;
+        if (packetRing != null) {
+            writer = new MuxerWriter(mOutputPath,
+                    packetRing.getPacketCount(MuxerWriter.TRACK_VIDEO) + PRE_ROLL_POOL_MARGIN,
+                    packetRing.getPacketCount(MuxerWriter.TRACK_AUDIO) + PRE_ROLL_POOL_MARGIN);
+            writer.setRebaseTimestamps(true);
+        } else {
+            writer = new MuxerWriter(mOutputPath);
+        }
+        if (mSegmentSeconds > 0 || mSegmentMegabytes > 0) {
+            final String clipPath = mOutputPath;
+            final OnSegmentFinishedListener segmentListener = mSegmentListener;
+            writer.setSegmentation(mSegmentSeconds * 1000000L, mSegmentMegabytes * 1024L * 1024L,
+                    new MuxerWriter.SegmentListener() {
+                        @Override
+                        public void onSegmentFinished(int index, String path, long durationUs, boolean last) {
+                            if (segmentListener != null) {
+                                segmentListener.onSegmentFinished(clipPath, index, path, durationUs, last);
+                            }
+                        }
+                    });
+            Log.d(TAG, "分段录制: 每段 " + mSegmentSeconds + " 秒 / " + mSegmentMegabytes + " MB");
+        }
+        writer.start();
+        if (!mAudioAvailable || !mSessionAudioEnabled) {
+            // 没有音频输入，混合器只写视频轨道
+            writer.disableTrack(MuxerWriter.TRACK_AUDIO);
+        }
+        synchronized (mTrackLock) {
+            mMuxerWriter = writer;
+            if (mPendingVideoFormat != null) {
+                writer.setTrackFormat(MuxerWriter.TRACK_VIDEO, mPendingVideoFormat);
+                mPendingVideoFormat = null;
+            }
+            if (mPendingAudioFormat != null) {
+                writer.setTrackFormat(MuxerWriter.TRACK_AUDIO, mPendingAudioFormat);
+                mPendingAudioFormat = null;
+            }
+            if (packetRing != null) {
+                // 持有mTrackLock时其他线程的新样本会等待，保证缓冲的数据先于它们进入混合器
+                flushPacketRing(packetRing, writer);
+            } else if (mProxyEncoder != null && mSegmentSeconds <= 0 && mSegmentMegabytes <= 0) {
+                beginProxySession();
+            }
+        }
+        if (packetRing == null) {
+            resetEosLatches();
+        }
+    }
+
+    /**
+     * 在编码线程上调用：预录中收到start后创建混合器，之后的样本直接写入文件
+     *
+     * @return 失败时返回false，编码器继续预录
+     */
+    private boolean promotePreRoll() {
+        mStartPending = false;
+        try {
+            beginSession(mPacketRing);
+            mPreRolling = false;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "从预录转为录制失败", e);
+            return false;
+        }
+    }
+
+    private void flushPacketRing(PacketRing packetRing, final MuxerWriter writer) {
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        String stats = packetRing.getStatsSummary();
+        int count = packetRing.drainTo(new PacketRing.Sink() {
+            @Override
+            public void onPacket(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+                info.set(data.position(), data.remaining(), presentationTimeUs, flags);
+                writer.writeSample(track, data, info);
+                addEncodedBytes(track, info.size);
+            }
+        });
+        if (count > 0) {
+            mTimeToFirstFrameMs = (System.nanoTime() - mStartRequestNs) / 1000000;
+        }
+        Log.d(TAG, "写入预录数据: " + count + " 个包, " + stats);
+    }
+
+    /**
+     * 在mTrackLock内调用：代理文件创建失败只影响代理，主文件照常录制
+     */
+    private void beginProxySession() {
+        try {
+            mProxyEncoder.beginSession(mOutputPath, mAudioAvailable && mSessionAudioEnabled);
+        } catch (IOException e) {
+            Log.e(TAG, "创建代理文件失败，本次只录制主文件", e);
+        }
+    }
+
+    private void resetEosLatches() {
+        if (mCodecMode == CODEC_MODE_ASYNC) {
+            mVideoEosLatch = new CountDownLatch(1);
+            mAudioEosLatch = new CountDownLatch(1);
+        }
+    }
+
+    /**
+     * 同步停止录制：等待文件写完后返回，用于生命周期回调等需要确定结果的场景
+     */
     public void stop() {
+        Future<Boolean> result = stopAsync();
+        try {
+            result.get(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "等待编码器结束超时");
+        } catch (Exception e) {
+            Log.e(TAG, "等待编码器结束失败", e);
+        }
+
+        if (!mReusable) {
+            // stop在预览GL线程上调用，槽位纹理和FBO在这里释放
+            releaseFrameRing();
+        }
+    }
+
+    /**
+     * 在预览GL线程上调用：收尾任务结束后才释放帧环形缓冲区。
+     * 等待超时时编码线程可能还在读取槽位，这时放弃这组纹理和FBO，宁可泄漏也不能在使用中删除
+     */
+    private void releaseFrameRing() {
+        if (mFrameRing == null) return;
+        Future<Boolean> finishing = mFinishFuture;
+        if (finishing != null && !finishing.isDone()) {
+            Log.w(TAG, "编码线程仍在收尾，放弃释放帧环形缓冲区");
+        } else {
+            mFrameRing.release();
+        }
+        mFrameRing = null;
+    }
+
+    /**
+     * 异步停止录制，立即返回。
+     * 排空帧队列、发送结束标志、写完混合器都在编码线程上进行，完成后回调OnEncodingFinishedListener，
+     * 返回的Future同样在完成时得到是否成功。不可复用的编码器完成后还需在预览GL线程上调用release。
+     */
+    public Future<Boolean> stopAsync() {
         Log.d(TAG, "停止录制");
         if (!mIsRecording.getAndSet(false)) {
             Log.d(TAG, "已经停止或未开始录制");
-            return;
+            FutureTask<Boolean> done = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return false;
+                }
+            });
+            done.run();
+            return done;
         }
 
-        // 停止音频录制
+        // 只是预录而没有开始录制时不产生文件，也不回调
+        final boolean preRollOnly = mPreRolling && !mStartPending;
+        mPreRolling = false;
+        mPaused = false;
+
+        // 通知音频线程停止，由编码线程等待它退出
         mIsAudioRecording.set(false);
-        if (mAudioThread != null) {
+        final Thread audioThread = mAudioThread;
+        mAudioThread = null;
+
+        final OnEncodingFinishedListener listener = preRollOnly ? null : mListener;
+        FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean success = finishRecording(audioThread);
+                if (listener != null) {
+                    listener.onEncodingFinished(mOutputPath, success);
+                }
+                if (!mReusable && mHandlerThread != null) {
+                    // 编码线程处理完这个任务后退出，帧环形缓冲区留给release在GL线程上释放
+                    mHandlerThread.quitSafely();
+                }
+                return success;
+            }
+        });
+        // processFrames看到mIsRecording为false后退出，随后执行收尾任务
+        mFinishFuture = task;
+        mHandler.post(task);
+        return task;
+    }
+
+    /**
+     * 在编码线程上收尾：等待音频线程、编码剩余帧、发送结束标志并写完文件
+     */
+    private boolean finishRecording(Thread audioThread) {
+        if (audioThread != null) {
             try {
-                mAudioThread.join(1000);
+                audioThread.join(AUDIO_JOIN_TIMEOUT_MS);
             } catch (InterruptedException e) {
                 Log.e(TAG, "Interrupted while waiting for audio thread to stop", e);
             }
-            mAudioThread = null;
         }
 
-        mEosLatch = new CountDownLatch(1);
+        // 收到start后编码循环还没来得及创建混合器就停止了，先把预录数据写入文件
+        boolean promoted = !mStartPending || promotePreRoll();
 
         try {
-            // 清空帧队列但等待当前队列中的所有帧处理完成
-            final CountDownLatch queueDrainLatch = new CountDownLatch(1);
-
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    // 处理队列中剩余的帧
-                    int remainingFrames = mPendingFrames.size();
-                    Log.d(TAG, "处理剩余的 " + remainingFrames + " 帧");
+            // 处理队列中剩余的帧
+            int remainingFrames = mFrameRing.getQueueDepth();
+            Log.d(TAG, "处理剩余的 " + remainingFrames + " 帧");
+            int slot;
+            while ((slot = mFrameRing.acquire(0)) >= 0) {
+                renderSlot(slot);
+            }
 
-                    // 帧已经停止入队，但我们要处理完已有的帧
-                    try {
-                        EncoderFrame frame;
-                        while ((frame = mPendingFrames.poll()) != null) {
-                            renderFrame(frame.textureId, frame.timestamp);
-                            mFramesProcessed++;
-                        }
-                    } finally {
-                        queueDrainLatch.countDown();
-                    }
-                }
-            });
+            // 记录统计信息
+            long duration = System.currentTimeMillis() - mStartTime;
+            float fps = (duration > 0) ? (mFramesProcessed * 1000.0f / duration) : 0;
+            Log.d(TAG, String.format("录制结束: 处理 %d 帧, 时长 %.1f 秒, 平均 %.1f fps",
+                    mFramesProcessed, duration/1000.0f, fps));
+            Log.d(TAG, "帧交接统计: " + mFrameRing.getStatsSummary());
+            Log.d(TAG, "帧节奏统计: " + mFramePacer.getStatsSummary());
+            Log.d(TAG, "编码字节: 视频=" + mVideoBytes.get() + ", 音频=" + mAudioBytes.get()
+                    + ", 实际码率=" + (long) (mStorageGuard.getBytesPerSecond() * 8) + " bps");
+            if (mPacketRing != null) {
+                // 没有写入文件的预录数据直接丢弃
+                mPacketRing.clear();
+            }
 
-            // 等待队列排空，最多等待2秒
-            boolean drained = queueDrainLatch.await(2000, TimeUnit.MILLISECONDS);
-            if (!drained) {
-                Log.w(TAG, "队列排空超时");
+            // 确保正确终止编码流程
+            if (mCodecMode == CODEC_MODE_ASYNC) {
+                finishVideoAsync();
+            } else {
+                drainEncoder(true);
             }
+            if (mProxyEncoder != null) {
+                mProxyEncoder.finish();
+            }
+            Log.d(TAG, (mCodecMode == CODEC_MODE_ASYNC ? "异步" : "同步") + "模式 "
+                    + mVideoLatency.getSummary() + "; " + mAudioLatency.getSummary());
+            Log.d(TAG, "首帧编码耗时: " + mTimeToFirstFrameMs + "ms"
+                    + (mPrewarmedAtStart ? " (已预热)" : " (冷启动)"));
+            if (mReusable) {
+                recycleEncoder();
+            } else {
+                releaseEncoder();
+                Log.d(TAG, "已释放编码器");
+            }
+            return promoted;
+        } catch (Exception e) {
+            Log.e(TAG, "停止录制失败", e);
+            return false;
+        }
+    }
 
-            mHandler.post(new Runnable() {
+    /**
+     * 在预览GL线程上调用：释放可复用编码器保留的全部资源
+     */
+    public void release() {
+        if (mIsRecording.get()) {
+            stop();
+        }
+        if (mHandler != null) {
+            final CountDownLatch releaseLatch = new CountDownLatch(1);
+            // 编码线程已退出时（不可复用的编码器收尾后）资源已在收尾时释放
+            boolean posted = mHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        // 记录统计信息
-                        long duration = System.currentTimeMillis() - mStartTime;
-                        float fps = (duration > 0) ? (mFramesProcessed * 1000.0f / duration) : 0;
-                        Log.d(TAG, String.format("录制结束: 处理 %d 帧, 时长 %.1f 秒, 平均 %.1f fps",
-                                mFramesProcessed, duration/1000.0f, fps));
-
-                        // 确保正确终止编码流程
-                        drainEncoder(true);
                         releaseEncoder();
                         Log.d(TAG, "已释放编码器");
-
-                        // 通知监听器编码完成
-                        if (mListener != null) {
-                            mListener.onEncodingFinished(mOutputPath, true);
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "停止录制失败", e);
-                        if (mListener != null) {
-                            mListener.onEncodingFinished(mOutputPath, false);
-                        }
                     } finally {
-                        mEosLatch.countDown();
+                        releaseLatch.countDown();
                     }
                 }
             });
-
-            // 等待编码器处理完成，最多等待5秒
-            boolean completed = mEosLatch.await(5000, TimeUnit.MILLISECONDS);
-            if (!completed) {
-                Log.w(TAG, "等待编码器释放超时");
+            try {
+                if (posted && !releaseLatch.await(2000, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "等待编码器释放超时");
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "等待编码器释放被中断", e);
             }
-        } catch (InterruptedException e) {
-            Log.e(TAG, "等待编码器释放被中断", e);
         }
+        quitEncoderThread();
+        releaseFrameRing();
+    }
 
+    private void quitEncoderThread() {
         try {
             if (mHandlerThread != null) {
                 mHandlerThread.quitSafely();
@@ -259,23 +988,102 @@ public class VideoEncoder {
 
     private void processFrames() {
         while (mIsRecording.get()) {
-            EncoderFrame frame = null;
-            try {
-                // 最多等待100毫秒获取帧
-                frame = mPendingFrames.poll(100, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            if (mStartPending && !promotePreRoll() && mListener != null) {
+                mListener.onEncodingFinished(mOutputPath, false);
+            }
+
+            // 最多等待100毫秒获取帧
+            int slot = mFrameRing.acquire(100);
+            if (Thread.currentThread().isInterrupted()) {
                 break;
             }
 
-            if (frame != null) {
-                renderFrame(frame.textureId, frame.timestamp);
-                mFramesProcessed++;
-                // 及时清理队列中积累的帧
-                if (mPendingFrames.size() > MAX_PENDING_FRAMES / 2) {
-                    Log.w(TAG, "帧队列积累过多: " + mPendingFrames.size());
-                }
+            if (slot >= 0) {
+                renderSlot(slot);
             }
+            checkStorage();
+        }
+    }
+
+    private void resetStorageGuard() {
+        mVideoBytes.set(0);
+        mAudioBytes.set(0);
+        mLastStorageCheckUs = 0;
+        mStorageStopRequested = false;
+        mStorageResync = false;
+        long videoBitRate = mProfile != null ? mProfile.getBitRate(mWidth, mHeight, getEncoderFrameRate()) : 0;
+        mStorageGuard.reset((videoBitRate / mSessionTimeLapseFactor + AUDIO_BIT_RATE) / 8);
+    }
+
+    private void addEncodedBytes(int track, int size) {
+        if (track == MuxerWriter.TRACK_VIDEO) {
+            mVideoBytes.addAndGet(size);
+        } else {
+            mAudioBytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * 在编码线程上每秒检查一次：按实际码率预测剩余空间还能录多久，不够时降码率或停止录制，
+     * 保证在写满之前正常写完文件尾
+     */
+    private void checkStorage() {
+        if (mMuxerWriter == null || mPaused || mStorageStopRequested) return;
+        long nowUs = System.nanoTime() / 1000;
+        if (nowUs - mLastStorageCheckUs < STORAGE_CHECK_INTERVAL_US) return;
+        mLastStorageCheckUs = nowUs;
+        if (mStorageResync) {
+            mStorageResync = false;
+            mStorageGuard.resync();
+        }
+
+        File dir = new File(mOutputPath).getParentFile();
+        if (dir == null) return;
+        long usable = dir.getUsableSpace();
+        int action = mStorageGuard.update(nowUs, mVideoBytes.get() + mAudioBytes.get(), usable);
+        if (action == StorageGuard.ACTION_REDUCE_BITRATE) {
+            Log.w(TAG, "存储空间不足，预计还能录制 " + mStorageGuard.getRemainingSeconds() + " 秒");
+            reduceVideoBitRate();
+        } else if (action == StorageGuard.ACTION_STOP) {
+            mStorageStopRequested = true;
+            Log.w(TAG, "存储空间即将用完，停止录制: 可用=" + usable + " 字节, 已写入 视频="
+                    + mVideoBytes.get() + " 音频=" + mAudioBytes.get());
+            OnStorageLowListener listener = mStorageLowListener;
+            if (listener != null) {
+                listener.onStorageLow(mOutputPath, usable);
+            } else {
+                stopAsync();
+            }
+        }
+    }
+
+    /**
+     * 录制中降低视频码率，编码器不需要重新配置
+     */
+    private void reduceVideoBitRate() {
+        int target = Math.max(MIN_GUARDED_BIT_RATE, (int) (mVideoBitRate * BIT_RATE_STEP));
+        if (target >= mVideoBitRate) {
+            Log.w(TAG, "视频码率已降到下限: " + mVideoBitRate);
+            return;
+        }
+        try {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, target);
+            mVideoCodec.setParameters(params);
+            Log.w(TAG, "视频码率 " + mVideoBitRate + " -> " + target + " bps");
+            mVideoBitRate = target;
+        } catch (Exception e) {
+            Log.e(TAG, "调整视频码率失败", e);
+        }
+    }
+
+    private void renderSlot(int slot) {
+        try {
+            renderFrame(mFrameRing.getTextureId(slot), mFrameRing.getTimestamp(slot));
+            mFramesProcessed++;
+        } finally {
+            // 采样命令已提交，插入读取栅栏后归还槽位
+            mFrameRing.releaseSlot(slot);
         }
     }
 
@@ -294,8 +1102,15 @@ public class VideoEncoder {
                     mBaseTimestampNs = timestampNs;
                     presentationTimeUs = 0;
                 } else {
-                    // 计算相对于基准的微秒时间戳 (纳秒 -> 微秒)
-                    long relativeTimeUs = (timestampNs - mBaseTimestampNs) / 1000;
+                    if (mPauseTimestampNs >= 0 && timestampNs > mPauseTimestampNs) {
+                        // 恢复后的第一帧：基准时间戳后移，使这一帧紧接暂停前最后一帧，间隔一个输出帧
+                        long frameIntervalUs = 1000000L / getEncoderFrameRate();
+                        mBaseTimestampNs = timestampNs
+                                - (mLastPresentationTimeUs + frameIntervalUs) * 1000L * mSessionTimeLapseFactor;
+                        mPauseTimestampNs = -1;
+                    }
+                    // 计算相对于基准的微秒时间戳 (纳秒 -> 微秒)，延时摄影时按倍数压缩
+                    long relativeTimeUs = (timestampNs - mBaseTimestampNs) / 1000 / mSessionTimeLapseFactor;
 
                     // 确保时间戳始终递增
                     presentationTimeUs = Math.max(mLastPresentationTimeUs + 1000, relativeTimeUs);
@@ -322,46 +1137,157 @@ public class VideoEncoder {
                 Log.e(TAG, "eglSwapBuffers失败: " + EGL14.eglGetError());
                 return;
             }
+            mVideoLatency.onInputQueued(presentationTimeUs);
 
-            drainEncoder(false);
+            // 异步模式下输出由回调线程处理
+            if (mCodecMode == CODEC_MODE_SYNC) {
+                drainEncoder(false);
+            }
+
+            // 同一纹理缩小绘制到代理编码器，下一帧开始时会重新切回主表面
+            if (mProxyEncoder != null) {
+                mProxyEncoder.drawFrame(mEglDisplay, mEglContext, textureId, presentationTimeUs);
+            }
         } catch (Exception e) {
             Log.e(TAG, "处理帧异常", e);
         }
     }
 
+    /**
+     * 在预览GL线程上调用：把滤镜输出拷贝到编码器独占的槽位纹理，
+     * 预览线程随后可以立即复用自己的FBO而不会撕裂正在编码的帧
+     */
     public void frameAvailable(final int textureId, final long timestamp) {
-        if (!mIsRecording.get()) return;
+        if (!mIsRecording.get() || mPaused) return;
+
+        // 按目标帧率均匀挑选要编码的帧，跳过的帧不做任何GPU拷贝
+        if (!mFramePacer.shouldEncode(timestamp)) return;
+
+        try {
+            mFrameRing.prepare(mContext);
+            if (mFrameRing.publish(textureId, timestamp)) {
+                synchronized (mTimestampLock) {
+                    mLastPublishedTimestampNs = timestamp;
+                }
+            } else {
+                mFramePacer.onFrameDropped();
+                Log.w(TAG, "没有可用槽位，丢弃一帧");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "添加帧到队列失败", e);
+        }
+    }
+
+    private void prepareEncoder() throws IOException {
+        long startNs = System.nanoTime();
+        // 只有视频编码器本身创建或配置失败才说明这个编码配置不可用，EGL、音频等其他失败不计入
+        boolean videoCodecStep = false;
+        try {
+            if (mVideoCodec == null) {
+                // 按设备能力选择编码器和编码参数
+                if (mProfile == null) {
+                    mProfile = CodecCapabilityProber.getInstance(mContext).select(mWidth, mHeight, mQuality);
+                }
+                // 创建视频编码器
+                videoCodecStep = true;
+                if (mProfile.getCodecName() != null) {
+                    mVideoCodec = MediaCodec.createByCodecName(mProfile.getCodecName());
+                } else {
+                    mVideoCodec = MediaCodec.createEncoderByType(mProfile.getMimeType());
+                }
+                videoCodecStep = false;
+                // 创建音频编码器
+                mAudioCodec = MediaCodec.createEncoderByType(MIME_TYPE_AUDIO);
+
+                // 异步模式必须在configure之前设置回调，每个编码器使用独立的回调线程
+                if (mCodecMode == CODEC_MODE_ASYNC) {
+                    setupAsyncCallbacks();
+                }
+            }
+
+            videoCodecStep = true;
+            configureVideoCodec();
+            videoCodecStep = false;
+            configureAudioCodec();
+
+            // 配置EGL，复用时只在输入Surface变化后重建EGL表面
+            if (mEglDisplay == EGL14.EGL_NO_DISPLAY) {
+                prepareEGL();
+            } else if (mEglSurface == EGL14.EGL_NO_SURFACE) {
+                createEglSurface();
+            }
+
+            // 创建ScreenFilter
+            if (mScreenFilter == null) {
+                mScreenFilter = new ScreenFilter(mContext);
+                mScreenFilter.prepare(mWidth, mHeight);
+            }
+
+            if (mProxyEnabled) {
+                prepareProxyEncoder();
+            }
+
+            // 准备AudioRecord
+            if (mAudioRecord == null) {
+                prepareAudioRecord();
+            }
+
+            mPrewarmed = true;
+            Log.d(TAG, "编码器准备完成: 尺寸=" + mWidth + "x" + mHeight
+                    + ", 耗时=" + (System.nanoTime() - startNs) / 1000000 + "ms");
+        } catch (Exception e) {
+            releaseEncoder();
+            if (videoCodecStep && mProfile != null && !mProfile.isFallback()) {
+                // 部分设备声明支持但实际配置失败，记录下来后用最保守的配置重试一次
+                Log.w(TAG, "编码配置失败: " + mProfile + "，回退到AVC Baseline", e);
+                CodecCapabilityProber.getInstance(mContext).reportFailure(mProfile);
+                mProfile = EncoderProfile.fallback(mQuality);
+                prepareEncoder();
+                return;
+            }
+            Log.e(TAG, "准备编码器失败", e);
+            throw new IOException("准备编码器失败", e);
+        }
+    }
 
+    private void prepareProxyEncoder() {
         try {
-            // 修复: 确保有足够的帧缓冲区空间
-            if (mPendingFrames.remainingCapacity() == 0) {
-                // 如果队列已满，丢弃最旧的几帧，确保新帧可以被处理
-                int framesToDrop = MAX_PENDING_FRAMES / 4;  // 丢弃25%的帧
-                for (int i = 0; i < framesToDrop && !mPendingFrames.isEmpty(); i++) {
-                    mPendingFrames.poll();
-                    Log.w(TAG, "帧队列已满，丢弃一帧");
-                }
+            if (mProxyEncoder == null) {
+                mProxyEncoder = new ProxyEncoder(mContext, mWidth, mHeight, mUsePersistentSurface);
             }
+            mProxyEncoder.prepare(mEglDisplay, mEglConfig, getEncoderFrameRate());
+        } catch (Exception e) {
+            // 代理编码器失败时关闭代理，不影响主文件
+            Log.e(TAG, "准备代理编码器失败，关闭代理录制", e);
+            releaseProxyEncoder();
+            mProxyEnabled = false;
+        }
+    }
 
-            // 添加新帧到队列
-            boolean added = mPendingFrames.offer(new EncoderFrame(textureId, timestamp), 5, TimeUnit.MILLISECONDS);
-            if (!added) {
-                Log.w(TAG, "添加帧到队列失败，队列可能已满");
+    private void releaseProxyEncoder() {
+        if (mProxyEncoder == null) return;
+        try {
+            if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+                // 代理ScreenFilter的程序属于编码器的EGL上下文
+                EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext);
             }
+            mProxyEncoder.release(mEglDisplay);
         } catch (Exception e) {
-            Log.e(TAG, "添加帧到队列失败", e);
+            Log.e(TAG, "释放代理编码器失败", e);
+        } finally {
+            mProxyEncoder = null;
         }
     }
 
-    private void prepareEncoder() throws IOException {
-        // 配置视频编码器，使用较低的比特率
-        int videoBitRate = mWidth * mHeight * FRAME_RATE / BIT_RATE_FACTOR;
-        Log.d(TAG, "设置视频比特率: " + videoBitRate + " bps");
+    private void configureVideoCodec() {
+        // 配置视频编码器，码率按编码格式和画质档位的每像素比特数计算
+        int frameRate = getEncoderFrameRate();
+        mVideoBitRate = mProfile.getBitRate(mWidth, mHeight, frameRate);
+        Log.d(TAG, "编码配置: " + mProfile + ", 视频比特率: " + mVideoBitRate + " bps");
 
-        MediaFormat videoFormat = MediaFormat.createVideoFormat(MIME_TYPE_VIDEO, mWidth, mHeight);
+        MediaFormat videoFormat = MediaFormat.createVideoFormat(mProfile.getMimeType(), mWidth, mHeight);
         videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, videoBitRate);
-        videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
         videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
         // 在配置中添加时间刻度信息以避免时长计算问题
         try {
@@ -373,53 +1299,94 @@ public class VideoEncoder {
 
         // 可选：添加关键参数
         try {
-            videoFormat.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
-            videoFormat.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.AVCLevel31);
-            videoFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR);
+            mProfile.applyTo(videoFormat, mWidth, mHeight, frameRate);
             videoFormat.setInteger(MediaFormat.KEY_PRIORITY, 0); // 实时优先级
         } catch (Exception e) {
             // 忽略不支持的参数
             Log.w(TAG, "不支持的视频MediaFormat参数: " + e.getMessage());
         }
 
-        // 配置音频编码器
+        mVideoCodec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        if (mUsePersistentSurface) {
+            attachPersistentSurface();
+        } else {
+            mInputSurface = mVideoCodec.createInputSurface();
+        }
+        mVideoCodec.start();
+    }
+
+    private void configureAudioCodec() {
         MediaFormat audioFormat = MediaFormat.createAudioFormat(MIME_TYPE_AUDIO, SAMPLE_RATE, 1);
         audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
         audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
 
-        try {
-            // 创建视频编码器
-            mVideoCodec = MediaCodec.createEncoderByType(MIME_TYPE_VIDEO);
-            mVideoCodec.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mInputSurface = mVideoCodec.createInputSurface();
-            mVideoCodec.start();
+        // 上一次会话遗留的输入缓冲区索引在重新配置后失效
+        mAudioInputIndices.clear();
 
-            // 创建音频编码器
-            mAudioCodec = MediaCodec.createEncoderByType(MIME_TYPE_AUDIO);
-            mAudioCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mAudioCodec.start();
-
-            // 创建媒体混合器
-            mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            mVideoTrackIndex = -1;
-            mAudioTrackIndex = -1;
-            mMuxerStarted = false;
+        mAudioCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mAudioCodec.start();
+    }
 
-            // 配置EGL
-            prepareEGL();
+    @TargetApi(Build.VERSION_CODES.M)
+    private void attachPersistentSurface() {
+        if (mInputSurface == null) {
+            mInputSurface = MediaCodec.createPersistentInputSurface();
+        }
+        mVideoCodec.setInputSurface(mInputSurface);
+    }
 
-            // 创建ScreenFilter
-            mScreenFilter = new ScreenFilter(mContext);
-            mScreenFilter.prepare(mWidth, mHeight);
+    /**
+     * 录制结束后在编码线程上调用：停止编码器并写完文件，然后重新配置编码器等待下一次录制
+     */
+    private void recycleEncoder() {
+        mPrewarmed = false;
+        try {
+            mVideoCodec.stop();
+            mAudioCodec.stop();
+        } catch (Exception e) {
+            Log.e(TAG, "停止编码器失败", e);
+        }
 
-            // 准备AudioRecord
-            prepareAudioRecord();
+        finishMuxer();
+        if (mProxyEncoder != null) {
+            mProxyEncoder.stop(mEglDisplay);
+        }
 
-            Log.d(TAG, "编码器准备完成: 尺寸=" + mWidth + "x" + mHeight);
+        try {
+            if (!mUsePersistentSurface) {
+                // 非持久Surface随编码器重新配置而失效，EGL表面需要重建
+                destroyEglSurface();
+                if (mInputSurface != null) {
+                    mInputSurface.release();
+                    mInputSurface = null;
+                }
+            }
+            prepareEncoder();
+            Log.d(TAG, "编码器已重新配置，等待下一次录制");
         } catch (Exception e) {
-            Log.e(TAG, "准备编码器失败", e);
-            releaseEncoder();
-            throw new IOException("准备编码器失败", e);
+            // prepareEncoder失败时已释放全部资源，下一次start会重新创建
+            Log.e(TAG, "重新配置编码器失败", e);
+        }
+    }
+
+    private void finishMuxer() {
+        MuxerWriter writer;
+        MuxerWriter proxyWriter = null;
+        synchronized (mTrackLock) {
+            writer = mMuxerWriter;
+            mMuxerWriter = null;
+            mPendingVideoFormat = null;
+            mPendingAudioFormat = null;
+            if (mProxyEncoder != null) {
+                proxyWriter = mProxyEncoder.endSession();
+            }
+        }
+        // 编码器已停止，不会再有新样本；写完队列中剩余样本后停止并释放muxer
+        if (writer != null) {
+            writer.finish(MUXER_FINISH_TIMEOUT_MS);
+        }
+        if (proxyWriter != null) {
+            mProxyEncoder.finishWriter(proxyWriter, MUXER_FINISH_TIMEOUT_MS);
         }
     }
 
@@ -443,8 +1410,14 @@ public class VideoEncoder {
 
         if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
             Log.e(TAG, "AudioRecord初始化失败");
+            mAudioRecord.release();
+            mAudioRecord = null;
+            mAudioAvailable = false;
             return;
         }
+        mAudioAvailable = true;
+
+        mAudioChain.prepare(SAMPLE_RATE, mAudioBufferSize);
 
         Log.d(TAG, "AudioRecord准备完成: 采样率=" + SAMPLE_RATE + ", 缓冲区大小=" + mAudioBufferSize);
     }
@@ -452,15 +1425,18 @@ public class VideoEncoder {
     private void startAudioRecording() {
         if (mAudioRecord == null || mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
             Log.e(TAG, "AudioRecord未初始化，无法开始录音");
+            disableAudioTrack();
             return;
         }
 
         // 启动音频录制
         try {
+            mAudioChain.reset();
             mAudioRecord.startRecording();
 
             if (mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
                 Log.e(TAG, "AudioRecord启动失败");
+                disableAudioTrack();
                 return;
             }
 
@@ -482,142 +1458,257 @@ public class VideoEncoder {
                 mAudioRecord.release();
                 mAudioRecord = null;
             }
+            disableAudioTrack();
         }
     }
 
-    private void amplifyAudio(byte[] audioData, int bytesRead, float amplification) {
-        // 对于16位PCM音频 (AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT)
-        // 将byte[]转换为short[](16位样本)
-        short[] shorts = new short[bytesRead / 2];
-        ByteBuffer.wrap(audioData, 0, bytesRead).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(shorts);
+    private void disableAudioTrack() {
+        synchronized (mTrackLock) {
+            if (mMuxerWriter != null) {
+                mMuxerWriter.disableTrack(MuxerWriter.TRACK_AUDIO);
+            }
+            if (mProxyEncoder != null) {
+                mProxyEncoder.disableAudio();
+            }
+        }
+    }
 
-        // 放大每个样本
-        for (int i = 0; i < shorts.length; i++) {
-            // 转换为float进行乘法运算
-            float sample = shorts[i] * amplification;
+    private void processAudio() {
+        try {
+            // 使用0作为起始时间戳，而不是系统时间
+            long totalBytesRead;
+            if (mAudioCaptureMode == AUDIO_CAPTURE_DIRECT) {
+                totalBytesRead = captureAudioDirect();
+            } else {
+                totalBytesRead = captureAudioCopy();
+            }
 
-            // 应用限幅以避免溢出
-            if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
-            if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+            // 处理最后的数据
+            long endPresentationTimeUs = audioBytesToUs(totalBytesRead);
+            if (mCodecMode == CODEC_MODE_ASYNC) {
+                finishAudioAsync(endPresentationTimeUs);
+            } else {
+                int inputBufferIndex = mAudioCodec.dequeueInputBuffer(10000);
+                if (inputBufferIndex >= 0) {
+                    mAudioCodec.queueInputBuffer(
+                            inputBufferIndex,
+                            0,
+                            0,
+                            endPresentationTimeUs,
+                            MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                }
 
-            // 转换回short
-            shorts[i] = (short) sample;
-        }
+                // 耗尽编码器
+                drainAudioEncoder(true);
+            }
 
-        // 将short[]转换回byte[]
-        ByteBuffer.wrap(audioData, 0, bytesRead).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(shorts);
+        } catch (Exception e) {
+            Log.e(TAG, "音频处理过程中发生异常", e);
+        } finally {
+            // 停止AudioRecord，可复用时保留实例供下一次录制
+            try {
+                if (mAudioRecord != null) {
+                    if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                        mAudioRecord.stop();
+                    }
+                    if (!mReusable) {
+                        mAudioRecord.release();
+                        mAudioRecord = null;
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "释放AudioRecord失败", e);
+            }
+        }
     }
 
-    private void processAudio() {
-        // 创建一个缓冲区来存放从AudioRecord读取的音频数据
-        byte[] audioData = new byte[mAudioBufferSize];
-
-        // 使用0作为起始时间戳，而不是系统时间
-        long startTimeUs = 0;
+    /**
+     * 直接读取模式：AudioRecord直接写入编码器输入缓冲区，在缓冲区上原地执行处理链，
+     * 每个输入缓冲区都尽量填满后再提交，省去中间byte[]及其拷贝。
+     *
+     * @return 读取的总字节数
+     */
+    private long captureAudioDirect() throws InterruptedException {
         long totalBytesRead = 0;
+        int filledBuffers = 0;
 
-        // 计算每个音频样本的时长（微秒）
-        // 对于16位单声道PCM，每个样本2字节
-        final double BYTES_PER_SAMPLE = 2.0; // 16-bit PCM = 2 bytes per sample
-        final double US_PER_BYTE = 1000000.0 / (BYTES_PER_SAMPLE * SAMPLE_RATE);
-
-        // 使用小块处理音频，避免缓冲区溢出问题
-        final int CHUNK_SIZE = 1024; // 1KB块，适合大多数编码器缓冲区
+        while (mIsAudioRecording.get()) {
+            if (mPaused) {
+                discardPausedAudio();
+                continue;
+            }
 
-        try {
-            while (mIsAudioRecording.get()) {
-                // 读取音频数据到字节数组
-                int bytesRead = mAudioRecord.read(audioData, 0, audioData.length);
+            int inputBufferIndex = dequeueAudioInputBuffer();
+            if (inputBufferIndex < 0) {
+                continue;
+            }
 
+            ByteBuffer inputBuffer = mAudioCodec.getInputBuffer(inputBufferIndex);
+            if (inputBuffer == null) {
+                Log.e(TAG, "获取到空的编码器输入缓冲区");
+                break;
+            }
+            inputBuffer.clear();
+
+            // 按整样本填满缓冲区，但不超过处理链预分配的大小
+            int capacity = Math.min(inputBuffer.capacity(), mAudioBufferSize) & ~1;
+            int filled = 0;
+            while (filled < capacity && mIsAudioRecording.get()) {
+                inputBuffer.position(filled);
+                // AudioRecord从缓冲区起始地址写入，传入剩余部分的切片
+                int bytesRead = mAudioRecord.read(inputBuffer.slice(), capacity - filled);
                 if (bytesRead <= 0) {
                     Log.w(TAG, "读取音频数据失败: " + bytesRead);
-                    continue;
+                    break;
                 }
+                filled += bytesRead;
+            }
+            inputBuffer.clear();
 
-                // 放大音频音量 (2.0倍)
-                amplifyAudio(audioData, bytesRead, 2.0f);
+            if (filled <= 0) {
+                // 没有数据可提交，把缓冲区还回去
+                if (mCodecMode == CODEC_MODE_ASYNC) {
+                    mAudioInputIndices.put(inputBufferIndex);
+                } else {
+                    mAudioCodec.queueInputBuffer(inputBufferIndex, 0, 0, audioBytesToUs(totalBytesRead), 0);
+                }
+                continue;
+            }
 
-                // 更新总读取字节数
-                totalBytesRead += bytesRead;
+            // 原地执行PCM处理链（默认2.0倍增益 + 限幅）
+            mAudioChain.process(inputBuffer, 0, filled);
 
-                // 计算这块数据的时间戳（相对于起始时间的微秒偏移）
-                long presentationTimeUs = startTimeUs + (long)(totalBytesRead * US_PER_BYTE);
+            long presentationTimeUs = audioBytesToUs(totalBytesRead);
+            mAudioCodec.queueInputBuffer(inputBufferIndex, 0, filled, presentationTimeUs, 0);
+            mAudioLatency.onInputQueued(presentationTimeUs);
+            totalBytesRead += filled;
+            filledBuffers++;
 
-                // 按块处理数据，确保不会超出编码器缓冲区
-                int bytesProcessed = 0;
-                while (bytesProcessed < bytesRead) {
-                    // 获取MediaCodec输入缓冲区
-                    int inputBufferIndex = mAudioCodec.dequeueInputBuffer(10000);
-                    if (inputBufferIndex < 0) {
-                        // 如果没有可用缓冲区，尝试从编码器获取已编码的数据
-                        drainAudioEncoder(false);
-                        continue;
-                    }
+            if (mCodecMode == CODEC_MODE_SYNC) {
+                drainAudioEncoder(false);
+            }
+        }
 
-                    ByteBuffer inputBuffer = mAudioCodec.getInputBuffer(inputBufferIndex);
-                    if (inputBuffer == null) {
-                        Log.e(TAG, "获取到空的编码器输入缓冲区");
-                        break;
-                    }
+        Log.d(TAG, "直接读取模式: 提交缓冲区=" + filledBuffers + ", 平均每个缓冲区="
+                + (filledBuffers > 0 ? totalBytesRead / filledBuffers : 0) + " 字节");
+        return totalBytesRead;
+    }
 
-                    inputBuffer.clear();
+    /**
+     * 拷贝模式：先读入byte[]，处理后再拷贝到编码器输入缓冲区
+     *
+     * @return 读取的总字节数
+     */
+    private long captureAudioCopy() throws InterruptedException {
+        // 创建一个缓冲区来存放从AudioRecord读取的音频数据
+        byte[] audioData = new byte[mAudioBufferSize];
+        long totalBytesRead = 0;
 
-                    // 确定本次写入的字节数，不超过剩余数据量和缓冲区大小
-                    int maxBytes = Math.min(bytesRead - bytesProcessed,
-                            Math.min(CHUNK_SIZE, inputBuffer.remaining()));
+        while (mIsAudioRecording.get()) {
+            // 读取音频数据到字节数组
+            int bytesRead = mAudioRecord.read(audioData, 0, audioData.length);
 
-                    // 将数据写入输入缓冲区
-                    inputBuffer.put(audioData, bytesProcessed, maxBytes);
+            if (bytesRead <= 0) {
+                Log.w(TAG, "读取音频数据失败: " + bytesRead);
+                continue;
+            }
+            if (mPaused) {
+                // 暂停期间继续读取以免AudioRecord缓冲区溢出，数据丢弃且不推进字节时钟
+                continue;
+            }
 
-                    // 更新已处理字节数
-                    bytesProcessed += maxBytes;
+            // 原地执行PCM处理链（默认2.0倍增益 + 限幅）
+            mAudioChain.process(audioData, 0, bytesRead);
 
-                    // 计算这块数据对应的时间戳
-                    long chunkOffsetUs = (long)((double)bytesProcessed * US_PER_BYTE);
-                    long chunkPresentationTimeUs = startTimeUs + chunkOffsetUs;
+            // 提交给编码器，时间戳从本次读取的起始字节位置算起
+            queueAudioData(audioData, bytesRead, totalBytesRead);
 
-                    // 将数据提交给编码器
-                    mAudioCodec.queueInputBuffer(
-                            inputBufferIndex,
-                            0,
-                            maxBytes,
-                            chunkPresentationTimeUs,
-                            0);
-                }
+            // 更新总读取字节数
+            totalBytesRead += bytesRead;
 
-                // 尝试从编码器获取已编码的数据
+            // 尝试从编码器获取已编码的数据
+            if (mCodecMode == CODEC_MODE_SYNC) {
                 drainAudioEncoder(false);
             }
+        }
+        return totalBytesRead;
+    }
 
-            // 处理最后的数据
-            int inputBufferIndex = mAudioCodec.dequeueInputBuffer(10000);
-            if (inputBufferIndex >= 0) {
-                mAudioCodec.queueInputBuffer(
-                        inputBufferIndex,
-                        0,
-                        0,
-                        startTimeUs + (long)(totalBytesRead * US_PER_BYTE),
-                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            }
+    /**
+     * 暂停期间读出并丢弃麦克风数据，不推进字节时钟，恢复后的音频时间戳紧接暂停前
+     */
+    private void discardPausedAudio() {
+        if (mAudioDiscardBuffer == null) {
+            mAudioDiscardBuffer = ByteBuffer.allocateDirect(mAudioBufferSize);
+        }
+        mAudioDiscardBuffer.clear();
+        int bytesRead = mAudioRecord.read(mAudioDiscardBuffer, mAudioBufferSize);
+        if (bytesRead <= 0) {
+            Log.w(TAG, "暂停期间读取音频数据失败: " + bytesRead);
+        }
+        if (mCodecMode == CODEC_MODE_SYNC) {
+            drainAudioEncoder(false);
+        }
+    }
 
-            // 耗尽编码器
-            drainAudioEncoder(true);
+    /**
+     * 获取一个音频编码器输入缓冲区，暂时没有可用缓冲区时返回-1
+     */
+    private int dequeueAudioInputBuffer() throws InterruptedException {
+        if (mCodecMode == CODEC_MODE_ASYNC) {
+            // 由onInputBufferAvailable回调提供，不再轮询编码器
+            return mAudioInputIndices.take(100);
+        }
+        int inputBufferIndex = mAudioCodec.dequeueInputBuffer(10000);
+        if (inputBufferIndex < 0) {
+            // 如果没有可用缓冲区，尝试从编码器获取已编码的数据
+            drainAudioEncoder(false);
+        }
+        return inputBufferIndex;
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "音频处理过程中发生异常", e);
-        } finally {
-            // 停止并释放AudioRecord
-            try {
-                if (mAudioRecord != null) {
-                    if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                        mAudioRecord.stop();
-                    }
-                    mAudioRecord.release();
-                    mAudioRecord = null;
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "释放AudioRecord失败", e);
+    // 16位单声道PCM，每个样本2字节
+    private static long audioBytesToUs(long bytes) {
+        return bytes * 1000000L / (2L * SAMPLE_RATE);
+    }
+
+    private void queueAudioData(byte[] audioData, int length, long baseByteOffset) throws InterruptedException {
+        int bytesProcessed = 0;
+        while (bytesProcessed < length && mIsAudioRecording.get()) {
+            // 获取MediaCodec输入缓冲区
+            int inputBufferIndex = dequeueAudioInputBuffer();
+            if (inputBufferIndex < 0) {
+                continue;
+            }
+
+            ByteBuffer inputBuffer = mAudioCodec.getInputBuffer(inputBufferIndex);
+            if (inputBuffer == null) {
+                Log.e(TAG, "获取到空的编码器输入缓冲区");
+                break;
             }
+
+            inputBuffer.clear();
+
+            // 确定本次写入的字节数，尽量填满缓冲区，不超过剩余数据量
+            int maxBytes = Math.min(length - bytesProcessed, inputBuffer.remaining() & ~1);
+
+            // 将数据写入输入缓冲区
+            inputBuffer.put(audioData, bytesProcessed, maxBytes);
+
+            // 这块数据第一个样本对应的时间戳
+            long chunkPresentationTimeUs = audioBytesToUs(baseByteOffset + bytesProcessed);
+
+            // 更新已处理字节数
+            bytesProcessed += maxBytes;
+
+            // 将数据提交给编码器
+            mAudioCodec.queueInputBuffer(
+                    inputBufferIndex,
+                    0,
+                    maxBytes,
+                    chunkPresentationTimeUs,
+                    0);
+            mAudioLatency.onInputQueued(chunkPresentationTimeUs);
         }
     }
 
@@ -637,25 +1728,13 @@ public class VideoEncoder {
                 if (!endOfStream) break;
             } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 // 编码器格式已更改
-                if (mMuxerStarted) {
+                if (hasTrackFormat(MuxerWriter.TRACK_AUDIO)) {
                     Log.w(TAG, "音频编码器格式在编码过程中更改，这是不正常的");
                     continue;
                 }
 
-                // 获取新的格式
-                MediaFormat audioFormat = mAudioCodec.getOutputFormat();
-                Log.d(TAG, "音频编码器输出格式已更改: " + audioFormat);
-
-                // 添加音频轨道
-                try {
-                    mAudioTrackIndex = mMediaMuxer.addTrack(audioFormat);
-                    Log.d(TAG, "添加音频轨道: " + mAudioTrackIndex);
-
-                    // 如果视频轨道已添加，则启动混合器
-                    checkStartMuxer();
-                } catch (Exception e) {
-                    Log.e(TAG, "添加音频轨道失败", e);
-                }
+                // 获取新的格式并添加音频轨道
+                addAudioTrack(mAudioCodec.getOutputFormat());
 
             } else if (encoderStatus >= 0) {
                 // 有效的已编码数据
@@ -667,23 +1746,7 @@ public class VideoEncoder {
                     continue;
                 }
 
-                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    // 忽略codec配置数据
-                    bufferInfo.size = 0;
-                }
-
-                if (bufferInfo.size > 0 && mMuxerStarted) {
-                    // 调整缓冲区边界
-                    encodedData.position(bufferInfo.offset);
-                    encodedData.limit(bufferInfo.offset + bufferInfo.size);
-
-                    // 写入混合器
-                    try {
-                        mMediaMuxer.writeSampleData(mAudioTrackIndex, encodedData, bufferInfo);
-                    } catch (Exception e) {
-                        Log.e(TAG, "写入音频样本数据失败", e);
-                    }
-                }
+                writeAudioSample(encodedData, bufferInfo);
 
                 // 释放输出缓冲区
                 mAudioCodec.releaseOutputBuffer(encoderStatus, false);
@@ -733,7 +1796,13 @@ public class VideoEncoder {
         if (mEglContext == EGL14.EGL_NO_CONTEXT) {
             throw new RuntimeException("无法创建EGL上下文");
         }
+        // 与预览上下文共享程序，ScreenFilter不用重新编译
+        ProgramCache.getInstance(mContext).onContextCreated(mEglContext, mSharedContext);
+
+        createEglSurface();
+    }
 
+    private void createEglSurface() {
         int[] surfaceAttributes = {
                 EGL14.EGL_NONE
         };
@@ -747,8 +1816,17 @@ public class VideoEncoder {
         }
     }
 
+    private void destroyEglSurface() {
+        if (mEglSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, mEglContext);
+            EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+            mEglSurface = EGL14.EGL_NO_SURFACE;
+        }
+    }
+
     private void drainEncoder(boolean endOfStream) {
-        if (endOfStream && mIsRecording.get()) {
+        // stopAsync已经清除了mIsRecording，结束时必须无条件发送结束标志，否则尾部的帧留在编码器里
+        if (endOfStream) {
             Log.d(TAG, "发送结束标志到编码器");
             try {
                 mVideoCodec.signalEndOfInputStream();
@@ -782,22 +1860,12 @@ public class VideoEncoder {
                     continue;
                 } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                     // 编码器格式改变，设置轨道
-                    if (mMuxerStarted) {
+                    if (hasTrackFormat(MuxerWriter.TRACK_VIDEO)) {
                         Log.w(TAG, "视频格式已经改变，忽略");
                         continue;
                     }
 
-                    MediaFormat format = mVideoCodec.getOutputFormat();
-                    Log.d(TAG, "视频编码器输出格式改变: " + format);
-
-                    try {
-                        mVideoTrackIndex = mMediaMuxer.addTrack(format);
-                        Log.d(TAG, "添加视频轨道: " + mVideoTrackIndex);
-
-                        // 检查是否可以启动混合器
-                        checkStartMuxer();
-                    } catch (Exception e) {
-                        Log.e(TAG, "添加视频轨道失败", e);
+                    if (!addVideoTrack(mVideoCodec.getOutputFormat())) {
                         return;
                     }
                 } else if (encoderStatus >= 0) {
@@ -817,24 +1885,7 @@ public class VideoEncoder {
                         continue;
                     }
 
-                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // 编码器配置数据
-                        bufferInfo.size = 0;
-                    }
-
-                    if (bufferInfo.size > 0 && mMuxerStarted) {
-                        // 调整ByteBuffer位置
-                        encodedData.position(bufferInfo.offset);
-                        encodedData.limit(bufferInfo.offset + bufferInfo.size);
-
-                        try {
-                            // 修复: 调试用，记录写入的帧时间戳
-                            Log.d(TAG, "写入视频帧, pts=" + bufferInfo.presentationTimeUs);
-                            mMediaMuxer.writeSampleData(mVideoTrackIndex, encodedData, bufferInfo);
-                        } catch (Exception e) {
-                            Log.e(TAG, "写入视频采样数据失败", e);
-                        }
-                    }
+                    writeVideoSample(encodedData, bufferInfo);
 
                     mVideoCodec.releaseOutputBuffer(encoderStatus, false);
 
@@ -853,20 +1904,240 @@ public class VideoEncoder {
         }
     }
 
-    private void checkStartMuxer() {
-        // 确保视频和音频轨道都已添加后再启动muxer
-        if (!mMuxerStarted && mVideoTrackIndex >= 0 && mAudioTrackIndex >= 0) {
-            try {
-                mMediaMuxer.start();
-                mMuxerStarted = true;
-                Log.d(TAG, "MediaMuxer已启动");
-            } catch (Exception e) {
-                Log.e(TAG, "启动MediaMuxer失败", e);
-                throw new RuntimeException("启动MediaMuxer失败", e);
+    private boolean addVideoTrack(MediaFormat format) {
+        Log.d(TAG, "视频编码器输出格式改变: " + format);
+        try {
+            // 轨道在写入线程上添加，两个轨道都就绪后由写入线程启动混合器
+            synchronized (mTrackLock) {
+                if (mMuxerWriter == null) {
+                    mPendingVideoFormat = format;
+                } else {
+                    mMuxerWriter.setTrackFormat(MuxerWriter.TRACK_VIDEO, format);
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "添加视频轨道失败", e);
+            return false;
+        }
+    }
+
+    private void addAudioTrack(MediaFormat format) {
+        Log.d(TAG, "音频编码器输出格式已更改: " + format);
+        try {
+            synchronized (mTrackLock) {
+                if (mMuxerWriter == null) {
+                    mPendingAudioFormat = format;
+                } else {
+                    mMuxerWriter.setTrackFormat(MuxerWriter.TRACK_AUDIO, format);
+                }
+                if (mProxyEncoder != null) {
+                    mProxyEncoder.setAudioFormat(format);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "添加音频轨道失败", e);
+        }
+    }
+
+    private boolean hasTrackFormat(int track) {
+        synchronized (mTrackLock) {
+            if (mMuxerWriter == null) {
+                return (track == MuxerWriter.TRACK_VIDEO ? mPendingVideoFormat : mPendingAudioFormat) != null;
+            }
+            return mMuxerWriter.hasTrackFormat(track);
+        }
+    }
+
+    private void writeVideoSample(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // 编码器配置数据
+            bufferInfo.size = 0;
+        }
+
+        if (bufferInfo.size > 0) {
+            if (mTimeToFirstFrameMs < 0 && !mPreRolling) {
+                mTimeToFirstFrameMs = (System.nanoTime() - mStartRequestNs) / 1000000;
+                Log.d(TAG, "首帧编码耗时: " + mTimeToFirstFrameMs + "ms");
+            }
+            mVideoLatency.onOutput(bufferInfo.presentationTimeUs);
+            // 只拷贝进写入队列，文件I/O在混合器写入线程上进行
+            MuxerWriter writer = mMuxerWriter;
+            if (writer != null) {
+                writer.writeSample(MuxerWriter.TRACK_VIDEO, encodedData, bufferInfo);
+                mVideoBytes.addAndGet(bufferInfo.size);
+            } else if (mPreRolling) {
+                writePreRollSample(MuxerWriter.TRACK_VIDEO, encodedData, bufferInfo);
+            }
+        }
+    }
+
+    private void writeAudioSample(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // 忽略codec配置数据
+            bufferInfo.size = 0;
+        }
+
+        if (bufferInfo.size > 0) {
+            mAudioLatency.onOutput(bufferInfo.presentationTimeUs);
+            MuxerWriter writer = mMuxerWriter;
+            if (writer != null) {
+                writer.writeSample(MuxerWriter.TRACK_AUDIO, encodedData, bufferInfo);
+                mAudioBytes.addAndGet(bufferInfo.size);
+                ProxyEncoder proxy = mProxyEncoder;
+                if (proxy != null) {
+                    proxy.writeAudioSample(encodedData, bufferInfo);
+                }
+            } else if (mPreRolling) {
+                writePreRollSample(MuxerWriter.TRACK_AUDIO, encodedData, bufferInfo);
+            }
+        }
+    }
+
+    /**
+     * 预录期间的样本写入内存缓冲区；与创建混合器互斥，避免切换时丢失或乱序
+     */
+    private void writePreRollSample(int track, ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        synchronized (mTrackLock) {
+            if (mMuxerWriter != null) {
+                mMuxerWriter.writeSample(track, encodedData, bufferInfo);
+                addEncodedBytes(track, bufferInfo.size);
+            } else if (mPacketRing != null) {
+                mPacketRing.write(track, encodedData, bufferInfo.offset, bufferInfo.size,
+                        bufferInfo.presentationTimeUs, bufferInfo.flags);
             }
         }
     }
 
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setupAsyncCallbacks() {
+        mVideoEosLatch = new CountDownLatch(1);
+        mAudioEosLatch = new CountDownLatch(1);
+
+        // 回调线程和回调对象在编码器复用期间保持不变，结束标志的latch在每次录制开始时重建
+        mVideoCallbackThread = new HandlerThread("VideoCodecCallback");
+        mVideoCallbackThread.start();
+        mAudioCallbackThread = new HandlerThread("AudioCodecCallback");
+        mAudioCallbackThread.start();
+
+        mVideoCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                // 视频使用Surface输入，不会收到输入缓冲区
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                                @NonNull MediaCodec.BufferInfo info) {
+                try {
+                    ByteBuffer encodedData = codec.getOutputBuffer(index);
+                    if (encodedData != null) {
+                        writeVideoSample(encodedData, info);
+                    }
+                    codec.releaseOutputBuffer(index, false);
+                } catch (Exception e) {
+                    Log.e(TAG, "处理视频输出回调失败", e);
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "收到视频编码器结束标志");
+                    mVideoEosLatch.countDown();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "视频编码器错误", e);
+                mVideoEosLatch.countDown();
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                addVideoTrack(format);
+            }
+        }, new Handler(mVideoCallbackThread.getLooper()));
+
+        mAudioCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                mAudioInputIndices.put(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                                @NonNull MediaCodec.BufferInfo info) {
+                try {
+                    ByteBuffer encodedData = codec.getOutputBuffer(index);
+                    if (encodedData != null) {
+                        writeAudioSample(encodedData, info);
+                    }
+                    codec.releaseOutputBuffer(index, false);
+                } catch (Exception e) {
+                    Log.e(TAG, "处理音频输出回调失败", e);
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    mAudioEosLatch.countDown();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "音频编码器错误", e);
+                mAudioEosLatch.countDown();
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                addAudioTrack(format);
+            }
+        }, new Handler(mAudioCallbackThread.getLooper()));
+
+        Log.d(TAG, "已启用异步编码回调");
+    }
+
+    private void finishVideoAsync() {
+        Log.d(TAG, "发送结束标志到编码器");
+        try {
+            mVideoCodec.signalEndOfInputStream();
+            if (!mVideoEosLatch.await(3000, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "等待视频编码器结束标志超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "signalEndOfInputStream失败", e);
+        }
+    }
+
+    private void finishAudioAsync(long presentationTimeUs) throws InterruptedException {
+        // 编码器可能还在处理前面的输入，一直重试到截止时间，否则音频轨道收不到结束标志
+        long deadline = System.currentTimeMillis() + AUDIO_EOS_TIMEOUT_MS;
+        int inputBufferIndex = -1;
+        while (inputBufferIndex < 0 && System.currentTimeMillis() < deadline
+                && !Thread.currentThread().isInterrupted()) {
+            inputBufferIndex = mAudioInputIndices.take(100);
+        }
+        if (inputBufferIndex < 0) {
+            Log.e(TAG, AUDIO_EOS_TIMEOUT_MS + "ms内没有可用的音频输入缓冲区，无法发送结束标志");
+            return;
+        }
+        mAudioCodec.queueInputBuffer(inputBufferIndex, 0, 0, presentationTimeUs,
+                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        if (!mAudioEosLatch.await(1000, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "等待音频编码器结束标志超时");
+        }
+    }
+
+    private void quitCallbackThreads() {
+        if (mVideoCallbackThread != null) {
+            mVideoCallbackThread.quitSafely();
+            mVideoCallbackThread = null;
+        }
+        if (mAudioCallbackThread != null) {
+            mAudioCallbackThread.quitSafely();
+            mAudioCallbackThread = null;
+        }
+    }
+
     private void releaseEncoder() {
         Log.d(TAG, "释放编码器资源");
 
@@ -889,16 +2160,9 @@ public class VideoEncoder {
             }
         }
 
-        // 停止muxer
-        if (mMediaMuxer != null && mMuxerStarted) {
-            try {
-                mMediaMuxer.stop();
-                Log.d(TAG, "MediaMuxer已停止");
-            } catch (Exception e) {
-                Log.e(TAG, "停止MediaMuxer失败", e);
-            }
-            mMuxerStarted = false;
-        }
+        finishMuxer();
+        releaseProxyEncoder();
+        mPrewarmed = false;
 
         // 先确保EGL环境释放
         if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
@@ -912,6 +2176,7 @@ public class VideoEncoder {
                 }
 
                 if (mEglContext != EGL14.EGL_NO_CONTEXT) {
+                    ProgramCache.getInstance(mContext).onContextDestroyed(mEglContext);
                     EGL14.eglDestroyContext(mEglDisplay, mEglContext);
                     mEglContext = EGL14.EGL_NO_CONTEXT;
                 }
@@ -970,19 +2235,17 @@ public class VideoEncoder {
             }
         }
 
-        // 释放MediaMuxer
-        if (mMediaMuxer != null) {
+        quitCallbackThreads();
+
+        // 可复用的编码器在录制结束时保留了AudioRecord
+        if (mAudioRecord != null) {
             try {
-                mMediaMuxer.release();
-                Log.d(TAG, "MediaMuxer已释放");
+                mAudioRecord.release();
             } catch (Exception e) {
-                Log.e(TAG, "释放muxer失败", e);
+                Log.e(TAG, "释放AudioRecord失败", e);
             } finally {
-                mMediaMuxer = null;
+                mAudioRecord = null;
             }
         }
-
-        // 清理队列
-        mPendingFrames.clear();
     }
 }
\ No newline at end of file
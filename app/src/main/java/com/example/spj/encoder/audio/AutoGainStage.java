@@ -0,0 +1,87 @@
+package com.example.spj.encoder.audio;
+
+/**
+ * 自动增益控制。
+ * 每个缓冲区计算一次RMS，把增益缓慢推向使RMS达到目标电平的值；
+ * 缓冲区内部从旧增益线性过渡到新增益，避免增益阶跃产生的咔哒声。
+ * 静音段（低于静音门限）不调整增益，防止把底噪放大。
+ */
+public class AutoGainStage implements PcmStage {
+    private final float mTargetRms;
+    private final float mMaxGain;
+    private final float mMinGain;
+    private final float mSilenceRms;
+    // 每秒允许的最大增益变化（dB）
+    private final float mMaxStepDbPerSecond;
+
+    private int mSampleRate;
+    private float mGain = 1f;
+
+    /**
+     * @param targetDb   目标RMS电平，相对满幅的dB值（例如-18）
+     * @param maxGainDb  最大增益（例如+20）
+     * @param silenceDb  低于该RMS电平视为静音（例如-55）
+     */
+    public AutoGainStage(float targetDb, float maxGainDb, float silenceDb) {
+        mTargetRms = PcmChain.dbToLinear(targetDb) * Short.MAX_VALUE;
+        mMaxGain = PcmChain.dbToLinear(maxGainDb);
+        mMinGain = PcmChain.dbToLinear(-maxGainDb);
+        mSilenceRms = PcmChain.dbToLinear(silenceDb) * Short.MAX_VALUE;
+        mMaxStepDbPerSecond = 6f;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+        mSampleRate = sampleRate;
+        mGain = 1f;
+    }
+
+    @Override
+    public void process(short[] samples, int count) {
+        if (count <= 0) return;
+
+        double sumSquares = 0;
+        for (int i = 0; i < count; i++) {
+            float sample = samples[i];
+            sumSquares += sample * sample;
+        }
+        float rms = (float) Math.sqrt(sumSquares / count);
+
+        float startGain = mGain;
+        float endGain = startGain;
+        if (rms > mSilenceRms) {
+            float desired = mTargetRms / rms;
+            if (desired > mMaxGain) desired = mMaxGain;
+            if (desired < mMinGain) desired = mMinGain;
+
+            // 按缓冲区时长限制增益变化速度
+            float maxStep = PcmChain.dbToLinear(mMaxStepDbPerSecond * count / mSampleRate);
+            if (desired > startGain * maxStep) {
+                endGain = startGain * maxStep;
+            } else if (desired < startGain / maxStep) {
+                endGain = startGain / maxStep;
+            } else {
+                endGain = desired;
+            }
+        }
+
+        if (startGain == 1f && endGain == 1f) return;
+
+        float step = (endGain - startGain) / count;
+        float gain = startGain;
+        for (int i = 0; i < count; i++) {
+            gain += step;
+            samples[i] = PcmChain.clamp(samples[i] * gain);
+        }
+        mGain = endGain;
+    }
+
+    @Override
+    public void reset() {
+        mGain = 1f;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.spj.encoder.audio;
+
+/**
+ * 固定增益，超出16位范围的样本直接截断
+ */
+public class GainStage implements PcmStage {
+    private volatile float mGain;
+
+    public GainStage(float gain) {
+        mGain = gain;
+    }
+
+    public void setGain(float gain) {
+        mGain = gain;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+    }
+
+    @Override
+    public void process(short[] samples, int count) {
+        float gain = mGain;
+        if (gain == 1.0f) return;
+        for (int i = 0; i < count; i++) {
+            samples[i] = PcmChain.clamp(samples[i] * gain);
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+}
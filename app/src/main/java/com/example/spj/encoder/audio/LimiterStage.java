@@ -0,0 +1,69 @@
+package com.example.spj.encoder.audio;
+
+/**
+ * 峰值限幅器。
+ * 包络瞬时跟随峰值、按释放时间缓慢回落，包络超过阈值时按比例压低增益，
+ * 避免放大后的大声片段被硬截断产生刺耳的失真。
+ * 需要放大时把增益交给限幅器：放大在浮点数上进行，限幅后才截断到16位，
+ * 前面单独的GainStage会先把样本截断，限幅器看到的已经是失真的波形。
+ */
+public class LimiterStage implements PcmStage {
+    private final float mInputGain;
+    private final float mThreshold;
+    private final float mReleaseMs;
+
+    private float mReleaseCoeff;
+    private float mEnvelope;
+
+    /**
+     * @param thresholdDb 限幅阈值，相对满幅的dB值（例如-1）
+     * @param releaseMs   增益恢复时间
+     */
+    public LimiterStage(float thresholdDb, float releaseMs) {
+        this(1.0f, thresholdDb, releaseMs);
+    }
+
+    /**
+     * @param inputGain   限幅前的线性增益
+     * @param thresholdDb 限幅阈值，相对满幅的dB值（例如-1）
+     * @param releaseMs   增益恢复时间
+     */
+    public LimiterStage(float inputGain, float thresholdDb, float releaseMs) {
+        mInputGain = inputGain;
+        mThreshold = PcmChain.dbToLinear(thresholdDb) * Short.MAX_VALUE;
+        mReleaseMs = releaseMs;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+        mReleaseCoeff = PcmChain.timeConstant(mReleaseMs, sampleRate);
+        mEnvelope = 0;
+    }
+
+    @Override
+    public void process(short[] samples, int count) {
+        float gain = mInputGain;
+        float threshold = mThreshold;
+        float release = mReleaseCoeff;
+        float envelope = mEnvelope;
+        for (int i = 0; i < count; i++) {
+            float sample = samples[i] * gain;
+            float level = sample < 0 ? -sample : sample;
+            if (level > envelope) {
+                envelope = level;
+            } else {
+                envelope = level + release * (envelope - level);
+            }
+            if (envelope > threshold) {
+                sample *= threshold / envelope;
+            }
+            samples[i] = PcmChain.clamp(sample);
+        }
+        mEnvelope = envelope;
+    }
+
+    @Override
+    public void reset() {
+        mEnvelope = 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.spj.encoder.audio;
+
+/**
+ * 噪声门。
+ * 包络低于阈值并持续超过保持时间后，增益平滑降到衰减值；包络回到阈值以上时快速打开。
+ */
+public class NoiseGateStage implements PcmStage {
+    private static final float ATTACK_MS = 2f;
+    private static final float RELEASE_MS = 80f;
+    private static final float ENVELOPE_MS = 10f;
+
+    private final float mThreshold;
+    private final float mFloorGain;
+    private final float mHoldMs;
+
+    private float mEnvelopeCoeff;
+    private float mAttackCoeff;
+    private float mReleaseCoeff;
+    private int mHoldSamples;
+
+    private float mEnvelope;
+    private float mGain = 1f;
+    private int mBelowCount;
+
+    /**
+     * @param thresholdDb 门限，相对满幅的dB值（例如-50）
+     * @param floorDb     门关闭时的衰减量（例如-30）
+     * @param holdMs      低于门限多久后开始关门
+     */
+    public NoiseGateStage(float thresholdDb, float floorDb, float holdMs) {
+        mThreshold = PcmChain.dbToLinear(thresholdDb) * Short.MAX_VALUE;
+        mFloorGain = PcmChain.dbToLinear(floorDb);
+        mHoldMs = holdMs;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+        mEnvelopeCoeff = PcmChain.timeConstant(ENVELOPE_MS, sampleRate);
+        mAttackCoeff = PcmChain.timeConstant(ATTACK_MS, sampleRate);
+        mReleaseCoeff = PcmChain.timeConstant(RELEASE_MS, sampleRate);
+        mHoldSamples = (int) (mHoldMs * sampleRate / 1000f);
+        reset();
+    }
+
+    @Override
+    public void process(short[] samples, int count) {
+        float envelope = mEnvelope;
+        float gain = mGain;
+        int below = mBelowCount;
+        for (int i = 0; i < count; i++) {
+            float sample = samples[i];
+            float level = sample < 0 ? -sample : sample;
+            envelope = level + mEnvelopeCoeff * (envelope - level);
+
+            float target;
+            float coeff;
+            if (envelope >= mThreshold) {
+                below = 0;
+                target = 1f;
+                coeff = mAttackCoeff;
+            } else if (below < mHoldSamples) {
+                below++;
+                target = 1f;
+                coeff = mAttackCoeff;
+            } else {
+                target = mFloorGain;
+                coeff = mReleaseCoeff;
+            }
+            gain = target + coeff * (gain - target);
+            samples[i] = PcmChain.clamp(sample * gain);
+        }
+        mEnvelope = envelope;
+        mGain = gain;
+        mBelowCount = below;
+    }
+
+    @Override
+    public void reset() {
+        mEnvelope = 0;
+        mGain = 1f;
+        mBelowCount = 0;
+    }
+}
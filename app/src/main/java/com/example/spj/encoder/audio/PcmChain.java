@@ -0,0 +1,131 @@
+package com.example.spj.encoder.audio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 16位小端PCM的原地处理链。
+ * 所有工作缓冲区在prepare时按最大缓冲区大小预分配，录制过程中process不产生任何分配；
+ * 处理级按添加顺序依次执行。
+ */
+public class PcmChain {
+    private final List<PcmStage> mStages = new ArrayList<>();
+    // 与mStages内容一致的数组，遍历时避免创建迭代器
+    private PcmStage[] mStageArray = new PcmStage[0];
+    private short[] mWork = new short[0];
+    private int mSampleRate;
+
+    /**
+     * 默认处理链：与原先一致的2倍增益，由限幅器在截断之前施加，代替硬截断
+     */
+    public static PcmChain createDefault() {
+        return new PcmChain()
+                .addStage(new LimiterStage(2.0f, -1f, 50f));
+    }
+
+    /**
+     * 添加处理级，必须在prepare之前调用
+     */
+    public PcmChain addStage(PcmStage stage) {
+        mStages.add(stage);
+        mStageArray = mStages.toArray(new PcmStage[0]);
+        return this;
+    }
+
+    public List<PcmStage> getStages() {
+        return mStages;
+    }
+
+    /**
+     * @param sampleRate     采样率
+     * @param maxBufferBytes 单次处理的最大字节数
+     */
+    public void prepare(int sampleRate, int maxBufferBytes) {
+        mSampleRate = sampleRate;
+        if (mWork.length < maxBufferBytes / 2) {
+            mWork = new short[maxBufferBytes / 2];
+        }
+        for (PcmStage stage : mStageArray) {
+            stage.prepare(sampleRate);
+        }
+    }
+
+    public void reset() {
+        for (PcmStage stage : mStageArray) {
+            stage.reset();
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * 原地处理byte数组中[offset, offset + length)的PCM数据
+     */
+    public void process(byte[] data, int offset, int length) {
+        int count = ensureCapacity(length);
+        short[] work = mWork;
+        for (int i = 0, b = offset; i < count; i++, b += 2) {
+            work[i] = (short) ((data[b] & 0xff) | (data[b + 1] << 8));
+        }
+        runStages(work, count);
+        for (int i = 0, b = offset; i < count; i++, b += 2) {
+            short sample = work[i];
+            data[b] = (byte) sample;
+            data[b + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * 原地处理ByteBuffer中[offset, offset + length)的PCM数据，使用绝对位置读写，不改变position和limit
+     */
+    public void process(ByteBuffer data, int offset, int length) {
+        int count = ensureCapacity(length);
+        short[] work = mWork;
+        for (int i = 0, b = offset; i < count; i++, b += 2) {
+            work[i] = (short) ((data.get(b) & 0xff) | (data.get(b + 1) << 8));
+        }
+        runStages(work, count);
+        for (int i = 0, b = offset; i < count; i++, b += 2) {
+            short sample = work[i];
+            data.put(b, (byte) sample);
+            data.put(b + 1, (byte) (sample >> 8));
+        }
+    }
+
+    private int ensureCapacity(int length) {
+        int count = length / 2;
+        if (count > mWork.length) {
+            // 只有调用方超出prepare时声明的大小才会走到这里
+            mWork = new short[count];
+        }
+        return count;
+    }
+
+    private void runStages(short[] samples, int count) {
+        PcmStage[] stages = mStageArray;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].process(samples, count);
+        }
+    }
+
+    static short clamp(float sample) {
+        if (sample > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (sample < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) sample;
+    }
+
+    static float dbToLinear(float db) {
+        return (float) Math.pow(10.0, db / 20.0);
+    }
+
+    /**
+     * 一阶平滑滤波器的系数，time为包络衰减到1/e所需的毫秒数
+     */
+    static float timeConstant(float timeMs, int sampleRate) {
+        if (timeMs <= 0) return 0f;
+        return (float) Math.exp(-1000.0 / (timeMs * sampleRate));
+    }
+}
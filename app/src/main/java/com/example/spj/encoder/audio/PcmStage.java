@@ -0,0 +1,23 @@
+package com.example.spj.encoder.audio;
+
+/**
+ * PCM处理链中的一个处理级。
+ * 样本为16位有符号PCM，原地处理；实现类必须在prepare中完成所有分配，process中不得分配对象。
+ */
+public interface PcmStage {
+
+    /**
+     * 录制开始前调用，可在这里根据采样率计算系数并分配缓冲区
+     */
+    void prepare(int sampleRate);
+
+    /**
+     * 原地处理samples[0, count)
+     */
+    void process(short[] samples, int count);
+
+    /**
+     * 清除内部状态（包络、增益等），下一次录制从初始状态开始
+     */
+    void reset();
+}
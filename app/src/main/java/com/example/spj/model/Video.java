@@ -5,6 +5,7 @@ import androidx.room.ForeignKey;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import java.io.File;
 import java.util.Date;
 
 /**
@@ -42,6 +43,15 @@ public class Video {
 
     private int mediaType = TYPE_VIDEO; // 默认为视频类型
 
+    // 分段录制：同一次录制的各段共用clipId（第一段的路径），普通视频为null。
+    // 每一段都是单独的视频记录，在列表中单独显示、播放、分享和删除，clipId只用于标明来源
+    private String clipId;
+
+    private int segmentIndex; // 分段序号，从0开始
+
+    // 录制时同时编码的低分辨率代理文件，用于应用内播放、分享和语音识别，没有时为null
+    private String proxyPath;
+
     public Video(int entryId, String filePath) {
         this.entryId = entryId;
         this.filePath = filePath;
@@ -121,6 +131,43 @@ public class Video {
         this.mediaType = mediaType;
     }
 
+    public String getClipId() {
+        return clipId;
+    }
+
+    public void setClipId(String clipId) {
+        this.clipId = clipId;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public void setSegmentIndex(int segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public String getProxyPath() {
+        return proxyPath;
+    }
+
+    public void setProxyPath(String proxyPath) {
+        this.proxyPath = proxyPath;
+    }
+
+    // 辅助方法：播放、分享和语音识别使用的文件，有代理文件时用代理文件，导出仍使用原文件
+    public String getPlaybackPath() {
+        if (proxyPath != null && new File(proxyPath).exists()) {
+            return proxyPath;
+        }
+        return filePath;
+    }
+
+    // 辅助方法：判断是否为分段录制的一部分
+    public boolean isSegment() {
+        return clipId != null;
+    }
+
     // 辅助方法：判断是否为图片
     public boolean isImage() {
         return mediaType == TYPE_IMAGE;
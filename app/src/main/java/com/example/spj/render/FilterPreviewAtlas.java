@@ -0,0 +1,362 @@
+package com.example.spj.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.spj.render.filters.BaseFilter;
+import com.example.spj.render.filters.FilterChain;
+import com.example.spj.render.filters.FilterManager;
+import com.example.spj.render.filters.FramebufferPool;
+import com.example.spj.render.filters.ScreenFilter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 选择滤镜时的实时预览图集。
+ * 相机画面先逐级缩小到一个小块的尺寸，只缩一次；每个效果再以这个小图为输入，绘制到同一张图集纹理上各自的格子里，
+ * 每个效果的开销只和格子的像素数有关，效果再多总开销也接近一帧小图的成本。
+ * 图集按固定间隔刷新，通过PBO异步读回（不支持ES 3.0时同步读取，数据量很小），
+ * 在后台线程转成位图后回调到主线程。
+ * 除构造函数和setListener外所有方法都在预览GL线程上调用。
+ */
+public class FilterPreviewAtlas {
+    private static final String TAG = "FilterPreviewAtlas";
+
+    // 每个格子的长边，和图集的列数
+    private static final int TILE_LONG_SIDE = 160;
+    public static final int COLUMNS = 3;
+    // 刷新间隔，约10fps，足够看出效果又不和预览抢GPU
+    private static final long MIN_INTERVAL_NS = 100_000_000L;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_READING = 1;
+
+    public interface OnAtlasUpdatedListener {
+        /**
+         * 在主线程上回调。tiles按效果顺序给出每个效果在位图中的区域；
+         * 位图交替复用两张，只保证在下一次回调之前有效，需要保留时自行复制
+         */
+        void onAtlasUpdated(Bitmap atlas, Rect[] tiles);
+    }
+
+    private final Context mContext;
+    private final FilterManager mFilterManager;
+    private final FramebufferPool mFramebufferPool = new FramebufferPool();
+    // 第一次读回时创建，release时关闭，页面重建时不会留下空闲线程
+    private ExecutorService mDecodeExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile OnAtlasUpdatedListener mListener;
+
+    private FilterChain mFilterChain;
+    private ScreenFilter mScreenFilter;
+    private int[] mEffectIds;
+    private BaseFilter[] mFilters;
+
+    private FramebufferPool.Framebuffer mAtlas;
+    private int[] mPixelBuffer;
+    private long mFence = 0;
+    private boolean mPboSupported = false;
+    private int mTileWidth, mTileHeight;
+    private int mRows;
+    private int mSourceWidth, mSourceHeight;
+    private Rect[] mTiles;
+
+    private int mState = STATE_IDLE;
+    private long mLastDrawNs;
+
+    // 后台线程使用：读回的原始位图，和交替输出的两张翻转后的位图
+    private Bitmap mRawBitmap;
+    private final Bitmap[] mBitmaps = new Bitmap[2];
+    private int mNextBitmap;
+
+    public FilterPreviewAtlas(Context context, FilterManager filterManager) {
+        mContext = context;
+        mFilterManager = filterManager;
+    }
+
+    public void setListener(OnAtlasUpdatedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 设置要预览的效果，null或空数组停止预览并释放GL资源
+     */
+    public void setEffects(int[] effectIds) {
+        if (effectIds == null || effectIds.length == 0) {
+            release();
+            mEffectIds = null;
+            return;
+        }
+        mEffectIds = effectIds.clone();
+        mFilters = null;
+        // 格子数量变了，下一帧重新分配图集
+        releaseBuffers();
+        Log.d(TAG, "预览 " + mEffectIds.length + " 个效果");
+    }
+
+    /**
+     * 在第一帧上创建各效果的滤镜，GL上下文重建后也从这里恢复
+     */
+    private void createFilters() {
+        if (mFilterChain == null) {
+            mFilterChain = new FilterChain(mContext, mFilterManager);
+            mScreenFilter = new ScreenFilter(mContext);
+            String version = GLES20.glGetString(GLES20.GL_VERSION);
+            mPboSupported = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+        }
+        mFilters = new BaseFilter[mEffectIds.length];
+        for (int i = 0; i < mEffectIds.length; i++) {
+            try {
+                mFilters[i] = mFilterChain.getEffectFilter(mEffectIds[i]);
+            } catch (Exception e) {
+                // 编译失败的效果显示原图
+                Log.e(TAG, "创建预览滤镜失败: " + mEffectIds[i], e);
+            }
+        }
+    }
+
+    public boolean isActive() {
+        return mEffectIds != null;
+    }
+
+    /**
+     * 每次绘制后调用
+     *
+     * @param textureId    相机输出的2D纹理（滤镜链之前）
+     * @param sourceWidth  纹理宽度
+     * @param sourceHeight 纹理高度
+     */
+    public void onFrame(int textureId, int sourceWidth, int sourceHeight) {
+        if (mEffectIds == null) return;
+        try {
+            if (mState == STATE_READING) {
+                pollReadback();
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - mLastDrawNs < MIN_INTERVAL_NS) return;
+            mLastDrawNs = now;
+
+            if (mFilters == null) {
+                createFilters();
+            }
+            prepare(sourceWidth, sourceHeight);
+            drawAtlas(textureId);
+            if (mPboSupported) {
+                startReadback();
+            } else {
+                readSync();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "绘制预览图集失败", e);
+            mState = STATE_IDLE;
+        }
+    }
+
+    private void prepare(int sourceWidth, int sourceHeight) {
+        if (mAtlas != null && sourceWidth == mSourceWidth && sourceHeight == mSourceHeight) {
+            return;
+        }
+        releaseBuffers();
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        float scale = Math.min(1f, (float) TILE_LONG_SIDE / Math.max(sourceWidth, sourceHeight));
+        mTileWidth = Math.max(1, Math.round(sourceWidth * scale));
+        mTileHeight = Math.max(1, Math.round(sourceHeight * scale));
+        mRows = (mEffectIds.length + COLUMNS - 1) / COLUMNS;
+
+        mAtlas = mFramebufferPool.acquire(mTileWidth * COLUMNS, mTileHeight * mRows);
+        mTiles = new Rect[mEffectIds.length];
+        for (int i = 0; i < mTiles.length; i++) {
+            int left = (i % COLUMNS) * mTileWidth;
+            int top = (i / COLUMNS) * mTileHeight;
+            mTiles[i] = new Rect(left, top, left + mTileWidth, top + mTileHeight);
+        }
+
+        if (mPboSupported) {
+            mPixelBuffer = new int[1];
+            GLES30.glGenBuffers(1, mPixelBuffer, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mAtlas.width * mAtlas.height * 4,
+                    null, GLES30.GL_STREAM_READ);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        Log.d(TAG, "预览图集: " + mAtlas.width + "x" + mAtlas.height
+                + ", 格子 " + mTileWidth + "x" + mTileHeight);
+    }
+
+    private void drawAtlas(int textureId) {
+        // 1. 逐级减半缩小到格子尺寸，每级只用一次线性采样，避免一步缩小产生的锯齿和闪烁
+        FramebufferPool.Framebuffer source = null;
+        int input = textureId;
+        int width = mSourceWidth;
+        int height = mSourceHeight;
+        try {
+            do {
+                width = Math.max(mTileWidth, width / 2);
+                height = Math.max(mTileHeight, height / 2);
+                FramebufferPool.Framebuffer next = mFramebufferPool.acquire(width, height);
+                mScreenFilter.drawToFrameBuffer(input, next.frameBuffer, width, height);
+                mFramebufferPool.release(source);
+                source = next;
+                input = next.texture;
+            } while (width > mTileWidth || height > mTileHeight);
+
+            // 2. 每个效果画到自己的格子里；GL的y轴向上，第一行画在图集上方，读回翻转后位于位图顶部
+            for (int i = 0; i < mEffectIds.length; i++) {
+                int x = (i % COLUMNS) * mTileWidth;
+                int y = (mRows - 1 - i / COLUMNS) * mTileHeight;
+                BaseFilter filter = mFilters[i] != null ? mFilters[i] : mScreenFilter;
+                filter.drawToTile(source.texture, mAtlas.frameBuffer, x, y, mTileWidth, mTileHeight);
+            }
+        } finally {
+            mFramebufferPool.release(source);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        }
+    }
+
+    private void startReadback() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mAtlas.frameBuffer);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+        GLES30.glReadPixels(0, 0, mAtlas.width, mAtlas.height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES20.glFlush();
+        mState = STATE_READING;
+    }
+
+    private void pollReadback() {
+        int result = GLES30.glClientWaitSync(mFence, 0, 0);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            return;
+        }
+        GLES30.glDeleteSync(mFence);
+        mFence = 0;
+
+        int size = mAtlas.width * mAtlas.height * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            ByteBuffer pixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            pixels.put(mapped);
+            pixels.flip();
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            deliverAsync(pixels);
+        } else {
+            Log.e(TAG, "映射PBO失败: " + GLES20.glGetError());
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mState = STATE_IDLE;
+    }
+
+    private void readSync() {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(mAtlas.width * mAtlas.height * 4)
+                .order(ByteOrder.nativeOrder());
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mAtlas.frameBuffer);
+        GLES20.glReadPixels(0, 0, mAtlas.width, mAtlas.height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        pixels.rewind();
+        deliverAsync(pixels);
+        mState = STATE_IDLE;
+    }
+
+    private void deliverAsync(final ByteBuffer pixels) {
+        final int width = mAtlas.width;
+        final int height = mAtlas.height;
+        final Rect[] tiles = mTiles;
+        if (mDecodeExecutor == null) {
+            mDecodeExecutor = Executors.newSingleThreadExecutor();
+        }
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = toBitmap(pixels, width, height);
+                if (bitmap == null) return;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        OnAtlasUpdatedListener listener = mListener;
+                        if (listener != null) {
+                            listener.onAtlasUpdated(bitmap, tiles);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在后台线程上把读回的像素翻转成正向的位图，位图尺寸不变时重复使用。
+     * release后新建的线程可能与旧线程上还没结束的转换同时执行，复用的位图需要加锁
+     */
+    private synchronized Bitmap toBitmap(ByteBuffer pixels, int width, int height) {
+        try {
+            if (mRawBitmap == null || mRawBitmap.getWidth() != width || mRawBitmap.getHeight() != height) {
+                mRawBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mBitmaps[0] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mBitmaps[1] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            mRawBitmap.copyPixelsFromBuffer(pixels);
+            Bitmap bitmap = mBitmaps[mNextBitmap];
+            mNextBitmap = 1 - mNextBitmap;
+            // glReadPixels从底部一行开始
+            Canvas canvas = new Canvas(bitmap);
+            canvas.scale(1f, -1f, 0, height / 2f);
+            canvas.drawBitmap(mRawBitmap, 0, 0, null);
+            return bitmap;
+        } catch (Exception e) {
+            Log.e(TAG, "转换预览图集失败", e);
+            return null;
+        }
+    }
+
+    private void releaseBuffers() {
+        if (mFence != 0) {
+            GLES30.glDeleteSync(mFence);
+            mFence = 0;
+        }
+        if (mPixelBuffer != null) {
+            GLES30.glDeleteBuffers(1, mPixelBuffer, 0);
+            mPixelBuffer = null;
+        }
+        mFramebufferPool.release(mAtlas);
+        mAtlas = null;
+        mFramebufferPool.clear();
+        mSourceWidth = 0;
+        mSourceHeight = 0;
+        mState = STATE_IDLE;
+    }
+
+    /**
+     * GL上下文销毁前调用，未完成的读回直接放弃；要预览的效果保留，新上下文的第一帧重新创建
+     */
+    public void release() {
+        releaseBuffers();
+        if (mFilterChain != null) {
+            mFilterChain.release();
+            mFilterChain = null;
+        }
+        if (mScreenFilter != null) {
+            mScreenFilter.release();
+            mScreenFilter = null;
+        }
+        mFilters = null;
+        if (mDecodeExecutor != null) {
+            // 旧的图集不再需要，排队的转换直接丢弃
+            mDecodeExecutor.shutdownNow();
+            mDecodeExecutor = null;
+        }
+    }
+}
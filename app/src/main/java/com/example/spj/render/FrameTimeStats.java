@@ -0,0 +1,103 @@
+package com.example.spj.render;
+
+/**
+ * 渲染帧GPU耗时的统计，供调试日志和界面读取。
+ * 整帧耗时按0.1毫秒分桶记录直方图，各阶段耗时做指数平均。
+ * GL线程写入，其他线程可以随时读取。
+ */
+public class FrameTimeStats {
+    private static final int BUCKET_US = 100;
+    // 0-50ms，超过上限的计入最后一个桶
+    private static final int HISTOGRAM_BUCKETS = 500;
+    private static final float PASS_SMOOTHING = 0.1f;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BUCKETS];
+    private final float[] mPassAverageNs = new float[GpuTimer.MAX_PASSES];
+    private int mPassCount;
+    private long mSamples;
+    private long mTotalNs;
+    private long mMaxNs;
+    private long mLastFrameNs;
+
+    public synchronized void onFrame(long[] passNs, int passCount) {
+        long frameNs = 0;
+        for (int i = 0; i < passCount; i++) {
+            frameNs += passNs[i];
+            mPassAverageNs[i] = mSamples == 0 || i >= mPassCount
+                    ? passNs[i]
+                    : mPassAverageNs[i] + (passNs[i] - mPassAverageNs[i]) * PASS_SMOOTHING;
+        }
+        mPassCount = passCount;
+        mLastFrameNs = frameNs;
+        mSamples++;
+        mTotalNs += frameNs;
+        if (frameNs > mMaxNs) {
+            mMaxNs = frameNs;
+        }
+        int bucket = (int) Math.min(frameNs / 1000 / BUCKET_US, HISTOGRAM_BUCKETS - 1);
+        mHistogram[bucket]++;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            mHistogram[i] = 0;
+        }
+        mPassCount = 0;
+        mSamples = 0;
+        mTotalNs = 0;
+        mMaxNs = 0;
+        mLastFrameNs = 0;
+    }
+
+    public synchronized long getSampleCount() {
+        return mSamples;
+    }
+
+    public synchronized long getLastFrameNs() {
+        return mLastFrameNs;
+    }
+
+    public synchronized long getAverageUs() {
+        return mSamples > 0 ? mTotalNs / mSamples / 1000 : 0;
+    }
+
+    public synchronized long getMaxUs() {
+        return mMaxNs / 1000;
+    }
+
+    /**
+     * 按0.1毫秒精度返回整帧耗时的百分位数（微秒）
+     */
+    public synchronized long getPercentileUs(int percentile) {
+        if (mSamples == 0) return 0;
+        long target = (mSamples * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            seen += mHistogram[i];
+            if (seen >= target) {
+                return (long) (i + 1) * BUCKET_US;
+            }
+        }
+        return (long) HISTOGRAM_BUCKETS * BUCKET_US;
+    }
+
+    public synchronized int getPassCount() {
+        return mPassCount;
+    }
+
+    public synchronized long getPassAverageUs(int pass) {
+        return pass < mPassCount ? (long) (mPassAverageNs[pass] / 1000) : 0;
+    }
+
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder("GPU帧耗时: 样本=").append(mSamples)
+                .append(", 平均=").append(getAverageUs()).append("us")
+                .append(", p50=").append(getPercentileUs(50)).append("us")
+                .append(", p95=").append(getPercentileUs(95)).append("us")
+                .append(", 最大=").append(getMaxUs()).append("us, 各阶段=[");
+        for (int i = 0; i < mPassCount; i++) {
+            summary.append(i == 0 ? "" : ", ").append(getPassAverageUs(i)).append("us");
+        }
+        return summary.append(']').toString();
+    }
+}
@@ -64,6 +64,40 @@ public class GlRenderView extends GLSurfaceView {
         requestRender();
     }
 
+    /**
+     * 按顺序叠加多个滤镜效果
+     */
+    public void setFilterChain(final int[] effectIds) {
+        queueEvent(() -> {
+            mRender.setFilterChain(effectIds);
+        });
+        requestRender();
+    }
+
+    /**
+     * 开始实时预览一组滤镜效果，每个效果的小图通过listener在主线程上回调
+     */
+    public void startFilterPreview(final int[] effectIds, FilterPreviewAtlas.OnAtlasUpdatedListener listener) {
+        mRender.setPreviewAtlasListener(listener);
+        queueEvent(() -> {
+            mRender.setPreviewAtlasEffects(effectIds);
+        });
+    }
+
+    public void stopFilterPreview() {
+        mRender.setPreviewAtlasListener(null);
+        queueEvent(() -> {
+            mRender.setPreviewAtlasEffects(null);
+        });
+    }
+
+    public void reloadLuts() {
+        queueEvent(() -> {
+            mRender.reloadLuts();
+        });
+        requestRender();
+    }
+
     public void switchCamera() {
         queueEvent(() -> {
             mRender.switchCamera();
@@ -88,6 +122,71 @@ public class GlRenderView extends GLSurfaceView {
         });
     }
 
+    public void startRecording(final String outputPath, final VideoCompletionCallback callback) {
+        queueEvent(() -> {
+            mRender.startRecording(outputPath, callback);
+        });
+    }
+
+    /**
+     * 设置内部渲染分辨率，宽或高为0时跟随屏幕
+     */
+    public void setRenderResolution(final int width, final int height) {
+        queueEvent(() -> {
+            mRender.setRenderResolution(width, height);
+        });
+        requestRender();
+    }
+
+    /**
+     * 设置相机输出尺寸，下次打开相机时生效
+     */
+    public void setCameraPreviewSize(int width, int height) {
+        mRender.setCameraPreviewSize(width, height);
+    }
+
+    public void setTargetFps(final int fps) {
+        queueEvent(() -> {
+            mRender.setTargetFps(fps);
+        });
+    }
+
+    public void setTimeLapseFactor(final int factor) {
+        queueEvent(() -> {
+            mRender.setTimeLapseFactor(factor);
+        });
+    }
+
+    public void setRecordAudio(final boolean recordAudio) {
+        queueEvent(() -> {
+            mRender.setRecordAudio(recordAudio);
+        });
+    }
+
+    public void setPreRollSeconds(final int seconds) {
+        queueEvent(() -> {
+            mRender.setPreRollSeconds(seconds);
+        });
+    }
+
+    public void setProxyEnabled(final boolean enabled) {
+        queueEvent(() -> {
+            mRender.setProxyEnabled(enabled);
+        });
+    }
+
+    public void setEncoderQuality(final int quality) {
+        queueEvent(() -> {
+            mRender.setEncoderQuality(quality);
+        });
+    }
+
+    public void setSegmentation(final int seconds, final int megabytes) {
+        queueEvent(() -> {
+            mRender.setSegmentation(seconds, megabytes);
+        });
+    }
+
     public void stopRecording(final VideoCompletionCallback callback) {
         queueEvent(() -> {
             mRender.stopRecording(callback);
@@ -100,6 +199,18 @@ public class GlRenderView extends GLSurfaceView {
         });
     }
 
+    public void pauseRecording() {
+        queueEvent(() -> {
+            mRender.pauseRecording();
+        });
+    }
+
+    public void resumeRecording() {
+        queueEvent(() -> {
+            mRender.resumeRecording();
+        });
+    }
+
     @Override
     public void onPause() {
         Log.d(TAG, "GlRenderView onPause");
@@ -107,6 +218,7 @@ public class GlRenderView extends GLSurfaceView {
         // 先确保在OpenGL线程上停止相机
         queueEvent(() -> {
             mRender.releaseCamera();
+            mRender.releaseEncoderPool();
         });
 
         // 然后暂停GLSurfaceView
@@ -3,6 +3,7 @@ import android.app.Activity;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraCharacteristics;
 import android.opengl.EGL14;
+import android.opengl.EGLContext;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
@@ -14,15 +15,23 @@ import android.util.Size;
 
 import com.example.spj.VideoCompletionCallback;
 import com.example.spj.camera.Camera2Helper;
+import com.example.spj.encoder.EncoderPool;
+import com.example.spj.encoder.EncoderProfile;
+import com.example.spj.encoder.FramePacer;
 import com.example.spj.encoder.VideoEncoder;
 import com.example.spj.render.filters.CameraFilter;
-import com.example.spj.render.filters.CustomFilter;
+import com.example.spj.render.filters.FilterChain;
 import com.example.spj.render.filters.FilterManager;
-import com.example.spj.render.filters.InvertFilter;
+import com.example.spj.render.filters.ProgramCache;
 import com.example.spj.render.filters.ScreenFilter;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -33,19 +42,23 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
     private SurfaceTexture mSurfaceTexture;
     private int mTextureId = -1;
     private boolean isMirrored = false;
-    private int currentFilterId = 0; // 0 = no filter
+    // 依次叠加的效果ID，空数组表示无滤镜
+    private int[] mEffectIds = new int[0];
 
     private Camera2Helper mCamera2Helper;
     private CameraFilter mCameraFilter;
-    private InvertFilter mInvertFilter;
+    private FilterChain mFilterChain;
+    private EGLContext mEglContext;
     private ScreenFilter mScreenFilter;
     private VideoEncoder mVideoEncoder;
 
-    private boolean mInvertFilterEnabled = false;
     private boolean mIsRecording = false;
     private float[] mMatrix = new float[16];
 
     private int mSurfaceWidth, mSurfaceHeight;
+    // 相机和滤镜链的内部渲染分辨率，0表示跟随屏幕尺寸；最终由ScreenFilter一次放大或缩小到屏幕
+    private int mRenderWidth, mRenderHeight;
+    private int mCameraPreviewWidth = 1920, mCameraPreviewHeight = 1080;
     private boolean mCameraInitialized = false;
 
     // 添加UI线程Handler
@@ -63,18 +76,44 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
     private long mLastErrorTime = 0;
     private static final int MAX_ERRORS_BEFORE_RECOVERY = 5;
     private static final long ERROR_RESET_TIME_MS = 5000; // 5秒内的错误会被累计计数
+    // 页面暂停或销毁时等待异步收尾的编码器写完文件的上限
+    private static final long ENCODER_FINISH_TIMEOUT_MS = 8000;
 
     // 添加标志，跟踪相机是否提供了第一帧
     private boolean mFirstFrameReceived = false;
     private long mCameraOpenTime = 0;
-    private CustomFilter mCustomFilter;
-    private boolean mCustomFilterEnabled = false;
     private FilterManager mFilterManager;
+    private int mEncoderCodecMode = VideoEncoder.CODEC_MODE_SYNC;
+    private int mEncoderQuality = EncoderProfile.QUALITY_STANDARD;
+    // 相机打开时预热编码器，缩短开始录制到第一帧编码的时间
+    private EncoderPool mEncoderPool;
+    // 分段录制条件，都为0时不分段
+    private int mSegmentSeconds = 0;
+    private int mSegmentMegabytes = 0;
+    private int mTargetFps = FramePacer.FPS_VARIABLE;
+    private int mTimeLapseFactor = 1;
+    private boolean mRecordAudio = true;
+    // 录制开始时从滤镜输出截取缩略图，保存视频时无需再解码
+    private ThumbnailCapture mThumbnailCapture;
+    // 缩略图按录制视频的尺寸截取，不能用屏幕尺寸，否则宽高比与视频不一致
+    private int mThumbnailWidth, mThumbnailHeight;
+    // 正在异步收尾、还没放回池中的编码器，只在GL线程上访问；页面暂停或销毁时等待它们结束并释放
+    private final Map<VideoEncoder, Future<Boolean>> mFinishingEncoders = new HashMap<>();
+    private FilterPreviewAtlas mPreviewAtlas;
+
+    // GPU耗时测量和画质调节
+    private static final long FRAME_STATS_LOG_INTERVAL_NS = 10_000_000_000L;
+    private GpuTimer mGpuTimer;
+    private final FrameTimeStats mFrameTimeStats = new FrameTimeStats();
+    private final QualityGovernor mQualityGovernor = new QualityGovernor();
+    private long mLastFrameStatsLogNs;
 
     public GlRenderWrapper(GlRenderView glRenderView) {
         mGlRenderView = glRenderView;
         mFilterManager = new FilterManager(mGlRenderView.getContext());
-        mCustomFilter = new CustomFilter(mGlRenderView.getContext(), null, null);
+        mEncoderPool = new EncoderPool(mGlRenderView.getContext());
+        mThumbnailCapture = new ThumbnailCapture(mGlRenderView.getContext());
+        mPreviewAtlas = new FilterPreviewAtlas(mGlRenderView.getContext(), mFilterManager);
     }
 
     @Override
@@ -84,6 +123,15 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         try {
             // 我们将等待所有资源的初始化完成
             releaseGlResources();
+            // 旧的预热编码器共享的是已销毁的上下文
+            releaseEncoderPool();
+            // 新的上下文开始一个新的共享组，旧上下文里缓存的程序已随之失效
+            ProgramCache programCache = ProgramCache.getInstance(mGlRenderView.getContext());
+            if (mEglContext != null) {
+                programCache.onContextDestroyed(mEglContext);
+            }
+            mEglContext = EGL14.eglGetCurrentContext();
+            programCache.onContextCreated(mEglContext, null);
 
             // 在初始化OpenGL资源之前先检查状态
             GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
@@ -129,8 +177,10 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
 
             // 初始化滤镜
             mCameraFilter = new CameraFilter(mGlRenderView.getContext());
-            mInvertFilter = new InvertFilter(mGlRenderView.getContext());
+            mFilterChain = new FilterChain(mGlRenderView.getContext(), mFilterManager);
+            mFilterChain.setEffects(mEffectIds);
             mScreenFilter = new ScreenFilter(mGlRenderView.getContext());
+            initGpuTimer();
 
             // 重置错误计数和帧状态
             mErrorCount = 0;
@@ -148,34 +198,150 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         }
     }
 
+    private void initGpuTimer() {
+        mGpuTimer = new GpuTimer();
+        mGpuTimer.setOnFrameTimedListener(new GpuTimer.OnFrameTimedListener() {
+            @Override
+            public void onFrameTimed(long[] passNs, int passCount) {
+                mFrameTimeStats.onFrame(passNs, passCount);
+                if (mQualityGovernor.update(mFrameTimeStats.getLastFrameNs())) {
+                    applyQualityLevel();
+                }
+                long nowNs = System.nanoTime();
+                if (nowNs - mLastFrameStatsLogNs >= FRAME_STATS_LOG_INTERVAL_NS) {
+                    mLastFrameStatsLogNs = nowNs;
+                    Log.d(TAG, mFrameTimeStats.getSummary() + ", 画质等级=" + mQualityGovernor.getLevel());
+                }
+            }
+        });
+        mFilterChain.setGpuTimer(mGpuTimer);
+        mQualityGovernor.reset();
+        applyQualityLevel();
+    }
+
+    /**
+     * 按调节器的等级设置滤镜链，在GL线程上调用
+     */
+    private void applyQualityLevel() {
+        if (mFilterChain == null) return;
+        mFilterChain.setLowQuality(mQualityGovernor.useCheapEffects());
+        mFilterChain.setRenderScale(mQualityGovernor.getRenderScale());
+        if (mSurfaceWidth > 0 && mSurfaceHeight > 0) {
+            mFilterChain.prepare(getRenderWidth(), getRenderHeight());
+        }
+        Log.d(TAG, "画质等级: " + mQualityGovernor.getLevel()
+                + ", 渲染比例=" + mQualityGovernor.getRenderScale()
+                + ", GPU预算=" + mQualityGovernor.getBudgetNs() / 1000 + "us");
+    }
+
+    /**
+     * 开始或停止滤镜预览图集，effectIds为null或空数组时停止，需要在GL线程上调用
+     */
+    public void setPreviewAtlasEffects(int[] effectIds) {
+        mPreviewAtlas.setEffects(effectIds);
+    }
+
+    public void setPreviewAtlasListener(FilterPreviewAtlas.OnAtlasUpdatedListener listener) {
+        mPreviewAtlas.setListener(listener);
+    }
+
+    /**
+     * 渲染耗时统计，可以在任意线程读取
+     */
+    public FrameTimeStats getFrameTimeStats() {
+        return mFrameTimeStats;
+    }
+
+    public int getQualityLevel() {
+        return mQualityGovernor.getLevel();
+    }
+
     public void enableFilter(int filterId) {
-        currentFilterId = filterId;
-
-        // Disable all filters first
-        mInvertFilterEnabled = false;
-        mCustomFilterEnabled = false;
-
-        // Enable the selected filter
-        FilterManager.ShaderEffect effect = mFilterManager.getEffect(filterId);
-        if (effect != null) {
-            switch (filterId) {
-                case 0: // No filter
-                    break;
-                case 1: // Invert filter - use the built-in one
-                    mInvertFilterEnabled = true;
-                    break;
-                default: // Custom shaders
-                    mCustomFilterEnabled = true;
-                    mCustomFilter.setShaders(effect.getVertexShader(), effect.getFragmentShader());
-                    // 确保为自定义滤镜准备帧缓冲区
-                    if (mSurfaceWidth > 0 && mSurfaceHeight > 0) {
-                        mCustomFilter.prepare(mSurfaceWidth, mSurfaceHeight);
-                    }
-                    break;
+        setFilterChain(filterId == 0 ? new int[0] : new int[]{filterId});
+    }
+
+    /**
+     * 设置依次叠加的滤镜效果，顺序即执行顺序
+     */
+    public void setFilterChain(int[] effectIds) {
+        mEffectIds = effectIds.clone();
+        if (mFilterChain != null) {
+            mFilterChain.setEffects(mEffectIds);
+            if (mSurfaceWidth > 0 && mSurfaceHeight > 0) {
+                mFilterChain.prepare(getRenderWidth(), getRenderHeight());
             }
         }
+        Log.d(TAG, "设置滤镜链: " + Arrays.toString(mEffectIds));
+    }
 
-        Log.d(TAG, "设置滤镜: " + filterId);
+    /**
+     * 导入LUT文件后在GL线程上重新加载效果列表
+     */
+    public void reloadLuts() {
+        mFilterManager.reloadLuts();
+        if (mFilterChain != null) {
+            mFilterChain.reload();
+        }
+    }
+
+    public int[] getFilterChain() {
+        return mEffectIds.clone();
+    }
+
+    /**
+     * 设置相机和滤镜链的内部渲染分辨率，与屏幕和编码尺寸无关，宽或高为0时跟随屏幕。
+     * 方向与屏幕不同时自动交换宽高
+     */
+    public void setRenderResolution(int width, int height) {
+        mRenderWidth = Math.max(0, width);
+        mRenderHeight = Math.max(0, height);
+        prepareRenderTargets();
+        Log.d(TAG, "内部渲染分辨率: " + (mRenderWidth > 0 && mRenderHeight > 0
+                ? mRenderWidth + "x" + mRenderHeight : "跟随屏幕"));
+    }
+
+    /**
+     * 设置相机输出尺寸，下次打开相机时生效
+     */
+    public void setCameraPreviewSize(int width, int height) {
+        mCameraPreviewWidth = width;
+        mCameraPreviewHeight = height;
+        if (mCamera2Helper != null) {
+            mCamera2Helper.setRequestedPreviewSize(width, height);
+        }
+    }
+
+    private int getRenderWidth() {
+        if (mRenderWidth <= 0 || mRenderHeight <= 0) return mSurfaceWidth;
+        return (mSurfaceHeight > mSurfaceWidth) == (mRenderHeight > mRenderWidth) ? mRenderWidth : mRenderHeight;
+    }
+
+    private int getRenderHeight() {
+        if (mRenderWidth <= 0 || mRenderHeight <= 0) return mSurfaceHeight;
+        return (mSurfaceHeight > mSurfaceWidth) == (mRenderHeight > mRenderWidth) ? mRenderHeight : mRenderWidth;
+    }
+
+    /**
+     * 按内部渲染分辨率准备相机滤镜和滤镜链，在GL线程上调用
+     */
+    private void prepareRenderTargets() {
+        if (mSurfaceWidth <= 0 || mSurfaceHeight <= 0) return;
+        int width = getRenderWidth();
+        int height = getRenderHeight();
+        if (mCameraFilter != null) {
+            try {
+                mCameraFilter.prepare(width, height);
+            } catch (Exception e) {
+                Log.e(TAG, "CameraFilter准备失败", e);
+            }
+        }
+        if (mFilterChain != null) {
+            try {
+                mFilterChain.prepare(width, height);
+            } catch (Exception e) {
+                Log.e(TAG, "FilterChain准备失败", e);
+            }
+        }
     }
 
     @Override
@@ -196,27 +362,7 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
 
         try {
             // 准备滤镜
-            if (mCameraFilter != null) {
-                try {
-                    mCameraFilter.prepare(width, height);
-                } catch (Exception e) {
-                    Log.e(TAG, "CameraFilter准备失败", e);
-                }
-            }
-            if (mCustomFilter != null) {
-                try {
-                    mCustomFilter.prepare(width, height);
-                } catch (Exception e) {
-                    Log.e(TAG, "CustomFilter准备失败", e);
-                }
-            }
-            if (mInvertFilter != null) {
-                try {
-                    mInvertFilter.prepare(width, height);
-                } catch (Exception e) {
-                    Log.e(TAG, "InvertFilter准备失败", e);
-                }
-            }
+            prepareRenderTargets();
             if (mScreenFilter != null) {
                 try {
                     mScreenFilter.prepare(width, height);
@@ -381,24 +527,34 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
             } else {
                 return;
             }
-            // 渲染流程
+            // 渲染流程，每个阶段前后打点测量GPU耗时
+            mGpuTimer.beginFrame();
+            mGpuTimer.beginPass();
             int textureId = mCameraFilter.onDrawFrame(mTextureId);
+            mGpuTimer.endPass();
+            int cameraTextureId = textureId;
 
-            // 应用滤镜 - 这里是新增的代码
-            if (mInvertFilterEnabled && mInvertFilter != null) {
-                textureId = mInvertFilter.onDrawFrame(textureId);
-            } else if (mCustomFilterEnabled && mCustomFilter != null) {
-                textureId = mCustomFilter.onDrawFrame(textureId);
+            // 应用滤镜链，所有效果共用两个乒乓缓冲区
+            if (mFilterChain != null) {
+                textureId = mFilterChain.onDrawFrame(textureId);
             }
 
             if (mScreenFilter != null) {
+                mGpuTimer.beginPass();
                 mScreenFilter.onDrawFrame(textureId);
+                mGpuTimer.endPass();
             }
+            mGpuTimer.endFrame();
 
-            // 如果正在录制，发送到编码器
+            // 如果正在录制，发送到编码器；否则交给正在预录的空闲编码器
             if (mIsRecording && mVideoEncoder != null) {
                 mVideoEncoder.frameAvailable(textureId, mSurfaceTexture.getTimestamp());
+            } else {
+                mEncoderPool.frameAvailable(textureId, mSurfaceTexture.getTimestamp());
             }
+            mThumbnailCapture.onFrame(textureId, mThumbnailWidth, mThumbnailHeight);
+            // 预览图集以滤镜链之前的相机画面为输入，不计入滤镜链的帧耗时
+            mPreviewAtlas.onFrame(cameraTextureId, getRenderWidth(), getRenderHeight());
         } catch (Exception e) {
             Log.e(TAG, "渲染帧失败", e);
         }
@@ -441,6 +597,7 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
                     if (mCamera2Helper == null) {
                         mCamera2Helper = new Camera2Helper((Activity) mGlRenderView.getContext());
                     }
+                    mCamera2Helper.setRequestedPreviewSize(mCameraPreviewWidth, mCameraPreviewHeight);
 
                     // 打开相机 - 确保SurfaceTexture有效
                     final CountDownLatch latch = new CountDownLatch(1);
@@ -463,6 +620,8 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
                                     mCamera2Helper.openCamera(mSurfaceWidth, mSurfaceHeight, mSurfaceTexture);
                                     mCameraInitialized = true;
 
+                                    warmUpEncoder();
+
                                     // 重置错误计数
                                     mErrorCount = 0;
                                     mLastErrorTime = 0;
@@ -485,6 +644,49 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         });
     }
 
+    /**
+     * 在GL线程上按预览尺寸预热编码器
+     */
+    private void warmUpEncoder() {
+        if (mIsRecording || mCamera2Helper == null || mCamera2Helper.getPreviewSize() == null) {
+            return;
+        }
+        mEncoderPool.warmUp(
+                mCamera2Helper.getPreviewSize().getWidth(),
+                mCamera2Helper.getPreviewSize().getHeight(),
+                EGL14.eglGetCurrentContext(),
+                mEncoderCodecMode,
+                mEncoderQuality);
+    }
+
+    /**
+     * 在GL线程上释放预热的编码器（页面暂停时释放编码器和麦克风）
+     */
+    public void releaseEncoderPool() {
+        releaseFinishingEncoders();
+        mEncoderPool.release();
+    }
+
+    /**
+     * 等待异步收尾中的编码器写完文件后直接释放，不再放回池中：池和共享的GL上下文即将失效
+     */
+    private void releaseFinishingEncoders() {
+        // 所有编码器共用一个截止时间，多个编码器同时收尾时也不会让暂停阻塞成倍增加
+        long deadline = System.currentTimeMillis() + ENCODER_FINISH_TIMEOUT_MS;
+        for (Map.Entry<VideoEncoder, Future<Boolean>> entry : mFinishingEncoders.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, "等待编码器收尾超时");
+            } catch (Exception e) {
+                Log.e(TAG, "等待编码器收尾失败", e);
+            }
+            entry.getKey().release();
+        }
+        mFinishingEncoders.clear();
+    }
+
     public void releaseCamera() {
         if (mCamera2Helper != null) {
             mCamera2Helper.closeCamera();
@@ -501,9 +703,9 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
                 mCameraFilter = null;
             }
 
-            if (mInvertFilter != null) {
-                mInvertFilter.release();
-                mInvertFilter = null;
+            if (mFilterChain != null) {
+                mFilterChain.release();
+                mFilterChain = null;
             }
 
             if (mScreenFilter != null) {
@@ -511,6 +713,14 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
                 mScreenFilter = null;
             }
 
+            mThumbnailCapture.release();
+            mPreviewAtlas.release();
+
+            if (mGpuTimer != null) {
+                mGpuTimer.release();
+                mGpuTimer = null;
+            }
+
             Log.d(TAG, "OpenGL资源已释放");
         } catch (Exception e) {
             Log.e(TAG, "释放OpenGL资源失败", e);
@@ -518,8 +728,39 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
     }
 
     public void enableInvertFilter(boolean enable) {
-        mInvertFilterEnabled = enable;
+        enableFilter(enable ? 1 : 0);
+    }
+    /**
+     * 选择下一次录制使用的编码器模式（同步轮询或异步回调）
+     */
+    public void setEncoderCodecMode(int mode) {
+        mEncoderCodecMode = mode;
     }
+
+    /**
+     * 设置预录时长（秒），开启后预览期间空闲编码器持续编码最近几秒，开始录制时这几秒一并写入文件。
+     * 0表示关闭
+     */
+    public void setPreRollSeconds(int seconds) {
+        mEncoderPool.setPreRollSeconds(seconds);
+    }
+
+    /**
+     * 是否同时录制一份低分辨率代理文件，用于应用内播放和分享
+     */
+    public void setProxyEnabled(boolean enabled) {
+        mEncoderPool.setProxyEnabled(enabled);
+        warmUpEncoder();
+    }
+
+    /**
+     * 选择录制画质档位（EncoderProfile.QUALITY_*），实际编码格式和码率按设备能力确定
+     */
+    public void setEncoderQuality(int quality) {
+        mEncoderQuality = quality;
+        warmUpEncoder();
+    }
+
     public void setMirror(boolean mirrored) {
         this.isMirrored = mirrored;
         Log.d(TAG, "设置镜像模式: " + mirrored);
@@ -553,7 +794,47 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         }
     }
 
+    /**
+     * 设置之后录制的分段条件，都为0时录制为单个文件
+     */
+    public void setSegmentation(int seconds, int megabytes) {
+        mSegmentSeconds = seconds;
+        mSegmentMegabytes = megabytes;
+    }
+
+    /**
+     * 设置录制的目标帧率，FramePacer.FPS_VARIABLE为按相机帧率编码
+     */
+    public void setTargetFps(int fps) {
+        mTargetFps = fps;
+        mQualityGovernor.setTargetFps(fps);
+        if (mVideoEncoder != null) {
+            mVideoEncoder.setTargetFps(fps);
+        }
+    }
+
+    /**
+     * 设置之后录制的延时摄影倍数，1为关闭
+     */
+    public void setTimeLapseFactor(int factor) {
+        mTimeLapseFactor = factor;
+    }
+
+    /**
+     * 设置之后的录制是否录音（延时摄影始终不录音）
+     */
+    public void setRecordAudio(boolean recordAudio) {
+        mRecordAudio = recordAudio;
+    }
+
     public void startRecording(String outputPath) {
+        startRecording(outputPath, null);
+    }
+
+    /**
+     * @param callback 分段录制时每完成一段通过onSegmentSaved通知，可以为null
+     */
+    public void startRecording(String outputPath, final VideoCompletionCallback callback) {
         if (mIsRecording) return;
 
         if (!mCameraInitialized || mCamera2Helper == null || mCamera2Helper.getPreviewSize() == null) {
@@ -563,19 +844,62 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
 
         try {
             // Use the camera preview size
-            mVideoEncoder = new VideoEncoder(
-                    mGlRenderView.getContext(),
+            mVideoEncoder = mEncoderPool.acquire(
                     mCamera2Helper.getPreviewSize().getWidth(),
                     mCamera2Helper.getPreviewSize().getHeight(),
-                    EGL14.eglGetCurrentContext());
+                    EGL14.eglGetCurrentContext(),
+                    mEncoderCodecMode,
+                    mEncoderQuality);
+            mVideoEncoder.setTargetFps(mTargetFps);
+            mVideoEncoder.setTimeLapseFactor(mTimeLapseFactor);
+            mVideoEncoder.setAudioEnabled(mRecordAudio);
+            mVideoEncoder.setSegmentation(mSegmentSeconds, mSegmentMegabytes,
+                    new VideoEncoder.OnSegmentFinishedListener() {
+                        @Override
+                        public void onSegmentFinished(final String clipPath, final int segmentIndex,
+                                                      final String segmentPath, long durationUs,
+                                                      final boolean lastSegment) {
+                            if (callback == null) return;
+                            mMainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onSegmentSaved(clipPath, segmentIndex, segmentPath, lastSegment);
+                                }
+                            });
+                        }
+                    });
+            final VideoEncoder encoder = mVideoEncoder;
+            mVideoEncoder.setOnStorageLowListener(new VideoEncoder.OnStorageLowListener() {
+                @Override
+                public void onStorageLow(final String path, long usableBytes) {
+                    // 编码线程上回调，回到GL线程按正常流程停止，文件尾能完整写入
+                    mGlRenderView.queueEvent(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mIsRecording || mVideoEncoder != encoder) return;
+                            stopRecording(callback);
+                            if (callback == null) return;
+                            mMainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onStorageLow(path);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
 
             mVideoEncoder.start(outputPath);
             mIsRecording = true;
+            mThumbnailWidth = mVideoEncoder.getWidth();
+            mThumbnailHeight = mVideoEncoder.getHeight();
+            mThumbnailCapture.request(outputPath);
             Log.d(TAG, "开始录制: " + outputPath);
         } catch (Exception e) {
             Log.e(TAG, "开始录制失败", e);
             if (mVideoEncoder != null) {
-                mVideoEncoder.stop();
+                mVideoEncoder.release();
                 mVideoEncoder = null;
             }
         }
@@ -592,30 +916,7 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         mIsRecording = false;
         if (mVideoEncoder != null) {
             try {
-                // Set completion listener
-                mVideoEncoder.setOnEncodingFinishedListener(
-                        new VideoEncoder.OnEncodingFinishedListener() {
-                            @Override
-                            public void onEncodingFinished(final String outputPath, boolean success) {
-                                if (success) {
-                                    Log.d(TAG, "视频编码完成: " + outputPath);
-                                    // Notify on main thread
-                                    new Handler(Looper.getMainLooper()).post(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            if (callback != null) {
-                                                callback.onVideoSaved(outputPath);
-                                            }
-                                        }
-                                    });
-                                } else {
-                                    Log.e(TAG, "视频编码失败");
-                                }
-                            }
-                        }
-                );
-
-                mVideoEncoder.stop();
+                finishEncoderAsync(mVideoEncoder, callback);
                 mVideoEncoder = null;
                 Log.d(TAG, "停止录制");
             } catch (Exception e) {
@@ -624,21 +925,87 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
         }
     }
 
+    /**
+     * 暂停录制，编码器保持运行，恢复后继续写入同一个文件
+     */
+    public void pauseRecording() {
+        if (mIsRecording && mVideoEncoder != null) {
+            mVideoEncoder.pause();
+        }
+    }
+
+    public void resumeRecording() {
+        if (mIsRecording && mVideoEncoder != null) {
+            mVideoEncoder.resume();
+        }
+    }
+
     /**
      * Stop recording without callback (for use in lifecycle methods).
+     * 页面关闭时同步结束录制（有超时上限）并释放编码器，不放回池中
      */
     public void stopRecording() {
         if (!mIsRecording) return;
 
         mIsRecording = false;
-        if (mVideoEncoder != null) {
+        VideoEncoder encoder = mVideoEncoder;
+        mVideoEncoder = null;
+        if (encoder != null) {
             try {
-                mVideoEncoder.stop();
-                mVideoEncoder = null;
+                encoder.setOnEncodingFinishedListener(null);
+                encoder.stop();
                 Log.d(TAG, "停止录制");
             } catch (Exception e) {
                 Log.e(TAG, "停止录制失败", e);
             }
+            encoder.release();
+        }
+    }
+
+    /**
+     * 异步结束录制，GL线程不再等待文件写完，可以立即开始下一次录制。
+     * 收尾完成后回到GL线程把编码器放回池中。
+     */
+    private void finishEncoderAsync(final VideoEncoder encoder, final VideoCompletionCallback callback) {
+        encoder.setOnEncodingFinishedListener(
+                new VideoEncoder.OnEncodingFinishedListener() {
+                    @Override
+                    public void onEncodingFinished(final String outputPath, boolean success) {
+                        Log.d(TAG, "首帧编码耗时: " + encoder.getTimeToFirstFrameMs() + "ms");
+                        if (success) {
+                            Log.d(TAG, "视频编码完成: " + outputPath);
+                            // Notify on main thread
+                            if (callback != null) {
+                                mMainHandler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        callback.onVideoSaved(outputPath);
+                                    }
+                                });
+                            }
+                        } else {
+                            Log.e(TAG, "视频编码失败");
+                        }
+
+                        // 编码器已重新配置，回到GL线程放回池中供下一次录制使用；
+                        // 期间页面已暂停或销毁时编码器已由releaseFinishingEncoders释放
+                        mGlRenderView.queueEvent(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mFinishingEncoders.remove(encoder) != null) {
+                                    mEncoderPool.recycle(encoder);
+                                }
+                            }
+                        });
+                    }
+                }
+        );
+        Future<Boolean> finishing = encoder.stopAsync();
+        if (finishing.isDone()) {
+            // 没有在录制时不会回调监听器，已经结束的收尾也不需要等待，直接放回池中
+            mEncoderPool.recycle(encoder);
+        } else {
+            mFinishingEncoders.put(encoder, finishing);
         }
     }
 
@@ -651,6 +1018,7 @@ public class GlRenderWrapper implements GLSurfaceView.Renderer, SurfaceTexture.O
 
     public void release() {
         stopRecording();
+        releaseEncoderPool();
         releaseCamera();
         releaseGlResources();
 
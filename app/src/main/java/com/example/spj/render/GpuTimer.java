@@ -0,0 +1,169 @@
+package com.example.spj.render;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * 测量每一帧中各个绘制阶段的GPU耗时。
+ * 支持GL_EXT_disjoint_timer_query的ES 3.0设备使用计时查询：结果在几帧后才可读，
+ * 按帧轮流使用几组查询对象，不会阻塞渲染线程。
+ * 不支持时退回CPU计时：每隔若干帧在阶段前后glFinish，用挂钟时间近似GPU耗时，
+ * 只有被抽样的帧会付出同步的代价。所有方法都在GL线程上调用。
+ */
+public class GpuTimer {
+    private static final String TAG = "GpuTimer";
+
+    public static final int MAX_PASSES = 16;
+
+    // GL_EXT_disjoint_timer_query，GLES30里没有这两个常量
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    // 查询结果通常延迟1-2帧，4组足够；GPU落后更多时丢弃最旧的一帧
+    private static final int QUERY_FRAMES = 4;
+    private static final int CPU_SAMPLE_INTERVAL = 15;
+
+    public interface OnFrameTimedListener {
+        /**
+         * 一帧的各阶段耗时（纳秒），数组在回调返回后会被复用
+         */
+        void onFrameTimed(long[] passNs, int passCount);
+    }
+
+    private final boolean mUseQueries;
+    private OnFrameTimedListener mListener;
+
+    private int[] mQueries;
+    private final int[] mSlotPassCounts = new int[QUERY_FRAMES];
+    private final boolean[] mSlotPending = new boolean[QUERY_FRAMES];
+    private int mSlot;
+
+    private final long[] mPassNs = new long[MAX_PASSES];
+    private final int[] mResult = new int[1];
+    private int mPassCount;
+    private boolean mPassOpen;
+    private long mPassStartNs;
+    private long mFrameCount;
+    private boolean mSampling;
+    private long mDroppedFrames;
+
+    public GpuTimer() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        boolean es3 = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+        mUseQueries = es3 && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+        if (mUseQueries) {
+            mQueries = new int[QUERY_FRAMES * MAX_PASSES];
+            GLES30.glGenQueries(mQueries.length, mQueries, 0);
+        }
+        Log.d(TAG, "GPU计时方式: " + (mUseQueries ? "计时查询" : "CPU抽样"));
+    }
+
+    public void setOnFrameTimedListener(OnFrameTimedListener listener) {
+        mListener = listener;
+    }
+
+    public boolean isUsingQueries() {
+        return mUseQueries;
+    }
+
+    /**
+     * 被丢弃的帧数：查询结果迟迟不可读或GPU计时不连续
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public void beginFrame() {
+        mPassCount = 0;
+        mPassOpen = false;
+        if (mUseQueries) {
+            collectQueryResults();
+        } else {
+            mSampling = mFrameCount % CPU_SAMPLE_INTERVAL == 0;
+        }
+        mFrameCount++;
+    }
+
+    public void beginPass() {
+        if (mPassCount >= MAX_PASSES) return;
+        mPassOpen = true;
+        if (mUseQueries) {
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[mSlot * MAX_PASSES + mPassCount]);
+        } else if (mSampling) {
+            GLES20.glFinish();
+            mPassStartNs = System.nanoTime();
+        }
+    }
+
+    public void endPass() {
+        if (!mPassOpen) return;
+        mPassOpen = false;
+        if (mUseQueries) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        } else if (mSampling) {
+            GLES20.glFinish();
+            mPassNs[mPassCount] = System.nanoTime() - mPassStartNs;
+        }
+        mPassCount++;
+    }
+
+    public void endFrame() {
+        if (mUseQueries) {
+            mSlotPassCounts[mSlot] = mPassCount;
+            mSlotPending[mSlot] = mPassCount > 0;
+            mSlot = (mSlot + 1) % QUERY_FRAMES;
+        } else if (mSampling && mPassCount > 0 && mListener != null) {
+            mListener.onFrameTimed(mPassNs, mPassCount);
+        }
+    }
+
+    /**
+     * 从最旧的一组开始读取已完成的查询，遇到未完成的就停止，结果按帧顺序回调
+     */
+    private void collectQueryResults() {
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        boolean disjoint = mResult[0] != 0;
+
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            int slot = (mSlot + i) % QUERY_FRAMES;
+            if (!mSlotPending[slot]) continue;
+            if (disjoint) {
+                // 期间发生过降频或上下文切换，这段时间的结果不可信
+                mSlotPending[slot] = false;
+                mDroppedFrames++;
+                continue;
+            }
+            int count = mSlotPassCounts[slot];
+            GLES30.glGetQueryObjectuiv(mQueries[slot * MAX_PASSES + count - 1],
+                    GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+            if (mResult[0] == 0) {
+                if (slot == mSlot) {
+                    // 这组马上要被覆盖
+                    mSlotPending[slot] = false;
+                    mDroppedFrames++;
+                }
+                break;
+            }
+            for (int pass = 0; pass < count; pass++) {
+                GLES30.glGetQueryObjectuiv(mQueries[slot * MAX_PASSES + pass],
+                        GLES30.GL_QUERY_RESULT, mResult, 0);
+                mPassNs[pass] = mResult[0] & 0xffffffffL;
+            }
+            mSlotPending[slot] = false;
+            if (mListener != null) {
+                mListener.onFrameTimed(mPassNs, count);
+            }
+        }
+        // 读取结果会覆盖mPassNs，本帧重新开始计数
+        mPassCount = 0;
+    }
+
+    public void release() {
+        if (mQueries != null) {
+            GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+            mQueries = null;
+        }
+    }
+}
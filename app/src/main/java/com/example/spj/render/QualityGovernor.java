@@ -0,0 +1,106 @@
+package com.example.spj.render;
+
+/**
+ * 根据GPU帧耗时调整滤镜画质，保证录制能跟上目标帧率。
+ * 平滑后的耗时连续超过预算时降一级：先把磨皮等昂贵效果换成低成本版本，再降低滤镜链的渲染分辨率；
+ * 估计升一级后的耗时仍远低于预算并持续足够长时间才升回去，避免来回抖动。
+ * 纯Java实现，不依赖GL。
+ */
+public class QualityGovernor {
+    public static final int LEVEL_FULL = 0;
+    public static final int LEVEL_CHEAP_EFFECTS = 1;
+    public static final int LEVEL_REDUCED_RESOLUTION = 2;
+    public static final int LEVEL_LOW_RESOLUTION = 3;
+
+    private static final float[] RENDER_SCALES = {1f, 1f, 0.75f, 0.5f};
+
+    // 滤镜之外还有编码器拷贝和系统合成要占用GPU，只把预算的一部分留给测量的阶段
+    private static final float OVER_BUDGET = 0.8f;
+    private static final float UNDER_BUDGET = 0.5f;
+    private static final int DOWNGRADE_SAMPLES = 10;
+    private static final int UPGRADE_SAMPLES = 120;
+    private static final float SMOOTHING = 0.2f;
+    private static final int DEFAULT_FPS = 30;
+
+    private long mBudgetNs;
+    private int mLevel = LEVEL_FULL;
+    private float mAverageNs = -1;
+    private int mOverCount;
+    private int mUnderCount;
+
+    public QualityGovernor() {
+        setTargetFps(DEFAULT_FPS);
+    }
+
+    /**
+     * 设置目标帧率，0或负数（可变帧率）按30fps计算预算
+     */
+    public void setTargetFps(int fps) {
+        mBudgetNs = 1_000_000_000L / (fps > 0 ? fps : DEFAULT_FPS);
+        mOverCount = 0;
+        mUnderCount = 0;
+    }
+
+    public long getBudgetNs() {
+        return mBudgetNs;
+    }
+
+    /**
+     * 输入一帧的GPU耗时，画质等级变化时返回true
+     */
+    public boolean update(long frameNs) {
+        mAverageNs = mAverageNs < 0 ? frameNs : mAverageNs + (frameNs - mAverageNs) * SMOOTHING;
+
+        if (mAverageNs > mBudgetNs * OVER_BUDGET) {
+            mUnderCount = 0;
+            if (++mOverCount >= DOWNGRADE_SAMPLES && mLevel < LEVEL_LOW_RESOLUTION) {
+                setLevel(mLevel + 1);
+                return true;
+            }
+            return false;
+        }
+        mOverCount = 0;
+
+        if (mLevel > LEVEL_FULL) {
+            // 耗时大致与像素数成正比
+            float ratio = RENDER_SCALES[mLevel - 1] / RENDER_SCALES[mLevel];
+            float predictedNs = mAverageNs * ratio * ratio;
+            if (predictedNs < mBudgetNs * UNDER_BUDGET) {
+                if (++mUnderCount >= UPGRADE_SAMPLES) {
+                    setLevel(mLevel - 1);
+                    return true;
+                }
+            } else {
+                mUnderCount = 0;
+            }
+        }
+        return false;
+    }
+
+    private void setLevel(int level) {
+        mLevel = level;
+        // 换挡后耗时会突变，重新开始平均
+        mAverageNs = -1;
+        mOverCount = 0;
+        mUnderCount = 0;
+    }
+
+    public void reset() {
+        setLevel(LEVEL_FULL);
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public boolean useCheapEffects() {
+        return mLevel >= LEVEL_CHEAP_EFFECTS;
+    }
+
+    /**
+     * 滤镜链相对输出尺寸的渲染比例
+     */
+    public float getRenderScale() {
+        return RENDER_SCALES[mLevel];
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.spj.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.example.spj.render.filters.ScreenFilter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 录制过程中在预览GL线程上截取缩略图。
+ * 把滤镜输出缩小绘制到一个小FBO，通过像素缓冲对象（PBO）异步读回，等GPU栅栏完成后再映射读取，
+ * 预览线程不会因为glReadPixels而等待GPU；JPEG压缩在后台线程进行。
+ * 上下文不支持ES 3.0时直接对小FBO调用glReadPixels，数据量很小，耗时可以忽略。
+ * 除构造函数外所有方法都在预览GL线程上调用。
+ */
+public class ThumbnailCapture {
+    private static final String TAG = "ThumbnailCapture";
+
+    // 缩略图长边
+    private static final int THUMBNAIL_LONG_SIDE = 480;
+    private static final int JPEG_QUALITY = 90;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_READING = 1;
+
+    private final Context mContext;
+    // 第一次压缩时创建，release时关闭，页面重建时不会留下空闲线程
+    private ExecutorService mCompressExecutor;
+
+    private ScreenFilter mScreenFilter;
+    private int[] mFrameBuffer;
+    private int[] mTexture;
+    private int[] mPixelBuffer;
+    private long mFence = 0;
+    private boolean mPboSupported = false;
+    private int mWidth, mHeight;
+    private int mSourceWidth, mSourceHeight;
+
+    private int mState = STATE_IDLE;
+    // 等待截取的输出路径，和正在读回的那一帧的输出路径
+    private String mPendingPath;
+    private String mReadingPath;
+
+    public ThumbnailCapture(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * 录制视频对应的缩略图路径，截取的缩略图先写在视频旁边，保存视频记录时再移到缩略图目录
+     */
+    public static String thumbnailPathFor(String videoPath) {
+        int slash = videoPath.lastIndexOf('/');
+        int dot = videoPath.lastIndexOf('.');
+        String base = dot > slash ? videoPath.substring(0, dot) : videoPath;
+        return base + "_thumb.jpg";
+    }
+
+    /**
+     * 请求在下一帧截取缩略图。上一张还在读回时，等它完成后再截取新的一帧
+     */
+    public void request(String videoPath) {
+        mPendingPath = thumbnailPathFor(videoPath);
+    }
+
+    /**
+     * 每次绘制后调用
+     *
+     * @param textureId     滤镜输出的2D纹理
+     * @param sourceWidth   纹理宽度
+     * @param sourceHeight  纹理高度
+     */
+    public void onFrame(int textureId, int sourceWidth, int sourceHeight) {
+        if (mState == STATE_IDLE && mPendingPath == null) return;
+        try {
+            if (mState == STATE_READING) {
+                pollReadback();
+                return;
+            }
+            mReadingPath = mPendingPath;
+            mPendingPath = null;
+            prepare(sourceWidth, sourceHeight);
+            mScreenFilter.drawToFrameBuffer(textureId, mFrameBuffer[0], mWidth, mHeight);
+            if (mPboSupported) {
+                startReadback();
+            } else {
+                readSync();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "截取缩略图失败", e);
+            mState = STATE_IDLE;
+        }
+    }
+
+    private void prepare(int sourceWidth, int sourceHeight) {
+        if (mFrameBuffer != null && sourceWidth == mSourceWidth && sourceHeight == mSourceHeight) {
+            return;
+        }
+        releaseBuffers();
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        float scale = Math.min(1f, (float) THUMBNAIL_LONG_SIDE / Math.max(sourceWidth, sourceHeight));
+        mWidth = Math.max(1, Math.round(sourceWidth * scale));
+        mHeight = Math.max(1, Math.round(sourceHeight * scale));
+
+        if (mScreenFilter == null) {
+            mScreenFilter = new ScreenFilter(mContext);
+            // PBO需要ES 3.0，GLSurfaceView按ES 2.0创建上下文，实际版本由驱动决定
+            String version = GLES20.glGetString(GLES20.GL_VERSION);
+            mPboSupported = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+            Log.d(TAG, "GL版本: " + version + ", 使用PBO: " + mPboSupported);
+        }
+
+        mFrameBuffer = new int[1];
+        mTexture = new int[1];
+        GLES20.glGenFramebuffers(1, mFrameBuffer, 0);
+        GLES20.glGenTextures(1, mTexture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight,
+                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture[0], 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        if (mPboSupported) {
+            mPixelBuffer = new int[1];
+            GLES30.glGenBuffers(1, mPixelBuffer, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mWidth * mHeight * 4, null, GLES30.GL_STREAM_READ);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        Log.d(TAG, "缩略图FBO: " + mWidth + "x" + mHeight);
+    }
+
+    /**
+     * 把像素读取命令排入PBO并插入栅栏，之后的帧上检查栅栏再映射
+     */
+    private void startReadback() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+        GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES20.glFlush();
+        mState = STATE_READING;
+    }
+
+    private void pollReadback() {
+        int result = GLES30.glClientWaitSync(mFence, 0, 0);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            return;
+        }
+        GLES30.glDeleteSync(mFence);
+        mFence = 0;
+
+        int size = mWidth * mHeight * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            ByteBuffer pixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            pixels.put(mapped);
+            pixels.flip();
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            compressAsync(pixels);
+        } else {
+            Log.e(TAG, "映射PBO失败: " + GLES20.glGetError());
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mState = STATE_IDLE;
+    }
+
+    private void readSync() {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(mWidth * mHeight * 4).order(ByteOrder.nativeOrder());
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES20.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        pixels.rewind();
+        compressAsync(pixels);
+        mState = STATE_IDLE;
+    }
+
+    private void compressAsync(final ByteBuffer pixels) {
+        final String outputPath = mReadingPath;
+        final int width = mWidth;
+        final int height = mHeight;
+        if (mCompressExecutor == null) {
+            mCompressExecutor = Executors.newSingleThreadExecutor();
+        }
+        mCompressExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeJpeg(pixels, width, height, outputPath);
+            }
+        });
+    }
+
+    private static void writeJpeg(ByteBuffer pixels, int width, int height, String outputPath) {
+        Bitmap bitmap = null;
+        Bitmap flipped = null;
+        File tmpFile = new File(outputPath + ".tmp");
+        try {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(pixels);
+            // glReadPixels从底部一行开始
+            Matrix matrix = new Matrix();
+            matrix.preScale(1f, -1f);
+            flipped = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, false);
+
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                flipped.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            // 写完后再改名，保存视频记录时看到的文件总是完整的
+            if (!tmpFile.renameTo(new File(outputPath))) {
+                Log.e(TAG, "重命名缩略图失败: " + outputPath);
+                tmpFile.delete();
+                return;
+            }
+            Log.d(TAG, "缩略图已保存: " + outputPath);
+        } catch (Exception e) {
+            Log.e(TAG, "保存缩略图失败", e);
+            tmpFile.delete();
+        } finally {
+            if (bitmap != null) bitmap.recycle();
+            if (flipped != null && flipped != bitmap) flipped.recycle();
+        }
+    }
+
+    private void releaseBuffers() {
+        if (mFence != 0) {
+            GLES30.glDeleteSync(mFence);
+            mFence = 0;
+        }
+        if (mPixelBuffer != null) {
+            GLES30.glDeleteBuffers(1, mPixelBuffer, 0);
+            mPixelBuffer = null;
+        }
+        if (mFrameBuffer != null) {
+            GLES20.glDeleteFramebuffers(1, mFrameBuffer, 0);
+            GLES20.glDeleteTextures(1, mTexture, 0);
+            mFrameBuffer = null;
+            mTexture = null;
+        }
+        mSourceWidth = 0;
+        mSourceHeight = 0;
+    }
+
+    /**
+     * GL上下文销毁前调用，未完成的读回直接放弃，保存视频时回退到解码生成缩略图
+     */
+    public void release() {
+        releaseBuffers();
+        if (mScreenFilter != null) {
+            mScreenFilter.release();
+            mScreenFilter = null;
+        }
+        mState = STATE_IDLE;
+        mPendingPath = null;
+        if (mCompressExecutor != null) {
+            // 已经读回的缩略图照常写完，之后线程退出
+            mCompressExecutor.shutdown();
+            mCompressExecutor = null;
+        }
+    }
+}
@@ -115,11 +115,29 @@ public abstract class BaseFilter {
     }
 
     public int onDrawFrame(int textureId) {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[0]);
-        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+        drawToFrameBuffer(textureId, mFrameBuffers[0], mOutputWidth, mOutputHeight);
+        return mFBOTextures[0];
+    }
 
+    /**
+     * 将输入纹理绘制到指定的帧缓冲区，不使用滤镜自身的FBO
+     */
+    public void drawToFrameBuffer(int textureId, int frameBuffer, int width, int height) {
+        drawToTile(textureId, frameBuffer, 0, 0, width, height);
+    }
+
+    /**
+     * 绘制到帧缓冲区中的一个矩形区域，区域外的内容保持不变，用于把多个结果拼在一张纹理上
+     */
+    public void drawToTile(int textureId, int frameBuffer, int x, int y, int width, int height) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES20.glViewport(x, y, width, height);
+
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glScissor(x, y, width, height);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
 
         GLES20.glUseProgram(mProgramId);
         checkGlError("glUseProgram " + mProgramId);
@@ -135,6 +153,7 @@ public abstract class BaseFilter {
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
         GLES20.glUniform1i(vTexture, 0);
+        onSetUniforms();
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
         checkGlError("glDrawArrays");
@@ -143,8 +162,18 @@ public abstract class BaseFilter {
         GLES20.glDisableVertexAttribArray(vCoord);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
 
-        return mFBOTextures[0];
+    /**
+     * 绘制前设置滤镜自己的uniform和额外纹理，此时程序已启用，输入纹理绑定在0号纹理单元
+     */
+    protected void onSetUniforms() {
+    }
+
+    /**
+     * GPU跟不上目标帧率时切换到低成本版本，默认没有低成本版本
+     */
+    public void setLowQuality(boolean lowQuality) {
     }
 
     public void destroyFrameBuffers() {
@@ -158,64 +187,15 @@ public abstract class BaseFilter {
 
     public void release() {
         destroyFrameBuffers();
-        if (mProgramId != 0) {
-            GLES20.glDeleteProgram(mProgramId);
-            mProgramId = 0;
-        }
-    }
-
-    // OpenGL辅助方法
-    protected int loadShader(int type, String shaderCode) {
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
-
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            Log.e(TAG, "着色器编译失败: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
-
-        return shader;
+        // 程序归ProgramCache所有，可能被其他滤镜共用，不在这里删除
+        mProgramId = 0;
     }
 
+    /**
+     * 从ProgramCache取得程序，相同源码只在第一次使用时编译
+     */
     protected int createProgram(String vertexSource, String fragmentSource) {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShader == 0) {
-            return 0;
-        }
-
-        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (fragmentShader == 0) {
-            GLES20.glDeleteShader(vertexShader);
-            return 0;
-        }
-
-        int program = GLES20.glCreateProgram();
-        if (program == 0) {
-            GLES20.glDeleteShader(vertexShader);
-            GLES20.glDeleteShader(fragmentShader);
-            return 0;
-        }
-
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, fragmentShader);
-        GLES20.glLinkProgram(program);
-
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            Log.e(TAG, "程序链接失败: " + GLES20.glGetProgramInfoLog(program));
-            GLES20.glDeleteProgram(program);
-            program = 0;
-        }
-
-        GLES20.glDeleteShader(vertexShader);
-        GLES20.glDeleteShader(fragmentShader);
-
-        return program;
+        return ProgramCache.getInstance(mContext).obtain(vertexSource, fragmentSource);
     }
 
     // 添加OpenGL错误检查
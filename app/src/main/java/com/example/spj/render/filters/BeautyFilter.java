@@ -0,0 +1,218 @@
+package com.example.spj.render.filters;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * 多遍磨皮滤镜，效果与shader_beauty.glsl一致。
+ * 原着色器在全分辨率下每个像素采样21次。这里先缩小到1/2（720p及以下）或1/4，
+ * 在小图上做横竖两遍保边模糊，最后在全分辨率下与原图混合，每个全分辨率像素只采样2次。
+ * 中间缓冲区从FramebufferPool借用。
+ */
+public class BeautyFilter extends BaseFilter {
+    private static final String TAG = "BeautyFilter";
+
+    // 原着色器的模糊半径约10个全分辨率像素
+    private static final float BLUR_RADIUS_PX = 10f;
+    private static final int BLUR_TAPS = 4;
+    private static final int HALF_RES_MAX_PIXELS = 1280 * 720;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 vPosition;\n" +
+                    "attribute vec4 vCoord;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    gl_Position = vPosition;\n" +
+                    "    aCoord = vCoord.xy;\n" +
+                    "}";
+
+    // 四个双线性采样点覆盖4x4像素，1/2和1/4缩小都不会漏掉像素
+    private static final String DOWNSAMPLE_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform vec2 texelSize;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 sum = texture2D(vTexture, aCoord + texelSize * vec2(-1.0, -1.0));\n" +
+                    "    sum += texture2D(vTexture, aCoord + texelSize * vec2(1.0, -1.0));\n" +
+                    "    sum += texture2D(vTexture, aCoord + texelSize * vec2(-1.0, 1.0));\n" +
+                    "    sum += texture2D(vTexture, aCoord + texelSize * vec2(1.0, 1.0));\n" +
+                    "    gl_FragColor = sum * 0.25;\n" +
+                    "}";
+
+    // 一维保边模糊：空间高斯权重乘以颜色差异权重，边缘两侧的颜色不会互相渗透
+    private static final String BLUR_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform vec2 blurStep;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 center = texture2D(vTexture, aCoord);\n" +
+                    "    vec3 sum = center.rgb;\n" +
+                    "    float total = 1.0;\n" +
+                    "    for (int i = 1; i <= " + BLUR_TAPS + "; i++) {\n" +
+                    "        float spatial = exp(-float(i * i) / 8.0);\n" +
+                    "        vec3 a = texture2D(vTexture, aCoord + blurStep * float(i)).rgb;\n" +
+                    "        vec3 b = texture2D(vTexture, aCoord - blurStep * float(i)).rgb;\n" +
+                    "        float wa = spatial * exp(-dot(a - center.rgb, a - center.rgb) * 50.0);\n" +
+                    "        float wb = spatial * exp(-dot(b - center.rgb, b - center.rgb) * 50.0);\n" +
+                    "        sum += a * wa + b * wb;\n" +
+                    "        total += wa + wb;\n" +
+                    "    }\n" +
+                    "    gl_FragColor = vec4(sum / total, center.a);\n" +
+                    "}";
+
+    // 与shader_beauty.glsl相同的高反差保留和混合，模糊结果来自放大的小图
+    private static final String BLEND_SHADER =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform sampler2D blurTexture;\n" +
+                    "uniform float intensity;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 currentColor = texture2D(vTexture, aCoord);\n" +
+                    "    vec3 blur = texture2D(blurTexture, aCoord).rgb;\n" +
+                    "    vec3 highPass = currentColor.rgb - blur;\n" +
+                    "    highPass = clamp(2.0 * highPass * highPass * 24.0, 0.0, 1.0);\n" +
+                    "    float b = min(currentColor.b, blur.b);\n" +
+                    "    float value = clamp((b - 0.2) * 5.0, 0.0, 1.0);\n" +
+                    "    float maxChannelColor = max(max(highPass.r, highPass.g), highPass.b);\n" +
+                    "    float currentIntensity = (1.0 - maxChannelColor / (maxChannelColor + 0.2)) * value * intensity;\n" +
+                    "    gl_FragColor = vec4(mix(currentColor.rgb, blur, currentIntensity), 1.0);\n" +
+                    "}";
+
+    // initProgram在父类构造函数中调用，这些字段不能有初始值
+    private int mDownsampleProgram;
+    private int mDownsampleTexelSize;
+    private int mBlurProgram;
+    private int mBlurStep;
+    private int mBlurTextureLocation;
+    private int mIntensityLocation;
+
+    private final FramebufferPool mPool;
+    private float mIntensity = 1.0f;
+    private boolean mLowQuality;
+    private int mBlurTexture;
+
+    public BeautyFilter(Context context, FramebufferPool pool) {
+        super(context);
+        mPool = pool;
+    }
+
+    @Override
+    protected void initProgram() {
+        mProgramId = createProgram(VERTEX_SHADER, BLEND_SHADER);
+        mDownsampleProgram = createProgram(VERTEX_SHADER, DOWNSAMPLE_SHADER);
+        mBlurProgram = createProgram(VERTEX_SHADER, BLUR_SHADER);
+        if (mProgramId == 0 || mDownsampleProgram == 0 || mBlurProgram == 0) {
+            Log.e(TAG, "创建磨皮着色器程序失败");
+            return;
+        }
+
+        // 三个程序使用同一个顶点着色器，属性位置按各自程序查询
+        vPosition = GLES20.glGetAttribLocation(mProgramId, "vPosition");
+        vCoord = GLES20.glGetAttribLocation(mProgramId, "vCoord");
+        vTexture = GLES20.glGetUniformLocation(mProgramId, "vTexture");
+        mBlurTextureLocation = GLES20.glGetUniformLocation(mProgramId, "blurTexture");
+        mIntensityLocation = GLES20.glGetUniformLocation(mProgramId, "intensity");
+        mDownsampleTexelSize = GLES20.glGetUniformLocation(mDownsampleProgram, "texelSize");
+        mBlurStep = GLES20.glGetUniformLocation(mBlurProgram, "blurStep");
+    }
+
+    /**
+     * 磨皮程度，0.0-1.0
+     */
+    public void setIntensity(float intensity) {
+        mIntensity = Math.max(0f, Math.min(1f, intensity));
+    }
+
+    /**
+     * 低成本版本在再缩小一半的图上模糊，模糊半径不变
+     */
+    @Override
+    public void setLowQuality(boolean lowQuality) {
+        mLowQuality = lowQuality;
+    }
+
+    @Override
+    public void drawToTile(int textureId, int frameBuffer, int x, int y, int width, int height) {
+        int scale = width * height > HALF_RES_MAX_PIXELS ? 4 : 2;
+        if (mLowQuality) {
+            scale *= 2;
+        }
+        int smallWidth = Math.max(1, width / scale);
+        int smallHeight = Math.max(1, height / scale);
+        FramebufferPool.Framebuffer a = mPool.acquire(smallWidth, smallHeight);
+        FramebufferPool.Framebuffer b = mPool.acquire(smallWidth, smallHeight);
+        try {
+            // 1. 缩小
+            GLES20.glUseProgram(mDownsampleProgram);
+            GLES20.glUniform2f(mDownsampleTexelSize, 1f / width, 1f / height);
+            drawPass(mDownsampleProgram, textureId, a.frameBuffer, smallWidth, smallHeight);
+
+            // 2. 横向、纵向保边模糊，步长换算成小图上的纹理坐标，总半径约等于原着色器
+            float step = BLUR_RADIUS_PX / scale / BLUR_TAPS;
+            GLES20.glUseProgram(mBlurProgram);
+            GLES20.glUniform2f(mBlurStep, step / smallWidth, 0f);
+            drawPass(mBlurProgram, a.texture, b.frameBuffer, smallWidth, smallHeight);
+            GLES20.glUseProgram(mBlurProgram);
+            GLES20.glUniform2f(mBlurStep, 0f, step / smallHeight);
+            drawPass(mBlurProgram, b.texture, a.frameBuffer, smallWidth, smallHeight);
+
+            // 3. 全分辨率混合，小图通过线性过滤放大
+            mBlurTexture = a.texture;
+            super.drawToTile(textureId, frameBuffer, x, y, width, height);
+        } finally {
+            mPool.release(a);
+            mPool.release(b);
+        }
+    }
+
+    @Override
+    protected void onSetUniforms() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mBlurTexture);
+        GLES20.glUniform1i(mBlurTextureLocation, 1);
+        GLES20.glUniform1f(mIntensityLocation, mIntensity);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    private void drawPass(int program, int textureId, int frameBuffer, int width, int height) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES20.glViewport(0, 0, width, height);
+
+        int position = GLES20.glGetAttribLocation(program, "vPosition");
+        int coord = GLES20.glGetAttribLocation(program, "vCoord");
+        mGlVertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 0, mGlVertexBuffer);
+        GLES20.glEnableVertexAttribArray(position);
+        mGlTextureBuffer.position(0);
+        GLES20.glVertexAttribPointer(coord, 2, GLES20.GL_FLOAT, false, 0, mGlTextureBuffer);
+        GLES20.glEnableVertexAttribArray(coord);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "vTexture"), 0);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        checkGlError("磨皮中间绘制");
+
+        GLES20.glDisableVertexAttribArray(position);
+        GLES20.glDisableVertexAttribArray(coord);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    @Override
+    public void release() {
+        // 程序归ProgramCache所有
+        mDownsampleProgram = 0;
+        mBlurProgram = 0;
+        super.release();
+    }
+}
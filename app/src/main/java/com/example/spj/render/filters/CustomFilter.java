@@ -23,13 +23,9 @@ public class CustomFilter extends BaseFilter {
     }
 
     private void recompileShaders() {
-        // Release existing program if any
-        if (mProgramId != 0) {
-            GLES20.glDeleteProgram(mProgramId);
-            mProgramId = 0;
-        }
-
-        // Create new program with the provided shaders
+        // Programs are owned by ProgramCache; switching back to a previous
+        // shader reuses the already linked program
+        mProgramId = 0;
         initProgram();
     }
 
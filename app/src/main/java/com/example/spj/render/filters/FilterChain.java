@@ -0,0 +1,305 @@
+package com.example.spj.render.filters;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.example.spj.render.GpuTimer;
+import com.example.spj.render.lut.CubeLut;
+import com.example.spj.render.lut.LutBaker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按顺序执行任意多个滤镜效果的滤镜链。
+ * 所有阶段共用两个内部渲染分辨率的乒乓帧缓冲区：第i个滤镜读上一阶段的输出纹理，写入另一个缓冲区，
+ * 滤镜本身不再分配FBO，无论叠加多少个效果显存占用都不变。
+ * 相邻的逐像素颜色效果由ShaderFuser合并成一个着色器，只占一个阶段；
+ * 有查找表的调色效果相邻时在CPU上组合成一张表，同样只占一个阶段。
+ * 磨皮等多遍滤镜的中间缓冲区从共用的FramebufferPool借用。
+ * GPU跟不上时可以降低渲染比例或切换到低成本版本，由QualityGovernor控制。
+ * 所有方法都在GL线程上调用。
+ */
+public class FilterChain {
+    private static final String TAG = "FilterChain";
+
+    private final Context mContext;
+    private final FilterManager mFilterManager;
+    // 按效果ID（合并的阶段按ID序列）缓存已编译的滤镜，切换组合时不用重新编译着色器
+    private final Map<String, BaseFilter> mFilterCache = new HashMap<>();
+    private final List<BaseFilter> mStages = new ArrayList<>();
+    private final FramebufferPool mFramebufferPool = new FramebufferPool();
+    private int[] mEffectIds = new int[0];
+
+    private int[] mFrameBuffers;
+    private int[] mTextures;
+    private int mWidth, mHeight;
+    private float mRenderScale = 1f;
+    private boolean mLowQuality;
+    private GpuTimer mGpuTimer;
+
+    public FilterChain(Context context, FilterManager filterManager) {
+        mContext = context;
+        mFilterManager = filterManager;
+    }
+
+    /**
+     * 设置要依次执行的效果ID，0（无滤镜）和不存在的ID会被忽略
+     */
+    public void setEffects(int[] effectIds) {
+        mEffectIds = effectIds.clone();
+        mStages.clear();
+
+        List<FilterManager.ShaderEffect> group = new ArrayList<>();
+        List<FilterManager.ShaderEffect> lutGroup = new ArrayList<>();
+        for (int id : mEffectIds) {
+            FilterManager.ShaderEffect effect = mFilterManager.getEffect(id);
+            if (effect == null) continue;
+            if (effect.hasLut()) {
+                addGroup(group);
+                group.clear();
+                lutGroup.add(effect);
+                continue;
+            }
+            addLutGroup(lutGroup);
+            lutGroup.clear();
+            if (effect.getFragmentShader() == null) continue;
+
+            if (effect.getRenderer() == FilterManager.ShaderEffect.RENDERER_BEAUTY) {
+                addGroup(group);
+                group.clear();
+                mStages.add(getBeautyFilter());
+                continue;
+            }
+            boolean fusable = ShaderFuser.isFusable(effect.getFragmentShader());
+            if (!fusable || (!group.isEmpty()
+                    && !group.get(0).getVertexShader().equals(effect.getVertexShader()))) {
+                addGroup(group);
+                group.clear();
+            }
+            if (fusable) {
+                group.add(effect);
+            } else {
+                mStages.add(getFilter(String.valueOf(id), effect.getVertexShader(), effect.getFragmentShader()));
+            }
+        }
+        addGroup(group);
+        addLutGroup(lutGroup);
+        for (BaseFilter stage : mStages) {
+            stage.setLowQuality(mLowQuality);
+        }
+        Log.d(TAG, "滤镜链: " + mEffectIds.length + " 个效果, " + mStages.size() + " 个阶段");
+    }
+
+    /**
+     * 一组相邻的颜色效果：只有一个时直接使用，多个时合并成一个阶段
+     */
+    private void addGroup(List<FilterManager.ShaderEffect> group) {
+        if (group.isEmpty()) return;
+        FilterManager.ShaderEffect first = group.get(0);
+        if (group.size() == 1) {
+            mStages.add(getFilter(String.valueOf(first.getId()), first.getVertexShader(), first.getFragmentShader()));
+            return;
+        }
+
+        StringBuilder key = new StringBuilder();
+        List<String> shaders = new ArrayList<>();
+        for (FilterManager.ShaderEffect effect : group) {
+            key.append(key.length() == 0 ? "" : "+").append(effect.getId());
+            shaders.add(effect.getFragmentShader());
+        }
+        BaseFilter fused = mFilterCache.get(key.toString());
+        if (fused == null) {
+            fused = new CustomFilter(mContext, first.getVertexShader(), ShaderFuser.fuse(shaders));
+            mFilterCache.put(key.toString(), fused);
+            Log.d(TAG, "合并颜色滤镜: " + key);
+        }
+        mStages.add(fused);
+    }
+
+    /**
+     * 一组相邻的查找表效果组合成一张表
+     */
+    private void addLutGroup(List<FilterManager.ShaderEffect> group) {
+        if (group.isEmpty()) return;
+        mStages.add(getLutFilter(group));
+    }
+
+    private BaseFilter getLutFilter(List<FilterManager.ShaderEffect> group) {
+        StringBuilder key = new StringBuilder("lut:");
+        List<CubeLut> luts = new ArrayList<>();
+        for (FilterManager.ShaderEffect effect : group) {
+            key.append(luts.isEmpty() ? "" : "+").append(effect.getId());
+            luts.add(effect.getLut());
+        }
+        BaseFilter filter = mFilterCache.get(key.toString());
+        if (filter == null) {
+            CubeLut lut = luts.size() == 1 ? luts.get(0) : LutBaker.compose(luts, LutBaker.DEFAULT_SIZE);
+            filter = new LutFilter(mContext, lut);
+            mFilterCache.put(key.toString(), filter);
+        }
+        return filter;
+    }
+
+    /**
+     * 单个效果对应的滤镜，与滤镜链共用缓存；效果不存在或没有可绘制的内容时返回null。
+     * 预览图集逐个绘制效果时使用，不需要调用prepare
+     */
+    public BaseFilter getEffectFilter(int effectId) {
+        FilterManager.ShaderEffect effect = mFilterManager.getEffect(effectId);
+        if (effect == null) return null;
+        if (effect.hasLut()) {
+            List<FilterManager.ShaderEffect> group = new ArrayList<>();
+            group.add(effect);
+            return getLutFilter(group);
+        }
+        if (effect.getFragmentShader() == null) return null;
+        if (effect.getRenderer() == FilterManager.ShaderEffect.RENDERER_BEAUTY) {
+            return getBeautyFilter();
+        }
+        return getFilter(String.valueOf(effectId), effect.getVertexShader(), effect.getFragmentShader());
+    }
+
+    private BaseFilter getBeautyFilter() {
+        BaseFilter filter = mFilterCache.get("beauty");
+        if (filter == null) {
+            filter = new BeautyFilter(mContext, mFramebufferPool);
+            mFilterCache.put("beauty", filter);
+        }
+        return filter;
+    }
+
+    private BaseFilter getFilter(String key, String vertexShader, String fragmentShader) {
+        BaseFilter filter = mFilterCache.get(key);
+        if (filter == null) {
+            filter = new CustomFilter(mContext, vertexShader, fragmentShader);
+            mFilterCache.put(key, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * 效果定义变化后（如导入了新的LUT）丢弃缓存的滤镜，按当前效果ID重建
+     */
+    public void reload() {
+        for (BaseFilter filter : mFilterCache.values()) {
+            filter.release();
+        }
+        mFilterCache.clear();
+        setEffects(mEffectIds);
+    }
+
+    /**
+     * 每个阶段前后打点计时，为null时不计时
+     */
+    public void setGpuTimer(GpuTimer gpuTimer) {
+        mGpuTimer = gpuTimer;
+    }
+
+    public void setLowQuality(boolean lowQuality) {
+        mLowQuality = lowQuality;
+        for (BaseFilter stage : mStages) {
+            stage.setLowQuality(lowQuality);
+        }
+    }
+
+    /**
+     * 相对输出尺寸的渲染比例，在下一次prepare时生效；输出纹理会相应变小，由ScreenFilter和编码器放大
+     */
+    public void setRenderScale(float renderScale) {
+        mRenderScale = Math.max(0.25f, Math.min(1f, renderScale));
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int[] getEffects() {
+        return mEffectIds.clone();
+    }
+
+    public boolean isEmpty() {
+        return mStages.isEmpty();
+    }
+
+    /**
+     * 按输出尺寸和渲染比例创建两个乒乓缓冲区，尺寸不变时保留已有的缓冲区
+     */
+    public void prepare(int outputWidth, int outputHeight) {
+        int width = Math.max(1, Math.round(outputWidth * mRenderScale));
+        int height = Math.max(1, Math.round(outputHeight * mRenderScale));
+        if (mFrameBuffers != null && width == mWidth && height == mHeight) return;
+        destroyFrameBuffers();
+        mFramebufferPool.clear();
+        mWidth = width;
+        mHeight = height;
+
+        mFrameBuffers = new int[2];
+        mTextures = new int[2];
+        GLES20.glGenFramebuffers(2, mFrameBuffers, 0);
+        GLES20.glGenTextures(2, mTextures, 0);
+        for (int i = 0; i < 2; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[i]);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height,
+                    0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[i]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, mTextures[i], 0);
+            int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+            if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                Log.e(TAG, "乒乓缓冲区创建失败, status: " + status);
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        Log.d(TAG, "乒乓缓冲区准备完成: " + width + "x" + height);
+    }
+
+    /**
+     * 依次执行所有阶段，返回最后一个阶段的输出纹理；没有阶段时原样返回输入纹理。
+     * 返回的纹理在下一次调用前有效
+     */
+    public int onDrawFrame(int textureId) {
+        if (mStages.isEmpty() || mFrameBuffers == null) return textureId;
+        int input = textureId;
+        for (int i = 0; i < mStages.size(); i++) {
+            int target = i & 1;
+            if (mGpuTimer != null) mGpuTimer.beginPass();
+            mStages.get(i).drawToFrameBuffer(input, mFrameBuffers[target], mWidth, mHeight);
+            if (mGpuTimer != null) mGpuTimer.endPass();
+            input = mTextures[target];
+        }
+        return input;
+    }
+
+    private void destroyFrameBuffers() {
+        if (mFrameBuffers != null) {
+            GLES20.glDeleteFramebuffers(2, mFrameBuffers, 0);
+            GLES20.glDeleteTextures(2, mTextures, 0);
+            mFrameBuffers = null;
+            mTextures = null;
+        }
+    }
+
+    public void release() {
+        destroyFrameBuffers();
+        mFramebufferPool.clear();
+        for (BaseFilter filter : mFilterCache.values()) {
+            filter.release();
+        }
+        mFilterCache.clear();
+        mStages.clear();
+    }
+}
@@ -5,28 +5,51 @@ import android.content.res.Resources;
 import android.util.Log;
 
 import com.example.spj.R;
+import com.example.spj.render.lut.CubeLut;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FilterManager {
     private static final String TAG = "FilterManager";
+    // 导入的.cube文件保存在files/luts下，从100开始编号。
+    // 文件名到ID的对应关系保存在ids.properties中，ID分配后不再改变，也不会复用，
+    // 之后导入的文件不会让已有LUT的ID错位，保存的滤镜组合和排队的任务始终指向同一个LUT
+    private static final String LUT_DIR = "luts";
+    private static final String LUT_ID_FILE = "ids.properties";
+    private static final int LUT_BASE_ID = 100;
+    // 多个FilterManager实例（界面、GL线程、转码线程）共用同一个ID文件
+    private static final Object sLutIdLock = new Object();
 
     private final Context context;
-    private final Map<Integer, ShaderEffect> effectsMap = new HashMap<>();
-    private final List<ShaderEffect> effectsList = new ArrayList<>();
+    // 导入LUT在后台线程上修改列表，界面线程同时在遍历，使用线程安全的容器
+    private final Map<Integer, ShaderEffect> effectsMap = new ConcurrentHashMap<>();
+    private final List<ShaderEffect> effectsList = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> lutFileIds = new ConcurrentHashMap<>();
 
     public FilterManager(Context context) {
         this.context = context;
         loadBuiltinEffects();
         loadRawShaders();
+        loadCubeFiles();
     }
 
     private void loadBuiltinEffects() {
@@ -105,6 +128,10 @@ public class FilterManager {
 
                     if (fragmentShader != null && !fragmentShader.isEmpty()) {
                         ShaderEffect effect = new ShaderEffect(baseId, shaderName, null, fragmentShader);
+                        if ("shader_beauty".equals(name)) {
+                            // 单遍磨皮每像素采样21次，改用缩小后多遍模糊的BeautyFilter
+                            effect.setRenderer(ShaderEffect.RENDERER_BEAUTY);
+                        }
                         effectsMap.put(baseId, effect);
                         effectsList.add(effect);
                         baseId++;
@@ -157,6 +184,133 @@ public class FilterManager {
         }
     }
 
+    /**
+     * 重新扫描导入的.cube文件，导入后通知其他FilterManager实例（如GL线程上的）时调用
+     */
+    public synchronized void reloadLuts() {
+        List<ShaderEffect> stale = new ArrayList<>();
+        for (ShaderEffect effect : effectsList) {
+            if (effect.getId() >= LUT_BASE_ID) {
+                stale.add(effect);
+            }
+        }
+        effectsList.removeAll(stale);
+        for (ShaderEffect effect : stale) {
+            effectsMap.remove(effect.getId());
+        }
+        loadCubeFiles();
+    }
+
+    private void loadCubeFiles() {
+        File dir = new File(context.getFilesDir(), LUT_DIR);
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+
+        List<String> fileNames = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".cube")) {
+                fileNames.add(file.getName());
+            }
+        }
+        Map<String, Integer> ids = assignLutIds(dir, fileNames);
+        lutFileIds.clear();
+        lutFileIds.putAll(ids);
+
+        List<ShaderEffect> loaded = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = new File(dir, fileName);
+            int id = ids.get(fileName);
+            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                CubeLut lut = CubeLut.parse(reader);
+                String name = lut.getTitle() != null && !lut.getTitle().isEmpty()
+                        ? lut.getTitle() : fileName.substring(0, fileName.length() - 5);
+                ShaderEffect effect = new ShaderEffect(id, name, lut);
+                effectsMap.put(id, effect);
+                loaded.add(effect);
+                Log.d(TAG, "Loaded LUT: " + name + " (" + lut.getSize() + "^3), id=" + id);
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading LUT " + fileName + ": " + e.getMessage());
+            }
+        }
+        // 一次加入，遍历列表的线程不会看到只加载了一半的LUT
+        effectsList.addAll(loaded);
+    }
+
+    /**
+     * 读取文件名到ID的对应关系，给新文件分配比已有ID都大的新ID并写回。
+     * 第一次运行时按文件名顺序分配，与之前按排序编号的结果一致
+     */
+    private static Map<String, Integer> assignLutIds(File dir, List<String> fileNames) {
+        synchronized (sLutIdLock) {
+            File idFile = new File(dir, LUT_ID_FILE);
+            Properties properties = new Properties();
+            if (idFile.exists()) {
+                try (InputStream input = new FileInputStream(idFile)) {
+                    properties.load(input);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error reading LUT ids: " + e.getMessage());
+                }
+            }
+
+            Map<String, Integer> ids = new HashMap<>();
+            int nextId = LUT_BASE_ID;
+            for (String key : properties.stringPropertyNames()) {
+                try {
+                    int id = Integer.parseInt(properties.getProperty(key));
+                    ids.put(key, id);
+                    nextId = Math.max(nextId, id + 1);
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Invalid LUT id for " + key);
+                }
+            }
+
+            boolean changed = false;
+            for (String fileName : fileNames) {
+                if (!ids.containsKey(fileName)) {
+                    ids.put(fileName, nextId);
+                    properties.setProperty(fileName, String.valueOf(nextId));
+                    nextId++;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                try (OutputStream output = new FileOutputStream(idFile)) {
+                    properties.store(output, "LUT file name to effect id");
+                } catch (IOException e) {
+                    Log.e(TAG, "Error saving LUT ids: " + e.getMessage());
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * 导入.cube文件：先完整解析校验，再保存到应用目录。返回导入后的效果，
+     * 其ID由文件名决定，对所有FilterManager实例一致，之后的导入也不会改变它
+     */
+    public synchronized ShaderEffect importCube(String fileName, InputStream input) throws IOException {
+        CubeLut lut = CubeLut.parse(new InputStreamReader(input, StandardCharsets.UTF_8));
+        File dir = new File(context.getFilesDir(), LUT_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        String baseName = fileName.replaceAll("[^\\w\\-. ]", "_");
+        if (!baseName.endsWith(".cube")) {
+            baseName += ".cube";
+        }
+        if (lut.getTitle() == null || lut.getTitle().isEmpty()) {
+            lut.setTitle(baseName.substring(0, baseName.length() - 5));
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, baseName)),
+                StandardCharsets.UTF_8)) {
+            lut.write(writer);
+        }
+        reloadLuts();
+        Integer id = lutFileIds.get(baseName);
+        return id != null ? effectsMap.get(id) : null;
+    }
+
     public List<ShaderEffect> getEffectsList() {
         return effectsList;
     }
@@ -175,16 +329,51 @@ public class FilterManager {
 
     // Inner class for shader effect
     public static class ShaderEffect {
+        // 默认用fragmentShader单遍绘制；磨皮用专门的多遍滤镜
+        public static final int RENDERER_SHADER = 0;
+        public static final int RENDERER_BEAUTY = 1;
+
         private final int id;
         private final String name;
         private final String vertexShader;
         private final String fragmentShader;
+        // 导入的.cube查找表，内置效果为null。内置效果保持着色器执行，可以与相邻效果合并，结果也是精确的
+        private final CubeLut lut;
+        private int renderer = RENDERER_SHADER;
 
         public ShaderEffect(int id, String name, String vertexShader, String fragmentShader) {
+            this(id, name, vertexShader, fragmentShader, null);
+        }
+
+        /**
+         * 从.cube文件导入的纯查找表效果，没有对应的着色器
+         */
+        public ShaderEffect(int id, String name, CubeLut lut) {
+            this(id, name, null, null, lut);
+        }
+
+        private ShaderEffect(int id, String name, String vertexShader, String fragmentShader, CubeLut lut) {
             this.id = id;
             this.name = name;
             this.vertexShader = vertexShader;
             this.fragmentShader = fragmentShader;
+            this.lut = lut;
+        }
+
+        public boolean hasLut() {
+            return lut != null;
+        }
+
+        public CubeLut getLut() {
+            return lut;
+        }
+
+        void setRenderer(int renderer) {
+            this.renderer = renderer;
+        }
+
+        public int getRenderer() {
+            return renderer;
         }
 
         public int getId() {
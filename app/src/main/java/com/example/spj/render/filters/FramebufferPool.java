@@ -0,0 +1,93 @@
+package com.example.spj.render.filters;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 中间帧缓冲区池。多次绘制的滤镜每帧借用临时缓冲区，用完归还，
+ * 稳定运行后不再创建或删除GL对象。所有方法都在GL线程上调用。
+ */
+public class FramebufferPool {
+    private static final String TAG = "FramebufferPool";
+
+    public static class Framebuffer {
+        public final int frameBuffer;
+        public final int texture;
+        public final int width;
+        public final int height;
+
+        Framebuffer(int frameBuffer, int texture, int width, int height) {
+            this.frameBuffer = frameBuffer;
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final List<Framebuffer> mFree = new ArrayList<>();
+    private int mCreated = 0;
+
+    /**
+     * 借用一个指定尺寸的缓冲区，池中没有时创建
+     */
+    public Framebuffer acquire(int width, int height) {
+        for (int i = 0; i < mFree.size(); i++) {
+            Framebuffer framebuffer = mFree.get(i);
+            if (framebuffer.width == width && framebuffer.height == height) {
+                mFree.remove(i);
+                return framebuffer;
+            }
+        }
+        return create(width, height);
+    }
+
+    public void release(Framebuffer framebuffer) {
+        if (framebuffer != null) {
+            mFree.add(framebuffer);
+        }
+    }
+
+    private Framebuffer create(int width, int height) {
+        int[] frameBuffers = new int[1];
+        int[] textures = new int[1];
+        GLES20.glGenFramebuffers(1, frameBuffers, 0);
+        GLES20.glGenTextures(1, textures, 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height,
+                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffers[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textures[0], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "FBO创建失败, status: " + status);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        mCreated++;
+        Log.d(TAG, "创建中间缓冲区: " + width + "x" + height + ", 共" + mCreated + "个");
+        return new Framebuffer(frameBuffers[0], textures[0], width, height);
+    }
+
+    /**
+     * 删除池中所有空闲的缓冲区，尺寸变化后调用
+     */
+    public void clear() {
+        for (Framebuffer framebuffer : mFree) {
+            GLES20.glDeleteFramebuffers(1, new int[]{framebuffer.frameBuffer}, 0);
+            GLES20.glDeleteTextures(1, new int[]{framebuffer.texture}, 0);
+        }
+        mCreated -= mFree.size();
+        mFree.clear();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.spj.render.filters;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.example.spj.render.lut.CubeLut;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 3D查找表调色滤镜，每个像素只需要一次查表。
+ * ES 3.0上使用3D纹理，硬件完成三线性插值；ES 2.0上把查找表平铺成2D纹理，
+ * 在相邻两层蓝色之间各采样一次再插值。
+ */
+public class LutFilter extends BaseFilter {
+    private static final String TAG = "LutFilter";
+
+    private static final String VERTEX_SHADER_3D =
+            "#version 300 es\n" +
+                    "in vec4 vPosition;\n" +
+                    "in vec4 vCoord;\n" +
+                    "out vec2 aCoord;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    gl_Position = vPosition;\n" +
+                    "    aCoord = vCoord.xy;\n" +
+                    "}";
+
+    private static final String FRAGMENT_SHADER_3D =
+            "#version 300 es\n" +
+                    "precision mediump float;\n" +
+                    "in vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform mediump sampler3D lutTexture;\n" +
+                    "uniform float lutSize;\n" +
+                    "out vec4 fragColor;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 color = texture(vTexture, aCoord);\n" +
+                    "    // 对准格点中心\n" +
+                    "    vec3 uvw = (clamp(color.rgb, 0.0, 1.0) * (lutSize - 1.0) + 0.5) / lutSize;\n" +
+                    "    fragColor = vec4(texture(lutTexture, uvw).rgb, color.a);\n" +
+                    "}";
+
+    private static final String VERTEX_SHADER_2D =
+            "attribute vec4 vPosition;\n" +
+                    "attribute vec4 vCoord;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    gl_Position = vPosition;\n" +
+                    "    aCoord = vCoord.xy;\n" +
+                    "}";
+
+    // 平铺纹理宽度是size*size，mediump精度不足以定位到单个纹素
+    private static final String FRAGMENT_SHADER_2D =
+            "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+                    "precision highp float;\n" +
+                    "#else\n" +
+                    "precision mediump float;\n" +
+                    "#endif\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform sampler2D lutTexture;\n" +
+                    "uniform float lutSize;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 color = texture2D(vTexture, aCoord);\n" +
+                    "    vec3 c = clamp(color.rgb, 0.0, 1.0) * (lutSize - 1.0);\n" +
+                    "    float slice = floor(c.b);\n" +
+                    "    float next = min(slice + 1.0, lutSize - 1.0);\n" +
+                    "    float width = lutSize * lutSize;\n" +
+                    "    float y = (c.g + 0.5) / lutSize;\n" +
+                    "    vec3 low = texture2D(lutTexture, vec2((slice * lutSize + c.r + 0.5) / width, y)).rgb;\n" +
+                    "    vec3 high = texture2D(lutTexture, vec2((next * lutSize + c.r + 0.5) / width, y)).rgb;\n" +
+                    "    gl_FragColor = vec4(mix(low, high, c.b - slice), color.a);\n" +
+                    "}";
+
+    // initProgram在父类构造函数中调用，这些字段不能有初始值
+    private boolean mUse3d;
+    private int mLutLocation;
+    private int mLutSizeLocation;
+
+    private int[] mLutTexture;
+    private int mLutSize;
+
+    public LutFilter(Context context, CubeLut lut) {
+        super(context);
+        setLut(lut);
+    }
+
+    @Override
+    protected void initProgram() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mUse3d = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+        mProgramId = mUse3d
+                ? createProgram(VERTEX_SHADER_3D, FRAGMENT_SHADER_3D)
+                : createProgram(VERTEX_SHADER_2D, FRAGMENT_SHADER_2D);
+        if (mProgramId == 0) {
+            Log.e(TAG, "创建LUT着色器程序失败");
+            return;
+        }
+
+        vPosition = GLES20.glGetAttribLocation(mProgramId, "vPosition");
+        vCoord = GLES20.glGetAttribLocation(mProgramId, "vCoord");
+        vTexture = GLES20.glGetUniformLocation(mProgramId, "vTexture");
+        mLutLocation = GLES20.glGetUniformLocation(mProgramId, "lutTexture");
+        mLutSizeLocation = GLES20.glGetUniformLocation(mProgramId, "lutSize");
+    }
+
+    /**
+     * 上传新的查找表，在GL线程上调用
+     */
+    public void setLut(CubeLut lut) {
+        deleteLutTexture();
+        mLutSize = lut.getSize();
+        mLutTexture = new int[1];
+        GLES20.glGenTextures(1, mLutTexture, 0);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+        if (mUse3d) {
+            GLES20.glBindTexture(GLES30.GL_TEXTURE_3D, mLutTexture[0]);
+            GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGB8, mLutSize, mLutSize, mLutSize,
+                    0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(lut.toRgbBytes()));
+            setTextureParameters(GLES30.GL_TEXTURE_3D);
+            GLES20.glTexParameteri(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_R, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLutTexture[0]);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, mLutSize * mLutSize, mLutSize,
+                    0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(lut.toTiledRgbBytes()));
+            setTextureParameters(GLES20.GL_TEXTURE_2D);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        checkGlError("上传LUT纹理");
+        Log.d(TAG, "LUT已上传: " + mLutSize + "^3, " + (mUse3d ? "3D纹理" : "2D平铺纹理"));
+    }
+
+    private static void setTextureParameters(int target) {
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    @Override
+    protected void onSetUniforms() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(mUse3d ? GLES30.GL_TEXTURE_3D : GLES20.GL_TEXTURE_2D, mLutTexture[0]);
+        GLES20.glUniform1i(mLutLocation, 1);
+        GLES20.glUniform1f(mLutSizeLocation, mLutSize);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    private void deleteLutTexture() {
+        if (mLutTexture != null) {
+            GLES20.glDeleteTextures(1, mLutTexture, 0);
+            mLutTexture = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        deleteLutTexture();
+        super.release();
+    }
+}
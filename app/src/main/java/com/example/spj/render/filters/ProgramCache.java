@@ -0,0 +1,292 @@
+package com.example.spj.render.filters;
+
+import android.content.Context;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 着色器程序缓存。
+ * 按着色器源码的哈希缓存已链接的程序，同一共享组内的EGL上下文（预览上下文和共享它的编码器上下文）
+ * 共用同一份程序，切换滤镜和开始录制时不再重复编译。程序在共享组存续期间一直保留，不单独删除。
+ * 驱动支持时（ES 3.0）把程序二进制写到磁盘，下次启动直接加载，跳过编译和链接；
+ * 文件名包含驱动版本，系统更新驱动后自动失效。
+ * 创建和销毁EGL上下文时需要通知缓存，以便区分共享组。
+ */
+public final class ProgramCache {
+    private static final String TAG = "ProgramCache";
+    private static final String CACHE_DIR = "programs";
+    private static final int BINARY_MAGIC = 0x53504a50;
+
+    private static volatile ProgramCache sInstance;
+
+    private final File mCacheDir;
+    // 上下文到所在共享组（第一个上下文）的映射，没有记录的上下文自成一组
+    private final Map<EGLContext, EGLContext> mShareRoots = new HashMap<>();
+    private final Map<EGLContext, Map<String, Integer>> mPrograms = new HashMap<>();
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private String mDriverKey;
+    private boolean mBinarySupported;
+
+    // 统计
+    private int mHits = 0;
+    private int mBinaryLoads = 0;
+    private int mCompiles = 0;
+
+    public static ProgramCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ProgramCache.class) {
+                if (sInstance == null) {
+                    sInstance = new ProgramCache(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ProgramCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * 新建EGL上下文后调用（在任意线程）
+     *
+     * @param sharedWith 创建时共享的上下文，没有时传null或EGL_NO_CONTEXT
+     */
+    public synchronized void onContextCreated(EGLContext context, EGLContext sharedWith) {
+        // 句柄可能被复用，清掉旧上下文留下的记录
+        mPrograms.remove(context);
+        if (sharedWith != null && !sharedWith.equals(EGL14.EGL_NO_CONTEXT)) {
+            mShareRoots.put(context, rootOf(sharedWith));
+        } else {
+            mShareRoots.remove(context);
+        }
+    }
+
+    /**
+     * EGL上下文销毁前（或确认已销毁后）调用，共享组的第一个上下文销毁时丢弃该组的程序记录
+     */
+    public synchronized void onContextDestroyed(EGLContext context) {
+        mShareRoots.remove(context);
+        if (mPrograms.remove(context) != null) {
+            Log.d(TAG, "共享组已销毁，" + summary());
+        }
+    }
+
+    /**
+     * 在有当前EGL上下文的线程上调用，返回链接好的程序，失败时返回0
+     */
+    public synchronized int obtain(String vertexSource, String fragmentSource) {
+        EGLContext root = rootOf(EGL14.eglGetCurrentContext());
+        Map<String, Integer> programs = mPrograms.get(root);
+        if (programs == null) {
+            programs = new HashMap<>();
+            mPrograms.put(root, programs);
+        }
+
+        String key = sha1(vertexSource + '\0' + fragmentSource);
+        Integer cached = programs.get(key);
+        if (cached != null) {
+            mHits++;
+            return cached;
+        }
+
+        long startNs = System.nanoTime();
+        ensureDriverKey();
+        File binaryFile = mBinarySupported ? new File(mCacheDir, sha1(key + mDriverKey) + ".bin") : null;
+        int program = binaryFile != null ? loadBinary(binaryFile) : 0;
+        if (program != 0) {
+            mBinaryLoads++;
+        } else {
+            program = compile(vertexSource, fragmentSource);
+            if (program == 0) return 0;
+            mCompiles++;
+            if (binaryFile != null) {
+                saveBinary(program, binaryFile);
+            }
+        }
+        programs.put(key, program);
+        Log.d(TAG, "创建程序 " + program + " 耗时 " + (System.nanoTime() - startNs) / 1000 + "us, " + summary());
+        return program;
+    }
+
+    private EGLContext rootOf(EGLContext context) {
+        EGLContext root = mShareRoots.get(context);
+        return root != null ? root : context;
+    }
+
+    private void ensureDriverKey() {
+        if (mDriverKey != null) return;
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String renderer = GLES20.glGetString(GLES20.GL_RENDERER);
+        mDriverKey = renderer + "|" + version;
+        // 程序二进制接口需要ES 3.0，GLSurfaceView按ES 2.0创建上下文，实际版本由驱动决定
+        if (version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2")) {
+            int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            mBinarySupported = formats[0] > 0;
+        }
+        Log.d(TAG, "驱动: " + mDriverKey + ", 程序二进制缓存: " + mBinarySupported);
+    }
+
+    private int loadBinary(File file) {
+        if (!file.exists()) return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != BINARY_MAGIC) throw new IOException("文件格式错误");
+            int format = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+            buffer.put(data).position(0);
+            int program = GLES20.glCreateProgram();
+            GLES30.glProgramBinary(program, format, buffer, data.length);
+            int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] == GLES20.GL_TRUE) {
+                return program;
+            }
+            // 驱动拒绝了旧的二进制，删除后重新编译
+            GLES20.glDeleteProgram(program);
+            Log.w(TAG, "程序二进制无效: " + file.getName());
+        } catch (Exception e) {
+            Log.e(TAG, "读取程序二进制失败: " + file.getName(), e);
+        }
+        file.delete();
+        return 0;
+    }
+
+    private void saveBinary(int program, final File file) {
+        try {
+            int[] length = new int[1];
+            GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+            if (length[0] <= 0) return;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+            int[] written = new int[1];
+            final int[] format = new int[1];
+            GLES30.glGetProgramBinary(program, length[0], written, 0, format, 0, buffer);
+            final byte[] data = new byte[written[0]];
+            buffer.position(0);
+            buffer.get(data);
+
+            // 写文件放到后台线程，不占用GL线程
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCacheDir.exists() && !mCacheDir.mkdirs()) return;
+                    File tmp = new File(file.getPath() + ".tmp");
+                    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+                        out.writeInt(BINARY_MAGIC);
+                        out.writeInt(format[0]);
+                        out.writeInt(data.length);
+                        out.write(data);
+                    } catch (IOException e) {
+                        Log.e(TAG, "保存程序二进制失败", e);
+                        tmp.delete();
+                        return;
+                    }
+                    if (!tmp.renameTo(file)) {
+                        tmp.delete();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "获取程序二进制失败", e);
+        }
+    }
+
+    private int compile(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (fragmentShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(fragmentShader);
+            return 0;
+        }
+
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        if (mBinarySupported) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "程序链接失败: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        return program;
+    }
+
+    private static int loadShader(int type, String shaderCode) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, shaderCode);
+        GLES20.glCompileShader(shader);
+
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            Log.e(TAG, "着色器编译失败: " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            shader = 0;
+        }
+
+        return shader;
+    }
+
+    private static String sha1(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Android版本都提供SHA-1
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+
+    private String summary() {
+        return "命中=" + mHits + ", 二进制加载=" + mBinaryLoads + ", 编译=" + mCompiles;
+    }
+}
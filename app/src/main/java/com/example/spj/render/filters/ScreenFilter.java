@@ -3,6 +3,9 @@ package com.example.spj.render.filters;
 import android.content.Context;
 import android.opengl.GLES20;
 
+/**
+ * 把渲染结果画到屏幕上。输入纹理是内部渲染分辨率，与屏幕尺寸不同时在这里通过线性过滤一次缩放到屏幕。
+ */
 public class ScreenFilter extends BaseFilter {
     private static final String VERTEX_SHADER =
             "attribute vec4 vPosition;\n" +
@@ -35,6 +38,15 @@ public class ScreenFilter extends BaseFilter {
         vTexture = GLES20.glGetUniformLocation(mProgramId, "vTexture");
     }
 
+    /**
+     * 直接绘制到当前绑定的表面或指定的帧缓冲区，不需要自己的FBO
+     */
+    @Override
+    public void prepare(int width, int height) {
+        mOutputWidth = width;
+        mOutputHeight = height;
+    }
+
     @Override
     public int onDrawFrame(int textureId) {
         GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
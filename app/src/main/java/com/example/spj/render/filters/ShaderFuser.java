@@ -0,0 +1,119 @@
+package com.example.spj.render.filters;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 把相邻的逐像素颜色滤镜合并成一个片元着色器。
+ * 只对当前像素采样一次、除vTexture外没有其他uniform和辅助函数的着色器可以合并：
+ * 每个滤镜的main函数体改写成一个vec4到vec4的函数，合并后的着色器只采样一次，依次调用这些函数，
+ * K个颜色滤镜只需要一次全屏绘制。每一级之后截断到[0,1]，与逐级写入RGBA8缓冲区的结果一致。
+ * 纯字符串处理，不依赖GL。
+ */
+public final class ShaderFuser {
+    private static final String INPUT = "fused_in";
+    private static final String OUTPUT = "fused_out";
+
+    private static final Pattern MAIN = Pattern.compile("void\\s+main\\s*\\(\\s*(void)?\\s*\\)\\s*\\{");
+    private static final Pattern SAMPLE = Pattern.compile("texture2D\\s*\\(\\s*vTexture\\s*,\\s*aCoord\\s*\\)");
+    private static final Pattern ANY_SAMPLE = Pattern.compile("\\btexture(2D|Cube)\\w*\\s*\\(");
+    private static final Pattern FRAG_COLOR = Pattern.compile("\\bgl_FragColor\\b");
+    // 合并后无法保持语义的写法：提前返回、丢弃片元、读取片元坐标
+    private static final Pattern UNSUPPORTED = Pattern.compile("\\b(return|discard|gl_FragCoord|gl_FragData)\\b");
+    private static final Pattern HEADER_LINE = Pattern.compile(
+            "precision\\s+\\w+\\s+float"
+                    + "|varying\\s+(\\w+\\s+)?vec2\\s+aCoord"
+                    + "|uniform\\s+(\\w+\\s+)?sampler2D\\s+vTexture");
+
+    private ShaderFuser() {
+    }
+
+    /**
+     * 判断片元着色器能否参与合并
+     */
+    public static boolean isFusable(String fragmentShader) {
+        return fragmentShader != null && extractBody(fragmentShader) != null;
+    }
+
+    /**
+     * 生成按顺序执行所有滤镜的片元着色器，任何一个不能合并时返回null
+     */
+    public static String fuse(List<String> fragmentShaders) {
+        StringBuilder functions = new StringBuilder();
+        StringBuilder calls = new StringBuilder();
+        for (int i = 0; i < fragmentShaders.size(); i++) {
+            String body = extractBody(fragmentShaders.get(i));
+            if (body == null) return null;
+
+            body = SAMPLE.matcher(body).replaceAll(INPUT);
+            body = FRAG_COLOR.matcher(body).replaceAll(OUTPUT);
+            functions.append("vec4 fused_stage").append(i).append("(vec4 ").append(INPUT).append(") {\n")
+                    .append("    vec4 ").append(OUTPUT).append(" = ").append(INPUT).append(";\n")
+                    .append(body).append('\n')
+                    .append("    return ").append(OUTPUT).append(";\n")
+                    .append("}\n\n");
+            calls.append("    color = clamp(fused_stage").append(i).append("(color), 0.0, 1.0);\n");
+        }
+
+        return "precision mediump float;\n" +
+                "varying vec2 aCoord;\n" +
+                "uniform sampler2D vTexture;\n" +
+                "\n" +
+                functions +
+                "void main() {\n" +
+                "    vec4 color = texture2D(vTexture, aCoord);\n" +
+                calls +
+                "    gl_FragColor = color;\n" +
+                "}\n";
+    }
+
+    /**
+     * 取出可合并着色器的main函数体，不可合并时返回null
+     */
+    private static String extractBody(String source) {
+        String code = stripComments(source);
+        Matcher main = MAIN.matcher(code);
+        if (!main.find()) return null;
+
+        // main之前只能有精度、varying和vTexture的声明
+        for (String statement : code.substring(0, main.start()).split(";")) {
+            String trimmed = statement.trim();
+            if (!trimmed.isEmpty() && !HEADER_LINE.matcher(trimmed).matches()) return null;
+        }
+
+        int end = matchingBrace(code, main.end() - 1);
+        if (end < 0 || !code.substring(end + 1).trim().isEmpty()) return null;
+
+        String body = code.substring(main.end(), end);
+        if (UNSUPPORTED.matcher(body).find()) return null;
+        // 只允许对当前像素采样
+        int samples = count(SAMPLE, body);
+        if (samples == 0 || samples != count(ANY_SAMPLE, body)) return null;
+        return body;
+    }
+
+    private static int matchingBrace(String code, int open) {
+        int depth = 0;
+        for (int i = open; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int count(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        int n = 0;
+        while (matcher.find()) n++;
+        return n;
+    }
+
+    private static String stripComments(String source) {
+        return source.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("//[^\\n]*", " ");
+    }
+}
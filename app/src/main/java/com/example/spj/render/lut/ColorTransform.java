@@ -0,0 +1,11 @@
+package com.example.spj.render.lut;
+
+/**
+ * 逐像素的颜色变换，输入输出都是[0,1]范围的RGB
+ */
+public interface ColorTransform {
+    /**
+     * 原地变换一个颜色，rgb长度为3
+     */
+    void apply(float[] rgb);
+}
@@ -0,0 +1,245 @@
+package com.example.spj.render.lut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * 3D颜色查找表，读写Adobe/Resolve通用的.cube格式。
+ * 数据按红色变化最快、蓝色变化最慢的顺序存放，与.cube文件和3D纹理的布局一致。
+ * 查表使用三线性插值，本身也是一个ColorTransform，可以与其他变换组合后重新烘焙。
+ */
+public class CubeLut implements ColorTransform {
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 65;
+
+    private final int mSize;
+    private final float[] mData;
+    private String mTitle;
+
+    public CubeLut(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("LUT尺寸无效: " + size);
+        }
+        mSize = size;
+        mData = new float[size * size * size * 3];
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public void setTitle(String title) {
+        mTitle = title;
+    }
+
+    public void set(int r, int g, int b, float red, float green, float blue) {
+        int index = index(r, g, b);
+        mData[index] = red;
+        mData[index + 1] = green;
+        mData[index + 2] = blue;
+    }
+
+    public void get(int r, int g, int b, float[] rgb) {
+        int index = index(r, g, b);
+        rgb[0] = mData[index];
+        rgb[1] = mData[index + 1];
+        rgb[2] = mData[index + 2];
+    }
+
+    private int index(int r, int g, int b) {
+        return ((b * mSize + g) * mSize + r) * 3;
+    }
+
+    /**
+     * 三线性插值查表，输入超出[0,1]时截断
+     */
+    @Override
+    public void apply(float[] rgb) {
+        float max = mSize - 1;
+        float r = clamp(rgb[0]) * max;
+        float g = clamp(rgb[1]) * max;
+        float b = clamp(rgb[2]) * max;
+        int r0 = Math.min((int) r, mSize - 2);
+        int g0 = Math.min((int) g, mSize - 2);
+        int b0 = Math.min((int) b, mSize - 2);
+        float fr = r - r0;
+        float fg = g - g0;
+        float fb = b - b0;
+
+        for (int c = 0; c < 3; c++) {
+            float c00 = lerp(mData[index(r0, g0, b0) + c], mData[index(r0 + 1, g0, b0) + c], fr);
+            float c10 = lerp(mData[index(r0, g0 + 1, b0) + c], mData[index(r0 + 1, g0 + 1, b0) + c], fr);
+            float c01 = lerp(mData[index(r0, g0, b0 + 1) + c], mData[index(r0 + 1, g0, b0 + 1) + c], fr);
+            float c11 = lerp(mData[index(r0, g0 + 1, b0 + 1) + c], mData[index(r0 + 1, g0 + 1, b0 + 1) + c], fr);
+            rgb[c] = lerp(lerp(c00, c10, fg), lerp(c01, c11, fg), fb);
+        }
+    }
+
+    /**
+     * 按3D纹理布局（宽=红，高=绿，深=蓝）导出8位RGB数据
+     */
+    public byte[] toRgbBytes() {
+        byte[] bytes = new byte[mData.length];
+        for (int i = 0; i < mData.length; i++) {
+            bytes[i] = toByte(mData[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * 按2D平铺布局导出8位RGB数据：宽size*size，高size，蓝色分量的每一层是一个size*size的方块，
+     * 从左到右排列。用于不支持3D纹理的GLES 2.0
+     */
+    public byte[] toTiledRgbBytes() {
+        byte[] bytes = new byte[mData.length];
+        int out = 0;
+        for (int g = 0; g < mSize; g++) {
+            for (int b = 0; b < mSize; b++) {
+                for (int r = 0; r < mSize; r++) {
+                    int index = index(r, g, b);
+                    bytes[out++] = toByte(mData[index]);
+                    bytes[out++] = toByte(mData[index + 1]);
+                    bytes[out++] = toByte(mData[index + 2]);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 解析.cube文件。DOMAIN_MIN/DOMAIN_MAX不是[0,1]时重新采样到[0,1]输入范围
+     */
+    public static CubeLut parse(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader
+                ? (BufferedReader) source : new BufferedReader(source);
+        String title = null;
+        int size = 0;
+        float[] domainMin = {0f, 0f, 0f};
+        float[] domainMax = {1f, 1f, 1f};
+        CubeLut lut = null;
+        int count = 0;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] parts = line.split("\\s+");
+            String keyword = parts[0].toUpperCase(Locale.US);
+            if (keyword.equals("TITLE")) {
+                title = line.substring(5).trim().replace("\"", "");
+            } else if (keyword.equals("LUT_3D_SIZE")) {
+                size = parseInt(parts, lineNumber);
+                lut = new CubeLut(size);
+            } else if (keyword.equals("LUT_1D_SIZE")) {
+                throw new IOException("不支持1D LUT");
+            } else if (keyword.equals("DOMAIN_MIN")) {
+                domainMin = parseTriple(parts, 1, lineNumber);
+            } else if (keyword.equals("DOMAIN_MAX")) {
+                domainMax = parseTriple(parts, 1, lineNumber);
+            } else if (Character.isLetter(keyword.charAt(0))) {
+                // 忽略其他厂商的扩展关键字
+                continue;
+            } else {
+                if (lut == null) {
+                    throw new IOException("第" + lineNumber + "行: 数据出现在LUT_3D_SIZE之前");
+                }
+                if (count >= size * size * size) {
+                    throw new IOException("第" + lineNumber + "行: 数据行过多");
+                }
+                float[] rgb = parseTriple(parts, 0, lineNumber);
+                int r = count % size;
+                int g = (count / size) % size;
+                int b = count / (size * size);
+                lut.set(r, g, b, rgb[0], rgb[1], rgb[2]);
+                count++;
+            }
+        }
+
+        if (lut == null) {
+            throw new IOException("缺少LUT_3D_SIZE");
+        }
+        if (count != size * size * size) {
+            throw new IOException("数据行数不足: " + count + "/" + size * size * size);
+        }
+        lut.setTitle(title);
+
+        boolean unitDomain = true;
+        for (int c = 0; c < 3; c++) {
+            if (domainMin[c] != 0f || domainMax[c] != 1f) unitDomain = false;
+            if (domainMax[c] <= domainMin[c]) throw new IOException("DOMAIN范围无效");
+        }
+        return unitDomain ? lut : remapDomain(lut, domainMin, domainMax);
+    }
+
+    private static CubeLut remapDomain(final CubeLut lut, final float[] min, final float[] max) {
+        CubeLut remapped = LutBaker.bake(new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+                for (int c = 0; c < 3; c++) {
+                    rgb[c] = (rgb[c] - min[c]) / (max[c] - min[c]);
+                }
+                lut.apply(rgb);
+            }
+        }, lut.getSize());
+        remapped.setTitle(lut.getTitle());
+        return remapped;
+    }
+
+    /**
+     * 写出.cube文件
+     */
+    public void write(Writer writer) throws IOException {
+        if (mTitle != null) {
+            writer.write("TITLE \"" + mTitle + "\"\n");
+        }
+        writer.write("LUT_3D_SIZE " + mSize + "\n");
+        for (int i = 0; i < mData.length; i += 3) {
+            writer.write(String.format(Locale.US, "%.6f %.6f %.6f\n", mData[i], mData[i + 1], mData[i + 2]));
+        }
+        writer.flush();
+    }
+
+    private static int parseInt(String[] parts, int lineNumber) throws IOException {
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("第" + lineNumber + "行: 无效的整数");
+        }
+    }
+
+    private static float[] parseTriple(String[] parts, int offset, int lineNumber) throws IOException {
+        if (parts.length < offset + 3) {
+            throw new IOException("第" + lineNumber + "行: 需要3个数值");
+        }
+        try {
+            return new float[]{
+                    Float.parseFloat(parts[offset]),
+                    Float.parseFloat(parts[offset + 1]),
+                    Float.parseFloat(parts[offset + 2])};
+        } catch (NumberFormatException e) {
+            throw new IOException("第" + lineNumber + "行: 无效的数值");
+        }
+    }
+
+    private static float clamp(float v) {
+        return v < 0f ? 0f : (v > 1f ? 1f : v);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static byte toByte(float v) {
+        return (byte) Math.round(clamp(v) * 255f);
+    }
+}
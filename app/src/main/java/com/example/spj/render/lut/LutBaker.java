@@ -0,0 +1,55 @@
+package com.example.spj.render.lut;
+
+import java.util.List;
+
+/**
+ * 在CPU上把颜色变换烘焙成3D查找表。
+ * 对每个格点求一次变换，结果截断到[0,1]，与滤镜写入RGBA8缓冲区的行为一致。
+ * 多个变换按顺序组合后烘焙成一张表，叠加多个调色效果时GPU上仍然只查一次表。
+ */
+public final class LutBaker {
+    // 33是调色软件导出LUT最常用的尺寸，格点间距约8个色阶
+    public static final int DEFAULT_SIZE = 33;
+
+    private LutBaker() {
+    }
+
+    public static CubeLut bake(ColorTransform transform, int size) {
+        CubeLut lut = new CubeLut(size);
+        float[] rgb = new float[3];
+        float max = size - 1;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    rgb[0] = r / max;
+                    rgb[1] = g / max;
+                    rgb[2] = b / max;
+                    transform.apply(rgb);
+                    lut.set(r, g, b, clamp(rgb[0]), clamp(rgb[1]), clamp(rgb[2]));
+                }
+            }
+        }
+        return lut;
+    }
+
+    /**
+     * 把按顺序执行的多个变换烘焙成一张表，每一步之后截断到[0,1]
+     */
+    public static CubeLut compose(final List<? extends ColorTransform> transforms, int size) {
+        return bake(new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+                for (ColorTransform transform : transforms) {
+                    transform.apply(rgb);
+                    rgb[0] = clamp(rgb[0]);
+                    rgb[1] = clamp(rgb[1]);
+                    rgb[2] = clamp(rgb[2]);
+                }
+            }
+        }, size);
+    }
+
+    private static float clamp(float v) {
+        return v < 0f ? 0f : (v > 1f ? 1f : v);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.spj.encoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FramePacer按时间戳选帧的本地单元测试。
+ */
+public class FramePacerTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void variableRateAcceptsEveryNewFrame() {
+        FramePacer pacer = new FramePacer(FramePacer.FPS_VARIABLE);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(pacer.shouldEncode(i * 33 * MS));
+        }
+        assertEquals(10, pacer.getAcceptedCount());
+    }
+
+    @Test
+    public void duplicateAndBackwardTimestampsRejected() {
+        FramePacer pacer = new FramePacer(FramePacer.FPS_VARIABLE);
+        assertTrue(pacer.shouldEncode(100 * MS));
+        assertFalse(pacer.shouldEncode(100 * MS));
+        assertFalse(pacer.shouldEncode(90 * MS));
+        assertEquals(1, pacer.getDuplicatedCount());
+        assertEquals(1, pacer.getLateCount());
+    }
+
+    @Test
+    public void halvesRateEvenly() {
+        // 60fps相机输入，30fps输出：应严格隔一帧取一帧
+        FramePacer pacer = new FramePacer(30);
+        long interval = 1_000_000_000L / 60;
+        int accepted = 0;
+        for (int i = 0; i < 120; i++) {
+            boolean encode = pacer.shouldEncode(i * interval);
+            assertEquals(i % 2 == 0, encode);
+            if (encode) accepted++;
+        }
+        assertEquals(60, accepted);
+        assertEquals(60, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void toleratesJitter() {
+        // 30fps输入带±3ms抖动，目标30fps时不应丢帧
+        FramePacer pacer = new FramePacer(30);
+        long interval = 1_000_000_000L / 30;
+        for (int i = 0; i < 90; i++) {
+            long jitter = (i % 2 == 0 ? 3 : -3) * MS;
+            assertTrue(pacer.shouldEncode(i * interval + jitter));
+        }
+        assertEquals(0, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void resyncsAfterStall() {
+        FramePacer pacer = new FramePacer(30);
+        long interval = 1_000_000_000L / 30;
+        assertTrue(pacer.shouldEncode(0));
+        assertTrue(pacer.shouldEncode(interval));
+        // 卡顿半秒后恢复，不应为了补齐网格而连续接受帧
+        long resume = 500 * MS;
+        assertTrue(pacer.shouldEncode(resume));
+        assertEquals(1, pacer.getLateCount());
+        assertFalse(pacer.shouldEncode(resume + interval / 2));
+        assertTrue(pacer.shouldEncode(resume + interval));
+    }
+
+    @Test
+    public void timeLapseKeepsOneOfN() {
+        // 30fps相机输入，10倍延时：每10帧取一帧
+        FramePacer pacer = new FramePacer(FramePacer.FPS_VARIABLE);
+        pacer.setTimeLapseFactor(10);
+        long interval = 1_000_000_000L / 30;
+        int accepted = 0;
+        for (int i = 0; i < 300; i++) {
+            boolean encode = pacer.shouldEncode(i * interval + (i % 2 == 0 ? 2 : -2) * MS);
+            assertEquals(i % 10 == 0, encode);
+            if (encode) accepted++;
+        }
+        assertEquals(30, accepted);
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.spj.encoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缓冲区索引队列的本地单元测试。
+ */
+public class IndexQueueTest {
+
+    @Test
+    public void growsInsteadOfDroppingWhenFull() {
+        IndexQueue queue = new IndexQueue(2);
+        for (int i = 0; i < 5; i++) {
+            queue.put(i);
+        }
+        assertEquals(5, queue.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, queue.take(0));
+        }
+        assertEquals(-1, queue.take(0));
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        IndexQueue queue = new IndexQueue(3);
+        queue.put(1);
+        queue.put(2);
+        assertEquals(1, queue.take(0));
+        queue.put(3);
+        queue.put(4);
+        // 环形数组已经绕回，此时扩容要按队列顺序拷贝
+        queue.put(5);
+        assertEquals(2, queue.take(0));
+        assertEquals(3, queue.take(0));
+        assertEquals(4, queue.take(0));
+        assertEquals(5, queue.take(0));
+    }
+}
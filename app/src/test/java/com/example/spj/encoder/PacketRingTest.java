@@ -0,0 +1,104 @@
+package com.example.spj.encoder;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预录环形缓冲区的本地单元测试。
+ */
+public class PacketRingTest {
+    private static final long FRAME_US = 33_333;
+    private static final int GOP_FRAMES = 30;
+    private static final int VIDEO = MuxerWriter.TRACK_VIDEO;
+    private static final int AUDIO = MuxerWriter.TRACK_AUDIO;
+
+    private final ByteBuffer mPayload = ByteBuffer.allocate(4096);
+
+    @Test
+    public void dropsPacketsBeforeFirstKeyFrame() {
+        PacketRing ring = new PacketRing(3_000_000, 1 << 20);
+        ring.write(AUDIO, mPayload, 0, 100, 0, 0);
+        ring.write(VIDEO, mPayload, 0, 1000, 0, 0);
+        assertEquals(0, ring.getPacketCount(VIDEO) + ring.getPacketCount(AUDIO));
+
+        ring.write(VIDEO, mPayload, 0, 1000, FRAME_US, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        ring.write(AUDIO, mPayload, 0, 100, FRAME_US, 0);
+        assertEquals(1, ring.getPacketCount(VIDEO));
+        assertEquals(1, ring.getPacketCount(AUDIO));
+    }
+
+    @Test
+    public void keepsAtLeastDurationAlignedOnKeyFrames() {
+        PacketRing ring = new PacketRing(3_000_000, 64 << 20);
+        feedVideo(ring, 0, 10 * GOP_FRAMES);
+
+        List<long[]> packets = drain(ring);
+        long first = packets.get(0)[1];
+        long last = packets.get(packets.size() - 1)[1];
+        // 头部是关键帧，保留时长不少于3秒且不超过3秒加一个GOP
+        assertEquals(MediaCodec.BUFFER_FLAG_KEY_FRAME, packets.get(0)[2]);
+        assertEquals(0, (first / FRAME_US) % GOP_FRAMES);
+        assertTrue(last - first >= 3_000_000);
+        assertTrue(last - first < 3_000_000 + GOP_FRAMES * FRAME_US);
+    }
+
+    @Test
+    public void byteLimitDropsWholeGops() {
+        // 每个GOP 30KB，上限100KB
+        PacketRing ring = new PacketRing(60_000_000, 100 * 1000);
+        feedVideo(ring, 0, 10 * GOP_FRAMES);
+        assertTrue(ring.getBytes() <= 100 * 1000);
+
+        List<long[]> packets = drain(ring);
+        assertEquals(MediaCodec.BUFFER_FLAG_KEY_FRAME, packets.get(0)[2]);
+    }
+
+    @Test
+    public void drainSkipsAudioOlderThanHeadKeyFrame() {
+        PacketRing ring = new PacketRing(3_000_000, 1 << 20);
+        ring.write(VIDEO, mPayload, 0, 1000, 100_000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        // 音频编码延迟，时间戳早于关键帧的包晚到
+        ring.write(AUDIO, mPayload, 0, 100, 90_000, 0);
+        ring.write(AUDIO, mPayload, 0, 100, 110_000, 0);
+
+        List<long[]> packets = drain(ring);
+        assertEquals(2, packets.size());
+        assertEquals(100_000, packets.get(0)[1]);
+        assertEquals(110_000, packets.get(1)[1]);
+        assertEquals(0, ring.getBytes());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        PacketRing ring = new PacketRing(2_000_000, 64 << 20);
+        feedVideo(ring, 0, 5 * GOP_FRAMES);
+        long allocations = ring.getAllocationCount();
+        feedVideo(ring, 5 * GOP_FRAMES, 20 * GOP_FRAMES);
+        assertEquals(allocations, ring.getAllocationCount());
+    }
+
+    private void feedVideo(PacketRing ring, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int flags = i % GOP_FRAMES == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            ring.write(VIDEO, mPayload, 0, 1000, i * FRAME_US, flags);
+        }
+    }
+
+    private static List<long[]> drain(PacketRing ring) {
+        final List<long[]> packets = new ArrayList<>();
+        ring.drainTo(new PacketRing.Sink() {
+            @Override
+            public void onPacket(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+                packets.add(new long[]{track, presentationTimeUs, flags});
+            }
+        });
+        return packets;
+    }
+}
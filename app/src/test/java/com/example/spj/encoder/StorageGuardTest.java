@@ -0,0 +1,79 @@
+package com.example.spj.encoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 磁盘空间守护的本地单元测试。
+ */
+public class StorageGuardTest {
+    private static final long SECOND_US = 1_000_000L;
+    private static final long MB = 1024L * 1024;
+    // 1MB/s，约8Mbps
+    private static final long RATE = MB;
+
+    private StorageGuard newGuard() {
+        StorageGuard guard = new StorageGuard(32 * MB, 120, 10, 15);
+        guard.reset(RATE);
+        return guard;
+    }
+
+    @Test
+    public void plentyOfSpaceDoesNothing() {
+        StorageGuard guard = newGuard();
+        for (int i = 0; i < 30; i++) {
+            assertEquals(StorageGuard.ACTION_NONE, guard.update(i * SECOND_US, i * RATE, 10_000 * MB));
+        }
+        assertEquals(RATE, (long) guard.getBytesPerSecond());
+    }
+
+    @Test
+    public void lowSpaceReducesBitrateAtMostOncePerInterval() {
+        StorageGuard guard = newGuard();
+        // 剩余约60秒
+        long usable = 32 * MB + 60 * RATE;
+        assertEquals(StorageGuard.ACTION_REDUCE_BITRATE, guard.update(0, 0, usable));
+        int reductions = 1;
+        for (int i = 1; i <= 14; i++) {
+            if (guard.update(i * SECOND_US, i * RATE, usable) == StorageGuard.ACTION_REDUCE_BITRATE) {
+                reductions++;
+            }
+        }
+        assertEquals(1, reductions);
+        assertEquals(StorageGuard.ACTION_REDUCE_BITRATE, guard.update(15 * SECOND_US, 15 * RATE, usable));
+    }
+
+    @Test
+    public void stopsBeforeDiskFills() {
+        StorageGuard guard = newGuard();
+        long usable = 32 * MB + 200 * RATE;
+        int action = StorageGuard.ACTION_NONE;
+        int second = 0;
+        while (action != StorageGuard.ACTION_STOP && second < 300) {
+            action = guard.update(second * SECOND_US, second * RATE, usable - second * RATE);
+            second++;
+        }
+        assertEquals(StorageGuard.ACTION_STOP, action);
+        // 在剩余不足10秒时停止，保留区没有被占用
+        assertTrue(second >= 190 && second <= 192);
+    }
+
+    @Test
+    public void reserveExhaustedStopsImmediately() {
+        StorageGuard guard = newGuard();
+        assertEquals(StorageGuard.ACTION_STOP, guard.update(0, 0, 16 * MB));
+        assertEquals(0, guard.getRemainingSeconds());
+    }
+
+    @Test
+    public void rateEstimateFollowsActualOutput() {
+        StorageGuard guard = newGuard();
+        // 实际码率只有配置的一半
+        for (int i = 0; i <= 20; i++) {
+            guard.update(i * SECOND_US, i * RATE / 2, 10_000 * MB);
+        }
+        assertTrue(Math.abs(guard.getBytesPerSecond() - RATE / 2.0) < RATE * 0.01);
+        assertEquals(60 * RATE / 2, guard.estimateBytes(60), RATE / 10);
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.spj.encoder.audio;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * PCM处理链的本地单元测试与单缓冲区耗时基准。
+ */
+public class PcmChainTest {
+    private static final int SAMPLE_RATE = 44100;
+    // 与VideoEncoder中AudioRecord缓冲区的量级一致
+    private static final int BUFFER_BYTES = 7104;
+
+    @Test
+    public void gainDoublesAndClamps() {
+        PcmChain chain = new PcmChain().addStage(new GainStage(2.0f));
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+
+        byte[] data = toBytes(new short[]{1000, -1000, 30000, -30000});
+        chain.process(data, 0, data.length);
+        short[] out = toShorts(data);
+
+        assertEquals(2000, out[0]);
+        assertEquals(-2000, out[1]);
+        assertEquals(Short.MAX_VALUE, out[2]);
+        assertEquals(Short.MIN_VALUE, out[3]);
+    }
+
+    @Test
+    public void limiterKeepsPeaksBelowThreshold() {
+        PcmChain chain = PcmChain.createDefault();
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+
+        short[] samples = sine(BUFFER_BYTES / 2, 30000);
+        byte[] data = toBytes(samples);
+        chain.process(data, 0, data.length);
+
+        int limit = (int) (PcmChain.dbToLinear(-1f) * Short.MAX_VALUE) + 1;
+        for (short sample : toShorts(data)) {
+            assertTrue(Math.abs(sample) <= limit);
+        }
+    }
+
+    @Test
+    public void limiterAppliesGainBeforeClipping() {
+        PcmChain chain = PcmChain.createDefault();
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+
+        // 放大2倍后峰值超出16位范围，先截断再限幅会削平波峰
+        short[] samples = sine(BUFFER_BYTES / 2, 25000);
+        byte[] data = toBytes(samples);
+        chain.process(data, 0, data.length);
+        short[] out = toShorts(data);
+
+        // 第一个周期之后包络稳定在峰值附近，输出与输入成比例，波形没有被削平
+        int start = SAMPLE_RATE / 440 * 2;
+        float ratio = (float) out[start + 25] / samples[start + 25];
+        for (int i = start; i < samples.length; i++) {
+            if (Math.abs(samples[i]) > 20000) {
+                assertEquals(ratio, (float) out[i] / samples[i], 0.05f);
+            }
+        }
+    }
+
+    @Test
+    public void noiseGateAttenuatesQuietInput() {
+        PcmChain chain = new PcmChain().addStage(new NoiseGateStage(-50f, -30f, 10f));
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+
+        byte[] data = toBytes(sine(BUFFER_BYTES / 2, 50));
+        for (int i = 0; i < 10; i++) {
+            chain.process(data, 0, data.length);
+        }
+        for (short sample : toShorts(data)) {
+            assertTrue(Math.abs(sample) <= 2);
+        }
+    }
+
+    @Test
+    public void autoGainMovesTowardsTarget() {
+        AutoGainStage agc = new AutoGainStage(-18f, 20f, -55f);
+        PcmChain chain = new PcmChain().addStage(agc);
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+
+        short[] quiet = sine(BUFFER_BYTES / 2, 1000);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = toBytes(quiet);
+            chain.process(data, 0, data.length);
+        }
+        assertTrue(agc.getGain() > 1.5f);
+        assertTrue(agc.getGain() <= PcmChain.dbToLinear(20f) + 0.01f);
+    }
+
+    @Test
+    public void processDoesNotAllocate() {
+        PcmChain chain = fullChain();
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+        byte[] data = toBytes(noise(BUFFER_BYTES / 2, 8000));
+
+        // 预热，让JIT完成编译
+        for (int i = 0; i < 2000; i++) {
+            chain.process(data, 0, data.length);
+        }
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        long before = sunBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            chain.process(data, 0, data.length);
+        }
+        long allocated = sunBean.getThreadAllocatedBytes(threadId) - before;
+        // 允许测量本身的少量开销
+        assertTrue("稳态处理产生了分配: " + allocated + " 字节", allocated < 1024);
+    }
+
+    /**
+     * 单缓冲区耗时基准，耗时受机器负载影响，手动运行
+     */
+    @Ignore("基准测试，手动运行")
+    @Test
+    public void benchmarkPerBufferCost() {
+        PcmChain chain = fullChain();
+        chain.prepare(SAMPLE_RATE, BUFFER_BYTES);
+        byte[] data = toBytes(noise(BUFFER_BYTES / 2, 8000));
+
+        for (int i = 0; i < 5000; i++) {
+            chain.process(data, 0, data.length);
+        }
+
+        final int iterations = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            chain.process(data, 0, data.length);
+        }
+        long perBufferNs = (System.nanoTime() - start) / iterations;
+        long bufferDurationNs = (BUFFER_BYTES / 2) * 1_000_000_000L / SAMPLE_RATE;
+        // 处理耗时必须远小于缓冲区本身的实时时长
+        assertTrue(perBufferNs < bufferDurationNs / 10);
+    }
+
+    private static PcmChain fullChain() {
+        return new PcmChain()
+                .addStage(new NoiseGateStage(-50f, -30f, 50f))
+                .addStage(new AutoGainStage(-18f, 20f, -55f))
+                .addStage(new LimiterStage(2.0f, -1f, 50f));
+    }
+
+    private static short[] sine(int count, int amplitude) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static short[] noise(int count, int amplitude) {
+        Random random = new Random(42);
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) (random.nextGaussian() * amplitude / 3);
+        }
+        return samples;
+    }
+
+    private static byte[] toBytes(short[] samples) {
+        byte[] data = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            data[i * 2] = (byte) samples[i];
+            data[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return data;
+    }
+
+    private static short[] toShorts(byte[] data) {
+        short[] samples = new short[data.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((data[i * 2] & 0xff) | (data[i * 2 + 1] << 8));
+        }
+        return samples;
+    }
+}
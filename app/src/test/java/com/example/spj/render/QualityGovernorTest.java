@@ -0,0 +1,67 @@
+package com.example.spj.render;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 画质调节器的本地单元测试。
+ */
+public class QualityGovernorTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void staysAtFullQualityWithinBudget() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.setTargetFps(30);
+        for (int i = 0; i < 500; i++) {
+            assertFalse(governor.update(20 * MS));
+        }
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+        assertEquals(1.0, governor.getRenderScale(), 0);
+    }
+
+    @Test
+    public void degradesStepByStepWhenOverBudget() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.setTargetFps(30);
+        int changes = 0;
+        for (int i = 0; i < 200; i++) {
+            if (governor.update(40 * MS)) changes++;
+        }
+        assertEquals(3, changes);
+        assertEquals(QualityGovernor.LEVEL_LOW_RESOLUTION, governor.getLevel());
+        assertTrue(governor.useCheapEffects());
+        assertEquals(0.5, governor.getRenderScale(), 0);
+    }
+
+    @Test
+    public void singleSpikeDoesNotDegrade() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.setTargetFps(30);
+        for (int i = 0; i < 100; i++) {
+            governor.update(i == 50 ? 200 * MS : 10 * MS);
+        }
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+    }
+
+    @Test
+    public void recoversOnlyWhenHigherLevelWouldFit() {
+        QualityGovernor governor = new QualityGovernor();
+        governor.setTargetFps(30);
+        while (governor.getLevel() < QualityGovernor.LEVEL_LOW_RESOLUTION) {
+            governor.update(40 * MS);
+        }
+        // 半分辨率下12ms，恢复到0.75倍约27ms，超过预算的一半，不能升级
+        for (int i = 0; i < 500; i++) {
+            governor.update(12 * MS);
+        }
+        assertEquals(QualityGovernor.LEVEL_LOW_RESOLUTION, governor.getLevel());
+
+        // 4ms时升级后约9ms，可以升级
+        for (int i = 0; i < 500; i++) {
+            governor.update(4 * MS);
+        }
+        assertTrue(governor.getLevel() < QualityGovernor.LEVEL_LOW_RESOLUTION);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.spj.render.filters;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 颜色滤镜合并的本地单元测试。
+ */
+public class ShaderFuserTest {
+    private static final String INVERT =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 color = texture2D(vTexture, aCoord);\n" +
+                    "    gl_FragColor = vec4(1.0 - color.r, 1.0 - color.g, 1.0 - color.b, color.a);\n" +
+                    "}";
+
+    private static final String WARM =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec4 color = texture2D(vTexture, aCoord);\n" +
+                    "    // Warm tint (more red, slightly less blue)\n" +
+                    "    color.r = min(color.r * 1.2, 1.0);\n" +
+                    "    color.b = color.b * 0.8;\n" +
+                    "    gl_FragColor = color;\n" +
+                    "}";
+
+    private static final String BLUR =
+            "precision mediump float;\n" +
+                    "varying vec2 aCoord;\n" +
+                    "uniform sampler2D vTexture;\n" +
+                    "uniform int width;\n" +
+                    "\n" +
+                    "void main() {\n" +
+                    "    vec2 step = vec2(1.0 / float(width), 0.0);\n" +
+                    "    gl_FragColor = (texture2D(vTexture, aCoord - step) + texture2D(vTexture, aCoord + step)) * 0.5;\n" +
+                    "}";
+
+    @Test
+    public void detectsPointWiseShaders() {
+        assertTrue(ShaderFuser.isFusable(INVERT));
+        assertTrue(ShaderFuser.isFusable(WARM));
+        assertFalse(ShaderFuser.isFusable(BLUR));
+        assertFalse(ShaderFuser.isFusable(WARM.replace("gl_FragColor = color;", "if (color.r > 0.5) discard;")));
+    }
+
+    @Test
+    public void fusedShaderSamplesOnceAndCallsStagesInOrder() {
+        String fused = ShaderFuser.fuse(Arrays.asList(INVERT, WARM));
+        assertNotNull(fused);
+        assertEquals(1, occurrences(fused, "texture2D("));
+        assertEquals(1, occurrences(fused, "gl_FragColor"));
+        int first = fused.indexOf("color = clamp(fused_stage0(color)");
+        int second = fused.indexOf("color = clamp(fused_stage1(color)");
+        assertTrue(first > 0 && second > first);
+        // 注释被去掉，原来的采样被替换成函数参数
+        assertFalse(fused.contains("Warm tint"));
+        assertTrue(fused.contains("vec4 color = fused_in;"));
+    }
+
+    @Test
+    public void refusesToFuseNonPointWiseShader() {
+        assertNull(ShaderFuser.fuse(Arrays.asList(INVERT, BLUR)));
+    }
+
+    private static int occurrences(String text, String token) {
+        int n = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + 1)) n++;
+        return n;
+    }
+}
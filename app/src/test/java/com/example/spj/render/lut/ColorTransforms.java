@@ -0,0 +1,91 @@
+package com.example.spj.render.lut;
+
+/**
+ * 内置颜色滤镜的CPU实现，与FilterManager中的内置着色器和res/raw下的着色器逐行对应，
+ * 作为测试LutBaker烘焙精度和组合顺序的参考变换。
+ */
+final class ColorTransforms {
+
+    private ColorTransforms() {
+    }
+
+    // 反转滤镜
+    public static final ColorTransform INVERT = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            rgb[0] = 1f - rgb[0];
+            rgb[1] = 1f - rgb[1];
+            rgb[2] = 1f - rgb[2];
+        }
+    };
+
+    // 黑白滤镜
+    public static final ColorTransform GRAYSCALE = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            float gray = luma(rgb[0], rgb[1], rgb[2]);
+            rgb[0] = gray;
+            rgb[1] = gray;
+            rgb[2] = gray;
+        }
+    };
+
+    // 复古滤镜
+    public static final ColorTransform SEPIA = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            float r = rgb[0], g = rgb[1], b = rgb[2];
+            rgb[0] = r * 0.393f + g * 0.769f + b * 0.189f;
+            rgb[1] = r * 0.349f + g * 0.686f + b * 0.168f;
+            rgb[2] = r * 0.272f + g * 0.534f + b * 0.131f;
+        }
+    };
+
+    // shader_warm_effect
+    public static final ColorTransform WARM = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            rgb[0] = Math.min(rgb[0] * 1.2f, 1f);
+            rgb[2] = rgb[2] * 0.8f;
+        }
+    };
+
+    // shader_cool_effect
+    public static final ColorTransform COOL = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            rgb[0] = rgb[0] * 0.8f;
+            rgb[2] = Math.min(rgb[2] * 1.2f, 1f);
+        }
+    };
+
+    // shader_fuji_nc
+    public static final ColorTransform FUJI_NC = new ColorTransform() {
+        @Override
+        public void apply(float[] rgb) {
+            float r = rgb[0], g = rgb[1], b = rgb[2];
+            float fr = r * 1.12f - g * 0.07f + b * 0.05f;
+            float fg = r * 0.08f + g * 1.22f - b * 0.05f;
+            float fb = -r * 0.16f + g * 0.1f + b * 1.25f;
+
+            // mix(vec3(luma), fuji, 1.15)
+            float l = luma(fr, fg, fb);
+            fr = l + (fr - l) * 1.15f;
+            fg = l + (fg - l) * 1.15f;
+            fb = l + (fb - l) * 1.15f;
+
+            // GLSL中负数的pow结果未定义，随后会被截断，这里按0处理
+            rgb[0] = pow(fr, 0.95f);
+            rgb[1] = pow(fg, 0.95f);
+            rgb[2] = pow(fb, 0.95f);
+        }
+    };
+
+    private static float luma(float r, float g, float b) {
+        return r * 0.299f + g * 0.587f + b * 0.114f;
+    }
+
+    private static float pow(float v, float exponent) {
+        return v <= 0f ? 0f : (float) Math.pow(v, exponent);
+    }
+}
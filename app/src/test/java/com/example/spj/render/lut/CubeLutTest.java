@@ -0,0 +1,102 @@
+package com.example.spj.render.lut;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * .cube文件读写的本地单元测试。
+ */
+public class CubeLutTest {
+
+    @Test
+    public void parsesRedFastestOrder() throws IOException {
+        String cube = "# comment\n" +
+                "TITLE \"Swap\"\n" +
+                "LUT_3D_SIZE 2\n" +
+                "0 0 0\n" +
+                "1 0 0\n" +
+                "0 1 0\n" +
+                "1 1 0\n" +
+                "0 0 1\n" +
+                "1 0 1\n" +
+                "0 1 1\n" +
+                "1 1 1\n";
+        CubeLut lut = CubeLut.parse(new StringReader(cube));
+        assertEquals("Swap", lut.getTitle());
+        assertEquals(2, lut.getSize());
+
+        float[] rgb = new float[3];
+        lut.get(1, 0, 0, rgb);
+        assertEquals(1.0, rgb[0], 0);
+        assertEquals(0.0, rgb[1], 0);
+        lut.get(0, 1, 1, rgb);
+        assertEquals(0.0, rgb[0], 0);
+        assertEquals(1.0, rgb[1], 0);
+        assertEquals(1.0, rgb[2], 0);
+    }
+
+    @Test
+    public void writeThenParseRoundTrips() throws IOException {
+        CubeLut lut = LutBaker.bake(ColorTransforms.FUJI_NC, 9);
+        lut.setTitle("Fuji");
+        StringWriter writer = new StringWriter();
+        lut.write(writer);
+
+        CubeLut parsed = CubeLut.parse(new StringReader(writer.toString()));
+        assertEquals("Fuji", parsed.getTitle());
+        float[] a = new float[3];
+        float[] b = new float[3];
+        for (int i = 0; i < 9; i++) {
+            lut.get(i, 8 - i, i / 2, a);
+            parsed.get(i, 8 - i, i / 2, b);
+            for (int c = 0; c < 3; c++) {
+                assertEquals(a[c], b[c], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void remapsCustomDomain() throws IOException {
+        // 定义域[0,2]的恒等表，映射到[0,1]输入后应该把值减半
+        StringBuilder cube = new StringBuilder("LUT_3D_SIZE 2\nDOMAIN_MIN 0 0 0\nDOMAIN_MAX 2 2 2\n");
+        for (int i = 0; i < 8; i++) {
+            cube.append(i & 1).append(' ').append((i >> 1) & 1).append(' ').append((i >> 2) & 1).append('\n');
+        }
+        CubeLut lut = CubeLut.parse(new StringReader(cube.toString()));
+        float[] rgb = {1f, 0.5f, 0f};
+        lut.apply(rgb);
+        assertEquals(0.5, rgb[0], 1e-3);
+        assertEquals(0.25, rgb[1], 1e-3);
+        assertEquals(0.0, rgb[2], 1e-3);
+    }
+
+    @Test
+    public void rejectsTruncatedFile() {
+        try {
+            CubeLut.parse(new StringReader("LUT_3D_SIZE 2\n0 0 0\n1 0 0\n"));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("2/8"));
+        }
+    }
+
+    @Test
+    public void tiledLayoutPlacesBlueSlicesSideBySide() {
+        CubeLut lut = LutBaker.bake(new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+            }
+        }, 3);
+        byte[] tiled = lut.toTiledRgbBytes();
+        // 第0行第5个纹素：蓝色第1层，红色2
+        int texel = 5 * 3;
+        assertEquals(255, tiled[texel] & 0xff);
+        assertEquals(0, tiled[texel + 1] & 0xff);
+        assertEquals(128, tiled[texel + 2] & 0xff);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.spj.render.lut;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 查找表烘焙的本地单元测试：烘焙后查表的结果与直接计算的参考值比较。
+ */
+public class LutBakerTest {
+    // 33格点下三线性插值的误差：截断形成的折点附近最大约4个8位色阶，平均不到半个色阶
+    private static final float TOLERANCE = 4f / 255f;
+    private static final float MEAN_TOLERANCE = 0.5f / 255f;
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void identityLutIsExactOnGridAndBetween() {
+        CubeLut lut = LutBaker.bake(new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+            }
+        }, 17);
+        assertMaxError(lut, new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+            }
+        }, 1e-5f);
+    }
+
+    @Test
+    public void bakedBuiltinEffectsMatchReference() {
+        ColorTransform[] transforms = {
+                ColorTransforms.INVERT, ColorTransforms.GRAYSCALE, ColorTransforms.SEPIA,
+                ColorTransforms.WARM, ColorTransforms.COOL, ColorTransforms.FUJI_NC};
+        for (ColorTransform transform : transforms) {
+            CubeLut lut = LutBaker.bake(transform, LutBaker.DEFAULT_SIZE);
+            assertMaxError(lut, clamped(transform), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void sepiaClampsLikeFramebuffer() {
+        CubeLut lut = LutBaker.bake(ColorTransforms.SEPIA, LutBaker.DEFAULT_SIZE);
+        float[] rgb = {1f, 1f, 1f};
+        lut.apply(rgb);
+        assertEquals(1.0, rgb[0], 1e-6);
+        assertEquals(1.0, rgb[1], 1e-6);
+        assertEquals(0.937, rgb[2], 1e-3);
+    }
+
+    @Test
+    public void composedLutMatchesSequentialApplication() {
+        CubeLut composed = LutBaker.compose(
+                Arrays.asList(ColorTransforms.WARM, ColorTransforms.SEPIA, ColorTransforms.FUJI_NC),
+                LutBaker.DEFAULT_SIZE);
+        final ColorTransform[] chain = {ColorTransforms.WARM, ColorTransforms.SEPIA, ColorTransforms.FUJI_NC};
+        assertMaxError(composed, new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+                for (ColorTransform transform : chain) {
+                    clamped(transform).apply(rgb);
+                }
+            }
+        }, 2 * TOLERANCE);
+    }
+
+    private static ColorTransform clamped(final ColorTransform transform) {
+        return new ColorTransform() {
+            @Override
+            public void apply(float[] rgb) {
+                transform.apply(rgb);
+                for (int c = 0; c < 3; c++) {
+                    rgb[c] = Math.max(0f, Math.min(1f, rgb[c]));
+                }
+            }
+        };
+    }
+
+    private static void assertMaxError(CubeLut lut, ColorTransform reference, float tolerance) {
+        Random random = new Random(42);
+        float[] actual = new float[3];
+        float[] expected = new float[3];
+        float maxError = 0f;
+        double totalError = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            for (int c = 0; c < 3; c++) {
+                actual[c] = expected[c] = random.nextFloat();
+            }
+            lut.apply(actual);
+            reference.apply(expected);
+            for (int c = 0; c < 3; c++) {
+                float error = Math.abs(actual[c] - expected[c]);
+                maxError = Math.max(maxError, error);
+                totalError += error;
+            }
+        }
+        assertTrue("最大误差 " + maxError, maxError <= tolerance);
+        assertTrue("平均误差 " + totalError / (SAMPLES * 3), totalError / (SAMPLES * 3) <= MEAN_TOLERANCE);
+    }
+}